@@ -0,0 +1,211 @@
+package benchmarks;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.BenchmarkParams;
+
+import components.map.Map;
+
+/**
+ * JMH contention benchmark: throughput of a mixed {@code hasKey}/{@code add}/
+ * {@code remove} workload, {@code WRITE_PERCENT} percent updates, on one
+ * {@code ConcurrentMap4} or one {@code Map4} behind a global lock, shared by
+ * every benchmark thread.
+ * <p>
+ * Build {@code target/benchmarks.jar} with {@code bench/pom.xml}, then sweep
+ * the number of threads with one run per count, from {@code bench}:
+ *
+ * <pre>
+ * for t in 1 2 4 8; do
+ *     java -jar target/benchmarks.jar ConcurrentMap4Benchmark -t $t
+ * done
+ * </pre>
+ *
+ * Without {@code -t} the {@code @Threads} default is used. A
+ * {@code ConcurrentMap4} gets {@code STRIPES_PER_THREAD} stripes per
+ * thread. As in {@code MapBenchmark}, the maps of {@code src} are
+ * constructed reflectively and used through the {@code components.map.Map}
+ * interface.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 2, jvmArgsAppend = { "-Xms4g", "-Xmx4g" })
+@Threads(4)
+@State(Scope.Benchmark)
+public class ConcurrentMap4Benchmark {
+
+    /**
+     * Implementation under test: a striped {@code ConcurrentMap4}, or a
+     * {@code Map4} every call to which holds one lock.
+     */
+    @Param({ "ConcurrentMap4", "GlobalLockMap4" })
+    private String impl;
+
+    /**
+     * Number of distinct keys in the workload.
+     */
+    private static final int KEYS = 1 << 20;
+
+    /**
+     * Percentage of operations that update the map.
+     */
+    private static final int WRITE_PERCENT = 20;
+
+    /**
+     * Percent.
+     */
+    private static final int HUNDRED = 100;
+
+    /**
+     * Number of {@code ConcurrentMap4} stripes per benchmark thread.
+     */
+    private static final int STRIPES_PER_THREAD = 4;
+
+    /**
+     * The shared map.
+     */
+    private Map<Integer, Integer> map;
+
+    /**
+     * Lock held around every call, or {@code null}.
+     */
+    private Object lock;
+
+    /**
+     * Number of threads that have taken an index.
+     */
+    private final AtomicInteger nextIndex = new AtomicInteger();
+
+    /**
+     * Creates the map and fills it with every other key, the population
+     * the toggling updates keep it near.
+     *
+     * @param params
+     *            parameters of the run, giving the number of threads
+     * @throws ReflectiveOperationException
+     *             if a class of {@code src} cannot be constructed
+     */
+    @SuppressWarnings("unchecked")
+    @Setup(Level.Trial)
+    public void setUp(BenchmarkParams params)
+            throws ReflectiveOperationException {
+        if (this.impl.equals("ConcurrentMap4")) {
+            this.map = (Map<Integer, Integer>) Class.forName("ConcurrentMap4")
+                    .getConstructor(int.class)
+                    .newInstance(STRIPES_PER_THREAD * params.getThreads());
+            this.lock = null;
+        } else {
+            this.map = (Map<Integer, Integer>) Class.forName("Map4")
+                    .getConstructor().newInstance();
+            this.lock = this.map;
+        }
+        for (int key = 0; key < KEYS; key += 2) {
+            this.map.add(key, key);
+        }
+    }
+
+    /**
+     * Per-thread state: the keys a thread owns, those congruent to its index
+     * modulo the number of threads, which only it updates.
+     */
+    @State(Scope.Thread)
+    public static class Owner {
+
+        /**
+         * Index of the thread.
+         */
+        private int index;
+
+        /**
+         * Number of threads.
+         */
+        private int threads;
+
+        /**
+         * Takes the next thread index.
+         *
+         * @param bench
+         *            the shared benchmark state
+         * @param params
+         *            parameters of the run, giving the number of threads
+         */
+        @Setup(Level.Trial)
+        public void setUp(ConcurrentMap4Benchmark bench,
+                BenchmarkParams params) {
+            this.threads = params.getThreads();
+            this.index = bench.nextIndex.getAndIncrement() % this.threads;
+        }
+
+    }
+
+    /**
+     * Performs one operation on the map; updates toggle the presence of
+     * {@code key}, reads check for it.
+     *
+     * @param key
+     *            the key
+     * @param write
+     *            whether to update rather than read
+     * @return whether {@code key} was present
+     */
+    private boolean step(Integer key, boolean write) {
+        boolean present = this.map.hasKey(key);
+        if (write) {
+            /*
+             * Only the owner of a key updates it, so this check-then-act is
+             * not racy
+             */
+            if (present) {
+                this.map.remove(key);
+            } else {
+                this.map.add(key, key);
+            }
+        }
+        return present;
+    }
+
+    /**
+     * One random read or update, the update on a key the calling thread
+     * owns.
+     *
+     * @param owner
+     *            the keys of the calling thread
+     * @return whether the key was present
+     */
+    @Benchmark
+    public boolean mixed(Owner owner) {
+        ThreadLocalRandom rnd = ThreadLocalRandom.current();
+        boolean write = rnd.nextInt(HUNDRED) < WRITE_PERCENT;
+        int key = rnd.nextInt(KEYS);
+        if (write) {
+            key = key - key % owner.threads + owner.index;
+            if (key >= KEYS) {
+                key -= owner.threads;
+            }
+        }
+        if (this.lock == null) {
+            return this.step(key, write);
+        }
+        synchronized (this.lock) {
+            return this.step(key, write);
+        }
+    }
+
+}
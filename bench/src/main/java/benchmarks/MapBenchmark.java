@@ -0,0 +1,567 @@
+package benchmarks;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import components.map.Map;
+
+/**
+ * JMH benchmarks of {@code Map4}, at several hash table sizes, against
+ * {@code Map1L}, {@code Map2} and {@code java.util.HashMap}: {@code add},
+ * {@code value}, {@code hasKey} (hit and miss), {@code remove},
+ * {@code removeAny} drain and full iteration, for {@code String},
+ * {@code Integer} and colliding keys and for 10 up to 10^5 pairs.
+ * <p>
+ * Build {@code target/benchmarks.jar} with {@code bench/pom.xml}, then run
+ * from {@code bench}, for example:
+ *
+ * <pre>
+ * java -jar target/benchmarks.jar MapBenchmark -prof gc
+ * java -jar target/benchmarks.jar MapBenchmark \
+ *     -p impl=Map4,Map4_1009,Map4Sized,HashMap -p size=10000000 -prof gc
+ * </pre>
+ *
+ * {@code -prof gc} reports the allocation rate per operation. {@code Map1L}
+ * and {@code Map2} search linearly, so 10^7 pairs would take hours to set
+ * up; that size is left out of the defaults and, as in the second example,
+ * only ever requested for the hashing maps. {@code setUp} rejects
+ * {@code Map1L} and {@code Map2} with more than {@code LINEAR_LIMIT} pairs.
+ * <p>
+ * The classes of {@code src} are in the unnamed package, which a JMH
+ * benchmark (in a named package) cannot import, so the maps under test are
+ * constructed reflectively in the setup methods and used through the
+ * {@code components.map.Map} interface; nothing reflective is measured.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 2, jvmArgsAppend = { "-Xms4g", "-Xmx4g" })
+@State(Scope.Thread)
+public class MapBenchmark {
+
+    /**
+     * Implementation under test: {@code Map4} with 101 buckets (the default),
+     * 1009 buckets, or a power-of-two table sized to {@code size}; or one of
+     * the comparison maps.
+     */
+    @Param({ "Map4", "Map4_1009", "Map4Sized", "Map1L", "Map2", "HashMap" })
+    private String impl;
+
+    /**
+     * Kind of key: {@code String}, {@code Integer}, or {@code Colliding}
+     * keys of which every group of {@code COLLISION_GROUP} shares a hash code.
+     */
+    @Param({ "String", "Integer", "Colliding" })
+    private String keyType;
+
+    /**
+     * Number of pairs in the map.
+     */
+    @Param({ "10", "1000", "100000" })
+    private int size;
+
+    /**
+     * Number of consecutive keys sharing a hash code for {@code Colliding}.
+     */
+    private static final int COLLISION_GROUP = 64;
+
+    /**
+     * Largest {@code size} run for the linear-time {@code Map1L} and
+     * {@code Map2}.
+     */
+    private static final int LINEAR_LIMIT = 100000;
+
+    /**
+     * Number of buckets of {@code Map4_1009}.
+     */
+    private static final int PRIME_TABLE_SIZE = 1009;
+
+    /**
+     * Ratio of pairs to buckets of a sized {@code Map4}.
+     */
+    private static final double LOAD_FACTOR = 0.75;
+
+    /**
+     * Key whose hash code is shared by a group of {@code COLLISION_GROUP}
+     * consecutive ids; {@code Comparable}, as well-behaved keys usually are.
+     */
+    public static final class CollidingKey
+            implements Comparable<CollidingKey> {
+
+        /**
+         * Distinguishing value.
+         */
+        private final int id;
+
+        /**
+         * Constructor.
+         *
+         * @param id
+         *            distinguishing value
+         */
+        CollidingKey(int id) {
+            this.id = id;
+        }
+
+        @Override
+        public int hashCode() {
+            return this.id / COLLISION_GROUP;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            return obj instanceof CollidingKey
+                    && ((CollidingKey) obj).id == this.id;
+        }
+
+        @Override
+        public int compareTo(CollidingKey other) {
+            return Integer.compare(this.id, other.id);
+        }
+
+    }
+
+    /**
+     * Uniform view of the maps under test.
+     */
+    private interface Target {
+
+        /**
+         * Adds ({@code key}, {@code value}).
+         *
+         * @param key
+         *            the key, not present
+         * @param value
+         *            the value
+         */
+        void add(Object key, Object value);
+
+        /**
+         * Reports the value of {@code key}.
+         *
+         * @param key
+         *            the key, present
+         * @return its value
+         */
+        Object value(Object key);
+
+        /**
+         * Reports whether {@code key} is present.
+         *
+         * @param key
+         *            the key
+         * @return true iff present
+         */
+        boolean hasKey(Object key);
+
+        /**
+         * Removes {@code key}.
+         *
+         * @param key
+         *            the key, present
+         * @return the removed value
+         */
+        Object remove(Object key);
+
+        /**
+         * Removes some pair.
+         *
+         * @return the removed key
+         */
+        Object removeAny();
+
+        /**
+         * Reports the number of pairs.
+         *
+         * @return the size
+         */
+        int size();
+
+        /**
+         * Visits every pair.
+         *
+         * @param bh
+         *            consumer of the visited keys and values
+         */
+        void iterate(Blackhole bh);
+
+    }
+
+    /**
+     * {@code Target} over an OSU {@code Map}.
+     */
+    private static final class ComponentsTarget implements Target {
+
+        /**
+         * The map.
+         */
+        private final Map<Object, Object> map;
+
+        /**
+         * Constructor.
+         *
+         * @param map
+         *            the map
+         */
+        ComponentsTarget(Map<Object, Object> map) {
+            this.map = map;
+        }
+
+        @Override
+        public void add(Object key, Object value) {
+            this.map.add(key, value);
+        }
+
+        @Override
+        public Object value(Object key) {
+            return this.map.value(key);
+        }
+
+        @Override
+        public boolean hasKey(Object key) {
+            return this.map.hasKey(key);
+        }
+
+        @Override
+        public Object remove(Object key) {
+            return this.map.remove(key).value();
+        }
+
+        @Override
+        public Object removeAny() {
+            return this.map.removeAny().key();
+        }
+
+        @Override
+        public int size() {
+            return this.map.size();
+        }
+
+        @Override
+        public void iterate(Blackhole bh) {
+            for (Map.Pair<Object, Object> p : this.map) {
+                bh.consume(p.key());
+                bh.consume(p.value());
+            }
+        }
+
+    }
+
+    /**
+     * {@code Target} over a {@code java.util.HashMap}.
+     */
+    private static final class HashMapTarget implements Target {
+
+        /**
+         * The map.
+         */
+        private final HashMap<Object, Object> map;
+
+        /**
+         * Constructor.
+         *
+         * @param map
+         *            the map
+         */
+        HashMapTarget(HashMap<Object, Object> map) {
+            this.map = map;
+        }
+
+        @Override
+        public void add(Object key, Object value) {
+            this.map.put(key, value);
+        }
+
+        @Override
+        public Object value(Object key) {
+            return this.map.get(key);
+        }
+
+        @Override
+        public boolean hasKey(Object key) {
+            return this.map.containsKey(key);
+        }
+
+        @Override
+        public Object remove(Object key) {
+            return this.map.remove(key);
+        }
+
+        @Override
+        public Object removeAny() {
+            Iterator<Object> it = this.map.keySet().iterator();
+            Object key = it.next();
+            it.remove();
+            return key;
+        }
+
+        @Override
+        public int size() {
+            return this.map.size();
+        }
+
+        @Override
+        public void iterate(Blackhole bh) {
+            for (java.util.Map.Entry<Object, Object> e : this.map.entrySet()) {
+                bh.consume(e.getKey());
+                bh.consume(e.getValue());
+            }
+        }
+
+    }
+
+    /**
+     * Keys present in the map.
+     */
+    private Object[] present;
+
+    /**
+     * Keys never added to the map.
+     */
+    private Object[] absent;
+
+    /**
+     * Map under test, holding {@code present}.
+     */
+    private Target target;
+
+    /**
+     * Position in {@code present} and {@code absent} of the next lookup.
+     */
+    private int cursor;
+
+    /**
+     * Returns the key numbered {@code i} of the current key type.
+     *
+     * @param i
+     *            the key number
+     * @return the key
+     */
+    private Object key(int i) {
+        switch (this.keyType) {
+            case "String":
+                return "key-" + i;
+            case "Integer":
+                return Integer.valueOf(i);
+            default:
+                return new CollidingKey(i);
+        }
+    }
+
+    /**
+     * Creates an empty map of the current implementation.
+     *
+     * @return the empty map
+     * @throws ReflectiveOperationException
+     *             if a class of {@code src} cannot be constructed
+     */
+    @SuppressWarnings("unchecked")
+    private Target newTarget() throws ReflectiveOperationException {
+        if (this.impl.equals("HashMap")) {
+            return new HashMapTarget(new HashMap<Object, Object>());
+        }
+        Object map;
+        switch (this.impl) {
+            case "Map4_1009":
+                map = Class.forName("Map4").getConstructor(int.class)
+                        .newInstance(PRIME_TABLE_SIZE);
+                break;
+            case "Map4Sized":
+                map = Class.forName("Map4").getConstructor(int.class)
+                        .newInstance(Integer.highestOneBit(
+                                (int) (this.size / LOAD_FACTOR)) * 2);
+                break;
+            case "Map1L":
+                map = new components.map.Map1L<Object, Object>();
+                break;
+            case "Map2":
+                map = new components.map.Map2<Object, Object>();
+                break;
+            default:
+                map = Class.forName(this.impl).getConstructor().newInstance();
+                break;
+        }
+        return new ComponentsTarget((Map<Object, Object>) map);
+    }
+
+    /**
+     * Builds the keys and fills the map.
+     *
+     * @throws ReflectiveOperationException
+     *             if a class of {@code src} cannot be constructed
+     */
+    @Setup(Level.Trial)
+    public void setUp() throws ReflectiveOperationException {
+        if ((this.impl.equals("Map1L") || this.impl.equals("Map2"))
+                && this.size > LINEAR_LIMIT) {
+            throw new IllegalArgumentException(this.impl
+                    + " is linear-time; run it with size <= " + LINEAR_LIMIT);
+        }
+        this.present = new Object[this.size];
+        this.absent = new Object[this.size];
+        for (int i = 0; i < this.size; i++) {
+            this.present[i] = this.key(2 * i);
+            this.absent[i] = this.key(2 * i + 1);
+        }
+        /*
+         * Look keys up in an order unrelated to insertion order
+         */
+        java.util.Collections.shuffle(java.util.Arrays.asList(this.absent),
+                new java.util.Random(1));
+        this.target = this.newTarget();
+        for (int i = 0; i < this.size; i++) {
+            this.target.add(this.present[i], this.present[i]);
+        }
+        java.util.Collections.shuffle(java.util.Arrays.asList(this.present),
+                new java.util.Random(2));
+        this.cursor = 0;
+    }
+
+    /**
+     * Returns the index of the next lookup.
+     *
+     * @return the next index into {@code present} and {@code absent}
+     */
+    private int next() {
+        int i = this.cursor;
+        this.cursor = (i + 1 == this.size) ? 0 : i + 1;
+        return i;
+    }
+
+    /**
+     * {@code value} of a present key.
+     *
+     * @return the value found
+     */
+    @Benchmark
+    public Object valueHit() {
+        return this.target.value(this.present[this.next()]);
+    }
+
+    /**
+     * {@code hasKey} of a present key.
+     *
+     * @return true
+     */
+    @Benchmark
+    public boolean hasKeyHit() {
+        return this.target.hasKey(this.present[this.next()]);
+    }
+
+    /**
+     * {@code hasKey} of an absent key.
+     *
+     * @return false
+     */
+    @Benchmark
+    public boolean hasKeyMiss() {
+        return this.target.hasKey(this.absent[this.next()]);
+    }
+
+    /**
+     * {@code add} of an absent key, undone by a {@code remove} so that the
+     * size stays fixed; compare with {@code removeThenAdd}.
+     *
+     * @return the removed value
+     */
+    @Benchmark
+    public Object addThenRemove() {
+        Object key = this.absent[this.next()];
+        this.target.add(key, key);
+        return this.target.remove(key);
+    }
+
+    /**
+     * {@code remove} of a present key, undone by an {@code add}.
+     *
+     * @return the removed value
+     */
+    @Benchmark
+    public Object removeThenAdd() {
+        Object key = this.present[this.next()];
+        Object value = this.target.remove(key);
+        this.target.add(key, value);
+        return value;
+    }
+
+    /**
+     * Iteration over every pair; divide by {@code size} for the cost per
+     * pair.
+     *
+     * @param bh
+     *            consumer of the visited pairs
+     */
+    @Benchmark
+    public void iterate(Blackhole bh) {
+        this.target.iterate(bh);
+    }
+
+    /**
+     * State for {@code drain}: a map filled afresh before every invocation.
+     */
+    @State(Scope.Thread)
+    public static class Filled {
+
+        /**
+         * The filled map.
+         */
+        private Target target;
+
+        /**
+         * Fills a new map with the keys of {@code bench}.
+         *
+         * @param bench
+         *            the benchmark state holding the parameters and keys
+         * @throws ReflectiveOperationException
+         *             if a class of {@code src} cannot be constructed
+         */
+        @Setup(Level.Invocation)
+        public void fill(MapBenchmark bench)
+                throws ReflectiveOperationException {
+            this.target = bench.newTarget();
+            for (Object key : bench.present) {
+                this.target.add(key, key);
+            }
+        }
+
+    }
+
+    /**
+     * {@code removeAny} until the map is empty; divide by {@code size} for
+     * the cost per pair. Measured as single invocations, since each needs a
+     * freshly filled map.
+     *
+     * @param filled
+     *            the map to drain
+     * @param bh
+     *            consumer of the removed keys
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    @Warmup(iterations = 10, batchSize = 1)
+    @Measurement(iterations = 20, batchSize = 1)
+    public void drain(Filled filled, Blackhole bh) {
+        Target t = filled.target;
+        while (t.size() > 0) {
+            bh.consume(t.removeAny());
+        }
+    }
+
+}
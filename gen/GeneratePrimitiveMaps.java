@@ -0,0 +1,227 @@
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Generates {@code IntMap4}, {@code LongMap4}, {@code IntIntMap4} and
+ * {@code LongLongMap4} and their tests from {@code gen/PrimitiveMap4.template}
+ * and {@code gen/PrimitiveMap4Test.template}.
+ * <p>
+ * Run from the project root, either directly (Java 11 or later):
+ *
+ * <pre>
+ * java gen/GeneratePrimitiveMaps.java
+ * </pre>
+ *
+ * or after compiling it:
+ *
+ * <pre>
+ * javac -d /tmp/gen gen/GeneratePrimitiveMaps.java
+ * java -cp /tmp/gen GeneratePrimitiveMaps
+ * </pre>
+ *
+ * With the argument {@code --check} it writes nothing and fails if any
+ * generated file differs from what the templates produce.
+ * <p>
+ * A template is copied line by line with every {@code ${name}} replaced by
+ * the value of {@code name} for the variant. Lines {@code #if OBJECT_VALUES},
+ * {@code #else} and {@code #end} keep the lines between them only for the
+ * variants whose values are objects, or only for the others.
+ *
+ * @author Simon Manning & Nam Nguyen
+ *
+ */
+public final class GeneratePrimitiveMaps {
+
+    /**
+     * No-argument constructor--private to prevent instantiation.
+     */
+    private GeneratePrimitiveMaps() {
+    }
+
+    /**
+     * Substituted names.
+     */
+    private static final Pattern TOKEN = Pattern.compile("\\$\\{(\\w+)\\}");
+
+    /**
+     * Returns the substitutions for one variant.
+     *
+     * @param map
+     *            the class name
+     * @param key
+     *            the key type, {@code int} or {@code long}
+     * @param value
+     *            the value type, {@code null} for object values
+     * @return the substitutions, with {@code OBJECT_VALUES} set to
+     *         {@code "true"} or {@code "false"}
+     */
+    private static Map<String, String> variant(String map, String key,
+            String value) {
+        boolean objects = value == null;
+        boolean longKeys = key.equals("long");
+        Map<String, String> v = new HashMap<>();
+        v.put("OBJECT_VALUES", Boolean.toString(objects));
+        v.put("Map", map);
+        v.put("key", key);
+        v.put("Key", longKeys ? "Long" : "Integer");
+        v.put("mixKey", longKeys ? "(int) Hashing.mix64(key)"
+                : "Hashing.mix32(key)");
+        v.put("extremeKey",
+                longKeys ? "Long.MAX_VALUE" : "Integer.MIN_VALUE");
+        v.put("index", longKeys ? "(int) key" : "key");
+        if (objects) {
+            v.put("Generic", "<V>");
+            v.put("value", "V");
+            v.put("valueElement", "Object");
+            v.put("noValue", "null");
+            v.put("cast", "(V) ");
+            v.put("MapType", map + "<String>");
+            v.put("testValue", "String");
+            v.put("Value", "String");
+            v.put("v1", "\"a\"");
+            v.put("v2", "\"b\"");
+            v.put("v3", "\"c\"");
+            v.put("valueOfI", "\"v\" + i");
+            v.put("valueOfKey", "\"v\" + key");
+            v.put("valueOfOp", "\"v\" + op");
+            v.put("unbox", "");
+        } else {
+            v.put("Generic", "");
+            v.put("value", value);
+            v.put("valueElement", value);
+            v.put("noValue", "0");
+            v.put("cast", "");
+            v.put("MapType", map);
+            v.put("testValue", value);
+            v.put("Value", value.equals("long") ? "Long" : "Integer");
+            v.put("v1", "1");
+            v.put("v2", "2");
+            v.put("v3", "3");
+            v.put("valueOfI", "3 * i");
+            v.put("valueOfKey", "3 * key");
+            v.put("valueOfOp", "op");
+            v.put("unbox", ".longValue()");
+        }
+        return v;
+    }
+
+    /**
+     * Expands {@code template} for the variant {@code v}.
+     *
+     * @param template
+     *            the template lines
+     * @param v
+     *            the substitutions
+     * @return the generated source
+     */
+    private static String expand(List<String> template,
+            Map<String, String> v) {
+        boolean objects = Boolean.parseBoolean(v.get("OBJECT_VALUES"));
+        StringBuilder out = new StringBuilder();
+        /*
+         * 0 outside a conditional, 1 in its first branch, 2 in its second
+         */
+        int branch = 0;
+        for (String line : template) {
+            String directive = line.trim();
+            if (directive.equals("#if OBJECT_VALUES")) {
+                branch = 1;
+            } else if (directive.equals("#else")) {
+                branch = 2;
+            } else if (directive.equals("#end")) {
+                branch = 0;
+            } else if (branch == 0 || (branch == 1) == objects) {
+                Matcher m = TOKEN.matcher(line);
+                StringBuffer expanded = new StringBuffer();
+                while (m.find()) {
+                    String replacement = v.get(m.group(1));
+                    if (replacement == null) {
+                        throw new IllegalArgumentException(
+                                "Unknown name: " + m.group());
+                    }
+                    m.appendReplacement(expanded,
+                            Matcher.quoteReplacement(replacement));
+                }
+                m.appendTail(expanded);
+                out.append(expanded).append('\n');
+            }
+        }
+        return out.toString();
+    }
+
+    /**
+     * Writes, or with {@code --check} compares, every generated file.
+     *
+     * @param args
+     *            {@code --check}, or nothing
+     * @throws IOException
+     *             if a template cannot be read or a file written
+     */
+    public static void main(String[] args) throws IOException {
+        boolean check = args.length > 0 && args[0].equals("--check");
+        List<String> source = Files.readAllLines(
+                Paths.get("gen", "PrimitiveMap4.template"),
+                StandardCharsets.UTF_8);
+        List<String> test = Files.readAllLines(
+                Paths.get("gen", "PrimitiveMap4Test.template"),
+                StandardCharsets.UTF_8);
+        @SuppressWarnings("unchecked")
+        Map<String, String>[] variants = new Map[] {
+                variant("IntMap4", "int", null),
+                variant("LongMap4", "long", null),
+                variant("IntIntMap4", "int", "int"),
+                variant("LongLongMap4", "long", "long") };
+        boolean stale = false;
+        for (Map<String, String> v : variants) {
+            String name = v.get("Map");
+            stale |= emit(Paths.get("src", name + ".java"),
+                    expand(source, v), check);
+            stale |= emit(Paths.get("test", name + "Test.java"),
+                    expand(test, v), check);
+        }
+        if (stale) {
+            System.err.println("Generated files are out of date; run "
+                    + "java gen/GeneratePrimitiveMaps.java");
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Writes {@code text} to {@code file}, or with {@code check} only reports
+     * whether they differ.
+     *
+     * @param file
+     *            the generated file
+     * @param text
+     *            its expected contents
+     * @param check
+     *            whether to compare instead of writing
+     * @return true iff checking and {@code file} differs from {@code text}
+     * @throws IOException
+     *             if the file cannot be read or written
+     */
+    private static boolean emit(Path file, String text, boolean check)
+            throws IOException {
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        if (!check) {
+            Files.write(file, bytes);
+            return false;
+        }
+        boolean differs = !Files.exists(file)
+                || !Arrays.equals(Files.readAllBytes(file), bytes);
+        if (differs) {
+            System.err.println("Stale: " + file);
+        }
+        return differs;
+    }
+
+}
@@ -0,0 +1,739 @@
+import java.util.Iterator;
+import java.util.concurrent.atomic.LongAdder;
+
+import components.map.Map;
+import components.map.MapSecondary;
+
+/**
+ * {@code Map} with a bounded total weight, used as a cache, represented as a
+ * {@code Map4} from each key to an entry that is also linked into a circular
+ * list, with implementations of primary methods. By default every pair weighs
+ * 1, so the bound is a maximum number of pairs.
+ * <p>
+ * Whenever {@code add} (or {@code replaceValue}) takes the total weight past
+ * the bound, pairs are evicted, in O(1) each, until it fits again:
+ * <ul>
+ * <li>{@code EvictionPolicy.LRU} keeps the list in access order: {@code add}
+ * and {@code value} move their entry to the front, and the entry at the back,
+ * the least recently used, is evicted.</li>
+ * <li>{@code EvictionPolicy.CLOCK} keeps the list in insertion order and
+ * {@code value} only sets the entry's reference bit; a hand sweeps the list,
+ * clearing set bits, and evicts the first entry whose bit is clear, passing
+ * over the entry just added or replaced. Eviction is amortized O(1), since
+ * each bit cleared was set by a hit. Lookups make no
+ * structural change, so unlike LRU they may run concurrently with each other,
+ * e.g. under the read lock of a {@code ReadWriteLock} whose write lock guards
+ * the updates.</li>
+ * </ul>
+ * {@code value} counts a hit. {@code hasKey} counts a miss when it reports
+ * false, so the usual "{@code hasKey}, then {@code value}" counts one hit or
+ * one miss per request, as does {@code valueOrDefault}. {@code removeAny}
+ * removes the pair that would be evicted next.
+ * <p>
+ * Unlike other {@code Map}s, {@code add} and {@code replaceValue} may remove
+ * other pairs; everything else behaves as for any {@code Map}.
+ *
+ * @param <K>
+ *            type of {@code Map} domain (key) entries
+ * @param <V>
+ *            type of {@code Map} range (associated value) entries
+ * @convention <pre>
+ * $this.maximumWeight > 0  and
+ * [the entries linked in the circular list through $this.sentinel are
+ *  exactly the values of $this.index, each linked once]  and
+ * for all k: K, e: Entry
+ *     where ((k, e) is in $this.index)
+ *   (e.key = k  and  e.value /= null  and
+ *    e.weight = [weight of (k, e.value) under $this.weigher]  and
+ *    0 <= e.weight <= $this.maximumWeight)  and
+ * $this.weight = [sum of e.weight over the values e of $this.index]  and
+ * $this.weight <= $this.maximumWeight  and
+ * ($this.policy = EvictionPolicy.LRU  implies
+ *    [the list runs from the most to the least recently used entry])  and
+ * ($this.policy = EvictionPolicy.CLOCK  implies
+ *    [$this.hand is $this.sentinel or an entry of the list])
+ * </pre>
+ * @correspondence <pre>
+ * this = {(k, e.value) where ((k, e) is in $this.index)}
+ * </pre>
+ *
+ * @author Simon Manning & Nam Nguyen
+ *
+ */
+public class CacheMap4<K, V> extends MapSecondary<K, V> {
+
+    /*
+     * Private members --------------------------------------------------------
+     */
+
+    /**
+     * Default maximum number of pairs.
+     */
+    private static final int DEFAULT_MAXIMUM_SIZE = 10000;
+
+    /**
+     * Entries by key.
+     */
+    private Map4<K, Entry<K, V>> index;
+
+    /**
+     * Head and tail of the circular list; holds no pair.
+     */
+    private Entry<K, V> sentinel;
+
+    /**
+     * Next entry the CLOCK hand examines, or {@code sentinel} to start over
+     * from the front.
+     */
+    private Entry<K, V> hand;
+
+    /**
+     * Total weight of the pairs.
+     */
+    private long weight;
+
+    /**
+     * Largest total weight of the pairs.
+     */
+    private final long maximumWeight;
+
+    /**
+     * Weight of each pair, or {@code null} to weigh every pair 1.
+     */
+    private final Weigher<? super K, ? super V> weigher;
+
+    /**
+     * Which pair to evict.
+     */
+    private final EvictionPolicy policy;
+
+    /**
+     * Number of lookups that found their key.
+     */
+    private final LongAdder hits = new LongAdder();
+
+    /**
+     * Number of lookups that did not find their key.
+     */
+    private final LongAdder misses = new LongAdder();
+
+    /**
+     * Number of pairs evicted.
+     */
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * Creator of initial representation.
+     */
+    private void createNewRep() {
+        this.index = new Map4<K, Entry<K, V>>();
+        this.sentinel = new Entry<K, V>(null, null, 0);
+        this.sentinel.previous = this.sentinel;
+        this.sentinel.next = this.sentinel;
+        this.hand = this.sentinel;
+        this.weight = 0;
+    }
+
+    /**
+     * Returns the weight of ({@code key}, {@code value}).
+     *
+     * @param key
+     *            the key
+     * @param value
+     *            the value
+     * @return the weight of the pair
+     */
+    private int weigh(K key, V value) {
+        if (this.weigher == null) {
+            return 1;
+        }
+        int w = this.weigher.weight(key, value);
+        assert w >= 0 : "Violation of: weight >= 0";
+        assert w <= this.maximumWeight : ""
+                + "Violation of: weight <= maximumWeight";
+        return w;
+    }
+
+    /**
+     * Links {@code e} into the list just before {@code successor}.
+     *
+     * @param <K>
+     *            type of key
+     * @param <V>
+     *            type of value
+     * @param e
+     *            the entry to link
+     * @param successor
+     *            the entry that is to follow {@code e}
+     */
+    private static <K, V> void linkBefore(Entry<K, V> e,
+            Entry<K, V> successor) {
+        e.previous = successor.previous;
+        e.next = successor;
+        successor.previous.next = e;
+        successor.previous = e;
+    }
+
+    /**
+     * Unlinks {@code e} from the list, moving the hand past it if needed.
+     *
+     * @param e
+     *            the entry to unlink
+     */
+    private void unlink(Entry<K, V> e) {
+        if (this.hand == e) {
+            this.hand = e.next;
+        }
+        e.previous.next = e.next;
+        e.next.previous = e.previous;
+        e.previous = null;
+        e.next = null;
+    }
+
+    /**
+     * Records a hit on {@code e}.
+     *
+     * @param e
+     *            the entry found
+     */
+    private void touch(Entry<K, V> e) {
+        this.hits.increment();
+        if (this.policy == EvictionPolicy.LRU) {
+            if (this.sentinel.next != e) {
+                e.previous.next = e.next;
+                e.next.previous = e.previous;
+                linkBefore(e, this.sentinel.next);
+            }
+        } else {
+            e.referenced = true;
+        }
+    }
+
+    /**
+     * Returns the entry other than {@code spare} to evict next, clearing the
+     * reference bits the CLOCK hand sweeps past.
+     *
+     * @param spare
+     *            the entry never to return, or {@code null}
+     * @return the next victim
+     * @requires [this has an entry other than spare]
+     */
+    private Entry<K, V> victim(Entry<K, V> spare) {
+        if (this.policy == EvictionPolicy.LRU) {
+            Entry<K, V> e = this.sentinel.previous;
+            if (e == spare) {
+                e = e.previous;
+            }
+            return e;
+        }
+        while (true) {
+            if (this.hand == this.sentinel) {
+                this.hand = this.sentinel.next;
+            } else if (this.hand == spare) {
+                /*
+                 * Otherwise an entry just added or replaced would be evicted
+                 * as soon as every other entry had been looked up
+                 */
+                this.hand = this.hand.next;
+            } else if (this.hand.referenced) {
+                this.hand.referenced = false;
+                this.hand = this.hand.next;
+            } else {
+                return this.hand;
+            }
+        }
+    }
+
+    /**
+     * Removes the entry of {@code key} from the index and the list.
+     *
+     * @param key
+     *            the key to remove
+     * @return the removed entry
+     * @requires key is in DOMAIN(this)
+     */
+    private Entry<K, V> removeEntry(K key) {
+        Entry<K, V> e = this.index.remove(key).value();
+        this.unlink(e);
+        this.weight -= e.weight;
+        return e;
+    }
+
+    /**
+     * Returns an immutable copy of the pair held by {@code e}; entries
+     * themselves are never handed out, since their values change in place.
+     *
+     * @param <K>
+     *            type of key
+     * @param <V>
+     *            type of value
+     * @param e
+     *            the entry
+     * @return the pair (e.key, e.value)
+     */
+    private static <K, V> Pair<K, V> pairOf(Entry<K, V> e) {
+        return new SimplePair<K, V>(e.key, e.value);
+    }
+
+    /**
+     * Evicts pairs other than that of {@code spare} until the total weight is
+     * within the bound.
+     *
+     * @param spare
+     *            the entry of the pair just added or replaced
+     * @updates this
+     * @requires spare.weight <= $this.maximumWeight
+     */
+    private void evictIfNeeded(Entry<K, V> spare) {
+        while (this.weight > this.maximumWeight) {
+            this.removeEntry(this.victim(spare).key);
+            this.evictions.increment();
+        }
+    }
+
+    /*
+     * Nested types -----------------------------------------------------------
+     */
+
+    /**
+     * Which pair a {@code CacheMap4} evicts when it exceeds its bound.
+     */
+    public enum EvictionPolicy {
+        /**
+         * The least recently used pair.
+         */
+        LRU,
+
+        /**
+         * A pair not looked up since the sweeping hand last passed it (an
+         * approximation of LRU whose lookups make no structural change).
+         */
+        CLOCK
+    }
+
+    /**
+     * Weight of a pair, counted against the bound of a {@code CacheMap4}.
+     *
+     * @param <K>
+     *            type of key
+     * @param <V>
+     *            type of value
+     */
+    public interface Weigher<K, V> {
+
+        /**
+         * Returns the weight of ({@code key}, {@code value}).
+         *
+         * @param key
+         *            the key
+         * @param value
+         *            the value
+         * @return the weight of the pair
+         * @ensures weight >= 0
+         */
+        int weight(K key, V value);
+
+    }
+
+    /*
+     * Constructors -----------------------------------------------------------
+     */
+
+    /**
+     * No-argument constructor: LRU with the default maximum number of pairs.
+     */
+    public CacheMap4() {
+        this(DEFAULT_MAXIMUM_SIZE);
+    }
+
+    /**
+     * Constructor resulting in an LRU cache of at most {@code maximumSize}
+     * pairs.
+     *
+     * @param maximumSize
+     *            largest number of pairs
+     * @requires maximumSize > 0
+     * @ensures this = {}
+     */
+    public CacheMap4(int maximumSize) {
+        this(maximumSize, EvictionPolicy.LRU);
+    }
+
+    /**
+     * Constructor resulting in a cache of at most {@code maximumSize} pairs
+     * that evicts by {@code policy}.
+     *
+     * @param maximumSize
+     *            largest number of pairs
+     * @param policy
+     *            which pair to evict
+     * @requires maximumSize > 0
+     * @ensures this = {}
+     */
+    public CacheMap4(int maximumSize, EvictionPolicy policy) {
+        this(maximumSize, null, policy);
+    }
+
+    /**
+     * Constructor resulting in a cache whose pairs, weighed by
+     * {@code weigher}, weigh at most {@code maximumWeight} in total, and that
+     * evicts by {@code policy}.
+     *
+     * @param maximumWeight
+     *            largest total weight of the pairs
+     * @param weigher
+     *            weight of each pair, or {@code null} to weigh every pair 1
+     * @param policy
+     *            which pair to evict
+     * @requires maximumWeight > 0
+     * @ensures this = {}
+     */
+    public CacheMap4(long maximumWeight,
+            Weigher<? super K, ? super V> weigher, EvictionPolicy policy) {
+        assert maximumWeight > 0 : "Violation of: maximumWeight > 0";
+        assert policy != null : "Violation of: policy is not null";
+        this.maximumWeight = maximumWeight;
+        this.weigher = weigher;
+        this.policy = policy;
+        this.createNewRep();
+    }
+
+    /*
+     * Standard methods -------------------------------------------------------
+     */
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The new instance has the same bound, weigher and policy as
+     * {@code this}.
+     */
+    @Override
+    public final Map<K, V> newInstance() {
+        return new CacheMap4<K, V>(this.maximumWeight, this.weigher,
+                this.policy);
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The counters are kept.
+     */
+    @Override
+    public final void clear() {
+        this.createNewRep();
+    }
+
+    @Override
+    public final void transferFrom(Map<K, V> source) {
+        assert source != null : "Violation of: source is not null";
+        assert source != this : "Violation of: source is not this";
+        assert source instanceof CacheMap4<?, ?> : ""
+                + "Violation of: source is of dynamic type CacheMap4<?,?>";
+        /*
+         * This cast cannot fail since the assert above would have stopped
+         * execution in that case.
+         */
+        CacheMap4<K, V> localSource = (CacheMap4<K, V>) source;
+        assert localSource.weigher == this.weigher : ""
+                + "Violation of: source has the same weigher as this";
+        assert localSource.policy == this.policy : ""
+                + "Violation of: source has the same policy as this";
+        assert localSource.weight <= this.maximumWeight : ""
+                + "Violation of: source fits the bound of this";
+        this.index = localSource.index;
+        this.sentinel = localSource.sentinel;
+        this.hand = localSource.hand;
+        this.weight = localSource.weight;
+        localSource.createNewRep();
+    }
+
+    /*
+     * Kernel methods ---------------------------------------------------------
+     */
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Then evicts pairs other than ({@code key}, {@code value}) until the
+     * total weight is within the bound.
+     */
+    @Override
+    public final void add(K key, V value) {
+        assert key != null : "Violation of: key is not null";
+        assert value != null : "Violation of: value is not null";
+        assert !this.index.hasKey(key) : ""
+                + "Violation of: key is not in DOMAIN(this)";
+
+        Entry<K, V> e = new Entry<K, V>(key, value, this.weigh(key, value));
+        this.index.add(key, e);
+        if (this.policy == EvictionPolicy.LRU) {
+            linkBefore(e, this.sentinel.next);
+        } else {
+            /*
+             * Just behind the hand, so a new entry is examined last
+             */
+            linkBefore(e, this.hand);
+        }
+        this.weight += e.weight;
+        this.evictIfNeeded(e);
+    }
+
+    @Override
+    public final Pair<K, V> remove(K key) {
+        assert key != null : "Violation of: key is not null";
+        assert this.index.hasKey(key) : "Violation of: key is in DOMAIN(this)";
+
+        return pairOf(this.removeEntry(key));
+    }
+
+    @Override
+    public final Pair<K, V> removeAny() {
+        assert this.size() > 0 : "Violation of: this /= empty_set";
+
+        return pairOf(this.removeEntry(this.victim(null).key));
+    }
+
+    @Override
+    public final V value(K key) {
+        assert key != null : "Violation of: key is not null";
+        assert this.index.hasKey(key) : "Violation of: key is in DOMAIN(this)";
+
+        Entry<K, V> e = this.index.value(key);
+        this.touch(e);
+        return e.value;
+    }
+
+    @Override
+    public final boolean hasKey(K key) {
+        assert key != null : "Violation of: key is not null";
+
+        boolean found = this.index.hasKey(key);
+        if (!found) {
+            this.misses.increment();
+        }
+        return found;
+    }
+
+    @Override
+    public final int size() {
+        return this.index.size();
+    }
+
+    @Override
+    public final Iterator<Pair<K, V>> iterator() {
+        return new CacheMap4Iterator();
+    }
+
+    /*
+     * Secondary methods ------------------------------------------------------
+     */
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Counts as a hit on {@code key}, then evicts other pairs if the new value
+     * makes the total weight exceed the bound.
+     */
+    @Override
+    public final V replaceValue(K key, V value) {
+        assert key != null : "Violation of: key is not null";
+        assert value != null : "Violation of: value is not null";
+        assert this.index.hasKey(key) : "Violation of: key is in DOMAIN(this)";
+
+        Entry<K, V> e = this.index.value(key);
+        this.touch(e);
+        V old = e.value;
+        int newWeight = this.weigh(key, value);
+        this.weight += newWeight - e.weight;
+        e.value = value;
+        e.weight = newWeight;
+        this.evictIfNeeded(e);
+        return old;
+    }
+
+    /*
+     * Other methods ----------------------------------------------------------
+     */
+
+    /**
+     * Reports the value associated with {@code key}, counting a hit, or
+     * {@code defaultValue}, counting a miss, searching for {@code key} once.
+     *
+     * @param key
+     *            the key to look up
+     * @param defaultValue
+     *            the result if {@code key} is not in {@code this}
+     * @return the value of {@code key}, or {@code defaultValue}
+     * @ensures <pre>
+     * (key is in DOMAIN(this)  implies
+     *    (key, valueOrDefault) is in this)  and
+     * (key is not in DOMAIN(this)  implies  valueOrDefault = defaultValue)
+     * </pre>
+     */
+    public final V valueOrDefault(K key, V defaultValue) {
+        assert key != null : "Violation of: key is not null";
+
+        Entry<K, V> e = this.index.valueOrDefault(key, null);
+        if (e == null) {
+            this.misses.increment();
+            return defaultValue;
+        }
+        this.touch(e);
+        return e.value;
+    }
+
+    /**
+     * Reports the total weight of the pairs.
+     *
+     * @return the total weight
+     */
+    public final long weight() {
+        return this.weight;
+    }
+
+    /**
+     * Reports the bound on the total weight of the pairs.
+     *
+     * @return the maximum weight
+     */
+    public final long maximumWeight() {
+        return this.maximumWeight;
+    }
+
+    /**
+     * Reports the number of lookups that found their key.
+     *
+     * @return the number of hits
+     */
+    public final long hits() {
+        return this.hits.sum();
+    }
+
+    /**
+     * Reports the number of lookups that did not find their key.
+     *
+     * @return the number of misses
+     */
+    public final long misses() {
+        return this.misses.sum();
+    }
+
+    /**
+     * Reports the number of pairs evicted to respect the bound.
+     *
+     * @return the number of evictions
+     */
+    public final long evictions() {
+        return this.evictions.sum();
+    }
+
+    /**
+     * Entry of the index and of the list.
+     *
+     * @param <K>
+     *            type of key
+     * @param <V>
+     *            type of value
+     */
+    private static final class Entry<K, V> {
+
+        /**
+         * The key.
+         */
+        private final K key;
+
+        /**
+         * The value.
+         */
+        private V value;
+
+        /**
+         * Weight of the pair.
+         */
+        private int weight;
+
+        /**
+         * Previous entry of the list.
+         */
+        private Entry<K, V> previous;
+
+        /**
+         * Next entry of the list.
+         */
+        private Entry<K, V> next;
+
+        /**
+         * CLOCK reference bit: looked up since the hand last passed.
+         */
+        private boolean referenced;
+
+        /**
+         * Constructor.
+         *
+         * @param key
+         *            the key
+         * @param value
+         *            the value
+         * @param weight
+         *            weight of the pair
+         */
+        Entry(K key, V value, int weight) {
+            this.key = key;
+            this.value = value;
+            this.weight = weight;
+        }
+
+    }
+
+    /**
+     * Implementation of {@code Iterator} interface for {@code CacheMap4},
+     * supporting {@code remove}. It follows the index rather than the list,
+     * so lookups while iterating do not disturb it; it is fail-fast, as the
+     * iterator of {@code Map4} is, for every other update.
+     */
+    private final class CacheMap4Iterator implements Iterator<Pair<K, V>> {
+
+        /**
+         * Iterator of the index.
+         */
+        private final Iterator<Pair<K, Entry<K, V>>> indexIterator;
+
+        /**
+         * Entry last returned, or {@code null}.
+         */
+        private Entry<K, V> lastReturned;
+
+        /**
+         * No-argument constructor.
+         */
+        CacheMap4Iterator() {
+            this.indexIterator = CacheMap4.this.index.iterator();
+            this.lastReturned = null;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return this.indexIterator.hasNext();
+        }
+
+        @Override
+        public Pair<K, V> next() {
+            this.lastReturned = this.indexIterator.next().value();
+            return pairOf(this.lastReturned);
+        }
+
+        @Override
+        public void remove() {
+            if (this.lastReturned == null) {
+                throw new IllegalStateException();
+            }
+            this.indexIterator.remove();
+            CacheMap4.this.unlink(this.lastReturned);
+            CacheMap4.this.weight -= this.lastReturned.weight;
+            this.lastReturned = null;
+        }
+
+    }
+
+}
@@ -0,0 +1,401 @@
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import components.map.Map;
+import components.map.MapSecondary;
+
+/**
+ * {@code Map} safe for concurrent use, represented as an array of lock stripes
+ * each holding a {@code Map4} over its own share of the keys, with
+ * implementations of primary methods.
+ * <p>
+ * A key's stripe is chosen from the high bits of its mixed hash code, so the
+ * bucket index each stripe's {@code Map4} derives from the same hash code
+ * stays well spread. Kernel methods lock only the stripe of their key, so
+ * threads working on different stripes never contend; the size is kept in a
+ * striped counter rather than a shared field. {@code removeAny} locks one
+ * stripe at a time, and {@code replaceValue} is atomic under the lock of its
+ * key's stripe. The iterator is weakly consistent: it collects the pairs of
+ * one stripe at a time under that stripe's lock, which {@code Map4} hands out
+ * as immutable copies, and never throws because of concurrent updates.
+ * <p>
+ * The stripes themselves are fixed at construction, so every thread sees the
+ * same stripe array without further synchronization. {@code clear} and
+ * {@code transferFrom} empty and refill the stripes one at a time, each under
+ * its own lock, so they are not atomic with respect to other threads, and
+ * neither are the preconditions of the kernel methods; callers coordinate
+ * those themselves.
+ *
+ * @param <K>
+ *            type of {@code Map} domain (key) entries
+ * @param <V>
+ *            type of {@code Map} range (associated value) entries
+ * @convention <pre>
+ * [|$this.stripes| is a power of two]  and
+ * |$this.stripes| = 2^$this.stripeBits  and
+ * for all i: integer, x: K
+ *     where (0 <= i  and  i < |$this.stripes|  and
+ *            x is in DOMAIN($this.stripes[i]))
+ *   (stripeOf(x) = i)  and
+ * [$this.count = sum of |$this.stripes[i]| once no update is in progress]
+ * </pre>
+ * @correspondence <pre>
+ * this = union i: integer
+ *            where (0 <= i  and  i < |$this.stripes|)
+ *          ($this.stripes[i])
+ * </pre>
+ *
+ * @author Simon Manning & Nam Nguyen
+ *
+ */
+public class ConcurrentMap4<K, V> extends MapSecondary<K, V> {
+
+    /*
+     * Private members --------------------------------------------------------
+     */
+
+    /**
+     * Default number of stripes.
+     */
+    private static final int DEFAULT_STRIPES = 64;
+
+    /**
+     * Largest number of stripes.
+     */
+    private static final int MAXIMUM_STRIPES = 1 << 16;
+
+    /**
+     * Lock stripes; each is its own lock.
+     */
+    private final Map4<K, V>[] stripes;
+
+    /**
+     * Base-2 logarithm of the number of stripes.
+     */
+    private final int stripeBits;
+
+    /**
+     * Striped count of pairs.
+     */
+    private final LongAdder count = new LongAdder();
+
+    /**
+     * Stripe at which the next {@code removeAny} starts looking, spreading
+     * concurrent drains over different stripes.
+     */
+    private final AtomicInteger anyStripe = new AtomicInteger();
+
+    /**
+     * Returns the base-2 logarithm of the number of stripes used when
+     * {@code stripeCount} are requested.
+     *
+     * @param stripeCount
+     *            requested number of stripes
+     * @return the base-2 logarithm of the number of stripes
+     * @requires stripeCount > 0
+     * @ensures <pre>
+     * 2^stripeBitsFor = [smallest power of two >= stripeCount, at most
+     *                    MAXIMUM_STRIPES]
+     * </pre>
+     */
+    private static int stripeBitsFor(int stripeCount) {
+        int bits = 0;
+        while (1 << bits < stripeCount && 1 << bits < MAXIMUM_STRIPES) {
+            bits++;
+        }
+        return bits;
+    }
+
+    /**
+     * Returns the stripe responsible for {@code key}.
+     *
+     * @param key
+     *            the key
+     * @return the stripe for {@code key}
+     */
+    private Map4<K, V> stripeOf(K key) {
+        if (this.stripeBits == 0) {
+            return this.stripes[0];
+        }
+        int hash = Hashing.mix32(key.hashCode());
+        return this.stripes[hash >>> (32 - this.stripeBits)];
+    }
+
+    /*
+     * Constructors -----------------------------------------------------------
+     */
+
+    /**
+     * No-argument constructor.
+     */
+    public ConcurrentMap4() {
+        this(DEFAULT_STRIPES);
+    }
+
+    /**
+     * Constructor resulting in at least {@code stripeCount} lock stripes.
+     *
+     * @param stripeCount
+     *            number of lock stripes, e.g. a small multiple of the number
+     *            of writer threads
+     * @requires stripeCount > 0
+     * @ensures this = {}
+     */
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    public ConcurrentMap4(int stripeCount) {
+        assert stripeCount > 0 : "Violation of: stripeCount > 0";
+        this.stripeBits = stripeBitsFor(stripeCount);
+        this.stripes = new Map4[1 << this.stripeBits];
+        for (int i = 0; i < this.stripes.length; i++) {
+            this.stripes[i] = new Map4<K, V>();
+        }
+    }
+
+    /*
+     * Standard methods -------------------------------------------------------
+     */
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public final Map<K, V> newInstance() {
+        try {
+            return this.getClass().getConstructor().newInstance();
+        } catch (ReflectiveOperationException e) {
+            throw new AssertionError(
+                    "Cannot construct object of type " + this.getClass());
+        }
+    }
+
+    @Override
+    public final void clear() {
+        for (Map4<K, V> stripe : this.stripes) {
+            synchronized (stripe) {
+                this.count.add(-stripe.size());
+                stripe.clear();
+            }
+        }
+    }
+
+    @Override
+    public final void transferFrom(Map<K, V> source) {
+        assert source != null : "Violation of: source is not null";
+        assert source != this : "Violation of: source is not this";
+        assert source instanceof ConcurrentMap4<?, ?> : ""
+                + "Violation of: source is of dynamic type ConcurrentMap4<?,?>";
+        /*
+         * This cast cannot fail since the assert above would have stopped
+         * execution in that case.
+         */
+        ConcurrentMap4<K, V> localSource = (ConcurrentMap4<K, V>) source;
+        this.clear();
+        /*
+         * Move one source stripe at a time out under its own lock, then into
+         * this under the lock of the matching stripe, so no thread ever holds
+         * two stripe locks; with a different number of stripes the pairs are
+         * added one by one to the stripes of their keys
+         */
+        boolean sameStripes = localSource.stripes.length == this.stripes.length;
+        Map4<K, V> moved = new Map4<K, V>();
+        for (int i = 0; i < localSource.stripes.length; i++) {
+            Map4<K, V> sourceStripe = localSource.stripes[i];
+            synchronized (sourceStripe) {
+                moved.transferFrom(sourceStripe);
+                localSource.count.add(-moved.size());
+            }
+            if (sameStripes) {
+                Map4<K, V> stripe = this.stripes[i];
+                synchronized (stripe) {
+                    this.count.add(moved.size());
+                    stripe.transferFrom(moved);
+                }
+            } else {
+                while (moved.size() > 0) {
+                    Pair<K, V> p = moved.removeAny();
+                    this.add(p.key(), p.value());
+                }
+            }
+        }
+    }
+
+    /*
+     * Kernel methods ---------------------------------------------------------
+     */
+
+    @Override
+    public final void add(K key, V value) {
+        assert key != null : "Violation of: key is not null";
+        assert value != null : "Violation of: value is not null";
+
+        Map4<K, V> stripe = this.stripeOf(key);
+        synchronized (stripe) {
+            stripe.add(key, value);
+        }
+        this.count.increment();
+    }
+
+    @Override
+    public final Pair<K, V> remove(K key) {
+        assert key != null : "Violation of: key is not null";
+
+        Map4<K, V> stripe = this.stripeOf(key);
+        Pair<K, V> removed;
+        synchronized (stripe) {
+            removed = stripe.remove(key);
+        }
+        this.count.decrement();
+        return removed;
+    }
+
+    @Override
+    public final Pair<K, V> removeAny() {
+        /*
+         * Start each call at a different stripe so concurrent drains spread
+         * out, and lock only the stripe being examined
+         */
+        int start = this.anyStripe.getAndIncrement();
+        int mask = this.stripes.length - 1;
+        for (int i = 0; i < this.stripes.length; i++) {
+            Map4<K, V> stripe = this.stripes[(start + i) & mask];
+            synchronized (stripe) {
+                if (stripe.size() > 0) {
+                    Pair<K, V> removed = stripe.removeAny();
+                    this.count.decrement();
+                    return removed;
+                }
+            }
+        }
+        /*
+         * Only reachable if the precondition this /= empty_set was violated,
+         * possibly by another thread emptying this concurrently
+         */
+        throw new NoSuchElementException("Violation of: this /= empty_set");
+    }
+
+    @Override
+    public final V value(K key) {
+        assert key != null : "Violation of: key is not null";
+
+        Map4<K, V> stripe = this.stripeOf(key);
+        synchronized (stripe) {
+            return stripe.value(key);
+        }
+    }
+
+    @Override
+    public final boolean hasKey(K key) {
+        assert key != null : "Violation of: key is not null";
+
+        Map4<K, V> stripe = this.stripeOf(key);
+        synchronized (stripe) {
+            return stripe.hasKey(key);
+        }
+    }
+
+    @Override
+    public final int size() {
+        return (int) Math.max(0, this.count.sum());
+    }
+
+    /*
+     * Secondary methods ------------------------------------------------------
+     */
+
+    @Override
+    public final V replaceValue(K key, V value) {
+        assert key != null : "Violation of: key is not null";
+        assert value != null : "Violation of: value is not null";
+
+        /*
+         * The inherited remove-then-add would let another thread see the key
+         * missing in between; replacing under the stripe lock is atomic
+         */
+        Map4<K, V> stripe = this.stripeOf(key);
+        synchronized (stripe) {
+            return stripe.replaceValue(key, value);
+        }
+    }
+
+    @Override
+    public final Iterator<Pair<K, V>> iterator() {
+        return new ConcurrentMap4Iterator();
+    }
+
+    /**
+     * Weakly consistent implementation of {@code Iterator} interface for
+     * {@code ConcurrentMap4}.
+     */
+    private final class ConcurrentMap4Iterator
+            implements Iterator<Pair<K, V>> {
+
+        /**
+         * Stripes being iterated.
+         */
+        private final Map4<K, V>[] stripes;
+
+        /**
+         * Next stripe to copy.
+         */
+        private int nextStripe;
+
+        /**
+         * Pairs copied from the current stripe.
+         */
+        private Iterator<Pair<K, V>> stripeIterator;
+
+        /**
+         * No-argument constructor.
+         */
+        ConcurrentMap4Iterator() {
+            this.stripes = ConcurrentMap4.this.stripes;
+            this.nextStripe = 0;
+            this.stripeIterator = null;
+        }
+
+        /**
+         * Copies stripes until one with pairs is found or none remain.
+         */
+        private void fill() {
+            while ((this.stripeIterator == null
+                    || !this.stripeIterator.hasNext())
+                    && this.nextStripe < this.stripes.length) {
+                Map4<K, V> stripe = this.stripes[this.nextStripe];
+                List<Pair<K, V>> copy;
+                synchronized (stripe) {
+                    copy = new ArrayList<Pair<K, V>>(stripe.size());
+                    for (Pair<K, V> p : stripe) {
+                        copy.add(p);
+                    }
+                }
+                this.stripeIterator = copy.iterator();
+                this.nextStripe++;
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            this.fill();
+            return this.stripeIterator != null
+                    && this.stripeIterator.hasNext();
+        }
+
+        @Override
+        public Pair<K, V> next() {
+            if (!this.hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return this.stripeIterator.next();
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException(
+                    "remove operation not supported");
+        }
+
+    }
+
+}
@@ -0,0 +1,47 @@
+/**
+ * Strategy by which a hash-based {@code Map} hashes and compares its keys in
+ * place of their {@code hashCode} and {@code equals}. {@code Equivalences}
+ * supplies common strategies.
+ *
+ * @param <T>
+ *            type of the objects compared
+ * @mathdefinitions <pre>
+ * EQUIVALENT(a, b) = [result of equivalent(a, b)]
+ * </pre>
+ * @ensures <pre>
+ * [EQUIVALENT is reflexive, symmetric and transitive]  and
+ * for all a, b: T
+ *     where (EQUIVALENT(a, b))
+ *   (hash(a) = hash(b))  and
+ * [hash and equivalent give the same results whenever called on the same
+ *  arguments]
+ * </pre>
+ *
+ * @author Simon Manning & Nam Nguyen
+ *
+ */
+public interface Equivalence<T> {
+
+    /**
+     * Returns the hash code of {@code t}.
+     *
+     * @param t
+     *            the object to hash
+     * @return the hash code of {@code t}
+     * @requires t /= null
+     */
+    int hash(T t);
+
+    /**
+     * Reports whether {@code a} and {@code b} are equivalent.
+     *
+     * @param a
+     *            the first object
+     * @param b
+     *            the second object
+     * @return true iff {@code a} and {@code b} are equivalent
+     * @requires a /= null  and  b /= null
+     */
+    boolean equivalent(T a, T b);
+
+}
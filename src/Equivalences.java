@@ -0,0 +1,355 @@
+import java.security.SecureRandom;
+import java.util.Arrays;
+
+/**
+ * Common {@code Equivalence} strategies.
+ *
+ * @author Simon Manning & Nam Nguyen
+ *
+ */
+public final class Equivalences {
+
+    /*
+     * Private members --------------------------------------------------------
+     */
+
+    /**
+     * Multiplier of the seeded string hash (the golden ratio in fixed point).
+     */
+    private static final long GOLDEN = 0x9E3779B97F4A7C15L;
+
+    /**
+     * Rotation of the seeded string hash after each character.
+     */
+    private static final int ROTATION = 27;
+
+    /**
+     * {@code hashCode} and {@code equals}.
+     */
+    private static final Equivalence<Object> NATURAL =
+            new Equivalence<Object>() {
+
+        @Override
+        public int hash(Object t) {
+            return t.hashCode();
+        }
+
+        @Override
+        public boolean equivalent(Object a, Object b) {
+            return a.equals(b);
+        }
+
+        @Override
+        public String toString() {
+            return "Equivalences.natural()";
+        }
+
+    };
+
+    /**
+     * Reference equality.
+     */
+    private static final Equivalence<Object> IDENTITY =
+            new Equivalence<Object>() {
+
+        @Override
+        public int hash(Object t) {
+            return System.identityHashCode(t);
+        }
+
+        @Override
+        public boolean equivalent(Object a, Object b) {
+            return a == b;
+        }
+
+        @Override
+        public String toString() {
+            return "Equivalences.identity()";
+        }
+
+    };
+
+    /**
+     * {@code String.equalsIgnoreCase}.
+     */
+    private static final Equivalence<String> CASE_INSENSITIVE =
+            new Equivalence<String>() {
+
+        @Override
+        public int hash(String t) {
+            int h = 0;
+            int i = 0;
+            while (i < t.length()) {
+                int c = t.codePointAt(i);
+                /*
+                 * The same folding equalsIgnoreCase applies, so equivalent
+                 * strings hash alike
+                 */
+                h = 31 * h + Character
+                        .toLowerCase(Character.toUpperCase(c));
+                i += Character.charCount(c);
+            }
+            return h;
+        }
+
+        @Override
+        public boolean equivalent(String a, String b) {
+            return a.equalsIgnoreCase(b);
+        }
+
+        @Override
+        public String toString() {
+            return "Equivalences.caseInsensitiveStrings()";
+        }
+
+    };
+
+    /**
+     * Contents of {@code byte} arrays.
+     */
+    private static final Equivalence<byte[]> BYTE_ARRAYS =
+            new Equivalence<byte[]>() {
+
+        @Override
+        public int hash(byte[] t) {
+            return Arrays.hashCode(t);
+        }
+
+        @Override
+        public boolean equivalent(byte[] a, byte[] b) {
+            return Arrays.equals(a, b);
+        }
+
+        @Override
+        public String toString() {
+            return "Equivalences.byteArrays()";
+        }
+
+    };
+
+    /**
+     * Contents of {@code int} arrays.
+     */
+    private static final Equivalence<int[]> INT_ARRAYS =
+            new Equivalence<int[]>() {
+
+        @Override
+        public int hash(int[] t) {
+            return Arrays.hashCode(t);
+        }
+
+        @Override
+        public boolean equivalent(int[] a, int[] b) {
+            return Arrays.equals(a, b);
+        }
+
+        @Override
+        public String toString() {
+            return "Equivalences.intArrays()";
+        }
+
+    };
+
+    /**
+     * Contents of {@code long} arrays.
+     */
+    private static final Equivalence<long[]> LONG_ARRAYS =
+            new Equivalence<long[]>() {
+
+        @Override
+        public int hash(long[] t) {
+            return Arrays.hashCode(t);
+        }
+
+        @Override
+        public boolean equivalent(long[] a, long[] b) {
+            return Arrays.equals(a, b);
+        }
+
+        @Override
+        public String toString() {
+            return "Equivalences.longArrays()";
+        }
+
+    };
+
+    /**
+     * Deep contents of {@code Object} arrays.
+     */
+    private static final Equivalence<Object[]> OBJECT_ARRAYS =
+            new Equivalence<Object[]>() {
+
+        @Override
+        public int hash(Object[] t) {
+            return Arrays.deepHashCode(t);
+        }
+
+        @Override
+        public boolean equivalent(Object[] a, Object[] b) {
+            return Arrays.deepEquals(a, b);
+        }
+
+        @Override
+        public String toString() {
+            return "Equivalences.objectArrays()";
+        }
+
+    };
+
+    /**
+     * {@code String.equals} with a hash code that depends on a seed.
+     */
+    private static final class SeededStrings implements Equivalence<String> {
+
+        /**
+         * The seed.
+         */
+        private final long seed;
+
+        /**
+         * Constructor.
+         *
+         * @param seed
+         *            the seed
+         */
+        SeededStrings(long seed) {
+            this.seed = seed;
+        }
+
+        @Override
+        public int hash(String t) {
+            long h = this.seed ^ (t.length() * GOLDEN);
+            for (int i = 0; i < t.length(); i++) {
+                /*
+                 * Each step is a bijection of h, so strings of one length
+                 * differing in any character reach different states
+                 */
+                h = Long.rotateLeft((h ^ t.charAt(i)) * GOLDEN, ROTATION);
+            }
+            h = Hashing.mix64(h);
+            return (int) (h ^ (h >>> 32));
+        }
+
+        @Override
+        public boolean equivalent(String a, String b) {
+            return a.equals(b);
+        }
+
+        @Override
+        public String toString() {
+            return "Equivalences.seededStrings(" + this.seed + ")";
+        }
+
+    }
+
+    /**
+     * No-argument constructor--private to prevent instantiation.
+     */
+    private Equivalences() {
+    }
+
+    /*
+     * Public members ---------------------------------------------------------
+     */
+
+    /**
+     * Returns the strategy of {@code hashCode} and {@code equals}.
+     *
+     * @param <T>
+     *            type of the objects compared
+     * @return the natural equivalence
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> Equivalence<T> natural() {
+        return (Equivalence<T>) NATURAL;
+    }
+
+    /**
+     * Returns the strategy of reference equality and
+     * {@code System.identityHashCode}.
+     *
+     * @param <T>
+     *            type of the objects compared
+     * @return the identity equivalence
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> Equivalence<T> identity() {
+        return (Equivalence<T>) IDENTITY;
+    }
+
+    /**
+     * Returns the strategy of {@code String.equalsIgnoreCase}, with a hash
+     * code computed from the case-folded characters without creating a
+     * folded copy of the string.
+     *
+     * @return the case-insensitive string equivalence
+     */
+    public static Equivalence<String> caseInsensitiveStrings() {
+        return CASE_INSENSITIVE;
+    }
+
+    /**
+     * Returns the strategy of {@code String.equals} with a hash code mixed
+     * with {@code seed}, so which strings collide depends on the seed rather
+     * than being fixed as for {@code String.hashCode}. Unlike
+     * {@code String.hashCode} the result is not cached in the string; a
+     * {@code Map4} computes it once per operation and caches it in its
+     * entries.
+     *
+     * @param seed
+     *            the seed
+     * @return the seeded string equivalence
+     */
+    public static Equivalence<String> seededStrings(long seed) {
+        return new SeededStrings(seed);
+    }
+
+    /**
+     * Returns {@code seededStrings} with a seed drawn from
+     * {@code SecureRandom}, so keys chosen from outside cannot be made to
+     * collide in advance.
+     *
+     * @return a randomly seeded string equivalence
+     */
+    public static Equivalence<String> randomizedStrings() {
+        return new SeededStrings(new SecureRandom().nextLong());
+    }
+
+    /**
+     * Returns the strategy comparing {@code byte} arrays by content.
+     *
+     * @return the {@code byte} array equivalence
+     */
+    public static Equivalence<byte[]> byteArrays() {
+        return BYTE_ARRAYS;
+    }
+
+    /**
+     * Returns the strategy comparing {@code int} arrays by content.
+     *
+     * @return the {@code int} array equivalence
+     */
+    public static Equivalence<int[]> intArrays() {
+        return INT_ARRAYS;
+    }
+
+    /**
+     * Returns the strategy comparing {@code long} arrays by content.
+     *
+     * @return the {@code long} array equivalence
+     */
+    public static Equivalence<long[]> longArrays() {
+        return LONG_ARRAYS;
+    }
+
+    /**
+     * Returns the strategy comparing {@code Object} arrays by deep content,
+     * as {@code Arrays.deepEquals} does.
+     *
+     * @return the {@code Object} array equivalence
+     */
+    public static Equivalence<Object[]> objectArrays() {
+        return OBJECT_ARRAYS;
+    }
+
+}
@@ -0,0 +1,864 @@
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.TimeUnit;
+
+import components.map.Map;
+import components.map.MapSecondary;
+
+/**
+ * {@code Map} whose pairs expire a time-to-live after they are added,
+ * represented as a {@code Map4} from each key to an entry that is also filed
+ * in a hierarchical timer wheel, with implementations of primary methods.
+ * <p>
+ * Time is read from a {@code Clock} (injectable, e.g. for tests) and counted
+ * in ticks of a fixed resolution; a pair expires at the first tick boundary
+ * at or after its deadline, so it lives at least its time-to-live and less
+ * than one tick longer. Every method first brings the wheel up to the current
+ * tick, reclaiming each pair whose tick has come, so expired pairs are never
+ * seen and {@code size} is exact.
+ * <p>
+ * The wheel has {@code LEVELS} levels of {@code SLOTS} slots; a slot of level
+ * l spans {@code SLOTS}^l ticks. A pair is filed at the level whose span
+ * matches how far off its expiry is, and is moved down a level (or
+ * reclaimed) when time reaches the start of its slot, so each pair is handled
+ * O({@code LEVELS}) times in all, and a bitmap of non-empty slots per level
+ * lets idle stretches of time be skipped without visiting their ticks. No
+ * operation scans the table.
+ * <p>
+ * Lookups never change the index structurally while an iteration may be
+ * under way, as {@code Map4}'s lookups never migrate buckets then: a pair
+ * that expires meanwhile is only marked, so lookups and iterators pass over
+ * it, and it is removed from the index by the next update or
+ * {@code cleanUp}. Looking up the pairs being iterated, as in
+ * {@code for (p : m) m.value(p.key())}, is therefore safe, and
+ * {@code size} stays exact; an update still makes the iterator fail fast.
+ *
+ * @param <K>
+ *            type of {@code Map} domain (key) entries
+ * @param <V>
+ *            type of {@code Map} range (associated value) entries
+ * @convention <pre>
+ * $this.timeToLive > 0  and  $this.resolution > 0  and
+ * for all k: K, e: Entry
+ *     where ((k, e) is in $this.index  and  not e.removed)
+ *   (e.key = k  and  e.value /= null  and
+ *    e.expiryTick > $this.currentTick  and
+ *    [e is in exactly one slot list of $this.slots, the one numbered
+ *     e.slot, which will be processed no later than tick e.expiryTick])  and
+ * [the entries linked from $this.pending through next are exactly the
+ *  values e of $this.index with e.removed]  and
+ * $this.pendingCount = [length of the list starting at $this.pending]  and
+ * ($this.pending /= null  implies
+ *    $this.iterationModCount = $this.modCount)  and
+ * [every entry of a slot list of $this.slots is a value of $this.index
+ *  that is not removed]  and
+ * for all l, s: integer
+ *     where (0 <= l < LEVELS  and  0 <= s < SLOTS)
+ *   ([bit s of $this.occupied[l] is set] =
+ *    ($this.slots[l * SLOTS + s] /= null))
+ * </pre>
+ * @correspondence <pre>
+ * this = {(k, e.value) where ((k, e) is in $this.index  and
+ *                            not e.removed)}
+ * </pre>
+ *
+ * @author Simon Manning & Nam Nguyen
+ *
+ */
+public class ExpiringMap4<K, V> extends MapSecondary<K, V> {
+
+    /*
+     * Private members --------------------------------------------------------
+     */
+
+    /**
+     * Base-2 logarithm of the number of slots per level.
+     */
+    private static final int SLOT_BITS = 6;
+
+    /**
+     * Number of slots per level; one bit of a {@code long} each.
+     */
+    private static final int SLOTS = 1 << SLOT_BITS;
+
+    /**
+     * Number of levels of the wheel.
+     */
+    private static final int LEVELS = 8;
+
+    /**
+     * Number of ticks the wheel spans; expiries further off are filed at the
+     * end of the span and filed again when it is reached.
+     */
+    private static final long SPAN = 1L << (SLOT_BITS * LEVELS);
+
+    /**
+     * Default time-to-live, in nanoseconds.
+     */
+    private static final long DEFAULT_TIME_TO_LIVE = TimeUnit.MINUTES
+            .toNanos(1);
+
+    /**
+     * Default length of a tick, in nanoseconds.
+     */
+    private static final long DEFAULT_RESOLUTION = TimeUnit.MILLISECONDS
+            .toNanos(1);
+
+    /**
+     * Entries by key.
+     */
+    private Map4<K, Entry<K, V>> index;
+
+    /**
+     * First entry of each slot list, level by level, or {@code null}.
+     */
+    private Entry<K, V>[] slots;
+
+    /**
+     * For each level, bit s is set iff slot s of that level is not empty.
+     */
+    private long[] occupied;
+
+    /**
+     * Last tick the wheel has been brought up to.
+     */
+    private long currentTick;
+
+    /**
+     * Entries of pairs gone from {@code this} but still in the index, linked
+     * through {@code next}, or {@code null}.
+     */
+    private Entry<K, V> pending;
+
+    /**
+     * Number of entries linked from {@code pending}.
+     */
+    private int pendingCount;
+
+    /**
+     * Number of updates made to {@code this}, each of which makes every
+     * iterator fail fast; pairs expiring are not counted.
+     */
+    private int modCount;
+
+    /**
+     * Value of {@code modCount} when an iterator last started. While the two
+     * are equal an iteration may be under way, so expired pairs are left in
+     * the index on the list of {@code pending} entries.
+     */
+    private int iterationModCount;
+
+    /**
+     * Number of pairs reclaimed because they expired.
+     */
+    private long expirations;
+
+    /**
+     * Time-to-live of the pairs added by {@code add(K, V)}, in nanoseconds.
+     */
+    private final long timeToLive;
+
+    /**
+     * Length of a tick, in nanoseconds.
+     */
+    private final long resolution;
+
+    /**
+     * Source of the current time.
+     */
+    private final Clock clock;
+
+    /**
+     * Creator of initial representation.
+     */
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    private void createNewRep() {
+        this.index = new Map4<K, Entry<K, V>>();
+        this.slots = new Entry[LEVELS * SLOTS];
+        this.occupied = new long[LEVELS];
+        this.pending = null;
+        this.pendingCount = 0;
+        this.currentTick = this.tickAt(this.clock.nanoTime());
+    }
+
+    /**
+     * Returns the tick holding time {@code nanos}.
+     *
+     * @param nanos
+     *            a reading of the clock
+     * @return the tick of {@code nanos}
+     */
+    private long tickAt(long nanos) {
+        return Math.floorDiv(nanos, this.resolution);
+    }
+
+    /**
+     * Returns the first tick boundary at or after {@code ttl} nanoseconds
+     * from now, saturating at {@code Long.MAX_VALUE}.
+     *
+     * @param ttl
+     *            the time-to-live, in nanoseconds
+     * @return the expiry tick
+     */
+    private long expiryTick(long ttl) {
+        long now = this.clock.nanoTime();
+        if (now > 0 && ttl > Long.MAX_VALUE - now) {
+            return Long.MAX_VALUE;
+        }
+        long deadline = now + ttl;
+        long tick = this.tickAt(deadline);
+        if (Math.floorMod(deadline, this.resolution) != 0) {
+            tick++;
+        }
+        return tick;
+    }
+
+    /**
+     * Files {@code e} in the slot matching how far off its expiry is, or
+     * reclaims it if its tick has come.
+     *
+     * @param e
+     *            an entry of the index in no slot list
+     * @updates this
+     */
+    private void schedule(Entry<K, V> e) {
+        if (e.expiryTick <= this.currentTick) {
+            this.expirations++;
+            if (this.iterationModCount == this.modCount) {
+                this.markRemoved(e);
+            } else {
+                this.index.remove(e.key);
+            }
+            return;
+        }
+        long filingTick = e.expiryTick;
+        /*
+         * The difference is positive but may exceed Long.MAX_VALUE
+         */
+        if (Long.compareUnsigned(filingTick - this.currentTick, SPAN) >= 0) {
+            filingTick = this.currentTick + SPAN - 1;
+        }
+        long delta = filingTick - this.currentTick;
+        int level = (Long.SIZE - 1 - Long.numberOfLeadingZeros(delta))
+                / SLOT_BITS;
+        int slot = (int) ((filingTick >> (SLOT_BITS * level)) & (SLOTS - 1));
+        int number = level * SLOTS + slot;
+        Entry<K, V> first = this.slots[number];
+        e.previous = null;
+        e.next = first;
+        if (first != null) {
+            first.previous = e;
+        }
+        this.slots[number] = e;
+        this.occupied[level] |= 1L << slot;
+        e.slot = number;
+    }
+
+    /**
+     * Takes {@code e} out of its slot list.
+     *
+     * @param e
+     *            an entry in a slot list
+     */
+    private void unschedule(Entry<K, V> e) {
+        if (e.previous == null) {
+            this.slots[e.slot] = e.next;
+            if (e.next == null) {
+                this.occupied[e.slot / SLOTS] &= ~(1L << (e.slot % SLOTS));
+            }
+        } else {
+            e.previous.next = e.next;
+        }
+        if (e.next != null) {
+            e.next.previous = e.previous;
+        }
+        e.previous = null;
+        e.next = null;
+    }
+
+    /**
+     * Marks {@code e} as gone from {@code this} and links it into the
+     * {@code pending} list, leaving the index untouched.
+     *
+     * @param e
+     *            an entry of the index in no slot list
+     */
+    private void markRemoved(Entry<K, V> e) {
+        e.removed = true;
+        e.next = this.pending;
+        this.pending = e;
+        this.pendingCount++;
+    }
+
+    /**
+     * Returns the entry of {@code key}, or {@code null} if {@code key} is not
+     * in {@code DOMAIN(this)}, without changing the index.
+     *
+     * @param key
+     *            the key to look up
+     * @return the entry of {@code key}, or {@code null}
+     */
+    private Entry<K, V> liveEntry(K key) {
+        Entry<K, V> e = this.index.valueOrDefault(key, null);
+        if (e != null && e.removed) {
+            e = null;
+        }
+        return e;
+    }
+
+    /**
+     * Returns an immutable copy of the pair held by {@code e}; entries
+     * themselves are never handed out, since their values change in place.
+     *
+     * @param <K>
+     *            type of key
+     * @param <V>
+     *            type of value
+     * @param e
+     *            the entry
+     * @return the pair (e.key, e.value)
+     */
+    private static <K, V> Pair<K, V> pairOf(Entry<K, V> e) {
+        return new SimplePair<K, V>(e.key, e.value);
+    }
+
+    /**
+     * Returns the first tick after {@code currentTick} at which a non-empty
+     * slot is processed, or {@code Long.MAX_VALUE} if the wheel is empty.
+     *
+     * @return the next tick with work to do
+     */
+    private long nextEventTick() {
+        long next = Long.MAX_VALUE;
+        for (int level = 0; level < LEVELS; level++) {
+            long bits = this.occupied[level];
+            if (bits != 0) {
+                int shift = SLOT_BITS * level;
+                long block = this.currentTick >> shift;
+                /*
+                 * Rotate so bit 0 is the slot of the next block; the slot of
+                 * a block is processed when time reaches the block's start
+                 */
+                long ahead = Long.rotateRight(bits,
+                        (int) ((block + 1) & (SLOTS - 1)));
+                long start = (block + 1
+                        + Long.numberOfTrailingZeros(ahead)) << shift;
+                next = Math.min(next, start);
+            }
+        }
+        return next;
+    }
+
+    /**
+     * Processes tick {@code tick}: every slot starting at it, from the top
+     * level down, is emptied and its entries filed again lower or reclaimed.
+     *
+     * @param tick
+     *            the tick reached
+     * @updates this
+     * @requires tick = $this.currentTick
+     */
+    private void processTick(long tick) {
+        for (int level = LEVELS - 1; level >= 0; level--) {
+            int shift = SLOT_BITS * level;
+            if ((tick & ((1L << shift) - 1)) == 0) {
+                int slot = (int) ((tick >> shift) & (SLOTS - 1));
+                int number = level * SLOTS + slot;
+                Entry<K, V> e = this.slots[number];
+                this.slots[number] = null;
+                this.occupied[level] &= ~(1L << slot);
+                while (e != null) {
+                    Entry<K, V> next = e.next;
+                    e.previous = null;
+                    e.next = null;
+                    this.schedule(e);
+                    e = next;
+                }
+            }
+        }
+    }
+
+    /**
+     * Brings the wheel up to the current tick, reclaiming the pairs that have
+     * expired, and removes the {@code pending} entries from the index unless
+     * an iteration may be under way.
+     *
+     * @updates this
+     */
+    private void advance() {
+        if (this.iterationModCount != this.modCount) {
+            while (this.pending != null) {
+                Entry<K, V> e = this.pending;
+                this.pending = e.next;
+                e.next = null;
+                this.index.remove(e.key);
+            }
+            this.pendingCount = 0;
+        }
+        long target = this.tickAt(this.clock.nanoTime());
+        while (this.currentTick < target) {
+            long next = this.nextEventTick();
+            if (next > target) {
+                this.currentTick = target;
+            } else {
+                this.currentTick = next;
+                this.processTick(next);
+            }
+        }
+    }
+
+    /*
+     * Nested types -----------------------------------------------------------
+     */
+
+    /**
+     * Source of the current time of an {@code ExpiringMap4}.
+     */
+    public interface Clock {
+
+        /**
+         * The system's monotonic clock, {@code System.nanoTime}.
+         */
+        Clock SYSTEM = System::nanoTime;
+
+        /**
+         * Returns the current time, in nanoseconds from an arbitrary origin;
+         * successive calls never go back.
+         *
+         * @return the current time in nanoseconds
+         */
+        long nanoTime();
+
+    }
+
+    /*
+     * Constructors -----------------------------------------------------------
+     */
+
+    /**
+     * No-argument constructor: pairs live one minute, by the system clock.
+     */
+    public ExpiringMap4() {
+        this(DEFAULT_TIME_TO_LIVE, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Constructor resulting in pairs that live {@code timeToLive}, by the
+     * system clock.
+     *
+     * @param timeToLive
+     *            default time-to-live of the pairs
+     * @param unit
+     *            unit of {@code timeToLive}
+     * @requires timeToLive > 0
+     * @ensures this = {}
+     */
+    public ExpiringMap4(long timeToLive, TimeUnit unit) {
+        this(timeToLive, unit, Clock.SYSTEM);
+    }
+
+    /**
+     * Constructor resulting in pairs that live {@code timeToLive} by
+     * {@code clock}, with ticks of one millisecond.
+     *
+     * @param timeToLive
+     *            default time-to-live of the pairs
+     * @param unit
+     *            unit of {@code timeToLive}
+     * @param clock
+     *            source of the current time
+     * @requires timeToLive > 0
+     * @ensures this = {}
+     */
+    public ExpiringMap4(long timeToLive, TimeUnit unit, Clock clock) {
+        this(timeToLive, unit, clock, DEFAULT_RESOLUTION,
+                TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Constructor resulting in pairs that live {@code timeToLive} by
+     * {@code clock}, with ticks of {@code resolution}.
+     *
+     * @param timeToLive
+     *            default time-to-live of the pairs
+     * @param unit
+     *            unit of {@code timeToLive}
+     * @param clock
+     *            source of the current time
+     * @param resolution
+     *            length of a tick
+     * @param resolutionUnit
+     *            unit of {@code resolution}
+     * @requires timeToLive > 0  and  resolution > 0
+     * @ensures this = {}
+     */
+    public ExpiringMap4(long timeToLive, TimeUnit unit, Clock clock,
+            long resolution, TimeUnit resolutionUnit) {
+        assert timeToLive > 0 : "Violation of: timeToLive > 0";
+        assert unit != null : "Violation of: unit is not null";
+        assert clock != null : "Violation of: clock is not null";
+        assert resolution > 0 : "Violation of: resolution > 0";
+        assert resolutionUnit != null : ""
+                + "Violation of: resolutionUnit is not null";
+        this.timeToLive = unit.toNanos(timeToLive);
+        this.clock = clock;
+        this.resolution = Math.max(1, resolutionUnit.toNanos(resolution));
+        /*
+         * No iteration is under way yet
+         */
+        this.iterationModCount = this.modCount - 1;
+        this.createNewRep();
+    }
+
+    /*
+     * Standard methods -------------------------------------------------------
+     */
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The new instance has the same time-to-live, clock and resolution as
+     * {@code this}.
+     */
+    @Override
+    public final Map<K, V> newInstance() {
+        return new ExpiringMap4<K, V>(this.timeToLive, TimeUnit.NANOSECONDS,
+                this.clock, this.resolution, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The expiration count is kept.
+     */
+    @Override
+    public final void clear() {
+        this.modCount++;
+        this.createNewRep();
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The pairs keep their expiry times.
+     */
+    @Override
+    public final void transferFrom(Map<K, V> source) {
+        assert source != null : "Violation of: source is not null";
+        assert source != this : "Violation of: source is not this";
+        assert source instanceof ExpiringMap4<?, ?> : ""
+                + "Violation of: source is of dynamic type ExpiringMap4<?,?>";
+        /*
+         * This cast cannot fail since the assert above would have stopped
+         * execution in that case.
+         */
+        ExpiringMap4<K, V> localSource = (ExpiringMap4<K, V>) source;
+        assert localSource.clock == this.clock
+                && localSource.resolution == this.resolution : ""
+                        + "Violation of: source has the same clock and "
+                        + "resolution as this";
+        this.index = localSource.index;
+        this.slots = localSource.slots;
+        this.occupied = localSource.occupied;
+        this.pending = localSource.pending;
+        this.pendingCount = localSource.pendingCount;
+        this.currentTick = localSource.currentTick;
+        this.modCount++;
+        localSource.modCount++;
+        localSource.createNewRep();
+        this.advance();
+    }
+
+    /*
+     * Kernel methods ---------------------------------------------------------
+     */
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The pair expires after the time-to-live given at construction.
+     */
+    @Override
+    public final void add(K key, V value) {
+        this.add(key, value, this.timeToLive, TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public final Pair<K, V> remove(K key) {
+        assert key != null : "Violation of: key is not null";
+
+        this.modCount++;
+        this.advance();
+        assert this.index.hasKey(key) : "Violation of: key is in DOMAIN(this)";
+        Entry<K, V> e = this.index.remove(key).value();
+        this.unschedule(e);
+        return pairOf(e);
+    }
+
+    @Override
+    public final Pair<K, V> removeAny() {
+        this.modCount++;
+        this.advance();
+        assert this.index.size() > 0 : "Violation of: this /= empty_set";
+        Entry<K, V> e = this.index.removeAny().value();
+        this.unschedule(e);
+        return pairOf(e);
+    }
+
+    @Override
+    public final V value(K key) {
+        assert key != null : "Violation of: key is not null";
+
+        this.advance();
+        Entry<K, V> e = this.liveEntry(key);
+        assert e != null : "Violation of: key is in DOMAIN(this)";
+        return e.value;
+    }
+
+    @Override
+    public final boolean hasKey(K key) {
+        assert key != null : "Violation of: key is not null";
+
+        this.advance();
+        return this.liveEntry(key) != null;
+    }
+
+    @Override
+    public final int size() {
+        this.advance();
+        return this.index.size() - this.pendingCount;
+    }
+
+    @Override
+    public final Iterator<Pair<K, V>> iterator() {
+        this.advance();
+        this.iterationModCount = this.modCount;
+        return new ExpiringMap4Iterator();
+    }
+
+    /*
+     * Secondary methods ------------------------------------------------------
+     */
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The pair keeps its expiry time.
+     */
+    @Override
+    public final V replaceValue(K key, V value) {
+        assert key != null : "Violation of: key is not null";
+        assert value != null : "Violation of: value is not null";
+
+        this.advance();
+        Entry<K, V> e = this.liveEntry(key);
+        assert e != null : "Violation of: key is in DOMAIN(this)";
+        V old = e.value;
+        e.value = value;
+        return old;
+    }
+
+    /*
+     * Other methods ----------------------------------------------------------
+     */
+
+    /**
+     * Adds the pair ({@code key}, {@code value}) to {@code this}, to expire
+     * after {@code timeToLive}.
+     *
+     * @param key
+     *            the key to be added
+     * @param value
+     *            the associated value to be added
+     * @param timeToLive
+     *            how long the pair lives
+     * @param unit
+     *            unit of {@code timeToLive}
+     * @aliases references key, value
+     * @updates this
+     * @requires key is not in DOMAIN(this)  and  timeToLive > 0
+     * @ensures <pre>
+     * this = #this union {(key, value)}  until the first tick boundary at
+     * or after timeToLive from now
+     * </pre>
+     */
+    public final void add(K key, V value, long timeToLive, TimeUnit unit) {
+        assert key != null : "Violation of: key is not null";
+        assert value != null : "Violation of: value is not null";
+        assert timeToLive > 0 : "Violation of: timeToLive > 0";
+        assert unit != null : "Violation of: unit is not null";
+
+        this.modCount++;
+        this.advance();
+        assert !this.index.hasKey(key) : ""
+                + "Violation of: key is not in DOMAIN(this)";
+        Entry<K, V> e = new Entry<K, V>(key, value,
+                this.expiryTick(unit.toNanos(timeToLive)));
+        this.index.add(key, e);
+        this.schedule(e);
+    }
+
+    /**
+     * Reclaims every pair that has expired, including those an iteration kept
+     * in the index. Every method does this anyway, but lookups only while no
+     * iteration may be under way; calling it, e.g. periodically, releases
+     * expired pairs of a map that is otherwise left alone. Like an update, it
+     * makes every iterator fail fast.
+     *
+     * @updates this
+     * @ensures this = #this
+     */
+    public final void cleanUp() {
+        this.modCount++;
+        this.advance();
+    }
+
+    /**
+     * Reports the number of pairs reclaimed because they expired.
+     *
+     * @return the number of expirations
+     */
+    public final long expirations() {
+        return this.expirations;
+    }
+
+    /**
+     * Entry of the index and of a slot list.
+     *
+     * @param <K>
+     *            type of key
+     * @param <V>
+     *            type of value
+     */
+    private static final class Entry<K, V> {
+
+        /**
+         * The key.
+         */
+        private final K key;
+
+        /**
+         * The value.
+         */
+        private V value;
+
+        /**
+         * Tick at which the pair expires.
+         */
+        private final long expiryTick;
+
+        /**
+         * Number of the slot list holding this entry.
+         */
+        private int slot;
+
+        /**
+         * Previous entry of the slot list, or {@code null} if first.
+         */
+        private Entry<K, V> previous;
+
+        /**
+         * Next entry of the slot list, or {@code null} if last; once
+         * {@code removed}, next entry of the {@code pending} list.
+         */
+        private Entry<K, V> next;
+
+        /**
+         * Whether the pair is gone from the map although the entry is still
+         * in the index.
+         */
+        private boolean removed;
+
+        /**
+         * Constructor.
+         *
+         * @param key
+         *            the key
+         * @param value
+         *            the value
+         * @param expiryTick
+         *            tick at which the pair expires
+         */
+        Entry(K key, V value, long expiryTick) {
+            this.key = key;
+            this.value = value;
+            this.expiryTick = expiryTick;
+        }
+
+    }
+
+    /**
+     * Fail-fast implementation of {@code Iterator} interface for
+     * {@code ExpiringMap4}, supporting {@code remove}. It passes over the
+     * entries of pairs that expire or are removed while it runs, which stay
+     * in the index until the next update, so lookups never make it fail.
+     */
+    private final class ExpiringMap4Iterator implements Iterator<Pair<K, V>> {
+
+        /**
+         * Iterator of the index.
+         */
+        private final Iterator<Pair<K, Entry<K, V>>> indexIterator;
+
+        /**
+         * Entry to return next, or {@code null} if not yet found.
+         */
+        private Entry<K, V> nextEntry;
+
+        /**
+         * Entry last returned, or {@code null}.
+         */
+        private Entry<K, V> lastReturned;
+
+        /**
+         * No-argument constructor.
+         */
+        ExpiringMap4Iterator() {
+            this.indexIterator = ExpiringMap4.this.index.iterator();
+            this.nextEntry = null;
+            this.lastReturned = null;
+        }
+
+        @Override
+        public boolean hasNext() {
+            ExpiringMap4.this.advance();
+            while (this.nextEntry == null || this.nextEntry.removed) {
+                if (!this.indexIterator.hasNext()) {
+                    this.nextEntry = null;
+                    return false;
+                }
+                this.nextEntry = this.indexIterator.next().value();
+            }
+            return true;
+        }
+
+        @Override
+        public Pair<K, V> next() {
+            if (!this.hasNext()) {
+                throw new NoSuchElementException();
+            }
+            this.lastReturned = this.nextEntry;
+            this.nextEntry = null;
+            return pairOf(this.lastReturned);
+        }
+
+        @Override
+        public void remove() {
+            if (this.lastReturned == null) {
+                throw new IllegalStateException();
+            }
+            /*
+             * The index iterator may already be past lastReturned, so its
+             * entry is left in the index like that of an expired pair
+             */
+            ExpiringMap4.this.advance();
+            if (!this.lastReturned.removed) {
+                ExpiringMap4.this.unschedule(this.lastReturned);
+                ExpiringMap4.this.markRemoved(this.lastReturned);
+            }
+            this.lastReturned = null;
+        }
+
+    }
+
+}
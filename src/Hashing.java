@@ -0,0 +1,85 @@
+/**
+ * Bit mixers shared by the hash tables of this package. Every table that
+ * reduces a hash code to a slot or bucket by masking its low bits mixes it
+ * here first, and {@code Map4Snapshot} stores the mixed codes in its files,
+ * so these functions are part of that file format and must not change.
+ *
+ * @author Simon Manning & Nam Nguyen
+ *
+ */
+final class Hashing {
+
+    /*
+     * Private members --------------------------------------------------------
+     */
+
+    /**
+     * First multiplier of the 32-bit finalizer of MurmurHash3.
+     */
+    private static final int FMIX32_1 = 0x85ebca6b;
+
+    /**
+     * Second multiplier of the 32-bit finalizer of MurmurHash3.
+     */
+    private static final int FMIX32_2 = 0xc2b2ae35;
+
+    /**
+     * First multiplier of the 64-bit finalizer of MurmurHash3.
+     */
+    private static final long FMIX64_1 = 0xff51afd7ed558ccdL;
+
+    /**
+     * Second multiplier of the 64-bit finalizer of MurmurHash3.
+     */
+    private static final long FMIX64_2 = 0xc4ceb9fe1a85ec53L;
+
+    /**
+     * No-argument constructor--private to prevent instantiation.
+     */
+    private Hashing() {
+    }
+
+    /*
+     * Package-private members ------------------------------------------------
+     */
+
+    /**
+     * Mixes the bits of {@code h} so that every input bit affects every output
+     * bit (the MurmurHash3 {@code fmix32} finalizer). Sequential or otherwise
+     * poorly distributed hash codes then differ in their low bits too.
+     *
+     * @param h
+     *            the hash code
+     * @return the mixed hash code
+     * @ensures [mix32 is a bijection of int with mix32(0) = 0]
+     */
+    static int mix32(int h) {
+        int x = h;
+        x ^= x >>> 16;
+        x *= FMIX32_1;
+        x ^= x >>> 13;
+        x *= FMIX32_2;
+        x ^= x >>> 16;
+        return x;
+    }
+
+    /**
+     * Mixes the bits of {@code h} so that every input bit affects every output
+     * bit (the MurmurHash3 {@code fmix64} finalizer).
+     *
+     * @param h
+     *            the value to mix
+     * @return the mixed value
+     * @ensures [mix64 is a bijection of long with mix64(0) = 0]
+     */
+    static long mix64(long h) {
+        long x = h;
+        x ^= x >>> 33;
+        x *= FMIX64_1;
+        x ^= x >>> 33;
+        x *= FMIX64_2;
+        x ^= x >>> 33;
+        return x;
+    }
+
+}
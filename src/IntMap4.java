@@ -0,0 +1,534 @@
+// GENERATED FILE: edit gen/PrimitiveMap4.template and run
+// "java gen/GeneratePrimitiveMaps.java" from the project root instead.
+import java.util.NoSuchElementException;
+
+/**
+ * Hash map from {@code int} keys to object values, modeled on the kernel
+ * of {@code Map4} but storing its keys in flat primitive arrays
+ * with open addressing, so that no operation boxes a key or allocates.
+ * <p>
+ * Key {@code 0} marks an empty slot, so an entry with key {@code 0} is kept
+ * aside in {@code zeroValue}. The table keeps at least half of its slots
+ * empty, so it holds at most {@code OpenAddressing.MAXIMUM_CAPACITY / 2}
+ * nonzero keys; {@code add} beyond that throws {@code IllegalStateException}.
+ *
+ * @param <V>
+ *            type of range (associated value) entries
+ * @convention <pre>
+ * |$this.keys| = |$this.values|  and
+ * [|$this.keys| is a power of two]  and  |$this.keys| >= 2  and
+ * 2 * $this.size <= |$this.keys|  and
+ * $this.size = [number of nonzero entries of $this.keys] +
+ *              (if $this.hasZeroKey then 1 else 0)  and
+ * for all i: integer
+ *     where (0 <= i  and  i < |$this.keys|  and  $this.keys[i] /= 0)
+ *   ([every slot cyclically from hash($this.keys[i]) mod |$this.keys| up
+ *     to i holds a nonzero key])  and
+ * for all i: integer
+ *     where (0 <= i  and  i < |$this.keys|)
+ *   ($this.keys[i] = 0  iff  $this.values[i] = null)  and
+ * ($this.hasZeroKey  iff  $this.zeroValue /= null)  and
+ * [no two nonzero entries of $this.keys are equal]  and
+ * 0 <= $this.anyCursor < |$this.keys|
+ * </pre>
+ * @correspondence <pre>
+ * this = {(k, v): (int, V)
+ *         where (there exists i: integer
+ *                  (0 <= i  and  i < |$this.keys|  and  k /= 0  and
+ *                   $this.keys[i] = k  and  $this.values[i] = v))  or
+ *               (k = 0  and  $this.hasZeroKey  and  v = $this.zeroValue)}
+ * </pre>
+ *
+ * @author Simon Manning & Nam Nguyen
+ *
+ */
+public class IntMap4<V> {
+
+    /*
+     * Private members --------------------------------------------------------
+     */
+
+    /**
+     * Keys, one per slot; {@code 0} marks an empty slot.
+     */
+    private int[] keys;
+
+    /**
+     * Values, parallel to {@code keys}.
+     */
+    private Object[] values;
+
+    /**
+     * Whether key {@code 0} is in {@code this}.
+     */
+    private boolean hasZeroKey;
+
+    /**
+     * Value associated with key {@code 0}, if {@code hasZeroKey}.
+     */
+    private V zeroValue;
+
+    /**
+     * Total size of abstract {@code this}.
+     */
+    private int size;
+
+    /**
+     * Slot at which {@code anyKey} and {@code removeAny} resume their scan.
+     */
+    private int anyCursor;
+
+    /**
+     * Returns the hash code whose low bits give the home slot of {@code key}.
+     *
+     * @param key
+     *            the key
+     * @return the mixed hash code of {@code key}
+     */
+    private static int hash(int key) {
+        return Hashing.mix32(key);
+    }
+
+    /**
+     * Creator of initial representation.
+     *
+     * @param capacity
+     *            the number of slots
+     * @requires [capacity is a power of two]  and  capacity >= 2
+     * @ensures <pre>
+     * |$this.keys| = capacity  and
+     * [every slot is empty]  and
+     * $this.size = 0
+     * </pre>
+     */
+    private void createNewRep(int capacity) {
+        this.keys = new int[capacity];
+        this.values = new Object[capacity];
+        this.hasZeroKey = false;
+        this.zeroValue = null;
+        this.size = 0;
+        this.anyCursor = 0;
+    }
+
+    /**
+     * Returns the slot holding {@code key}, or the empty slot ending its probe
+     * sequence if {@code key} is not in {@code this}.
+     *
+     * @param key
+     *            the key to locate
+     * @return the slot
+     * @requires key /= 0
+     * @ensures <pre>
+     * ($this.keys[slotOf] = 0  and  key is not in DOMAIN(this))  or
+     * $this.keys[slotOf] = key
+     * </pre>
+     */
+    private int slotOf(int key) {
+        int mask = this.keys.length - 1;
+        int i = hash(key) & mask;
+        int k = this.keys[i];
+        while (k != 0 && k != key) {
+            i = (i + 1) & mask;
+            k = this.keys[i];
+        }
+        return i;
+    }
+
+    /**
+     * Moves every entry into a table with {@code newCapacity} slots.
+     *
+     * @param newCapacity
+     *            the number of slots in the new table
+     * @updates $this.keys, $this.values
+     * @requires [newCapacity is a power of two]  and
+     *           2 * $this.size <= newCapacity
+     * @ensures |$this.keys| = newCapacity  and  this = #this
+     */
+    private void resize(int newCapacity) {
+        int[] oldKeys = this.keys;
+        Object[] oldValues = this.values;
+        this.keys = new int[newCapacity];
+        this.values = new Object[newCapacity];
+        this.anyCursor = 0;
+        int mask = newCapacity - 1;
+        for (int j = 0; j < oldKeys.length; j++) {
+            if (oldKeys[j] != 0) {
+                int i = hash(oldKeys[j]) & mask;
+                while (this.keys[i] != 0) {
+                    i = (i + 1) & mask;
+                }
+                this.keys[i] = oldKeys[j];
+                this.values[i] = oldValues[j];
+            }
+        }
+    }
+
+    /**
+     * Empties slot {@code hole} and shifts back later entries of the same
+     * probe run so that no tombstones are needed.
+     *
+     * @param hole
+     *            the slot to empty
+     * @updates $this.keys, $this.values
+     * @requires $this.keys[hole] /= 0
+     * @ensures <pre>
+     * this = #this \ {(#$this.keys[hole], #$this.values[hole])}
+     * </pre>
+     */
+    private void deleteSlot(int hole) {
+        int mask = this.keys.length - 1;
+        int i = hole;
+        int j = hole;
+        while (true) {
+            j = (j + 1) & mask;
+            if (this.keys[j] == 0) {
+                break;
+            }
+            if (!OpenAddressing.mustStay(i, j, hash(this.keys[j]) & mask)) {
+                this.keys[i] = this.keys[j];
+                this.values[i] = this.values[j];
+                i = j;
+            }
+        }
+        this.keys[i] = 0;
+        this.values[i] = null;
+        this.size--;
+    }
+
+    /**
+     * Returns a slot holding a nonzero key, resuming the cyclic scan where
+     * the previous call stopped.
+     *
+     * @return the slot
+     * @requires [$this.keys has a nonzero entry]
+     * @ensures $this.keys[nextOccupiedSlot] /= 0
+     */
+    private int nextOccupiedSlot() {
+        int mask = this.keys.length - 1;
+        int i = this.anyCursor;
+        while (this.keys[i] == 0) {
+            i = (i + 1) & mask;
+        }
+        this.anyCursor = i;
+        return i;
+    }
+
+    /*
+     * Constructors -----------------------------------------------------------
+     */
+
+    /**
+     * No-argument constructor.
+     */
+    public IntMap4() {
+        this.createNewRep(OpenAddressing.DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Constructor resulting in a table that holds {@code expectedSize}
+     * entries without resizing.
+     *
+     * @param expectedSize
+     *            number of entries expected
+     * @requires expectedSize >= 0
+     * @ensures this = {}
+     */
+    public IntMap4(int expectedSize) {
+        assert expectedSize >= 0 : "Violation of: expectedSize >= 0";
+        this.createNewRep(OpenAddressing
+                .capacityFor(2L * Math.max(expectedSize, 1)));
+    }
+
+    /*
+     * Standard methods -------------------------------------------------------
+     */
+
+    /**
+     * Resets {@code this} to an initial value.
+     *
+     * @clears this
+     */
+    public final void clear() {
+        this.createNewRep(OpenAddressing.DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Sets {@code this} to the incoming value of {@code source}, and resets
+     * {@code source} to an initial value.
+     *
+     * @param source
+     *            the map whose value is transferred
+     * @replaces this
+     * @clears source
+     * @requires source /= this
+     * @ensures this = #source
+     */
+    public final void transferFrom(IntMap4<V> source) {
+        assert source != null : "Violation of: source is not null";
+        assert source != this : "Violation of: source is not this";
+
+        this.keys = source.keys;
+        this.values = source.values;
+        this.hasZeroKey = source.hasZeroKey;
+        this.zeroValue = source.zeroValue;
+        this.size = source.size;
+        this.anyCursor = source.anyCursor;
+        source.createNewRep(OpenAddressing.DEFAULT_CAPACITY);
+    }
+
+    /*
+     * Kernel methods ---------------------------------------------------------
+     */
+
+    /**
+     * Adds the pair ({@code key}, {@code value}) to this.
+     *
+     * @param key
+     *            the key to be added
+     * @param value
+     *            the associated value to be added
+     * @updates this
+     * @requires value /= null  and  key is not in DOMAIN(this)
+     * @ensures this = #this union {(key, value)}
+     */
+    public final void add(int key, V value) {
+        assert value != null : "Violation of: value is not null";
+        assert !this.hasKey(key) : "Violation of: key is not in DOMAIN(this)";
+
+        if (key == 0) {
+            this.hasZeroKey = true;
+            this.zeroValue = value;
+            this.size++;
+            return;
+        }
+        if (2 * (this.size + 1) > this.keys.length) {
+            this.resize(OpenAddressing.grownCapacity(this.keys.length));
+        }
+        int mask = this.keys.length - 1;
+        int i = hash(key) & mask;
+        while (this.keys[i] != 0) {
+            i = (i + 1) & mask;
+        }
+        this.keys[i] = key;
+        this.values[i] = value;
+        this.size++;
+    }
+
+    /**
+     * Removes the pair whose first component is {@code key} and returns its
+     * second component.
+     *
+     * @param key
+     *            the key to be removed
+     * @return the value formerly associated with {@code key}
+     * @updates this
+     * @requires key is in DOMAIN(this)
+     * @ensures <pre>
+     * (key, remove) is in #this  and
+     * this = #this \ {(key, remove)}
+     * </pre>
+     */
+    @SuppressWarnings("unchecked")
+    public final V remove(int key) {
+        assert this.hasKey(key) : "Violation of: key is in DOMAIN(this)";
+
+        if (key == 0) {
+            V removed = this.zeroValue;
+            this.hasZeroKey = false;
+            this.zeroValue = null;
+            this.size--;
+            return removed;
+        }
+        int i = this.slotOf(key);
+        V removed = (V) this.values[i];
+        this.deleteSlot(i);
+        return removed;
+    }
+
+    /**
+     * Reports some key in {@code this}; together with {@code remove} this
+     * drains {@code this} while seeing every value.
+     *
+     * @return a key in DOMAIN(this)
+     * @requires |this| > 0
+     * @ensures anyKey is in DOMAIN(this)
+     */
+    public final int anyKey() {
+        assert this.size > 0 : "Violation of: this /= empty_set";
+
+        if (this.hasZeroKey) {
+            return 0;
+        }
+        return this.keys[this.nextOccupiedSlot()];
+    }
+
+    /**
+     * Removes an arbitrary pair from {@code this} and returns its key.
+     *
+     * @return the key of the removed pair
+     * @updates this
+     * @requires |this| > 0
+     * @ensures <pre>
+     * removeAny is in DOMAIN(#this)  and
+     * this = #this \ {(removeAny, [value associated with removeAny in #this])}
+     * </pre>
+     */
+    public final int removeAny() {
+        assert this.size > 0 : "Violation of: this /= empty_set";
+
+        if (this.hasZeroKey) {
+            this.hasZeroKey = false;
+            this.zeroValue = null;
+            this.size--;
+            return 0;
+        }
+        int i = this.nextOccupiedSlot();
+        int key = this.keys[i];
+        this.deleteSlot(i);
+        return key;
+    }
+
+    /**
+     * Reports the value associated with {@code key} in {@code this}.
+     *
+     * @param key
+     *            the key whose associated value is to be reported
+     * @return the value associated with key
+     * @requires key is in DOMAIN(this)
+     * @ensures (key, value) is in this
+     */
+    @SuppressWarnings("unchecked")
+    public final V value(int key) {
+        assert this.hasKey(key) : "Violation of: key is in DOMAIN(this)";
+
+        if (key == 0) {
+            return this.zeroValue;
+        }
+        return (V) this.values[this.slotOf(key)];
+    }
+
+    /**
+     * Reports whether there is a pair in {@code this} whose first component is
+     * {@code key}.
+     *
+     * @param key
+     *            the key to be checked
+     * @return true iff there is a pair in this whose first component is key
+     * @ensures hasKey = (key is in DOMAIN(this))
+     */
+    public final boolean hasKey(int key) {
+        if (key == 0) {
+            return this.hasZeroKey;
+        }
+        return this.keys[this.slotOf(key)] != 0;
+    }
+
+    /**
+     * Reports the size of {@code this}.
+     *
+     * @return the number of pairs in this
+     * @ensures size = |this|
+     */
+    public final int size() {
+        return this.size;
+    }
+
+    /**
+     * Returns a cursor over the pairs of {@code this}; the cursor reuses its
+     * own state instead of allocating a pair per entry.
+     *
+     * @return a cursor positioned before the first pair
+     * @requires [this is not modified while the cursor is in use]
+     */
+    public final Cursor cursor() {
+        return new Cursor();
+    }
+
+    /**
+     * Allocation-free iteration over the pairs of a {@code IntMap4}.
+     */
+    public final class Cursor {
+
+        /**
+         * Number of pairs seen already.
+         */
+        private int numberSeen;
+
+        /**
+         * Slot of the current pair, or -1 for the key-{@code 0} pair or
+         * before the first {@code advance}.
+         */
+        private int currentSlot;
+
+        /**
+         * Whether the cursor is on a pair.
+         */
+        private boolean onPair;
+
+        /**
+         * No-argument constructor.
+         */
+        Cursor() {
+            this.numberSeen = 0;
+            this.currentSlot = -1;
+            this.onPair = false;
+        }
+
+        /**
+         * Moves to the next pair.
+         *
+         * @return true iff there was another pair to move to
+         */
+        public boolean advance() {
+            if (this.numberSeen == IntMap4.this.size) {
+                this.onPair = false;
+                return false;
+            }
+            if (this.numberSeen == 0 && IntMap4.this.hasZeroKey) {
+                this.currentSlot = -1;
+            } else {
+                do {
+                    this.currentSlot++;
+                } while (IntMap4.this.keys[this.currentSlot] == 0);
+            }
+            this.numberSeen++;
+            this.onPair = true;
+            return true;
+        }
+
+        /**
+         * Reports the key of the current pair.
+         *
+         * @return the key
+         * @requires [the last call to advance returned true]
+         */
+        public int key() {
+            if (!this.onPair) {
+                throw new NoSuchElementException();
+            }
+            if (this.currentSlot < 0) {
+                return 0;
+            }
+            return IntMap4.this.keys[this.currentSlot];
+        }
+
+        /**
+         * Reports the value of the current pair.
+         *
+         * @return the value
+         * @requires [the last call to advance returned true]
+         */
+        @SuppressWarnings("unchecked")
+        public V value() {
+            if (!this.onPair) {
+                throw new NoSuchElementException();
+            }
+            if (this.currentSlot < 0) {
+                return IntMap4.this.zeroValue;
+            }
+            return (V) IntMap4.this.values[this.currentSlot];
+        }
+
+    }
+
+}
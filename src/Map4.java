@@ -1,15 +1,51 @@
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.ConcurrentModificationException;
 import java.util.Iterator;
+import java.util.List;
 import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 import components.array.Array;
 import components.array.Array1L;
 import components.map.Map;
-import components.map.Map2;
 import components.map.MapSecondary;
 
 /**
- * {@code Map} represented as a hash table using {@code Map}s for the buckets,
- * with implementations of primary methods.
+ * {@code Map} represented as a hash table using chains of entries for the
+ * buckets, with implementations of primary methods. Each entry caches the hash
+ * code of its key, so lookups reject mismatches without calling {@code equals}
+ * and resizes never call {@code hashCode} again.
+ * <p>
+ * A table whose number of buckets is a power of two picks the bucket of a key
+ * by masking the low bits of its avalanche-mixed hash code; any other table
+ * size reduces the hash code with {@code mod}. Pass a power of two to a
+ * constructor to select the cheaper masked indexing; it is kept across
+ * resizes.
+ * <p>
+ * A bucket whose chain grows long, as happens when many keys share a hash
+ * code, additionally indexes its chain with a balanced tree ordered by hash
+ * code and then by {@code compareTo} for {@code Comparable} keys, bounding
+ * lookups in that bucket to O(log n); the tree is dropped when the chain
+ * becomes short again. A custom {@code Equivalence} need not agree with
+ * {@code compareTo}, which then cannot separate keys sharing a hash code, so
+ * buckets of a map given one are never treeified and stay chains scanned in
+ * O(n).
+ * <p>
+ * An {@code Equivalence} given at construction replaces the keys'
+ * {@code hashCode} and {@code equals}, for keys such as arrays, strings
+ * compared without case, or strings hashed with a random seed; keys are
+ * then in {@code DOMAIN(this)} up to that equivalence.
+ * <p>
+ * Every pair handed out, by {@code remove}, {@code removeAny},
+ * {@code drainTo}, the iterator or the spliterator, is an immutable copy, so
+ * a pair a caller holds keeps its value when {@code replaceValue},
+ * {@code compute} or {@code merge} later change the value of its key.
  *
  * @param <K>
  *            type of {@code Map} domain (key) entries
@@ -17,22 +53,50 @@ import components.map.MapSecondary;
  *            type of {@code Map} range (associated value) entries
  * @convention <pre>
  * |$this.hashTable.entries| > 0  and
- * for all i: integer, pf: PARTIAL_FUNCTION, x: K
+ * 0 < $this.loadFactor  and
+ * $this.minimumTableSize > 0  and
+ * for all i: integer, b: Bucket, n: Node
  *     where (0 <= i  and  i < |$this.hashTable.entries|  and
- *            <pf> = $this.hashTable.entries[i, i+1)  and
- *            x is in DOMAIN(pf))
- *   ([computed result of x.hashCode()] mod |$this.hashTable.entries| = i))  and
- * |$this.hashTable.examinableIndices| = |$this.hashTable.entries|  and
- * $this.size = sum i: integer, pf: PARTIAL_FUNCTION
+ *            <b> = $this.hashTable.entries[i, i+1)  and
+ *            n is in the chain starting at b.first)
+ *   (n.hash = [hash code of n.key under $this.equivalence, which is
+ *             n.key.hashCode() if $this.equivalence = null]  and
+ *    indexFor(n.hash, |$this.hashTable.entries|) = i  and
+ *    n.key /= null  and  n.value /= null)  and
+ * for all i: integer, b: Bucket
  *     where (0 <= i  and  i < |$this.hashTable.entries|  and
- *            <pf> = $this.hashTable.entries[i, i+1))
- *   (|pf|)
+ *            <b> = $this.hashTable.entries[i, i+1))
+ *   (b.size = [length of the chain starting at b.first]  and
+ *    b.equivalence = $this.equivalence  and
+ *    [no two nodes of the chain starting at b.first have equivalent
+ *     keys]  and
+ *    (b.equivalence /= null  implies  b.root = null)  and
+ *    (b.root = null  or
+ *     [b.root is an AVL tree, ordered by b.order, holding exactly one
+ *      entry for each node of the chain, and the entries starting at
+ *      b.firstEntry are linked in chain order]))  and
+ * [a bucket whose index is not in the examinableIndices of its table is
+ *  empty]  and
+ * [$this.occupied is the occupancy bitmap of $this.hashTable and, if it is
+ *  not null, $this.oldOccupied is the occupancy bitmap of $this.oldTable]  and
+ * 0 <= $this.anyCursor < |$this.hashTable.entries|  and
+ * for all i: integer
+ *     where (0 <= i  and  i < $this.anyCursor)
+ *   ($this.hashTable.entries[i, i+1) = <[empty bucket]>)  and
+ * ($this.oldTable = null  or
+ *  ($this.oldTable satisfies the same bucket conditions as $this.hashTable  and
+ *   0 <= $this.migrated <= |$this.oldTable.entries|  and
+ *   for all i: integer
+ *       where (0 <= i  and  i < $this.migrated)
+ *     ($this.oldTable.entries[i, i+1) = <[empty bucket]>)  and
+ *   [no key is in both $this.oldTable and $this.hashTable]))  and
+ * $this.size = [total number of nodes in the buckets of $this.hashTable
+ *               and, if it is not null, of $this.oldTable]
  * </pre>
  * @correspondence <pre>
- * this = union i: integer, pf: PARTIAL_FUNCTION
- *            where (0 <= i  and  i < |$this.hashTable.entries|  and
- *                   <pf> = $this.hashTable.entries[i, i+1))
- *          (pf)
+ * this = {(n.key, n.value)
+ *         where [n is a node in a bucket of $this.hashTable or, if it is not
+ *                null, of $this.oldTable]}
  * </pre>
  *
  * @author Simon Manning & Nam Nguyen
@@ -49,16 +113,136 @@ public class Map4<K, V> extends MapSecondary<K, V> {
      */
     private static final int DEFAULT_HASH_TABLE_SIZE = 101;
 
+    /**
+     * Default ratio of {@code size} to number of buckets above which the hash
+     * table grows.
+     */
+    private static final double DEFAULT_LOAD_FACTOR = 0.75;
+
+    /**
+     * Fraction of the load factor below which a shrinkable hash table halves
+     * its number of buckets.
+     */
+    private static final double SHRINK_FRACTION = 0.25;
+
+    /**
+     * Number of old buckets migrated by each operation while an incremental
+     * rehash is in progress.
+     */
+    private static final int MIGRATION_STEP = 4;
+
+    /**
+     * Largest number of buckets {@code ensureCapacity} asks for.
+     */
+    private static final int MAXIMUM_TABLE_SIZE = 1 << 30;
+
+    /**
+     * Number of pairs below which a parallel {@code addAll} runs sequentially.
+     */
+    private static final int PARALLEL_THRESHOLD = 1 << 13;
+
     /**
      * Buckets for hashing.
      */
-    private Array<Map<K, V>> hashTable;
+    private Array<Bucket<K, V>> hashTable;
+
+    /**
+     * Buckets of the table being migrated into {@code hashTable}, or
+     * {@code null} when no rehash is in progress.
+     */
+    private Array<Bucket<K, V>> oldTable;
+
+    /**
+     * Occupancy bitmap of {@code hashTable}: bit i of word i / 64 is set iff
+     * bucket i is not empty.
+     */
+    private long[] occupied;
+
+    /**
+     * Occupancy bitmap of {@code oldTable}, or {@code null}.
+     */
+    private long[] oldOccupied;
+
+    /**
+     * Number of buckets at the front of {@code oldTable} already migrated.
+     */
+    private int migrated;
+
+    /**
+     * Index of {@code hashTable} below which every bucket is empty, where
+     * {@code removeAny} resumes its scan.
+     */
+    private int anyCursor;
 
     /**
      * Total size of abstract {@code this}.
      */
     private int size;
 
+    /**
+     * Number of structural modifications made to {@code this}, by which
+     * iterators detect updates they did not make themselves.
+     */
+    private int modCount;
+
+    /**
+     * Value of {@code modCount} when an iterator or spliterator last started
+     * or removed a pair. While the two are equal an iteration may be under
+     * way, so lookups leave the buckets where they are.
+     */
+    private int iterationModCount;
+
+    /**
+     * Ratio of {@code size} to number of buckets above which the hash table
+     * grows.
+     */
+    private double loadFactor;
+
+    /**
+     * Whether the hash table shrinks after heavy removal.
+     */
+    private boolean shrinkable;
+
+    /**
+     * How the entries are moved when the hash table changes size.
+     */
+    private RehashMode rehashMode;
+
+    /**
+     * Number of buckets the hash table never shrinks below.
+     */
+    private int minimumTableSize;
+
+    /**
+     * Lookup counters, or {@code null} while probe counting is off.
+     */
+    private Map4Probes probes;
+
+    /**
+     * Strategy hashing and comparing the keys, or {@code null} for their
+     * {@code hashCode} and {@code equals}, which are then called directly.
+     */
+    private Equivalence<? super K> equivalence;
+
+    /**
+     * Returns the hash code of {@code key} under the strategy of {@code this}.
+     *
+     * @param key
+     *            the key to hash
+     * @return the hash code of {@code key}
+     * @ensures <pre>
+     * ($this.equivalence = null  implies  hash = key.hashCode())  and
+     * ($this.equivalence /= null  implies
+     *    hash = $this.equivalence.hash(key))
+     * </pre>
+     */
+    private int hash(K key) {
+        if (this.equivalence == null) {
+            return key.hashCode();
+        }
+        return this.equivalence.hash(key);
+    }
+
     /**
      * Computes {@code a} mod {@code b} as % should have been defined to work.
      *
@@ -94,6 +278,49 @@ public class Map4<K, V> extends MapSecondary<K, V> {
         // return ( a < 0 ) ? a % b : a % b + b;
     }
 
+    /**
+     * Reports whether {@code tableSize} is a power of two.
+     *
+     * @param tableSize
+     *            the number of buckets
+     * @return true iff {@code tableSize} is a power of two
+     * @requires tableSize > 0
+     * @ensures isPowerOfTwo = [tableSize is a power of two]
+     */
+    private static boolean isPowerOfTwo(int tableSize) {
+        return (tableSize & (tableSize - 1)) == 0;
+    }
+
+    /**
+     * Returns the bucket for hash code {@code hash} in a table of
+     * {@code tableSize} buckets.
+     *
+     * @param hash
+     *            the hash code
+     * @param tableSize
+     *            the number of buckets
+     * @return the bucket index
+     * @requires tableSize > 0
+     * @ensures <pre>
+     * 0 <= indexFor  and  indexFor < tableSize  and
+     * ([tableSize is a power of two]  implies
+     *    indexFor = Hashing.mix32(hash) mod tableSize)  and
+     * ([tableSize is not a power of two]  implies
+     *    indexFor = hash mod tableSize)
+     * </pre>
+     */
+    private static int indexFor(int hash, int tableSize) {
+        assert tableSize > 0 : "Violation of: tableSize > 0";
+
+        if (isPowerOfTwo(tableSize)) {
+            /*
+             * No division: the mixed hash is masked down to its low bits
+             */
+            return Hashing.mix32(hash) & (tableSize - 1);
+        }
+        return mod(hash, tableSize);
+    }
+
     /**
      * Creator of initial representation.
      *
@@ -102,10 +329,7 @@ public class Map4<K, V> extends MapSecondary<K, V> {
      * @requires hashTableSize > 0
      * @ensures <pre>
      * |$this.hashTable.entries| = hashTableSize  and
-     * for all i: integer
-     *     where (0 <= i  and  i < |$this.hashTable.entries|)
-     *   ($this.hashTable.entries[i, i+1) = <{}>  and
-     *    i is in $this.hashTable.examinableIndices)  and
+     * $this.hashTable.examinableIndices = {}  and
      * $this.size = 0
      * </pre>
      */
@@ -113,214 +337,2419 @@ public class Map4<K, V> extends MapSecondary<K, V> {
         /*
          * hashTable.entries needs to be the size of {@code hashTableSize}.
          *
-         * Each entry must be empty and of type Map2
+         * Each entry must be an empty Bucket; buckets are allocated on first
+         * add, so an entry that may not be examined stands for one
          *
          * Simply call the constructor with the {@code hashTableSize} as the
          * parameter
          */
-        this.hashTable = new Array1L<Map<K, V>>(hashTableSize);
-        for (int i = 0; i < hashTableSize; i++) {
-            this.hashTable.setEntry(i, new Map2<K, V>());
-        }
+        this.occupied = newBitmap(hashTableSize);
+        this.hashTable = newTable(hashTableSize);
+        this.oldTable = null;
+        this.oldOccupied = null;
+        this.migrated = 0;
+        this.anyCursor = 0;
         this.size = 0;
+        this.modCount++;
     }
 
-    /*
-     * Constructors -----------------------------------------------------------
-     */
-
     /**
-     * No-argument constructor.
+     * Creates an occupancy bitmap for a table of {@code tableSize} empty
+     * buckets.
+     *
+     * @param tableSize
+     *            the number of buckets
+     * @return the new bitmap, with every bit clear
+     * @requires tableSize > 0
+     * @ensures |newBitmap| = [tableSize / 64, rounded up]
      */
-    public Map4() {
-        /*
-         * Create a new $this.hashTable with the default hash table size
-         */
-        this.createNewRep(DEFAULT_HASH_TABLE_SIZE);
-
+    private static long[] newBitmap(int tableSize) {
+        return new long[(tableSize + Long.SIZE - 1) / Long.SIZE];
     }
 
     /**
-     * Constructor resulting in a hash table of size {@code hashTableSize}.
+     * Creates a table of {@code tableSize} empty buckets. No bucket is
+     * allocated until a key is added to it; a slot that may not be examined
+     * is an empty bucket.
      *
-     * @param hashTableSize
-     *            size of hash table
-     * @requires hashTableSize > 0
-     * @ensures this = {}
+     * @param <K>
+     *            type of {@code Map} domain (key) entries
+     * @param <V>
+     *            type of {@code Map} range (associated value) entries
+     * @param tableSize
+     *            the number of buckets
+     * @return the new table
+     * @requires tableSize > 0
+     * @ensures <pre>
+     * |newTable.entries| = tableSize  and
+     * newTable.examinableIndices = {}
+     * </pre>
      */
-    public Map4(int hashTableSize) {
-        /*
-         * Create a new $this.hashTable with the size of {@code hashTableSize}.
-         */
-        this.createNewRep(hashTableSize);
-
+    private static <K, V> Array<Bucket<K, V>> newTable(int tableSize) {
+        return new Array1L<Bucket<K, V>>(tableSize);
     }
 
-    /*
-     * Standard methods -------------------------------------------------------
+    /**
+     * Returns bucket {@code i} of {@code table}, or {@code null} if it has
+     * never been allocated (and so is empty).
+     *
+     * @param <K>
+     *            type of {@code Map} domain (key) entries
+     * @param <V>
+     *            type of {@code Map} range (associated value) entries
+     * @param table
+     *            the table
+     * @param i
+     *            the bucket index
+     * @return the bucket, or {@code null}
+     * @requires 0 <= i < |table.entries|
      */
-
-    @SuppressWarnings("unchecked")
-    @Override
-    public final Map<K, V> newInstance() {
-        try {
-            return this.getClass().getConstructor().newInstance();
-        } catch (ReflectiveOperationException e) {
-            throw new AssertionError(
-                    "Cannot construct object of type " + this.getClass());
+    private static <K, V> Bucket<K, V> bucketAt(Array<Bucket<K, V>> table,
+            int i) {
+        if (!table.mayBeExamined(i)) {
+            return null;
         }
+        return table.entry(i);
     }
 
-    @Override
-    public final void clear() {
-        this.createNewRep(DEFAULT_HASH_TABLE_SIZE);
+    /**
+     * Returns bucket {@code i} of {@code table}, allocating it first if
+     * needed.
+     *
+     * @param <K>
+     *            type of {@code Map} domain (key) entries
+     * @param <V>
+     *            type of {@code Map} range (associated value) entries
+     * @param table
+     *            the table
+     * @param bitmap
+     *            the occupancy bitmap of {@code table}
+     * @param i
+     *            the bucket index
+     * @param equivalence
+     *            the strategy of the keys, or {@code null} for the natural one
+     * @return the bucket
+     * @updates table.examinableIndices
+     * @requires 0 <= i < |table.entries|
+     * @ensures i is in table.examinableIndices
+     */
+    private static <K, V> Bucket<K, V> bucketToFill(
+            Array<Bucket<K, V>> table, long[] bitmap, int i,
+            Equivalence<? super K> equivalence) {
+        if (!table.mayBeExamined(i)) {
+            table.setEntry(i, new Bucket<K, V>(bitmap, i, equivalence));
+        }
+        return table.entry(i);
     }
 
-    @Override
-    public final void transferFrom(Map<K, V> source) {
-        assert source != null : "Violation of: source is not null";
-        assert source != this : "Violation of: source is not this";
-        assert source instanceof Map4<?, ?> : ""
-                + "Violation of: source is of dynamic type Map4<?,?>";
+    /**
+     * Returns the index of the first set bit of {@code bitmap} at or after
+     * {@code from}, or -1 if there is none.
+     *
+     * @param bitmap
+     *            the occupancy bitmap
+     * @param from
+     *            the first index to consider
+     * @return the index of the next occupied bucket, or -1
+     * @requires from >= 0
+     */
+    private static int nextOccupied(long[] bitmap, int from) {
+        int w = from / Long.SIZE;
+        if (w >= bitmap.length) {
+            return -1;
+        }
         /*
-         * This cast cannot fail since the assert above would have stopped
-         * execution in that case: source must be of dynamic type Map4<?,?>, and
-         * the ?,? must be K,V or the call would not have compiled.
+         * Whole words of empty buckets are skipped at once
          */
-        Map4<K, V> localSource = (Map4<K, V>) source;
-        this.hashTable = localSource.hashTable;
-        this.size = localSource.size;
-        localSource.createNewRep(DEFAULT_HASH_TABLE_SIZE);
+        long word = bitmap[w] & (-1L << from);
+        while (word == 0) {
+            w++;
+            if (w == bitmap.length) {
+                return -1;
+            }
+            word = bitmap[w];
+        }
+        return w * Long.SIZE + Long.numberOfTrailingZeros(word);
     }
 
-    /*
-     * Kernel methods ---------------------------------------------------------
+    /**
+     * Starts moving every entry of {@code this} into a new hash table with
+     * {@code newTableSize} buckets. In {@code RehashMode.ALL_AT_ONCE} the move
+     * completes before returning; in {@code RehashMode.INCREMENTAL} the old
+     * table is kept alongside the new one and drained by later updates.
+     *
+     * @param newTableSize
+     *            the number of buckets in the new hash table
+     * @updates $this.hashTable, $this.occupied, $this.oldTable,
+     *          $this.oldOccupied, $this.migrated
+     * @requires newTableSize > 0  and  $this.oldTable = null
+     * @ensures <pre>
+     * |$this.hashTable.entries| = newTableSize  and
+     * this = #this
+     * </pre>
      */
+    private void resize(int newTableSize) {
+        assert newTableSize > 0 : "Violation of: newTableSize > 0";
+        assert this.oldTable == null : "Violation of: $this.oldTable = null";
 
-    @Override
-    public final void add(K key, V value) {
-        assert key != null : "Violation of: key is not null";
-        assert value != null : "Violation of: value is not null";
-        assert !this.hasKey(key) : "Violation of: key is not in DOMAIN(this)";
-
-        /*
-         * The hash code of the key will return a value that groups it with
-         * other similar keys. In the map at the entry location that is the hash
-         * code of the key, add the pair.
-         */
-        int properPlace = mod(key.hashCode(), this.hashTable.length());
-        // locating appropriate index in the hash table
-        this.hashTable.entry(properPlace).add(key, value);
-        // Entering the entry at the appropriate location in the hash table
-
-        this.size++; // incrementing the size of the hashTable upon each new addition
-
+        this.oldTable = this.hashTable;
+        this.oldOccupied = this.occupied;
+        this.migrated = 0;
+        this.occupied = newBitmap(newTableSize);
+        this.hashTable = newTable(newTableSize);
+        this.anyCursor = 0;
+        if (this.rehashMode == RehashMode.ALL_AT_ONCE) {
+            this.migrate(Integer.MAX_VALUE);
+        }
     }
 
-    @Override
-    public final Pair<K, V> remove(K key) {
-        assert key != null : "Violation of: key is not null";
-        assert this.hasKey(key) : "Violation of: key is in DOMAIN(this)";
+    /**
+     * Moves the entries of up to {@code bucketCount} buckets of
+     * {@code $this.oldTable} into {@code $this.hashTable}, dropping the old
+     * table once it has been fully migrated.
+     *
+     * @param bucketCount
+     *            the maximum number of old buckets to migrate
+     * @updates $this.hashTable, $this.oldTable, $this.oldOccupied,
+     *          $this.migrated
+     * @requires bucketCount > 0
+     * @ensures this = #this
+     */
+    private void migrate(int bucketCount) {
+        assert bucketCount > 0 : "Violation of: bucketCount > 0";
 
-        /*
-         * The hash code of the key will return a value that groups it with
-         * other similar keys. In the map at the entry location that is the hash
-         * code of the key, remove the pair.
-         */
-        int properEntry = mod(key.hashCode(), this.hashTable.length());
-        // locating appropriate index in the hash table
-        this.size--;
-        // decrementing size of the hash table of each remove() call
-        return this.hashTable.entry(properEntry).remove(key);
-        // returning the pair associated with the particular index in the hash table
+        if (this.oldTable != null) {
+            int oldTableSize = this.oldTable.length();
+            int tableSize = this.hashTable.length();
+            int stop = (int) Math.min(oldTableSize,
+                    (long) this.migrated + bucketCount);
+            /*
+             * Every key is re-reduced against the new number of buckets, so
+             * the bucket convention holds in both tables throughout. Nodes
+             * are relinked rather than copied, and their cached hash codes
+             * mean no key's hashCode (or equals) is called
+             */
+            while (this.migrated < stop) {
+                Bucket<K, V> bucket = bucketAt(this.oldTable, this.migrated);
+                while (bucket != null && bucket.size() > 0) {
+                    Node<K, V> n = bucket.removeFirst();
+                    int properPlace = indexFor(n.hash, tableSize);
+                    bucketToFill(this.hashTable, this.occupied, properPlace,
+                            this.equivalence).addFirst(n);
+                    this.anyCursor = Math.min(this.anyCursor, properPlace);
+                }
+                this.migrated++;
+            }
+            if (this.migrated == oldTableSize) {
+                this.oldTable = null;
+                this.oldOccupied = null;
+                this.migrated = 0;
+            }
+        }
     }
 
-    @Override
-    public final Pair<K, V> removeAny() {
-        assert this.size() > 0 : "Violation of: this /= empty_set";
-        /*
-         * Along the array of maps, choose a random map. Check if the random map
-         * is empty, if so, choose a different map. Upon selection of a map with
-         * at least one key, remove a random key.
-         */
-
-        int count = 0;
-        while (!(this.hashTable.entry(count).size() > 0)) {
-
-            count++;
+    /**
+     * Migrates a step of a pending incremental rehash on behalf of a lookup,
+     * unless an iteration may be under way: moving nodes between tables would
+     * make an iterator skip or repeat them, and a lookup must not make it fail
+     * instead. An update invalidates every iteration, so the rehash then
+     * resumes no later than the next update.
+     *
+     * @updates $this.hashTable, $this.oldTable, $this.oldOccupied,
+     *          $this.migrated
+     * @ensures this = #this
+     */
+    private void migrateOnLookup() {
+        if (this.oldTable != null && this.iterationModCount != this.modCount) {
+            this.migrate(MIGRATION_STEP);
         }
-        this.size--;
-        // decrementing size of hashtable upon each removeAny() call
-        return this.hashTable.entry(count).removeAny();
-        // returning appropriate pair based on the index of the hashtable found
     }
 
-    @Override
-    public final V value(K key) {
-        assert key != null : "Violation of: key is not null";
-        assert this.hasKey(key) : "Violation of: key is in DOMAIN(this)";
-
-        /*
-         * Find the correct entry of the key... return its value
-         */
-        int properEntry = mod(key.hashCode(), this.hashTable.length());
-
-        return this.hashTable.entry(properEntry).value(key);
-        // returning appropriate value based on given key
+    /**
+     * Returns a non-empty bucket, preferring entries still waiting for
+     * migration, and advances {@code $this.migrated} and
+     * {@code $this.anyCursor} past the empty buckets it skips. Draining the
+     * whole of {@code this} through this method therefore visits each bucket
+     * once.
+     *
+     * @return a non-empty bucket of $this.oldTable or $this.hashTable
+     * @updates $this.oldTable, $this.oldOccupied, $this.migrated,
+     *          $this.anyCursor
+     * @requires this /= empty_set
+     * @ensures this = #this
+     */
+    private Bucket<K, V> firstNonEmptyBucket() {
+        if (this.oldTable != null) {
+            /*
+             * Empty old buckets need no moving, so skipping them counts as
+             * migrating them
+             */
+            int i = nextOccupied(this.oldOccupied, this.migrated);
+            if (i >= 0) {
+                this.migrated = i;
+                return this.oldTable.entry(i);
+            }
+            this.oldTable = null;
+            this.oldOccupied = null;
+            this.migrated = 0;
+        }
+        this.anyCursor = nextOccupied(this.occupied, this.anyCursor);
+        return this.hashTable.entry(this.anyCursor);
     }
 
-    @Override
-    public final boolean hasKey(K key) {
-
-//        assert this.hashTable.mayBeExamined(mod(key.hashCode(), this.hashTable
-//                .length())) : "Violation of : this key is unexaminable";
-
-        /*
-         * The key should be stored in a specific map...
-         */
-        int properEntry = mod(key.hashCode(), this.hashTable.length());
-
-        return this.hashTable.entry(properEntry).hasKey(key);
+    /**
+     * Returns the bucket that holds, or would hold, {@code key}.
+     *
+     * @param key
+     *            the key to locate
+     * @param hash
+     *            hash code of {@code key}
+     * @return the bucket for {@code key}
+     * @requires hash = [hash code of key]
+     * @ensures <pre>
+     * bucketOf is a bucket of $this.hashTable or $this.oldTable  and
+     * (key is in DOMAIN(this)  implies  [key is in bucketOf])
+     * </pre>
+     */
+    private Bucket<K, V> bucketOf(K key, int hash) {
+        if (this.oldTable != null) {
+            int oldPlace = indexFor(hash, this.oldTable.length());
+            if (oldPlace >= this.migrated) {
+                Bucket<K, V> oldBucket = bucketAt(this.oldTable, oldPlace);
+                if (oldBucket != null && oldBucket.find(key, hash) != null) {
+                    return oldBucket;
+                }
+            }
+        }
+        return bucketToFill(this.hashTable, this.occupied,
+                indexFor(hash, this.hashTable.length()), this.equivalence);
     }
 
-    @Override
-    public final int size() {
+    /**
+     * Returns the node holding {@code key}, or {@code null} if {@code key} is
+     * not in {@code this}, counting the lookup if probe counting is on.
+     *
+     * @param key
+     *            the key to locate
+     * @param hash
+     *            hash code of {@code key}
+     * @return the node for {@code key}
+     * @requires hash = [hash code of key]
+     * @ensures <pre>
+     * (key is in DOMAIN(this)  implies  findNode.key = key)  and
+     * (key is not in DOMAIN(this)  implies  findNode = null)
+     * </pre>
+     */
+    private Node<K, V> findNode(K key, int hash) {
+        Map4Probes localProbes = this.probes;
+        if (localProbes != null) {
+            localProbes.lookups++;
+        }
+        return this.findNode(key, hash, localProbes);
+    }
 
-        return this.size; // returning size of the hash table
+    /**
+     * Returns the node holding {@code key}, or {@code null} if {@code key} is
+     * not in {@code this}, counting calls to {@code equals} in {@code probes}
+     * unless it is {@code null}. Precondition checks pass {@code null}, so
+     * enabling assertions does not change the counters.
+     *
+     * @param key
+     *            the key to locate
+     * @param hash
+     *            hash code of {@code key}
+     * @param probes
+     *            counters to update, or {@code null}
+     * @return the node for {@code key}
+     * @requires hash = [hash code of key]
+     * @ensures <pre>
+     * (key is in DOMAIN(this)  implies  findNode.key = key)  and
+     * (key is not in DOMAIN(this)  implies  findNode = null)
+     * </pre>
+     */
+    private Node<K, V> findNode(K key, int hash, Map4Probes probes) {
+        if (this.oldTable != null) {
+            int oldPlace = indexFor(hash, this.oldTable.length());
+            if (oldPlace >= this.migrated) {
+                Bucket<K, V> oldBucket = bucketAt(this.oldTable, oldPlace);
+                if (oldBucket != null) {
+                    Node<K, V> n = oldBucket.find(key, hash, probes);
+                    if (n != null) {
+                        return n;
+                    }
+                }
+            }
+        }
+        Bucket<K, V> bucket = bucketAt(this.hashTable,
+                indexFor(hash, this.hashTable.length()));
+        if (bucket == null) {
+            return null;
+        }
+        return bucket.find(key, hash, probes);
     }
 
-    @Override
-    public final Iterator<Pair<K, V>> iterator() {
-        return new Map4Iterator();
+    /**
+     * Returns an immutable copy of the pair held by {@code n}; nodes
+     * themselves are never handed out, since their values change in place.
+     *
+     * @param <K>
+     *            type of key
+     * @param <V>
+     *            type of value
+     * @param n
+     *            the node
+     * @return the pair (n.key, n.value)
+     */
+    private static <K, V> Pair<K, V> pairOf(Node<K, V> n) {
+        return new SimplePair<K, V>(n.key, n.value);
     }
 
     /**
-     * Implementation of {@code Iterator} interface for {@code Map4}.
+     * Adds a node for ({@code key}, {@code value}) to the hash table and grows
+     * the table if needed.
+     *
+     * @param key
+     *            the key
+     * @param value
+     *            the value
+     * @param hash
+     *            hash code of {@code key}
+     * @updates this
+     * @requires <pre>
+     * hash = [hash code of key]  and
+     * key is not in DOMAIN(this)
+     * </pre>
+     * @ensures this = #this union {(key, value)}
      */
-    private final class Map4Iterator implements Iterator<Pair<K, V>> {
+    private void addNode(K key, V value, int hash) {
+        int properPlace = indexFor(hash, this.hashTable.length());
+        // locating appropriate index in the (new) hash table
+        bucketToFill(this.hashTable, this.occupied, properPlace,
+                this.equivalence).addFirst(new Node<K, V>(key, value, hash));
+        this.anyCursor = Math.min(this.anyCursor, properPlace);
+        // Entering the entry at the appropriate location in the hash table
 
-        /**
-         * Number of elements seen already (i.e., |~this.seen|).
-         */
-        private int numberSeen;
+        this.size++; // incrementing the size of the hashTable upon each new addition
+        this.modCount++;
+        this.growIfNeeded();
+    }
 
-        /**
-         * Bucket from which current bucket iterator comes.
-         */
-        private int currentBucket;
+    /**
+     * Makes {@code newValue} the value of {@code key}, given the node
+     * {@code n} already found for it: replaces the value in place, adds a
+     * node, or, if {@code newValue} is {@code null}, removes {@code key}.
+     * Only adding or removing a node migrates a step of a pending rehash, so
+     * replacing a value in place leaves a live iteration undisturbed.
+     *
+     * @param key
+     *            the key
+     * @param hash
+     *            hash code of {@code key}
+     * @param n
+     *            the node holding {@code key}, or {@code null} if none
+     * @param newValue
+     *            the new value of {@code key}, or {@code null} to remove it
+     * @updates this
+     * @requires <pre>
+     * hash = [hash code of key]  and
+     * n = findNode(key, hash)
+     * </pre>
+     * @ensures <pre>
+     * (newValue = null  implies  this = #this \ {key and its value})  and
+     * (newValue /= null  implies
+     *    this = (#this \ {key and its value}) union {(key, newValue)})
+     * </pre>
+     */
+    private void store(K key, int hash, Node<K, V> n, V newValue) {
+        if (n == null) {
+            if (newValue != null) {
+                this.migrate(MIGRATION_STEP);
+                this.addNode(key, newValue, hash);
+            }
+        } else if (newValue != null) {
+            n.value = newValue;
+        } else {
+            this.migrate(MIGRATION_STEP);
+            this.bucketOf(key, hash).remove(key, hash);
+            this.size--;
+            this.modCount++;
+            this.shrinkIfNeeded();
+        }
+    }
+
+    /**
+     * Reports the number of occupied buckets of {@code table} from index
+     * {@code from} on that are indexed by a balanced tree, visiting only the
+     * buckets set in {@code bitmap}.
+     *
+     * @param <K>
+     *            type of key
+     * @param <V>
+     *            type of value
+     * @param table
+     *            the table
+     * @param bitmap
+     *            occupancy bitmap of {@code table}
+     * @param from
+     *            index of the first bucket to count
+     * @return the number of treeified buckets
+     */
+    private static <K, V> int countTreeified(Array<Bucket<K, V>> table,
+            long[] bitmap, int from) {
+        int count = 0;
+        int i = nextOccupied(bitmap, from);
+        while (i >= 0) {
+            if (table.entry(i).isTreeified()) {
+                count++;
+            }
+            i = nextOccupied(bitmap, i + 1);
+        }
+        return count;
+    }
+
+    /**
+     * Adds the lengths of the buckets of {@code table} from index
+     * {@code from} on to {@code histogram}, and raises {@code max[0]} to the
+     * longest of them.
+     *
+     * @param table
+     *            the table
+     * @param bitmap
+     *            occupancy bitmap of {@code table}
+     * @param from
+     *            index of the first bucket to count
+     * @param histogram
+     *            the bucket-length histogram
+     * @param max
+     *            holder of the longest chain length
+     * @return the number of those buckets indexed by a tree
+     * @updates histogram, max
+     */
+    private int tally(Array<Bucket<K, V>> table, long[] bitmap, int from,
+            long[] histogram, int[] max) {
+        int treeified = 0;
+        long nonEmpty = 0;
+        int i = nextOccupied(bitmap, from);
+        while (i >= 0) {
+            Bucket<K, V> bucket = table.entry(i);
+            int length = bucket.size();
+            histogram[Math.min(length, Map4Statistics.HISTOGRAM_SIZE - 1)]++;
+            max[0] = Math.max(max[0], length);
+            if (bucket.isTreeified()) {
+                treeified++;
+            }
+            nonEmpty++;
+            i = nextOccupied(bitmap, i + 1);
+        }
+        histogram[0] += table.length() - from - nonEmpty;
+        return treeified;
+    }
+
+    /**
+     * Adds every pair of {@code pairs} to {@code this} as described for
+     * {@link #addAll(Collection, boolean)}. If {@code hashesKnown}, pairs
+     * that are nodes of a {@code Map4} with the same equivalence as
+     * {@code this} keep their cached hash codes instead of being hashed again;
+     * the caller vouches for their origin, since a node does not record the
+     * equivalence that hashed it.
+     *
+     * @param pairs
+     *            the pairs to add
+     * @param parallel
+     *            whether to hash and link the pairs in parallel
+     * @param hashesKnown
+     *            whether the nodes among {@code pairs} were hashed by the
+     *            equivalence of {@code this}
+     * @updates this
+     * @requires <pre>
+     * [the keys of pairs are pairwise not equivalent, non-null, and not in
+     *  DOMAIN(this)]  and
+     * [the values of pairs are non-null]  and
+     * [if parallel, the keys may be hashed from any thread]
+     * </pre>
+     * @ensures this = #this union [the pairs of pairs]
+     */
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    private void addPairs(Collection<? extends Pair<K, V>> pairs,
+            boolean parallel, boolean hashesKnown) {
+        final Object[] input = pairs.toArray();
+        final int count = input.length;
+        if (count == 0) {
+            return;
+        }
+        this.ensureCapacity(this.size + count);
+        this.migrate(Integer.MAX_VALUE);
+        final int tableSize = this.hashTable.length();
+        final boolean inParallel = parallel && count >= PARALLEL_THRESHOLD;
+        /*
+         * Hash every key once and note its bucket
+         */
+        final Node<K, V>[] nodes = new Node[count];
+        final int[] places = new int[count];
+        IntStream indices = IntStream.range(0, count);
+        if (inParallel) {
+            indices = indices.parallel();
+        }
+        indices.forEach(i -> {
+            Pair<K, V> p = (Pair<K, V>) input[i];
+            assert p.key() != null : "Violation of: key is not null";
+            assert p.value() != null : "Violation of: value is not null";
+            int hash;
+            if (hashesKnown && p instanceof Node<?, ?>) {
+                hash = ((Node<K, V>) p).hash;
+            } else {
+                hash = this.hash(p.key());
+            }
+            nodes[i] = new Node<K, V>(p.key(), p.value(), hash);
+            places[i] = indexFor(hash, tableSize);
+        });
+        /*
+         * Counting sort by bucket, so each bucket's nodes are contiguous
+         */
+        final int[] start = new int[tableSize + 1];
+        for (int i = 0; i < count; i++) {
+            start[places[i] + 1]++;
+        }
+        for (int b = 0; b < tableSize; b++) {
+            start[b + 1] += start[b];
+        }
+        final Node<K, V>[] sorted = new Node[count];
+        int[] next = start.clone();
+        for (int i = 0; i < count; i++) {
+            sorted[next[places[i]]++] = nodes[i];
+        }
+        /*
+         * Each task links the buckets of whole words of the occupancy bitmap,
+         * so no two tasks touch the same bucket or bitmap word
+         */
+        final Array<Bucket<K, V>> table = this.hashTable;
+        final long[] bitmap = this.occupied;
+        IntStream words = IntStream.range(0, this.occupied.length);
+        if (inParallel) {
+            words = words.parallel();
+        }
+        words.forEach(w -> {
+            int stop = Math.min(tableSize, (w + 1) * Long.SIZE);
+            for (int b = w * Long.SIZE; b < stop; b++) {
+                if (start[b] < start[b + 1]) {
+                    Bucket<K, V> bucket = bucketToFill(table, bitmap, b,
+                            this.equivalence);
+                    for (int i = start[b]; i < start[b + 1]; i++) {
+                        assert bucket.find(sorted[i].key,
+                                sorted[i].hash) == null : ""
+                                        + "Violation of: key is not in "
+                                        + "DOMAIN(this)";
+                        bucket.addFirst(sorted[i]);
+                    }
+                }
+            }
+        });
+        this.anyCursor = Math.min(this.anyCursor,
+                nextOccupied(this.occupied, 0));
+        this.size += count;
+        this.modCount++;
+    }
+
+    /**
+     * Reports whether {@code source} is a {@code Map4} with the same
+     * equivalence as {@code this}, so the hash codes cached in its nodes are
+     * valid in {@code this}.
+     *
+     * @param source
+     *            the other map
+     * @return true iff {@code source} is a {@code Map4} with the same
+     *         equivalence
+     */
+    private boolean sameEquivalence(Map<K, V> source) {
+        return source instanceof Map4<?, ?>
+                && ((Map4<?, ?>) source).equivalence == this.equivalence;
+    }
+
+    /**
+     * Grows the hash table if {@code this.size} has crossed the load factor.
+     * Resizing waits for an incremental rehash in progress to finish, so at
+     * most two tables ever exist.
+     *
+     * @updates $this.hashTable
+     * @ensures this = #this
+     */
+    private void growIfNeeded() {
+        int tableSize = this.hashTable.length();
+        if (this.oldTable == null && this.size > this.loadFactor * tableSize) {
+            if (isPowerOfTwo(tableSize)) {
+                this.resize(2 * tableSize);
+            } else {
+                /*
+                 * Keep the number of buckets odd so mod keeps mixing the low
+                 * bits
+                 */
+                this.resize(2 * tableSize + 1);
+            }
+        }
+    }
+
+    /**
+     * Returns the smallest number of buckets, at least {@code needed} where
+     * possible, that indexes keys the same way as the current hash table: a
+     * power of two for a masked table, and an odd number otherwise.
+     *
+     * @param needed
+     *            the number of buckets wanted
+     * @return the number of buckets to use
+     * @requires needed > 0
+     * @ensures <pre>
+     * 0 < tableSizeFor <= MAXIMUM_TABLE_SIZE  and
+     * (needed <= MAXIMUM_TABLE_SIZE - 1  implies  needed <= tableSizeFor)
+     * </pre>
+     */
+    private int tableSizeFor(long needed) {
+        if (isPowerOfTwo(this.hashTable.length())) {
+            int tableSize = 1;
+            while (tableSize < needed && tableSize < MAXIMUM_TABLE_SIZE) {
+                tableSize *= 2;
+            }
+            return tableSize;
+        }
+        return (int) Math.min(MAXIMUM_TABLE_SIZE - 1, needed) | 1;
+    }
+
+    /**
+     * Shrinks the hash table if it is shrinkable and {@code this.size} has
+     * dropped well below the load factor. Like growing, shrinking waits for
+     * an incremental rehash in progress to finish.
+     *
+     * @updates $this.hashTable
+     * @ensures this = #this
+     */
+    private void shrinkIfNeeded() {
+        int tableSize = this.hashTable.length();
+        if (this.shrinkable && this.oldTable == null
+                && tableSize > this.minimumTableSize
+                && this.size < SHRINK_FRACTION * this.loadFactor * tableSize) {
+            this.resize(Math.max(this.minimumTableSize, tableSize / 2));
+        }
+    }
+
+    /*
+     * Nested types -----------------------------------------------------------
+     */
+
+    /**
+     * How a {@code Map4} moves its entries when the hash table changes size.
+     */
+    public enum RehashMode {
+        /**
+         * Every entry is moved by the update that triggers the resize.
+         */
+        ALL_AT_ONCE,
+
+        /**
+         * The old and new tables coexist, and each update or lookup migrates
+         * a bounded number of old buckets until the old table is empty.
+         * Lookups then update the representation, so even read-only use of
+         * such a map from several threads needs external synchronization.
+         */
+        INCREMENTAL
+    }
+
+    /*
+     * Constructors -----------------------------------------------------------
+     */
+
+    /**
+     * No-argument constructor.
+     */
+    public Map4() {
+        /*
+         * Create a new $this.hashTable with the default hash table size
+         */
+        this(DEFAULT_HASH_TABLE_SIZE);
+
+    }
+
+    /**
+     * Constructor resulting in a hash table of size {@code hashTableSize}.
+     *
+     * @param hashTableSize
+     *            size of hash table
+     * @requires hashTableSize > 0
+     * @ensures this = {}
+     */
+    public Map4(int hashTableSize) {
+        /*
+         * Create a new $this.hashTable with the size of {@code hashTableSize}.
+         */
+        this(hashTableSize, DEFAULT_LOAD_FACTOR, false);
+
+    }
+
+    /**
+     * Constructor resulting in a hash table of initial size
+     * {@code hashTableSize} that grows once {@code size} exceeds
+     * {@code loadFactor} times the number of buckets.
+     *
+     * @param hashTableSize
+     *            initial size of hash table
+     * @param loadFactor
+     *            ratio of {@code size} to number of buckets that triggers
+     *            growth
+     * @requires hashTableSize > 0  and  loadFactor > 0
+     * @ensures this = {}
+     */
+    public Map4(int hashTableSize, double loadFactor) {
+        this(hashTableSize, loadFactor, false);
+    }
+
+    /**
+     * Constructor resulting in a hash table of initial size
+     * {@code hashTableSize} that grows once {@code size} exceeds
+     * {@code loadFactor} times the number of buckets and, if
+     * {@code shrinkable}, shrinks back towards {@code hashTableSize} after
+     * heavy removal.
+     *
+     * @param hashTableSize
+     *            initial (and minimum) size of hash table
+     * @param loadFactor
+     *            ratio of {@code size} to number of buckets that triggers
+     *            growth
+     * @param shrinkable
+     *            whether the hash table shrinks after heavy removal
+     * @requires hashTableSize > 0  and  loadFactor > 0
+     * @ensures this = {}
+     */
+    public Map4(int hashTableSize, double loadFactor, boolean shrinkable) {
+        this(hashTableSize, loadFactor, shrinkable, RehashMode.ALL_AT_ONCE);
+    }
+
+    /**
+     * Constructor resulting in a hash table of initial size
+     * {@code hashTableSize} that resizes as described for
+     * {@link #Map4(int, double, boolean)}, moving entries between tables as
+     * selected by {@code rehashMode}.
+     *
+     * @param hashTableSize
+     *            initial (and minimum) size of hash table
+     * @param loadFactor
+     *            ratio of {@code size} to number of buckets that triggers
+     *            growth
+     * @param shrinkable
+     *            whether the hash table shrinks after heavy removal
+     * @param rehashMode
+     *            how entries are moved when the hash table is resized
+     * @requires hashTableSize > 0  and  loadFactor > 0
+     * @ensures this = {}
+     */
+    public Map4(int hashTableSize, double loadFactor, boolean shrinkable,
+            RehashMode rehashMode) {
+        this(hashTableSize, loadFactor, shrinkable, rehashMode,
+                Equivalences.natural());
+    }
+
+    /**
+     * Constructor resulting in a hash table with the default size and load
+     * factor whose keys are hashed and compared by {@code equivalence} in
+     * place of their {@code hashCode} and {@code equals}.
+     *
+     * @param equivalence
+     *            strategy hashing and comparing the keys
+     * @ensures this = {}
+     */
+    public Map4(Equivalence<? super K> equivalence) {
+        this(DEFAULT_HASH_TABLE_SIZE, DEFAULT_LOAD_FACTOR, false,
+                RehashMode.ALL_AT_ONCE, equivalence);
+    }
+
+    /**
+     * Constructor resulting in a hash table that resizes as described for
+     * {@link #Map4(int, double, boolean, RehashMode)} and whose keys are
+     * hashed and compared by {@code equivalence} in place of their
+     * {@code hashCode} and {@code equals}.
+     *
+     * @param hashTableSize
+     *            initial (and minimum) size of hash table
+     * @param loadFactor
+     *            ratio of {@code size} to number of buckets that triggers
+     *            growth
+     * @param shrinkable
+     *            whether the hash table shrinks after heavy removal
+     * @param rehashMode
+     *            how entries are moved when the hash table is resized
+     * @param equivalence
+     *            strategy hashing and comparing the keys
+     * @requires hashTableSize > 0  and  loadFactor > 0
+     * @ensures this = {}
+     */
+    public Map4(int hashTableSize, double loadFactor, boolean shrinkable,
+            RehashMode rehashMode, Equivalence<? super K> equivalence) {
+        assert hashTableSize > 0 : "Violation of: hashTableSize > 0";
+        assert loadFactor > 0 : "Violation of: loadFactor > 0";
+        assert rehashMode != null : "Violation of: rehashMode is not null";
+        assert equivalence != null : "Violation of: equivalence is not null";
+        if (equivalence != Equivalences.natural()) {
+            this.equivalence = equivalence;
+        }
+        this.loadFactor = loadFactor;
+        this.shrinkable = shrinkable;
+        this.rehashMode = rehashMode;
+        this.minimumTableSize = hashTableSize;
+        this.createNewRep(hashTableSize);
+    }
+
+    /*
+     * Standard methods -------------------------------------------------------
+     */
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The new instance hashes and compares its keys with the same strategy as
+     * {@code this}.
+     */
+    @SuppressWarnings("unchecked")
+    @Override
+    public final Map<K, V> newInstance() {
+        try {
+            Map4<K, V> result = this.getClass().getConstructor()
+                    .newInstance();
+            result.equivalence = this.equivalence;
+            return result;
+        } catch (ReflectiveOperationException e) {
+            throw new AssertionError(
+                    "Cannot construct object of type " + this.getClass());
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The hash table keeps its number of buckets, and only the buckets in use
+     * are emptied; {@code trimToSize} releases a table that is too large.
+     */
+    @Override
+    public final void clear() {
+        this.oldTable = null;
+        this.oldOccupied = null;
+        this.migrated = 0;
+        int i = nextOccupied(this.occupied, 0);
+        while (i >= 0) {
+            this.hashTable.entry(i).clear();
+            i = nextOccupied(this.occupied, i + 1);
+        }
+        this.anyCursor = 0;
+        this.size = 0;
+        this.modCount++;
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * A {@code Map4} source with the same equivalence hands over its hash
+     * table without copying. Any other {@code Map} is drained into a hash
+     * table sized once for all of its pairs, which requires that no two of
+     * its keys be equivalent under the equivalence of {@code this}.
+     */
+    @Override
+    public final void transferFrom(Map<K, V> source) {
+        assert source != null : "Violation of: source is not null";
+        assert source != this : "Violation of: source is not this";
+
+        if (!this.sameEquivalence(source)) {
+            List<Pair<K, V>> pairs = new ArrayList<Pair<K, V>>(source.size());
+            while (source.size() > 0) {
+                pairs.add(source.removeAny());
+            }
+            this.clear();
+            this.addPairs(pairs, false, false);
+            return;
+        }
+        /*
+         * This cast cannot fail since source is of dynamic type Map4<?,?>, and
+         * the ?,? must be K,V or the call would not have compiled.
+         */
+        Map4<K, V> localSource = (Map4<K, V>) source;
+        this.hashTable = localSource.hashTable;
+        this.oldTable = localSource.oldTable;
+        this.occupied = localSource.occupied;
+        this.oldOccupied = localSource.oldOccupied;
+        this.migrated = localSource.migrated;
+        this.anyCursor = localSource.anyCursor;
+        this.size = localSource.size;
+        this.modCount++;
+        localSource.createNewRep(localSource.minimumTableSize);
+    }
+
+    /*
+     * Kernel methods ---------------------------------------------------------
+     */
+
+    @Override
+    public final void add(K key, V value) {
+        assert key != null : "Violation of: key is not null";
+        assert value != null : "Violation of: value is not null";
+        assert this.findNode(key, this.hash(key), null) == null : ""
+                + "Violation of: key is not in DOMAIN(this)";
+
+        /*
+         * The hash code of the key will return a value that groups it with
+         * other similar keys. In the map at the entry location that is the hash
+         * code of the key, add the pair.
+         */
+        this.migrate(MIGRATION_STEP);
+        this.addNode(key, value, this.hash(key));
+    }
+
+    @Override
+    public final Pair<K, V> remove(K key) {
+        assert key != null : "Violation of: key is not null";
+        assert this.findNode(key, this.hash(key), null) != null : ""
+                + "Violation of: key is in DOMAIN(this)";
+
+        /*
+         * The hash code of the key will return a value that groups it with
+         * other similar keys. In the map at the entry location that is the hash
+         * code of the key, remove the pair.
+         */
+        this.migrate(MIGRATION_STEP);
+        this.size--;
+        // decrementing size of the hash table of each remove() call
+        this.modCount++;
+        int hash = this.hash(key);
+        Node<K, V> removed = this.bucketOf(key, hash).remove(key, hash);
+        this.shrinkIfNeeded();
+        return pairOf(removed);
+        // returning the pair associated with the particular index in the hash table
+    }
+
+    @Override
+    public final Pair<K, V> removeAny() {
+        assert this.size() > 0 : "Violation of: this /= empty_set";
+        /*
+         * Along the array of maps, choose a random map. Check if the random map
+         * is empty, if so, choose a different map. Upon selection of a map with
+         * at least one key, remove a random key.
+         */
+
+        this.migrate(MIGRATION_STEP);
+        Bucket<K, V> bucket = this.firstNonEmptyBucket();
+        this.size--;
+        // decrementing size of hashtable upon each removeAny() call
+        this.modCount++;
+        Node<K, V> removed = bucket.removeFirst();
+        this.shrinkIfNeeded();
+        return pairOf(removed);
+        // returning appropriate pair based on the index of the hashtable found
+    }
+
+    @Override
+    public final V value(K key) {
+        assert key != null : "Violation of: key is not null";
+
+        /*
+         * Find the correct entry of the key... return its value
+         */
+        this.migrateOnLookup();
+        Node<K, V> n = this.findNode(key, this.hash(key));
+        assert n != null : "Violation of: key is in DOMAIN(this)";
+        return n.value;
+        // returning appropriate value based on given key
+    }
+
+    @Override
+    public final boolean hasKey(K key) {
+
+//        assert this.hashTable.mayBeExamined(mod(key.hashCode(), this.hashTable
+//                .length())) : "Violation of : this key is unexaminable";
+
+        /*
+         * The key should be stored in a specific map...
+         */
+        this.migrateOnLookup();
+        return this.findNode(key, this.hash(key)) != null;
+    }
+
+    @Override
+    public final int size() {
+
+        return this.size; // returning size of the hash table
+    }
+
+    @Override
+    public final Iterator<Pair<K, V>> iterator() {
+        return new Map4Iterator();
+    }
+
+    /*
+     * Secondary methods ------------------------------------------------------
+     */
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The entry is found once and its value replaced in place.
+     */
+    @Override
+    public final V replaceValue(K key, V value) {
+        assert key != null : "Violation of: key is not null";
+        assert value != null : "Violation of: value is not null";
+
+        Node<K, V> n = this.findNode(key, this.hash(key));
+        assert n != null : "Violation of: key is in DOMAIN(this)";
+        V old = n.value;
+        n.value = value;
+        return old;
+    }
+
+    /*
+     * Other methods ----------------------------------------------------------
+     */
+
+    /**
+     * Reports the value associated with {@code key} in {@code this}, or
+     * {@code defaultValue} if there is none, hashing and searching for
+     * {@code key} once.
+     *
+     * @param key
+     *            the key whose associated value is to be reported
+     * @param defaultValue
+     *            the value to report if {@code key} is not in {@code this}
+     * @return the value associated with key, or defaultValue
+     * @ensures <pre>
+     * (key is in DOMAIN(this)  implies  (key, valueOrDefault) is in this)  and
+     * (key is not in DOMAIN(this)  implies  valueOrDefault = defaultValue)
+     * </pre>
+     */
+    public final V valueOrDefault(K key, V defaultValue) {
+        assert key != null : "Violation of: key is not null";
+
+        this.migrateOnLookup();
+        Node<K, V> n = this.findNode(key, this.hash(key));
+        if (n == null) {
+            return defaultValue;
+        }
+        return n.value;
+    }
+
+    /**
+     * Adds the pair ({@code key}, {@code value}) to {@code this} unless
+     * {@code key} is already there, hashing and searching for {@code key}
+     * once.
+     *
+     * @param key
+     *            the key to be added
+     * @param value
+     *            the associated value to be added
+     * @return true iff the pair was added
+     * @updates this
+     * @ensures <pre>
+     * addIfAbsent = (key is not in DOMAIN(#this))  and
+     * (addIfAbsent  implies  this = #this union {(key, value)})  and
+     * (not addIfAbsent  implies  this = #this)
+     * </pre>
+     */
+    public final boolean addIfAbsent(K key, V value) {
+        assert key != null : "Violation of: key is not null";
+        assert value != null : "Violation of: value is not null";
+
+        this.migrateOnLookup();
+        int hash = this.hash(key);
+        if (this.findNode(key, hash) != null) {
+            return false;
+        }
+        this.migrate(MIGRATION_STEP);
+        this.addNode(key, value, hash);
+        return true;
+    }
+
+    /**
+     * Recomputes the value associated with {@code key} from {@code key} and
+     * its current value ({@code null} if there is none). A {@code null}
+     * result removes {@code key}. {@code key} is hashed and searched for
+     * once; only a removal searches its bucket again.
+     *
+     * @param key
+     *            the key whose value is recomputed
+     * @param remapping
+     *            computes the new value from the key and the old value
+     * @return the new value, or {@code null} if there is none
+     * @updates this
+     * @requires <pre>
+     * remapping /= null  and  [remapping does not access this]
+     * </pre>
+     * @ensures <pre>
+     * [compute = remapping(key, value of key in #this, or null)]  and
+     * (compute = null  implies  this = #this \ {key and its value})  and
+     * (compute /= null  implies
+     *    this = (#this \ {key and its value}) union {(key, compute)})
+     * </pre>
+     */
+    public final V compute(K key,
+            BiFunction<? super K, ? super V, ? extends V> remapping) {
+        assert key != null : "Violation of: key is not null";
+        assert remapping != null : "Violation of: remapping /= null";
+
+        this.migrateOnLookup();
+        int hash = this.hash(key);
+        Node<K, V> n = this.findNode(key, hash);
+        V newValue;
+        if (n == null) {
+            newValue = remapping.apply(key, null);
+        } else {
+            newValue = remapping.apply(key, n.value);
+        }
+        this.store(key, hash, n, newValue);
+        return newValue;
+    }
+
+    /**
+     * Associates {@code value} with {@code key} if {@code key} is not in
+     * {@code this}, and otherwise combines the current value with
+     * {@code value}. A {@code null} combination removes {@code key}.
+     * {@code key} is hashed and searched for once; only a removal searches its
+     * bucket again.
+     *
+     * @param key
+     *            the key whose value is merged
+     * @param value
+     *            the value to associate or combine
+     * @param remapping
+     *            combines the old value with {@code value}
+     * @return the new value, or {@code null} if there is none
+     * @updates this
+     * @requires <pre>
+     * value /= null  and  remapping /= null  and
+     * [remapping does not access this]
+     * </pre>
+     * @ensures <pre>
+     * (key is not in DOMAIN(#this)  implies
+     *    (merge = value  and  this = #this union {(key, value)}))  and
+     * (key is in DOMAIN(#this)  implies
+     *    ([merge = remapping(value of key in #this, value)]  and
+     *     (merge = null  implies  this = #this \ {key and its value})  and
+     *     (merge /= null  implies
+     *        this = (#this \ {key and its value}) union {(key, merge)})))
+     * </pre>
+     */
+    public final V merge(K key, V value,
+            BiFunction<? super V, ? super V, ? extends V> remapping) {
+        assert key != null : "Violation of: key is not null";
+        assert value != null : "Violation of: value is not null";
+        assert remapping != null : "Violation of: remapping /= null";
+
+        this.migrateOnLookup();
+        int hash = this.hash(key);
+        Node<K, V> n = this.findNode(key, hash);
+        V newValue;
+        if (n == null) {
+            newValue = value;
+        } else {
+            newValue = remapping.apply(n.value, value);
+        }
+        this.store(key, hash, n, newValue);
+        return newValue;
+    }
+
+    /**
+     * Removes up to {@code maxCount} pairs from {@code this}, handing each to
+     * {@code consumer} as it is removed. The pairs are taken bucket by bucket
+     * in one pass, so draining all of {@code this} costs time proportional to
+     * its size plus its number of buckets.
+     *
+     * @param consumer
+     *            receiver of the removed pairs
+     * @param maxCount
+     *            the maximum number of pairs to remove
+     * @return the number of pairs removed
+     * @updates this
+     * @requires <pre>
+     * consumer /= null  and  maxCount >= 0  and
+     * [consumer does not access this]
+     * </pre>
+     * @ensures <pre>
+     * drainTo = min(maxCount, |#this|)  and
+     * this is subset of #this  and  |this| = |#this| - drainTo  and
+     * [consumer received, in order of removal, the pairs in #this \ this]
+     * </pre>
+     */
+    public final int drainTo(Consumer<? super Pair<K, V>> consumer,
+            int maxCount) {
+        assert consumer != null : "Violation of: consumer /= null";
+        assert maxCount >= 0 : "Violation of: maxCount >= 0";
+
+        int drained = 0;
+        while (drained < maxCount && this.size > 0) {
+            Bucket<K, V> bucket = this.firstNonEmptyBucket();
+            while (drained < maxCount && bucket.size() > 0) {
+                this.size--;
+                this.modCount++;
+                consumer.accept(pairOf(bucket.removeFirst()));
+                drained++;
+            }
+        }
+        this.shrinkIfNeeded();
+        return drained;
+    }
+
+    /**
+     * Resizes the hash table, all at once, so that {@code this} can hold
+     * {@code expectedSize} pairs without growing again. Does nothing if the
+     * table is already large enough.
+     *
+     * @param expectedSize
+     *            the number of pairs {@code this} is expected to hold
+     * @updates this
+     * @requires expectedSize >= 0
+     * @ensures <pre>
+     * this = #this  and
+     * expectedSize <= $this.loadFactor * |$this.hashTable.entries|  or
+     * [|$this.hashTable.entries| is as large as a Map4 table gets]
+     * </pre>
+     */
+    public final void ensureCapacity(int expectedSize) {
+        assert expectedSize >= 0 : "Violation of: expectedSize >= 0";
+
+        int tableSize = this.hashTable.length();
+        long needed = (long) Math.ceil(expectedSize / this.loadFactor);
+        if (needed <= tableSize || tableSize >= MAXIMUM_TABLE_SIZE) {
+            return;
+        }
+        /*
+         * A bulk caller wants the move paid for now, whatever the rehash mode
+         */
+        this.migrate(Integer.MAX_VALUE);
+        this.resize(this.tableSizeFor(needed));
+        this.migrate(Integer.MAX_VALUE);
+        this.modCount++;
+    }
+
+    /**
+     * Shrinks the hash table, all at once, to the fewest buckets that hold
+     * {@code this} within the load factor, but never below the number of
+     * buckets it was constructed with. This releases the memory a large table
+     * keeps after heavy removal or {@code clear}.
+     *
+     * @updates this
+     * @ensures this = #this
+     */
+    public final void trimToSize() {
+        this.migrate(Integer.MAX_VALUE);
+        long needed = Math.max(this.minimumTableSize,
+                (long) Math.ceil(this.size / this.loadFactor));
+        int newTableSize = this.tableSizeFor(needed);
+        if (newTableSize < this.hashTable.length()) {
+            this.resize(newTableSize);
+            this.migrate(Integer.MAX_VALUE);
+            this.modCount++;
+        }
+    }
+
+    /**
+     * Adds every pair of {@code pairs} to {@code this}, sizing the hash table
+     * once for all of them. The pairs are hashed, sorted by bucket, and then
+     * linked in bucket by bucket.
+     *
+     * @param pairs
+     *            the pairs to add
+     * @updates this
+     * @requires <pre>
+     * [the keys of pairs are distinct, non-null, and not in DOMAIN(this)]  and
+     * [the values of pairs are non-null]
+     * </pre>
+     * @ensures this = #this union [the pairs of pairs]
+     */
+    public final void addAll(Collection<? extends Pair<K, V>> pairs) {
+        this.addAll(pairs, false);
+    }
+
+    /**
+     * Adds every pair of {@code pairs} to {@code this}, sizing the hash table
+     * once for all of them. The pairs are hashed, sorted by bucket, and then
+     * linked in bucket by bucket. If {@code parallel}, hashing and linking run
+     * on the common fork-join pool, each task linking a disjoint range of
+     * buckets.
+     *
+     * @param pairs
+     *            the pairs to add
+     * @param parallel
+     *            whether to hash and link the pairs in parallel
+     * @updates this
+     * @requires <pre>
+     * [the keys of pairs are distinct, non-null, and not in DOMAIN(this)]  and
+     * [the values of pairs are non-null]  and
+     * [if parallel, hashCode of the keys may be called from any thread]
+     * </pre>
+     * @ensures this = #this union [the pairs of pairs]
+     */
+    public final void addAll(Collection<? extends Pair<K, V>> pairs,
+            boolean parallel) {
+        assert pairs != null : "Violation of: pairs is not null";
+
+        this.addPairs(pairs, parallel, false);
+    }
+
+    /**
+     * Replaces the pairs of {@code this} by copies of those of {@code source},
+     * leaving {@code source} unchanged. A {@code Map4} source with the same
+     * equivalence is copied with no key hashed again: bucket for bucket into a
+     * table of the same size if its table fits {@code this}'s load factor.
+     * Any other source is copied into a table sized once for all of its
+     * pairs, which requires that no two of its keys be equivalent under the
+     * equivalence of {@code this}.
+     *
+     * @param source
+     *            the {@code Map} to copy
+     * @replaces this
+     * @requires source /= this
+     * @ensures this = source
+     */
+    public final void copyFrom(Map<K, V> source) {
+        assert source != null : "Violation of: source is not null";
+        assert source != this : "Violation of: source is not this";
+
+        boolean sameEquivalence = this.sameEquivalence(source);
+        if (sameEquivalence) {
+            Map4<K, V> localSource = (Map4<K, V>) source;
+            int tableSize = localSource.hashTable.length();
+            if (localSource.oldTable == null
+                    && localSource.size <= this.loadFactor * tableSize) {
+                /*
+                 * Same number of buckets, so every node keeps its bucket
+                 */
+                this.createNewRep(tableSize);
+                int i = nextOccupied(localSource.occupied, 0);
+                while (i >= 0) {
+                    Bucket<K, V> bucket = bucketToFill(this.hashTable,
+                            this.occupied, i, this.equivalence);
+                    Node<K, V> n = localSource.hashTable.entry(i).first;
+                    while (n != null) {
+                        bucket.addFirst(new Node<K, V>(n.key, n.value, n.hash));
+                        n = n.next;
+                    }
+                    i = nextOccupied(localSource.occupied, i + 1);
+                }
+                this.size = localSource.size;
+                this.anyCursor = localSource.anyCursor;
+                return;
+            }
+        }
+        List<Pair<K, V>> pairs = new ArrayList<Pair<K, V>>(source.size());
+        if (sameEquivalence) {
+            /*
+             * Take the nodes themselves, not copies, so their cached hash
+             * codes are reused
+             */
+            Map4<K, V> localSource = (Map4<K, V>) source;
+            Map4<K, V>.Map4Iterator it = localSource.new Map4Iterator();
+            while (it.hasNext()) {
+                pairs.add(it.advance());
+            }
+        } else {
+            for (Pair<K, V> p : source) {
+                pairs.add(p);
+            }
+        }
+        this.clear();
+        this.addPairs(pairs, false, sameEquivalence);
+    }
+
+    /**
+     * Returns a fail-fast {@code Spliterator} over the pairs of {@code this}
+     * that splits on ranges of buckets and knows the exact size of every
+     * part.
+     *
+     * @return a {@code Spliterator} over the pairs of {@code this}
+     * @ensures <pre>
+     * [spliterator reports DISTINCT, NONNULL, SIZED and SUBSIZED and
+     *  traverses exactly the pairs of this]
+     * </pre>
+     */
+    @Override
+    public final Spliterator<Pair<K, V>> spliterator() {
+        return new Map4Spliterator();
+    }
+
+    /**
+     * Returns a sequential {@code Stream} of the pairs of {@code this}.
+     *
+     * @return a sequential {@code Stream} of the pairs of {@code this}
+     * @ensures [stream is a sequential stream of the pairs of this]
+     */
+    public final Stream<Pair<K, V>> stream() {
+        return StreamSupport.stream(this.spliterator(), false);
+    }
+
+    /**
+     * Returns a parallel {@code Stream} of the pairs of {@code this}, whose
+     * parts are ranges of buckets processed by the common fork-join pool.
+     * {@code this} must not be updated until the stream has been consumed.
+     *
+     * @return a parallel {@code Stream} of the pairs of {@code this}
+     * @ensures [parallelStream is a parallel stream of the pairs of this]
+     */
+    public final Stream<Pair<K, V>> parallelStream() {
+        return StreamSupport.stream(this.spliterator(), true);
+    }
+
+    /**
+     * Turns the counting of lookups and of the calls to {@code equals} they
+     * make on or off; turning it on starts the counts from zero. While it is
+     * off a lookup pays only for a {@code null} check.
+     *
+     * @param enabled
+     *            whether to count lookups
+     * @ensures this = #this
+     */
+    public final void setProbeCounting(boolean enabled) {
+        if (enabled) {
+            this.probes = new Map4Probes();
+        } else {
+            this.probes = null;
+        }
+    }
+
+    /**
+     * Reports whether lookups are being counted.
+     *
+     * @return true iff probe counting is on
+     */
+    public final boolean isProbeCounting() {
+        return this.probes != null;
+    }
+
+    /**
+     * Reports the shape of the hash table (load factor, bucket-length
+     * histogram, longest chain, empty and treeified buckets) and, if probe
+     * counting is on, the lookup counters. During an incremental rehash the
+     * old buckets not yet migrated count as buckets too, in the table size as
+     * in the histogram. The cost is linear in the number of non-empty
+     * buckets; call it from a thread that may read {@code this}.
+     *
+     * @return a snapshot of the statistics of {@code this}
+     * @ensures statistics.size = |this|
+     */
+    public final Map4Statistics statistics() {
+        long[] histogram = new long[Map4Statistics.HISTOGRAM_SIZE];
+        int[] max = new int[1];
+        int treeified = this.tally(this.hashTable, this.occupied, 0,
+                histogram, max);
+        if (this.oldTable != null) {
+            treeified += this.tally(this.oldTable, this.oldOccupied,
+                    this.migrated, histogram, max);
+        }
+        long lookups = 0;
+        long comparisons = 0;
+        if (this.probes != null) {
+            lookups = this.probes.lookups;
+            comparisons = this.probes.comparisons;
+        }
+        return new Map4Statistics(this.size,
+                this.hashTable.length() + this.unmigratedBuckets(), max[0],
+                histogram, treeified, lookups, comparisons);
+    }
+
+    /*
+     * Diagnostic methods -----------------------------------------------------
+     */
+
+    /**
+     * Reports the number of buckets of the old table still waiting to be
+     * migrated by an incremental rehash.
+     *
+     * @return the number of unmigrated old buckets
+     * @ensures <pre>
+     * ($this.oldTable = null  implies  unmigratedBuckets = 0)  and
+     * ($this.oldTable /= null  implies
+     *    unmigratedBuckets = |$this.oldTable.entries| - $this.migrated)
+     * </pre>
+     */
+    final int unmigratedBuckets() {
+        if (this.oldTable == null) {
+            return 0;
+        }
+        return this.oldTable.length() - this.migrated;
+    }
+
+    /**
+     * Reports the number of buckets of the hash table.
+     *
+     * @return |$this.hashTable.entries|
+     */
+    final int tableSize() {
+        return this.hashTable.length();
+    }
+
+    /**
+     * Reports the number of buckets currently indexed by a balanced tree.
+     *
+     * @return the number of treeified buckets
+     */
+    final int treeifiedBuckets() {
+        int count = countTreeified(this.hashTable, this.occupied, 0);
+        if (this.oldTable != null) {
+            count += countTreeified(this.oldTable, this.oldOccupied,
+                    this.migrated);
+        }
+        return count;
+    }
+
+    /**
+     * Entry of a bucket chain. Its value changes in place, so it is never
+     * handed out: callers get copies made by {@code pairOf}. It is a
+     * {@code Pair} only so that {@code copyFrom} can pass nodes, with their
+     * cached hash codes, to {@code addPairs}.
+     *
+     * @param <K>
+     *            type of key
+     * @param <V>
+     *            type of value
+     */
+    private static final class Node<K, V> implements Pair<K, V> {
+
+        /**
+         * The key.
+         */
+        private final K key;
+
+        /**
+         * The value; replaced in place by the compound operations.
+         */
+        private V value;
+
+        /**
+         * Cached hash code of {@code key}.
+         */
+        private final int hash;
+
+        /**
+         * Next node of the chain, or {@code null}.
+         */
+        private Node<K, V> next;
+
+        /**
+         * Constructor.
+         *
+         * @param key
+         *            the key
+         * @param value
+         *            the value
+         * @param hash
+         *            the hash code of {@code key}
+         */
+        Node(K key, V value, int hash) {
+            this.key = key;
+            this.value = value;
+            this.hash = hash;
+            this.next = null;
+        }
+
+        @Override
+        public K key() {
+            return this.key;
+        }
+
+        @Override
+        public V value() {
+            return this.value;
+        }
+
+    }
+
+    /**
+     * Entry of the balanced tree a long bucket keeps over its chain: an AVL
+     * tree node that also links the entries in chain order.
+     *
+     * @param <K>
+     *            type of key
+     * @param <V>
+     *            type of value
+     */
+    private static final class TreeEntry<K, V> {
+
+        /**
+         * The chain node indexed by this entry.
+         */
+        private final Node<K, V> node;
+
+        /**
+         * Left subtree, or {@code null}.
+         */
+        private TreeEntry<K, V> left;
+
+        /**
+         * Right subtree, or {@code null}.
+         */
+        private TreeEntry<K, V> right;
+
+        /**
+         * Height of the subtree rooted here.
+         */
+        private int height;
+
+        /**
+         * Entry of the previous node of the chain, or {@code null}.
+         */
+        private TreeEntry<K, V> previous;
+
+        /**
+         * Entry of the next node of the chain, or {@code null}.
+         */
+        private TreeEntry<K, V> following;
+
+        /**
+         * Constructor.
+         *
+         * @param node
+         *            the chain node to index
+         */
+        TreeEntry(Node<K, V> node) {
+            this.node = node;
+            this.left = null;
+            this.right = null;
+            this.height = 1;
+            this.previous = null;
+            this.following = null;
+        }
+
+    }
+
+    /**
+     * Bucket of the hash table: a chain of {@code Node}s. Under the natural
+     * equivalence, a chain that reaches {@code TREEIFY_THRESHOLD} nodes is
+     * also indexed by a balanced tree ordered by hash code and then, for keys
+     * of the same class implementing {@code Comparable}, by
+     * {@code compareTo}, so a flood of colliding keys costs O(log n) per
+     * lookup instead of O(n). The tree is dropped once the
+     * chain falls to {@code UNTREEIFY_THRESHOLD} nodes. The chain itself is
+     * kept either way, so iteration and migration never look at the tree.
+     * A bucket also keeps its bit of its table's occupancy bitmap up to date.
+     *
+     * @param <K>
+     *            type of key
+     * @param <V>
+     *            type of value
+     */
+    private static final class Bucket<K, V> {
+
+        /**
+         * Chain length at which a bucket builds its tree.
+         */
+        private static final int TREEIFY_THRESHOLD = 8;
+
+        /**
+         * Chain length at which a bucket drops its tree; lower than
+         * {@code TREEIFY_THRESHOLD} so a bucket hovering around the threshold
+         * does not rebuild its tree on every update.
+         */
+        private static final int UNTREEIFY_THRESHOLD = 6;
+
+        /**
+         * First node of the chain, or {@code null} if the bucket is empty.
+         */
+        private Node<K, V> first;
+
+        /**
+         * Length of the chain.
+         */
+        private int size;
+
+        /**
+         * Occupancy bitmap of the table holding this bucket.
+         */
+        private final long[] occupancy;
+
+        /**
+         * Index of this bucket in its table.
+         */
+        private final int index;
+
+        /**
+         * Root of the tree, or {@code null} if the bucket is not treeified.
+         */
+        private TreeEntry<K, V> root;
+
+        /**
+         * Entry of {@code first} while the bucket is treeified.
+         */
+        private TreeEntry<K, V> firstEntry;
+
+        /**
+         * Strategy of the keys, or {@code null} for the natural one.
+         */
+        private final Equivalence<? super K> equivalence;
+
+        /**
+         * Constructor.
+         *
+         * @param occupancy
+         *            occupancy bitmap of the table holding this bucket
+         * @param index
+         *            index of this bucket in its table
+         * @param equivalence
+         *            strategy of the keys, or {@code null} for the natural one
+         */
+        Bucket(long[] occupancy, int index,
+                Equivalence<? super K> equivalence) {
+            this.occupancy = occupancy;
+            this.index = index;
+            this.equivalence = equivalence;
+            this.first = null;
+            this.size = 0;
+            this.root = null;
+            this.firstEntry = null;
+        }
+
+        /**
+         * Reports the number of nodes in this bucket.
+         *
+         * @return the length of the chain
+         */
+        int size() {
+            return this.size;
+        }
+
+        /**
+         * Reports whether this bucket is indexed by a tree.
+         *
+         * @return true iff this bucket is treeified
+         */
+        boolean isTreeified() {
+            return this.root != null;
+        }
+
+        /**
+         * Returns the node holding {@code key}, or {@code null}.
+         *
+         * @param key
+         *            the key to locate
+         * @param hash
+         *            hash code of {@code key}
+         * @return the node holding {@code key}, or {@code null}
+         */
+        Node<K, V> find(K key, int hash) {
+            return this.find(key, hash, null);
+        }
+
+        /**
+         * Returns the node holding {@code key}, or {@code null}, counting the
+         * calls to {@code equals} in {@code probes} unless it is {@code null}.
+         *
+         * @param key
+         *            the key to locate
+         * @param hash
+         *            hash code of {@code key}
+         * @param probes
+         *            the counters to update, or {@code null}
+         * @return the node holding {@code key}, or {@code null}
+         */
+        Node<K, V> find(K key, int hash, Map4Probes probes) {
+            if (this.root != null) {
+                TreeEntry<K, V> e = this.findEntry(this.root, key, hash,
+                        probes);
+                return (e == null) ? null : e.node;
+            }
+            Node<K, V> n = this.first;
+            /*
+             * The cached hash codes reject almost every other key before
+             * equals is ever called, so probes is only examined on a match
+             */
+            while (n != null && !(n.hash == hash
+                    && this.equalKeys(n.key, key, probes))) {
+                n = n.next;
+            }
+            return n;
+        }
+
+        /**
+         * Adds {@code n} to the front of this bucket.
+         *
+         * @param n
+         *            the node to add
+         */
+        void addFirst(Node<K, V> n) {
+            if (this.size == 0) {
+                this.occupancy[this.index / Long.SIZE] |= 1L << this.index;
+            }
+            n.next = this.first;
+            this.first = n;
+            this.size++;
+            if (this.root != null) {
+                TreeEntry<K, V> e = new TreeEntry<K, V>(n);
+                e.following = this.firstEntry;
+                this.firstEntry.previous = e;
+                this.firstEntry = e;
+                this.root = this.insert(this.root, e);
+            } else if (this.size >= TREEIFY_THRESHOLD
+                    && this.equivalence == null) {
+                this.treeify();
+            }
+        }
+
+        /**
+         * Removes and returns the first node of this bucket.
+         *
+         * @return the removed node
+         */
+        Node<K, V> removeFirst() {
+            assert this.size > 0 : "Violation of: bucket is not empty";
+
+            Node<K, V> n = this.first;
+            if (this.root != null) {
+                TreeEntry<K, V> e = this.firstEntry;
+                this.firstEntry = e.following;
+                if (this.firstEntry != null) {
+                    this.firstEntry.previous = null;
+                }
+                this.root = this.delete(this.root, e);
+            }
+            this.first = n.next;
+            n.next = null;
+            this.size--;
+            this.afterRemoval();
+            return n;
+        }
+
+        /**
+         * Removes and returns the node holding {@code key}.
+         *
+         * @param key
+         *            the key to remove
+         * @param hash
+         *            hash code of {@code key}
+         * @return the removed node
+         */
+        Node<K, V> remove(K key, int hash) {
+            Node<K, V> n;
+            if (this.root != null) {
+                TreeEntry<K, V> e = this.findEntry(this.root, key, hash,
+                        null);
+                n = e.node;
+                /*
+                 * The entry links give the chain predecessor without walking
+                 * the chain
+                 */
+                if (e.previous == null) {
+                    this.first = n.next;
+                    this.firstEntry = e.following;
+                } else {
+                    e.previous.node.next = n.next;
+                    e.previous.following = e.following;
+                }
+                if (e.following != null) {
+                    e.following.previous = e.previous;
+                }
+                this.root = this.delete(this.root, e);
+            } else {
+                Node<K, V> previous = null;
+                n = this.first;
+                while (!(n.hash == hash
+                        && this.equalKeys(n.key, key, null))) {
+                    previous = n;
+                    n = n.next;
+                }
+                if (previous == null) {
+                    this.first = n.next;
+                } else {
+                    previous.next = n.next;
+                }
+            }
+            n.next = null;
+            this.size--;
+            this.afterRemoval();
+            return n;
+        }
+
+        /**
+         * Removes {@code n}, which follows {@code previous} in the chain,
+         * without comparing keys when the bucket is not treeified.
+         *
+         * @param previous
+         *            the node before {@code n} in the chain, or {@code null}
+         *            if {@code n} is first
+         * @param n
+         *            the node to remove
+         */
+        void removeNode(Node<K, V> previous, Node<K, V> n) {
+            if (this.root != null) {
+                this.remove(n.key, n.hash);
+                return;
+            }
+            if (previous == null) {
+                this.first = n.next;
+            } else {
+                previous.next = n.next;
+            }
+            n.next = null;
+            this.size--;
+            this.afterRemoval();
+        }
+
+        /**
+         * Empties this bucket.
+         */
+        void clear() {
+            this.first = null;
+            this.size = 0;
+            this.root = null;
+            this.firstEntry = null;
+            this.occupancy[this.index / Long.SIZE] &= ~(1L << this.index);
+        }
+
+        /**
+         * Builds the tree over the current chain; only under the natural
+         * equivalence, which agrees with {@code compareTo}.
+         */
+        private void treeify() {
+            assert this.equivalence == null : ""
+                    + "Violation of: equivalence agrees with compareTo";
+
+            TreeEntry<K, V> last = null;
+            for (Node<K, V> n = this.first; n != null; n = n.next) {
+                TreeEntry<K, V> e = new TreeEntry<K, V>(n);
+                if (last == null) {
+                    this.firstEntry = e;
+                } else {
+                    last.following = e;
+                    e.previous = last;
+                }
+                this.root = this.insert(this.root, e);
+                last = e;
+            }
+        }
+
+        /**
+         * Clears the occupancy bit of an emptied bucket and drops the tree
+         * once the chain is short enough to scan.
+         */
+        private void afterRemoval() {
+            if (this.size == 0) {
+                this.occupancy[this.index / Long.SIZE] &= ~(1L << this.index);
+            }
+            if (this.root != null && this.size <= UNTREEIFY_THRESHOLD) {
+                this.root = null;
+                this.firstEntry = null;
+            }
+        }
+
+        /**
+         * Reports whether the stored key {@code stored} is equivalent to
+         * {@code key}, counting the call to {@code equals} (or to the
+         * equivalence) in {@code probes} unless it is {@code null}.
+         *
+         * @param stored
+         *            key of a node
+         * @param key
+         *            the key being located
+         * @param probes
+         *            the counters to update, or {@code null}
+         * @return true iff {@code stored} is equivalent to {@code key}
+         */
+        private boolean equalKeys(K stored, K key, Map4Probes probes) {
+            if (stored == key) {
+                return true;
+            }
+            if (probes != null) {
+                probes.comparisons++;
+            }
+            if (this.equivalence == null) {
+                return stored.equals(key);
+            }
+            return this.equivalence.equivalent(stored, key);
+        }
+
+        /**
+         * Compares two distinct keys with equal hash codes by
+         * {@code compareTo} when both are of the same class and that class
+         * implements {@code Comparable}.
+         *
+         * @param a
+         *            the first key
+         * @param b
+         *            the second key
+         * @return the comparison result, or 0 if the keys are not mutually
+         *         comparable or {@code compareTo} cannot tell them apart
+         */
+        @SuppressWarnings({ "unchecked", "rawtypes" })
+        private static int comparableOrder(Object a, Object b) {
+            if (a.getClass() != b.getClass() || !(a instanceof Comparable)) {
+                return 0;
+            }
+            return ((Comparable) a).compareTo(b);
+        }
+
+        /**
+         * Total order of the nodes of a tree: by hash code, then by
+         * {@code comparableOrder}, then by class name and identity hash code
+         * to break the remaining ties.
+         *
+         * @param a
+         *            the first node
+         * @param b
+         *            the second node
+         * @return negative, zero, or positive as {@code a} orders before, with,
+         *         or after {@code b}
+         */
+        private int order(Node<K, V> a, Node<K, V> b) {
+            int c = Integer.compare(a.hash, b.hash);
+            if (c == 0 && a != b) {
+                c = comparableOrder(a.key, b.key);
+                if (c == 0) {
+                    c = a.key.getClass().getName()
+                            .compareTo(b.key.getClass().getName());
+                }
+                if (c == 0) {
+                    c = Integer.compare(System.identityHashCode(a.key),
+                            System.identityHashCode(b.key));
+                }
+            }
+            return c;
+        }
+
+        /**
+         * Returns the entry holding {@code key} in the tree rooted at
+         * {@code t}, or {@code null}. Where neither the hash codes nor
+         * {@code compareTo} separate {@code key} from an entry, both subtrees
+         * are searched.
+         *
+         * @param t
+         *            root of the tree
+         * @param key
+         *            the key to locate
+         * @param hash
+         *            hash code of {@code key}
+         * @param probes
+         *            the counters to update, or {@code null}
+         * @return the entry holding {@code key}, or {@code null}
+         */
+        private TreeEntry<K, V> findEntry(TreeEntry<K, V> t, K key,
+                int hash, Map4Probes probes) {
+            TreeEntry<K, V> e = t;
+            while (e != null) {
+                Node<K, V> n = e.node;
+                if (n.hash != hash) {
+                    e = (hash < n.hash) ? e.left : e.right;
+                } else if (this.equalKeys(n.key, key, probes)) {
+                    return e;
+                } else {
+                    int c = comparableOrder(key, n.key);
+                    if (c < 0) {
+                        e = e.left;
+                    } else if (c > 0) {
+                        e = e.right;
+                    } else {
+                        TreeEntry<K, V> found = this.findEntry(e.right, key,
+                                hash, probes);
+                        if (found != null) {
+                            return found;
+                        }
+                        e = e.left;
+                    }
+                }
+            }
+            return null;
+        }
+
+        /**
+         * Reports whether {@code target} is in the tree rooted at {@code t}.
+         *
+         * @param t
+         *            root of the tree
+         * @param target
+         *            the entry to locate
+         * @return true iff {@code target} is in the tree
+         */
+        private boolean contains(TreeEntry<K, V> t,
+                TreeEntry<K, V> target) {
+            TreeEntry<K, V> e = t;
+            while (e != null && e != target) {
+                int c = this.order(target.node, e.node);
+                if (c < 0) {
+                    e = e.left;
+                } else if (c > 0) {
+                    e = e.right;
+                } else {
+                    if (this.contains(e.right, target)) {
+                        return true;
+                    }
+                    e = e.left;
+                }
+            }
+            return e != null;
+        }
+
+        /**
+         * Returns the height of the tree rooted at {@code t}.
+         *
+         * @param t
+         *            root of the tree
+         * @return the height, 0 for the empty tree
+         */
+        private static int height(TreeEntry<?, ?> t) {
+            return (t == null) ? 0 : t.height;
+        }
+
+        /**
+         * Rotates the tree rooted at {@code t} to the right.
+         *
+         * @param <K>
+         *            type of key
+         * @param <V>
+         *            type of value
+         * @param t
+         *            root of the tree
+         * @return the new root
+         */
+        private static <K, V> TreeEntry<K, V> rotateRight(TreeEntry<K, V> t) {
+            TreeEntry<K, V> l = t.left;
+            t.left = l.right;
+            l.right = t;
+            t.height = 1 + Math.max(height(t.left), height(t.right));
+            l.height = 1 + Math.max(height(l.left), height(l.right));
+            return l;
+        }
+
+        /**
+         * Rotates the tree rooted at {@code t} to the left.
+         *
+         * @param <K>
+         *            type of key
+         * @param <V>
+         *            type of value
+         * @param t
+         *            root of the tree
+         * @return the new root
+         */
+        private static <K, V> TreeEntry<K, V> rotateLeft(TreeEntry<K, V> t) {
+            TreeEntry<K, V> r = t.right;
+            t.right = r.left;
+            r.left = t;
+            t.height = 1 + Math.max(height(t.left), height(t.right));
+            r.height = 1 + Math.max(height(r.left), height(r.right));
+            return r;
+        }
+
+        /**
+         * Restores the AVL balance of the tree rooted at {@code t}, whose
+         * subtrees are balanced and differ in height by at most two.
+         *
+         * @param <K>
+         *            type of key
+         * @param <V>
+         *            type of value
+         * @param t
+         *            root of the tree
+         * @return the new root
+         */
+        private static <K, V> TreeEntry<K, V> balance(TreeEntry<K, V> t) {
+            int skew = height(t.left) - height(t.right);
+            if (skew > 1) {
+                if (height(t.left.left) < height(t.left.right)) {
+                    t.left = rotateLeft(t.left);
+                }
+                return rotateRight(t);
+            }
+            if (skew < -1) {
+                if (height(t.right.right) < height(t.right.left)) {
+                    t.right = rotateRight(t.right);
+                }
+                return rotateLeft(t);
+            }
+            t.height = 1 + Math.max(height(t.left), height(t.right));
+            return t;
+        }
+
+        /**
+         * Inserts {@code e} into the tree rooted at {@code t}.
+         *
+         * @param t
+         *            root of the tree
+         * @param e
+         *            the entry to insert
+         * @return the new root
+         */
+        private TreeEntry<K, V> insert(TreeEntry<K, V> t,
+                TreeEntry<K, V> e) {
+            if (t == null) {
+                return e;
+            }
+            if (this.order(e.node, t.node) < 0) {
+                t.left = this.insert(t.left, e);
+            } else {
+                t.right = this.insert(t.right, e);
+            }
+            return balance(t);
+        }
+
+        /**
+         * Removes the leftmost entry of the tree rooted at {@code t}.
+         *
+         * @param <K>
+         *            type of key
+         * @param <V>
+         *            type of value
+         * @param t
+         *            root of the tree
+         * @return the new root
+         */
+        private static <K, V> TreeEntry<K, V> deleteLeftmost(
+                TreeEntry<K, V> t) {
+            if (t.left == null) {
+                return t.right;
+            }
+            t.left = deleteLeftmost(t.left);
+            return balance(t);
+        }
+
+        /**
+         * Removes {@code target} from the tree rooted at {@code t}.
+         *
+         * @param t
+         *            root of the tree
+         * @param target
+         *            the entry to remove
+         * @return the new root
+         * @requires [target is in the tree rooted at t]
+         */
+        private TreeEntry<K, V> delete(TreeEntry<K, V> t,
+                TreeEntry<K, V> target) {
+            if (t == target) {
+                if (t.left == null) {
+                    return t.right;
+                }
+                if (t.right == null) {
+                    return t.left;
+                }
+                TreeEntry<K, V> successor = t.right;
+                while (successor.left != null) {
+                    successor = successor.left;
+                }
+                successor.right = deleteLeftmost(t.right);
+                successor.left = t.left;
+                return balance(successor);
+            }
+            int c = this.order(target.node, t.node);
+            if (c < 0 || (c == 0 && !this.contains(t.right, target))) {
+                t.left = this.delete(t.left, target);
+            } else {
+                t.right = this.delete(t.right, target);
+            }
+            return balance(t);
+        }
+
+    }
+
+    /**
+     * Fail-fast implementation of {@code Iterator} interface for {@code Map4},
+     * supporting {@code remove}. Any structural update of {@code this} other
+     * than through {@code remove} of this iterator makes the next call of
+     * {@code next} or {@code remove} throw
+     * {@code ConcurrentModificationException}.
+     */
+    private final class Map4Iterator implements Iterator<Pair<K, V>> {
+
+        /**
+         * Number of elements seen already (i.e., |~this.seen|).
+         */
+        private int numberSeen;
+
+        /**
+         * Bucket holding {@code nextNode}, numbering the buckets of
+         * {@code oldTable} (if any) before those of {@code hashTable}.
+         */
+        private int currentBucket;
 
         /**
-         * Bucket iterator from which next element will come.
+         * Node from which next element will come, or {@code null} if the
+         * current bucket is exhausted.
          */
-        private Iterator<Pair<K, V>> bucketIterator;
+        private Node<K, V> nextNode;
+
+        /**
+         * Node before {@code nextNode} in its chain, or {@code null}.
+         */
+        private Node<K, V> previousOfNext;
+
+        /**
+         * Node last returned by {@code next}, or {@code null} if there is none
+         * or it has been removed.
+         */
+        private Node<K, V> lastReturned;
+
+        /**
+         * Node before {@code lastReturned} in its chain, or {@code null}.
+         */
+        private Node<K, V> previousOfLast;
+
+        /**
+         * Value of {@code modCount} this iterator expects.
+         */
+        private int expectedModCount;
 
         /**
          * No-argument constructor.
          */
         Map4Iterator() {
             this.numberSeen = 0;
-            this.currentBucket = 0;
-            this.bucketIterator = Map4.this.hashTable.entry(0).iterator();
+            this.currentBucket = -1;
+            this.nextNode = null;
+            this.previousOfNext = null;
+            this.lastReturned = null;
+            this.previousOfLast = null;
+            this.expectedModCount = Map4.this.modCount;
+            Map4.this.iterationModCount = Map4.this.modCount;
+        }
+
+        /**
+         * Throws {@code ConcurrentModificationException} if {@code this} was
+         * structurally updated other than through this iterator.
+         */
+        private void checkForComodification() {
+            if (Map4.this.modCount != this.expectedModCount) {
+                throw new ConcurrentModificationException();
+            }
+        }
+
+        /**
+         * Returns the bucket numbered {@code i}, counting the buckets of
+         * {@code oldTable} (if any) before those of {@code hashTable}.
+         *
+         * @param i
+         *            the bucket number
+         * @return the bucket
+         */
+        private Bucket<K, V> bucket(int i) {
+            Array<Bucket<K, V>> oldTable = Map4.this.oldTable;
+            if (oldTable == null) {
+                return Map4.this.hashTable.entry(i);
+            }
+            if (i < oldTable.length()) {
+                return oldTable.entry(i);
+            }
+            return Map4.this.hashTable.entry(i - oldTable.length());
+        }
+
+        /**
+         * Returns the number of the first non-empty bucket at or after
+         * {@code from}, numbered as by {@code bucket}.
+         *
+         * @param from
+         *            the first bucket number to consider
+         * @return the number of the next non-empty bucket
+         * @requires [there is a non-empty bucket numbered from or later]
+         */
+        private int nextOccupiedBucket(int from) {
+            int oldLength = 0;
+            int start = from;
+            if (Map4.this.oldTable != null) {
+                oldLength = Map4.this.oldTable.length();
+                if (start < oldLength) {
+                    int i = nextOccupied(Map4.this.oldOccupied, start);
+                    if (i >= 0) {
+                        return i;
+                    }
+                    start = oldLength;
+                }
+            }
+            return oldLength + nextOccupied(Map4.this.occupied,
+                    start - oldLength);
         }
 
         @Override
@@ -330,6 +2759,17 @@ public class Map4<K, V> extends MapSecondary<K, V> {
 
         @Override
         public Pair<K, V> next() {
+            return pairOf(this.advance());
+        }
+
+        /**
+         * Advances as {@code next} does, but returns the node itself, for
+         * copies that keep its cached hash code.
+         *
+         * @return the next node
+         */
+        Node<K, V> advance() {
+            this.checkForComodification();
             assert this.hasNext() : "Violation of: ~this.unseen /= <>";
             if (!this.hasNext()) {
                 /*
@@ -340,21 +2780,243 @@ public class Map4<K, V> extends MapSecondary<K, V> {
                 throw new NoSuchElementException();
             }
             this.numberSeen++;
-            if (this.bucketIterator.hasNext()) {
-                return this.bucketIterator.next();
-            }
-            while (!this.bucketIterator.hasNext()) {
-                this.currentBucket++;
-                this.bucketIterator = Map4.this.hashTable
-                        .entry(this.currentBucket).iterator();
+            if (this.nextNode == null) {
+                this.currentBucket = this.nextOccupiedBucket(
+                        this.currentBucket + 1);
+                this.nextNode = this.bucket(this.currentBucket).first;
+                this.previousOfNext = null;
             }
-            return this.bucketIterator.next();
+            Node<K, V> n = this.nextNode;
+            this.lastReturned = n;
+            this.previousOfLast = this.previousOfNext;
+            this.nextNode = n.next;
+            this.previousOfNext = n;
+            return n;
         }
 
         @Override
         public void remove() {
-            throw new UnsupportedOperationException(
-                    "remove operation not supported");
+            if (this.lastReturned == null) {
+                throw new IllegalStateException();
+            }
+            this.checkForComodification();
+            /*
+             * The node is unlinked in place: no rehash of its key and no
+             * migration or shrinking, either of which would move the nodes
+             * still to be visited
+             */
+            this.bucket(this.currentBucket).removeNode(this.previousOfLast,
+                    this.lastReturned);
+            if (this.previousOfNext == this.lastReturned) {
+                this.previousOfNext = this.previousOfLast;
+            }
+            this.lastReturned = null;
+            this.numberSeen--;
+            Map4.this.size--;
+            Map4.this.modCount++;
+            this.expectedModCount = Map4.this.modCount;
+            Map4.this.iterationModCount = Map4.this.modCount;
+        }
+
+    }
+
+    /**
+     * Fail-fast implementation of {@code Spliterator} interface for
+     * {@code Map4}, covering a range of buckets numbered as by
+     * {@code Map4Iterator}: those of {@code oldTable} (if any) before those of
+     * {@code hashTable}.
+     */
+    private final class Map4Spliterator implements Spliterator<Pair<K, V>> {
+
+        /**
+         * Old table when this was created, or {@code null}.
+         */
+        private final Array<Bucket<K, V>> oldTable;
+
+        /**
+         * Hash table when this was created.
+         */
+        private final Array<Bucket<K, V>> hashTable;
+
+        /**
+         * Next bucket to start traversing.
+         */
+        private int index;
+
+        /**
+         * One past the last bucket of the range.
+         */
+        private final int fence;
+
+        /**
+         * Remaining nodes of the bucket being traversed, or {@code null}.
+         */
+        private Node<K, V> current;
+
+        /**
+         * Exact number of pairs not yet traversed.
+         */
+        private long remaining;
+
+        /**
+         * Value of {@code modCount} this spliterator expects.
+         */
+        private final int expectedModCount;
+
+        /**
+         * No-argument constructor, covering every bucket of {@code this}.
+         */
+        Map4Spliterator() {
+            this.oldTable = Map4.this.oldTable;
+            this.hashTable = Map4.this.hashTable;
+            int oldLength = 0;
+            if (this.oldTable != null) {
+                oldLength = this.oldTable.length();
+            }
+            this.index = 0;
+            this.fence = oldLength + this.hashTable.length();
+            this.current = null;
+            this.remaining = Map4.this.size;
+            this.expectedModCount = Map4.this.modCount;
+            Map4.this.iterationModCount = Map4.this.modCount;
+        }
+
+        /**
+         * Constructor for the part split off {@code parent}.
+         *
+         * @param parent
+         *            the spliterator being split
+         * @param index
+         *            first bucket of the range
+         * @param fence
+         *            one past the last bucket of the range
+         * @param remaining
+         *            number of pairs in the range
+         */
+        private Map4Spliterator(Map4Spliterator parent, int index, int fence,
+                long remaining) {
+            this.oldTable = parent.oldTable;
+            this.hashTable = parent.hashTable;
+            this.index = index;
+            this.fence = fence;
+            this.current = null;
+            this.remaining = remaining;
+            this.expectedModCount = parent.expectedModCount;
+        }
+
+        /**
+         * Returns the bucket numbered {@code i}, or {@code null} if it has
+         * never been allocated.
+         *
+         * @param i
+         *            the bucket number
+         * @return the bucket, or {@code null}
+         */
+        private Bucket<K, V> bucket(int i) {
+            if (this.oldTable == null) {
+                return bucketAt(this.hashTable, i);
+            }
+            if (i < this.oldTable.length()) {
+                return bucketAt(this.oldTable, i);
+            }
+            return bucketAt(this.hashTable, i - this.oldTable.length());
+        }
+
+        /**
+         * Returns the first node of the bucket numbered {@code i}, or
+         * {@code null} if the bucket is empty.
+         *
+         * @param i
+         *            the bucket number
+         * @return the first node, or {@code null}
+         */
+        private Node<K, V> first(int i) {
+            Bucket<K, V> bucket = this.bucket(i);
+            if (bucket == null) {
+                return null;
+            }
+            return bucket.first;
+        }
+
+        /**
+         * Throws {@code ConcurrentModificationException} if {@code Map4.this}
+         * was structurally updated since this was created.
+         */
+        private void checkForComodification() {
+            if (Map4.this.modCount != this.expectedModCount) {
+                throw new ConcurrentModificationException();
+            }
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super Pair<K, V>> action) {
+            assert action != null : "Violation of: action is not null";
+            while (this.current == null && this.index < this.fence) {
+                this.current = this.first(this.index);
+                this.index++;
+            }
+            if (this.current == null) {
+                return false;
+            }
+            Node<K, V> n = this.current;
+            this.current = n.next;
+            this.remaining--;
+            action.accept(pairOf(n));
+            this.checkForComodification();
+            return true;
+        }
+
+        @Override
+        public void forEachRemaining(Consumer<? super Pair<K, V>> action) {
+            assert action != null : "Violation of: action is not null";
+            Node<K, V> n = this.current;
+            this.current = null;
+            while (n != null || this.index < this.fence) {
+                if (n == null) {
+                    n = this.first(this.index);
+                    this.index++;
+                } else {
+                    action.accept(pairOf(n));
+                    n = n.next;
+                }
+            }
+            this.remaining = 0;
+            this.checkForComodification();
+        }
+
+        @Override
+        public Spliterator<Pair<K, V>> trySplit() {
+            int mid = (this.index + this.fence) >>> 1;
+            if (mid <= this.index) {
+                return null;
+            }
+            /*
+             * Bucket sizes are kept, so the exact size of the front half
+             * costs one pass over its buckets and no walk of any chain
+             */
+            long front = 0;
+            for (int i = this.index; i < mid; i++) {
+                Bucket<K, V> bucket = this.bucket(i);
+                if (bucket != null) {
+                    front += bucket.size();
+                }
+            }
+            Map4Spliterator prefix = new Map4Spliterator(this, this.index,
+                    mid, front);
+            this.index = mid;
+            this.remaining -= front;
+            return prefix;
+        }
+
+        @Override
+        public long estimateSize() {
+            return this.remaining;
+        }
+
+        @Override
+        public int characteristics() {
+            return Spliterator.DISTINCT | Spliterator.NONNULL
+                    | Spliterator.SIZED | Spliterator.SUBSIZED;
         }
 
     }
@@ -0,0 +1,181 @@
+import java.lang.management.ManagementFactory;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Publishes the {@code Map4Statistics} of a {@code Map4} as an MXBean, so a
+ * JMX console can show whether the map is well sized and whether its keys
+ * hash well.
+ * <p>
+ * {@code Map4} is not thread-safe and a JMX console reads from its own
+ * threads, so the attributes are those of the snapshot taken by the last
+ * {@link #refresh()}, which is called from a thread that may read the map,
+ * for instance every so many updates or from a periodic task that holds the
+ * map's lock. The MXBean never touches the map itself.
+ *
+ * @convention <pre>
+ * $this.map /= null  and  $this.latest /= null
+ * </pre>
+ *
+ * @author Simon Manning & Nam Nguyen
+ *
+ */
+public final class Map4Monitor implements Map4MonitorMXBean {
+
+    /*
+     * Private members --------------------------------------------------------
+     */
+
+    /**
+     * Domain of the names under which monitors are registered.
+     */
+    private static final String DOMAIN = "Map4";
+
+    /**
+     * The map observed.
+     */
+    private final Map4<?, ?> map;
+
+    /**
+     * Statistics of the last refresh.
+     */
+    private volatile Map4Statistics latest;
+
+    /**
+     * Time of the last refresh, in milliseconds since the epoch.
+     */
+    private volatile long refreshTime;
+
+    /*
+     * Constructors -----------------------------------------------------------
+     */
+
+    /**
+     * Constructor; takes the first snapshot of {@code map}, and turns its
+     * probe counting on if {@code countProbes}.
+     *
+     * @param map
+     *            the map to observe
+     * @param countProbes
+     *            whether to count the lookups of {@code map}
+     */
+    public Map4Monitor(Map4<?, ?> map, boolean countProbes) {
+        assert map != null : "Violation of: map is not null";
+
+        this.map = map;
+        if (countProbes) {
+            map.setProbeCounting(true);
+        }
+        this.refresh();
+    }
+
+    /*
+     * Other methods ----------------------------------------------------------
+     */
+
+    /**
+     * Takes a new snapshot of the statistics of the map. Call from a thread
+     * that may read the map.
+     */
+    public void refresh() {
+        this.latest = this.map.statistics();
+        this.refreshTime = System.currentTimeMillis();
+    }
+
+    /**
+     * Returns the statistics of the last refresh.
+     *
+     * @return the latest snapshot
+     */
+    public Map4Statistics statistics() {
+        return this.latest;
+    }
+
+    /**
+     * Registers {@code this} with the platform MBean server under the name
+     * {@code Map4:type=Map4Monitor,name=<name>}.
+     *
+     * @param name
+     *            name distinguishing this map from the others monitored
+     * @return the name registered
+     * @throws JMException
+     *             if the name is malformed or already registered
+     */
+    public ObjectName register(String name) throws JMException {
+        assert name != null : "Violation of: name is not null";
+
+        ObjectName objectName = new ObjectName(
+                DOMAIN + ":type=Map4Monitor,name=" + ObjectName.quote(name));
+        ManagementFactory.getPlatformMBeanServer().registerMBean(this,
+                objectName);
+        return objectName;
+    }
+
+    /**
+     * Unregisters {@code objectName} from the platform MBean server.
+     *
+     * @param objectName
+     *            the name returned by {@code register}
+     * @throws JMException
+     *             if the name is not registered
+     */
+    public static void unregister(ObjectName objectName) throws JMException {
+        ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+    }
+
+    /*
+     * MXBean methods ---------------------------------------------------------
+     */
+
+    @Override
+    public int getSize() {
+        return this.latest.size();
+    }
+
+    @Override
+    public int getTableSize() {
+        return this.latest.tableSize();
+    }
+
+    @Override
+    public double getLoadFactor() {
+        return this.latest.loadFactor();
+    }
+
+    @Override
+    public long getEmptyBuckets() {
+        return this.latest.emptyBuckets();
+    }
+
+    @Override
+    public int getMaxChainLength() {
+        return this.latest.maxChainLength();
+    }
+
+    @Override
+    public long[] getBucketLengthHistogram() {
+        return this.latest.bucketLengthHistogram();
+    }
+
+    @Override
+    public int getTreeifiedBuckets() {
+        return this.latest.treeifiedBuckets();
+    }
+
+    @Override
+    public long getLookups() {
+        return this.latest.lookups();
+    }
+
+    @Override
+    public double getComparisonsPerLookup() {
+        return this.latest.comparisonsPerLookup();
+    }
+
+    @Override
+    public long getRefreshTime() {
+        return this.refreshTime;
+    }
+
+}
@@ -0,0 +1,85 @@
+/**
+ * Management interface of {@code Map4Monitor}: the statistics of a
+ * {@code Map4} as of the last {@code Map4Monitor.refresh}.
+ *
+ * @author Simon Manning & Nam Nguyen
+ *
+ */
+public interface Map4MonitorMXBean {
+
+    /**
+     * Reports the number of pairs.
+     *
+     * @return the size of the map
+     */
+    int getSize();
+
+    /**
+     * Reports the number of buckets of the hash table, plus any old buckets
+     * an incremental rehash has yet to migrate.
+     *
+     * @return the number of buckets
+     */
+    int getTableSize();
+
+    /**
+     * Reports the ratio of pairs to buckets, as counted by
+     * {@code getTableSize}.
+     *
+     * @return the load factor
+     */
+    double getLoadFactor();
+
+    /**
+     * Reports the number of empty buckets.
+     *
+     * @return the number of empty buckets
+     */
+    long getEmptyBuckets();
+
+    /**
+     * Reports the length of the longest chain.
+     *
+     * @return the longest chain length
+     */
+    int getMaxChainLength();
+
+    /**
+     * Reports the bucket-length histogram: entry i is the number of buckets
+     * holding exactly i pairs, except that the last entry counts every
+     * bucket holding at least that many.
+     *
+     * @return the histogram
+     */
+    long[] getBucketLengthHistogram();
+
+    /**
+     * Reports the number of buckets indexed by a tree.
+     *
+     * @return the number of treeified buckets
+     */
+    int getTreeifiedBuckets();
+
+    /**
+     * Reports the number of lookups counted.
+     *
+     * @return the number of lookups
+     */
+    long getLookups();
+
+    /**
+     * Reports the average number of calls to {@code equals} per lookup
+     * counted.
+     *
+     * @return comparisons per lookup
+     */
+    double getComparisonsPerLookup();
+
+    /**
+     * Reports when the statistics were taken.
+     *
+     * @return the time of the last refresh, in milliseconds since the epoch
+     */
+    long getRefreshTime();
+
+}
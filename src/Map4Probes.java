@@ -0,0 +1,20 @@
+/**
+ * Counters of the lookups of a {@code Map4} and of the calls to
+ * {@code equals} they make, kept while its probe counting is on.
+ *
+ * @author Simon Manning & Nam Nguyen
+ *
+ */
+final class Map4Probes {
+
+    /**
+     * Number of lookups.
+     */
+    long lookups;
+
+    /**
+     * Number of calls to {@code equals}.
+     */
+    long comparisons;
+
+}
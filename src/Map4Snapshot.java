@@ -0,0 +1,576 @@
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+
+import components.map.Map;
+
+/**
+ * Read-only view of a {@code Map} saved to a file in a hash-table layout and
+ * reopened by memory-mapping the file. Opening costs one {@code mmap} call
+ * and one sequential pass over the index and the entry headers, which checks
+ * that every lookup stays inside the file, but decodes nothing; lookups read
+ * the mapped pages directly, and processes that map the same file share its
+ * page cache.
+ * <p>
+ * File layout (big-endian):
+ *
+ * <pre>
+ * header:  int MAGIC, int VERSION, int size, int bucketCount
+ * index:   long[bucketCount + 1] offsets of each bucket within the data
+ * data:    per entry: int hash, int keyLength, int valueLength,
+ *          byte[keyLength] key, byte[valueLength] value
+ * </pre>
+ *
+ * Keys and values are stored in the encoded form given by {@code Codec}s, and
+ * the bucket of a key is computed from its encoded bytes, so the layout does
+ * not depend on any process-specific {@code hashCode}. The data section of a
+ * snapshot is limited to what one mapping can address (2 GB).
+ *
+ * @param <K>
+ *            type of {@code Map} domain (key) entries
+ * @param <V>
+ *            type of {@code Map} range (associated value) entries
+ * @convention <pre>
+ * [$this.buffer holds a well-formed snapshot]  and
+ * $this.size = [size field of the header]  and
+ * $this.bucketCount = [bucketCount field of the header]  and
+ * [$this.bucketCount is a power of two]  and
+ * $this.dataStart = [offset of the data section]
+ * </pre>
+ * @correspondence <pre>
+ * this = {(keyCodec.decode(k), valueCodec.decode(v))
+ *         where [(k, v) is an entry of the data section]}
+ * </pre>
+ *
+ * @author Simon Manning & Nam Nguyen
+ *
+ */
+public final class Map4Snapshot<K, V> {
+
+    /**
+     * Conversion between objects and the bytes stored in a snapshot.
+     *
+     * @param <T>
+     *            type of object converted
+     */
+    public interface Codec<T> {
+
+        /**
+         * Encodes {@code x}.
+         *
+         * @param x
+         *            the object to encode
+         * @return the encoding of {@code x}
+         * @ensures decode(encode) = x
+         */
+        byte[] encode(T x);
+
+        /**
+         * Decodes {@code bytes}.
+         *
+         * @param bytes
+         *            the encoding of an object
+         * @return the object encoded by {@code bytes}
+         * @requires [bytes was produced by encode]
+         */
+        T decode(byte[] bytes);
+
+    }
+
+    /**
+     * Codec storing strings as UTF-8.
+     */
+    public static final Codec<String> STRING_CODEC = new Codec<String>() {
+        @Override
+        public byte[] encode(String x) {
+            return x.getBytes(StandardCharsets.UTF_8);
+        }
+
+        @Override
+        public String decode(byte[] bytes) {
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+    };
+
+    /**
+     * Codec storing integers as 4 big-endian bytes.
+     */
+    public static final Codec<Integer> INTEGER_CODEC = new Codec<Integer>() {
+        @Override
+        public byte[] encode(Integer x) {
+            return ByteBuffer.allocate(Integer.BYTES).putInt(0, x).array();
+        }
+
+        @Override
+        public Integer decode(byte[] bytes) {
+            return ByteBuffer.wrap(bytes).getInt(0);
+        }
+    };
+
+    /*
+     * Private members --------------------------------------------------------
+     */
+
+    /**
+     * Marks the start of a snapshot file.
+     */
+    private static final int MAGIC = 0x4D34534E;
+
+    /**
+     * Layout version.
+     */
+    private static final int VERSION = 1;
+
+    /**
+     * Bytes in the header.
+     */
+    private static final int HEADER_BYTES = 16;
+
+    /**
+     * Bytes of an entry before its key.
+     */
+    private static final int ENTRY_HEADER_BYTES = 12;
+
+    /**
+     * Largest number of buckets.
+     */
+    private static final int MAXIMUM_BUCKETS = 1 << 26;
+
+    /**
+     * Mapped contents of the snapshot file.
+     */
+    private final ByteBuffer buffer;
+
+    /**
+     * Number of entries.
+     */
+    private final int size;
+
+    /**
+     * Number of buckets.
+     */
+    private final int bucketCount;
+
+    /**
+     * Offset of the data section.
+     */
+    private final int dataStart;
+
+    /**
+     * Codec for keys.
+     */
+    private final Codec<K> keyCodec;
+
+    /**
+     * Codec for values.
+     */
+    private final Codec<V> valueCodec;
+
+    /**
+     * Computes the hash code stored for an encoded key. It is part of the
+     * file format, so it goes through the one definition of the mixer.
+     *
+     * @param key
+     *            encoded key
+     * @return the mixed hash code of {@code key}
+     */
+    private static int hash(byte[] key) {
+        return Hashing.mix32(Arrays.hashCode(key));
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param buffer
+     *            mapped snapshot
+     * @param keyCodec
+     *            codec for keys
+     * @param valueCodec
+     *            codec for values
+     * @throws IOException
+     *             if {@code buffer} does not hold a snapshot
+     */
+    private Map4Snapshot(ByteBuffer buffer, Codec<K> keyCodec,
+            Codec<V> valueCodec) throws IOException {
+        if (buffer.capacity() < HEADER_BYTES || buffer.getInt(0) != MAGIC
+                || buffer.getInt(4) != VERSION) {
+            throw new IOException("Not a Map4 snapshot");
+        }
+        int n = buffer.getInt(8);
+        int buckets = buffer.getInt(12);
+        if (n < 0 || buckets <= 0 || buckets > MAXIMUM_BUCKETS
+                || Integer.bitCount(buckets) != 1) {
+            throw new IOException("Corrupt Map4 snapshot header");
+        }
+        long start = HEADER_BYTES + (buckets + 1L) * Long.BYTES;
+        if (start > buffer.capacity()) {
+            throw new IOException("Truncated Map4 snapshot index");
+        }
+        long dataBytes = buffer.getLong((int) start - Long.BYTES);
+        if (buffer.getLong(HEADER_BYTES) != 0 || dataBytes < 0
+                || dataBytes > buffer.capacity() - start) {
+            throw new IOException("Truncated Map4 snapshot data");
+        }
+        checkEntries(buffer, n, buckets, (int) start);
+        this.buffer = buffer;
+        this.size = n;
+        this.bucketCount = buckets;
+        this.dataStart = (int) start;
+        this.keyCodec = keyCodec;
+        this.valueCodec = valueCodec;
+    }
+
+    /**
+     * Checks that the index of the snapshot in {@code buffer} never
+     * decreases and that the entries of each bucket exactly fill its run of
+     * the data section, hash to that bucket, and number {@code n} in all, so
+     * that {@code find} and {@code copyTo} stay inside the buffer.
+     *
+     * @param buffer
+     *            mapped snapshot
+     * @param n
+     *            size field of the header
+     * @param buckets
+     *            bucketCount field of the header
+     * @param dataStart
+     *            offset of the data section
+     * @throws IOException
+     *             if the index or an entry header is corrupt
+     * @requires <pre>
+     * [the header of buffer is well formed]  and
+     * [the index and data section lie within buffer, as the first and last
+     *  index entries say]
+     * </pre>
+     */
+    private static void checkEntries(ByteBuffer buffer, int n, int buckets,
+            int dataStart) throws IOException {
+        long at = 0;
+        long entries = 0;
+        for (int b = 0; b < buckets; b++) {
+            long end = buffer.getLong(HEADER_BYTES + (b + 1) * Long.BYTES);
+            if (end < at) {
+                throw new IOException("Corrupt Map4 snapshot index");
+            }
+            while (at < end) {
+                int entryAt = dataStart + (int) at;
+                if (end - at < ENTRY_HEADER_BYTES) {
+                    throw new IOException("Corrupt Map4 snapshot entry");
+                }
+                int keyLength = buffer.getInt(entryAt + 4);
+                int valueLength = buffer.getInt(entryAt + 8);
+                long entryBytes = (long) ENTRY_HEADER_BYTES + keyLength
+                        + valueLength;
+                if (keyLength < 0 || valueLength < 0 || entryBytes > end - at
+                        || (buffer.getInt(entryAt) & (buckets - 1)) != b) {
+                    throw new IOException("Corrupt Map4 snapshot entry");
+                }
+                at += entryBytes;
+                entries++;
+            }
+        }
+        if (entries != n) {
+            throw new IOException("Corrupt Map4 snapshot size");
+        }
+    }
+
+    /**
+     * Returns the offset of the entry holding encoded key {@code key}, or -1.
+     *
+     * @param key
+     *            encoded key
+     * @return the offset of the entry, or -1 if there is none
+     */
+    private int find(byte[] key) {
+        int hash = hash(key);
+        int bucket = hash & (this.bucketCount - 1);
+        int indexAt = HEADER_BYTES + bucket * Long.BYTES;
+        int at = this.dataStart + (int) this.buffer.getLong(indexAt);
+        int end = this.dataStart
+                + (int) this.buffer.getLong(indexAt + Long.BYTES);
+        while (at < end) {
+            int keyLength = this.buffer.getInt(at + 4);
+            int valueLength = this.buffer.getInt(at + 8);
+            if (this.buffer.getInt(at) == hash && keyLength == key.length
+                    && this.keyEquals(at + ENTRY_HEADER_BYTES, key)) {
+                return at;
+            }
+            at += ENTRY_HEADER_BYTES + keyLength + valueLength;
+        }
+        return -1;
+    }
+
+    /**
+     * Reports whether the bytes at {@code at} equal {@code key}.
+     *
+     * @param at
+     *            offset in the buffer
+     * @param key
+     *            encoded key
+     * @return true iff the buffer holds {@code key} at {@code at}
+     */
+    private boolean keyEquals(int at, byte[] key) {
+        for (int i = 0; i < key.length; i++) {
+            if (this.buffer.get(at + i) != key[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Copies {@code length} bytes at {@code at} out of the buffer.
+     *
+     * @param at
+     *            offset in the buffer
+     * @param length
+     *            number of bytes
+     * @return the bytes
+     */
+    private byte[] bytesAt(int at, int length) {
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = this.buffer.get(at + i);
+        }
+        return bytes;
+    }
+
+    /*
+     * Public methods ---------------------------------------------------------
+     */
+
+    /**
+     * Writes the pairs of {@code map} to {@code file} in snapshot layout,
+     * replacing any previous contents. Each bucket's entries are stored
+     * contiguously so that a lookup reads one run of the file.
+     * <p>
+     * The snapshot is written to a temporary file in the same directory,
+     * forced to disk, and then atomically moved over {@code file}, so neither
+     * a reader nor a crash ever leaves a partial file under that name, and
+     * snapshots already open keep mapping the old contents instead of failing
+     * on a file truncated under them. The new file gets the permissions of
+     * any newly created file (those the umask allows), not those of the file
+     * it replaces.
+     *
+     * @param <K>
+     *            type of {@code Map} domain (key) entries
+     * @param <V>
+     *            type of {@code Map} range (associated value) entries
+     * @param map
+     *            the map to save
+     * @param file
+     *            the file to write
+     * @param keyCodec
+     *            codec for keys
+     * @param valueCodec
+     *            codec for values
+     * @throws IOException
+     *             if the file cannot be written or atomically replaced
+     * @requires [encodings of distinct keys of map are distinct]
+     * @ensures [file holds a snapshot of map]
+     */
+    public static <K, V> void write(Map<K, V> map, Path file,
+            Codec<K> keyCodec, Codec<V> valueCodec) throws IOException {
+        assert map != null : "Violation of: map is not null";
+        assert file != null : "Violation of: file is not null";
+
+        int n = map.size();
+        int bucketCount = 1;
+        while (bucketCount < n && bucketCount < MAXIMUM_BUCKETS) {
+            bucketCount <<= 1;
+        }
+        byte[][] keys = new byte[n][];
+        byte[][] values = new byte[n][];
+        int[] hashes = new int[n];
+        long[] bucketBytes = new long[bucketCount + 1];
+        int i = 0;
+        for (Map.Pair<K, V> p : map) {
+            keys[i] = keyCodec.encode(p.key());
+            values[i] = valueCodec.encode(p.value());
+            hashes[i] = hash(keys[i]);
+            int bucket = hashes[i] & (bucketCount - 1);
+            bucketBytes[bucket + 1] += ENTRY_HEADER_BYTES + keys[i].length
+                    + values[i].length;
+            i++;
+        }
+        /*
+         * Prefix sums turn per-bucket byte counts into bucket offsets; a
+         * counting sort then lays each bucket's entries out together
+         */
+        for (int b = 0; b < bucketCount; b++) {
+            bucketBytes[b + 1] += bucketBytes[b];
+        }
+        if (HEADER_BYTES + (bucketCount + 1L) * Long.BYTES
+                + bucketBytes[bucketCount] > Integer.MAX_VALUE) {
+            throw new IOException("Snapshot exceeds 2 GB");
+        }
+        int[] order = new int[n];
+        int[] fill = new int[bucketCount + 1];
+        for (int e = 0; e < n; e++) {
+            fill[(hashes[e] & (bucketCount - 1)) + 1]++;
+        }
+        for (int b = 0; b < bucketCount; b++) {
+            fill[b + 1] += fill[b];
+        }
+        for (int e = 0; e < n; e++) {
+            order[fill[hashes[e] & (bucketCount - 1)]++] = e;
+        }
+
+        /*
+         * Not Files.createTempFile, which would make the snapshot readable by
+         * its owner only; createFile fails rather than reuse an existing name
+         */
+        String suffix = "."
+                + Long.toHexString(ThreadLocalRandom.current().nextLong())
+                + ".tmp";
+        Path temp = Files.createFile(file.toAbsolutePath()
+                .resolveSibling(file.getFileName() + suffix));
+        boolean moved = false;
+        try {
+            try (FileChannel channel = FileChannel.open(temp,
+                    StandardOpenOption.WRITE);
+                    DataOutputStream out = new DataOutputStream(
+                            new BufferedOutputStream(
+                                    Channels.newOutputStream(channel)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(n);
+                out.writeInt(bucketCount);
+                for (long offset : bucketBytes) {
+                    out.writeLong(offset);
+                }
+                for (int e : order) {
+                    out.writeInt(hashes[e]);
+                    out.writeInt(keys[e].length);
+                    out.writeInt(values[e].length);
+                    out.write(keys[e]);
+                    out.write(values[e]);
+                }
+                out.flush();
+                channel.force(true);
+            }
+            Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE);
+            moved = true;
+        } finally {
+            if (!moved) {
+                Files.deleteIfExists(temp);
+            }
+        }
+    }
+
+    /**
+     * Maps the snapshot in {@code file} read-only. No entry is decoded until
+     * it is looked up.
+     *
+     * @param <K>
+     *            type of {@code Map} domain (key) entries
+     * @param <V>
+     *            type of {@code Map} range (associated value) entries
+     * @param file
+     *            the snapshot file
+     * @param keyCodec
+     *            codec for keys
+     * @param valueCodec
+     *            codec for values
+     * @return the mapped snapshot
+     * @throws IOException
+     *             if the file cannot be mapped, is not a snapshot, or has a
+     *             corrupt or truncated header, index or entry
+     * @ensures open = [map saved in file]
+     */
+    public static <K, V> Map4Snapshot<K, V> open(Path file, Codec<K> keyCodec,
+            Codec<V> valueCodec) throws IOException {
+        assert file != null : "Violation of: file is not null";
+
+        try (FileChannel channel = FileChannel.open(file,
+                StandardOpenOption.READ)) {
+            /*
+             * The mapping stays valid after the channel is closed
+             */
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+                    channel.size());
+            return new Map4Snapshot<K, V>(buffer, keyCodec, valueCodec);
+        }
+    }
+
+    /**
+     * Reports whether there is a pair in {@code this} whose first component is
+     * {@code key}.
+     *
+     * @param key
+     *            the key to be checked
+     * @return true iff there is a pair in this whose first component is key
+     * @ensures hasKey = (key is in DOMAIN(this))
+     */
+    public boolean hasKey(K key) {
+        assert key != null : "Violation of: key is not null";
+
+        return this.find(this.keyCodec.encode(key)) >= 0;
+    }
+
+    /**
+     * Reports the value associated with {@code key} in {@code this}.
+     *
+     * @param key
+     *            the key whose associated value is to be reported
+     * @return the value associated with key
+     * @requires key is in DOMAIN(this)
+     * @ensures (key, value) is in this
+     */
+    public V value(K key) {
+        assert key != null : "Violation of: key is not null";
+
+        int at = this.find(this.keyCodec.encode(key));
+        assert at >= 0 : "Violation of: key is in DOMAIN(this)";
+        int keyLength = this.buffer.getInt(at + 4);
+        int valueLength = this.buffer.getInt(at + 8);
+        return this.valueCodec.decode(this.bytesAt(
+                at + ENTRY_HEADER_BYTES + keyLength, valueLength));
+    }
+
+    /**
+     * Reports the size of {@code this}.
+     *
+     * @return the number of pairs in this
+     * @ensures size = |this|
+     */
+    public int size() {
+        return this.size;
+    }
+
+    /**
+     * Adds every pair of {@code this} to {@code map}, for callers that need a
+     * mutable copy.
+     *
+     * @param map
+     *            the map receiving the pairs
+     * @updates map
+     * @requires DOMAIN(map) intersection DOMAIN(this) = {}
+     * @ensures map = #map union this
+     */
+    public void copyTo(Map<K, V> map) {
+        assert map != null : "Violation of: map is not null";
+
+        int at = this.dataStart;
+        for (int e = 0; e < this.size; e++) {
+            int keyLength = this.buffer.getInt(at + 4);
+            int valueLength = this.buffer.getInt(at + 8);
+            int keyAt = at + ENTRY_HEADER_BYTES;
+            K key = this.keyCodec.decode(this.bytesAt(keyAt, keyLength));
+            V value = this.valueCodec
+                    .decode(this.bytesAt(keyAt + keyLength, valueLength));
+            map.add(key, value);
+            at = keyAt + keyLength + valueLength;
+        }
+    }
+
+}
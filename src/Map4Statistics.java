@@ -0,0 +1,221 @@
+import java.util.Arrays;
+
+/**
+ * Immutable snapshot of the shape of a {@code Map4}'s hash table and of its
+ * lookup counters, as reported by {@link Map4#statistics()}. Bucket counts
+ * cover the hash table and, during an incremental rehash, the old buckets
+ * not yet migrated.
+ *
+ * @author Simon Manning & Nam Nguyen
+ *
+ */
+public final class Map4Statistics {
+
+    /*
+     * Private members --------------------------------------------------------
+     */
+
+    /**
+     * Number of entries of the bucket-length histogram; the last entry counts
+     * every bucket at least that long.
+     */
+    static final int HISTOGRAM_SIZE = 16;
+
+    /**
+     * Number of pairs.
+     */
+    private final int size;
+
+    /**
+     * Number of buckets, including unmigrated old buckets.
+     */
+    private final int tableSize;
+
+    /**
+     * Number of empty buckets.
+     */
+    private final long emptyBuckets;
+
+    /**
+     * Length of the longest chain.
+     */
+    private final int maxChainLength;
+
+    /**
+     * Entry i is the number of buckets of length i; the last entry counts
+     * every bucket at least that long.
+     */
+    private final long[] histogram;
+
+    /**
+     * Number of buckets indexed by a tree.
+     */
+    private final int treeifiedBuckets;
+
+    /**
+     * Number of lookups counted.
+     */
+    private final long lookups;
+
+    /**
+     * Number of calls to {@code equals} made by the lookups counted.
+     */
+    private final long comparisons;
+
+    /*
+     * Constructors -----------------------------------------------------------
+     */
+
+    /**
+     * Constructor.
+     *
+     * @param size
+     *            number of pairs
+     * @param tableSize
+     *            number of buckets, including unmigrated old buckets
+     * @param maxChainLength
+     *            length of the longest chain
+     * @param histogram
+     *            bucket-length histogram, which is kept
+     * @param treeifiedBuckets
+     *            number of buckets indexed by a tree
+     * @param lookups
+     *            number of lookups counted
+     * @param comparisons
+     *            number of calls to {@code equals} they made
+     */
+    Map4Statistics(int size, int tableSize, int maxChainLength,
+            long[] histogram, int treeifiedBuckets, long lookups,
+            long comparisons) {
+        assert histogram.length == HISTOGRAM_SIZE : ""
+                + "Violation of: |histogram| = HISTOGRAM_SIZE";
+
+        this.size = size;
+        this.tableSize = tableSize;
+        this.emptyBuckets = histogram[0];
+        this.maxChainLength = maxChainLength;
+        this.histogram = histogram;
+        this.treeifiedBuckets = treeifiedBuckets;
+        this.lookups = lookups;
+        this.comparisons = comparisons;
+    }
+
+    /*
+     * Other methods ----------------------------------------------------------
+     */
+
+    /**
+     * Reports the number of pairs.
+     *
+     * @return the size of the map
+     */
+    public int size() {
+        return this.size;
+    }
+
+    /**
+     * Reports the number of buckets of the hash table, plus, during an
+     * incremental rehash, the old buckets not yet migrated, so that it is
+     * the sum of the bucket-length histogram.
+     *
+     * @return the number of buckets
+     */
+    public int tableSize() {
+        return this.tableSize;
+    }
+
+    /**
+     * Reports the ratio of pairs to buckets, counting the buckets as
+     * {@link #tableSize()} does.
+     *
+     * @return size / tableSize
+     */
+    public double loadFactor() {
+        return (double) this.size / this.tableSize;
+    }
+
+    /**
+     * Reports the number of empty buckets.
+     *
+     * @return the number of empty buckets
+     */
+    public long emptyBuckets() {
+        return this.emptyBuckets;
+    }
+
+    /**
+     * Reports the length of the longest chain.
+     *
+     * @return the longest chain length
+     */
+    public int maxChainLength() {
+        return this.maxChainLength;
+    }
+
+    /**
+     * Reports the bucket-length histogram: entry i is the number of
+     * buckets holding exactly i pairs, except that the last entry counts
+     * every bucket holding at least that many.
+     *
+     * @return a copy of the histogram
+     */
+    public long[] bucketLengthHistogram() {
+        return this.histogram.clone();
+    }
+
+    /**
+     * Reports the number of buckets indexed by a tree because many of
+     * their keys share a hash code.
+     *
+     * @return the number of treeified buckets
+     */
+    public int treeifiedBuckets() {
+        return this.treeifiedBuckets;
+    }
+
+    /**
+     * Reports the number of lookups counted while probe counting was on.
+     *
+     * @return the number of lookups
+     */
+    public long lookups() {
+        return this.lookups;
+    }
+
+    /**
+     * Reports the number of calls to {@code equals} made by the lookups
+     * counted.
+     *
+     * @return the number of key comparisons
+     */
+    public long comparisons() {
+        return this.comparisons;
+    }
+
+    /**
+     * Reports the average number of calls to {@code equals} per lookup
+     * counted, or 0 if none was counted. A well-distributed hash code
+     * keeps this near 1 for hits and near 0 for misses.
+     *
+     * @return comparisons / lookups
+     */
+    public double comparisonsPerLookup() {
+        if (this.lookups == 0) {
+            return 0;
+        }
+        return (double) this.comparisons / this.lookups;
+    }
+
+    @Override
+    public String toString() {
+        return "size=" + this.size + ", tableSize=" + this.tableSize
+                + ", loadFactor=" + this.loadFactor() + ", emptyBuckets="
+                + this.emptyBuckets + ", maxChainLength="
+                + this.maxChainLength + ", histogram="
+                + Arrays.toString(this.histogram)
+                + ", treeifiedBuckets=" + this.treeifiedBuckets
+                + ", lookups=" + this.lookups + ", comparisons="
+                + this.comparisons;
+    }
+
+}
@@ -0,0 +1,442 @@
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import components.map.Map;
+import components.map.MapSecondary;
+
+/**
+ * {@code Map} represented as an open-addressing hash table with linear probing
+ * over flat parallel arrays of keys, values and hash codes, with
+ * implementations of primary methods.
+ * <p>
+ * Hash codes are mixed with {@code Hashing.mix32} before their low bits pick
+ * a home slot: linear probing turns any clustering of home slots into long
+ * probe runs, so keys with patterned hash codes, such as sequential
+ * {@code Integer}s or strings with a common suffix, must be spread over the
+ * whole table first.
+ * <p>
+ * The table keeps at least half of its slots empty, so it holds at most
+ * {@code OpenAddressing.MAXIMUM_CAPACITY / 2} pairs; {@code add} beyond that
+ * throws {@code IllegalStateException}.
+ *
+ * @param <K>
+ *            type of {@code Map} domain (key) entries
+ * @param <V>
+ *            type of {@code Map} range (associated value) entries
+ * @convention <pre>
+ * |$this.keys| = |$this.values| = |$this.hashes|  and
+ * [|$this.keys| is a power of two]  and  |$this.keys| >= 2  and
+ * 2 * $this.size <= |$this.keys|  and
+ * $this.size = [number of non-null entries of $this.keys]  and
+ * for all i: integer
+ *     where (0 <= i  and  i < |$this.keys|)
+ *   (($this.keys[i] = null  iff  $this.values[i] = null)  and
+ *    ($this.keys[i] /= null  implies
+ *       ($this.hashes[i] =
+ *          Hashing.mix32([computed result of $this.keys[i].hashCode()])  and
+ *        [every slot cyclically from $this.hashes[i] mod |$this.keys| up to i
+ *         holds a non-null key])))  and
+ * [no two non-null entries of $this.keys are equal]  and
+ * 0 <= $this.anyCursor < |$this.keys|
+ * </pre>
+ * @correspondence <pre>
+ * this = {(k, v): (K, V)
+ *         where there exists i: integer
+ *                 (0 <= i  and  i < |$this.keys|  and
+ *                  $this.keys[i] = k  and  $this.values[i] = v)}
+ * </pre>
+ *
+ * @author Simon Manning & Nam Nguyen
+ *
+ */
+public class Map5<K, V> extends MapSecondary<K, V> {
+
+    /*
+     * Private members --------------------------------------------------------
+     */
+
+    /**
+     * Keys, one per slot; {@code null} marks an empty slot.
+     */
+    private Object[] keys;
+
+    /**
+     * Values, parallel to {@code keys}.
+     */
+    private Object[] values;
+
+    /**
+     * Mixed hash codes, parallel to {@code keys}.
+     */
+    private int[] hashes;
+
+    /**
+     * Total size of abstract {@code this}.
+     */
+    private int size;
+
+    /**
+     * Slot at which {@code removeAny} resumes its scan.
+     */
+    private int anyCursor;
+
+    /**
+     * Returns the hash code stored for {@code key}.
+     *
+     * @param key
+     *            the key
+     * @return the mixed hash code of {@code key}
+     * @ensures hashOf = Hashing.mix32([computed result of key.hashCode()])
+     */
+    private static int hashOf(Object key) {
+        return Hashing.mix32(key.hashCode());
+    }
+
+    /**
+     * Creator of initial representation.
+     *
+     * @param capacity
+     *            the number of slots
+     * @requires [capacity is a power of two]  and  capacity >= 2
+     * @ensures <pre>
+     * |$this.keys| = capacity  and
+     * [every slot is empty]  and
+     * $this.size = 0
+     * </pre>
+     */
+    private void createNewRep(int capacity) {
+        this.keys = new Object[capacity];
+        this.values = new Object[capacity];
+        this.hashes = new int[capacity];
+        this.size = 0;
+        this.anyCursor = 0;
+    }
+
+    /**
+     * Returns the slot holding {@code key}, or the empty slot ending its probe
+     * sequence if {@code key} is not in {@code this}.
+     *
+     * @param key
+     *            the key to locate
+     * @param hash
+     *            mixed hash code of {@code key}
+     * @return the slot
+     * @requires hash = hashOf(key)
+     * @ensures <pre>
+     * ($this.keys[slotOf] = null  and  key is not in DOMAIN(this))  or
+     * $this.keys[slotOf] = key
+     * </pre>
+     */
+    private int slotOf(Object key, int hash) {
+        int mask = this.keys.length - 1;
+        int i = hash & mask;
+        Object k = this.keys[i];
+        while (k != null && !(this.hashes[i] == hash && k.equals(key))) {
+            i = (i + 1) & mask;
+            k = this.keys[i];
+        }
+        return i;
+    }
+
+    /**
+     * Moves every entry into a table with {@code newCapacity} slots.
+     *
+     * @param newCapacity
+     *            the number of slots in the new table
+     * @updates $this.keys, $this.values, $this.hashes
+     * @requires [newCapacity is a power of two]  and  2 * $this.size <=
+     *           newCapacity
+     * @ensures |$this.keys| = newCapacity  and  this = #this
+     */
+    private void resize(int newCapacity) {
+        Object[] oldKeys = this.keys;
+        Object[] oldValues = this.values;
+        int[] oldHashes = this.hashes;
+        this.keys = new Object[newCapacity];
+        this.values = new Object[newCapacity];
+        this.hashes = new int[newCapacity];
+        this.anyCursor = 0;
+        int mask = newCapacity - 1;
+        for (int j = 0; j < oldKeys.length; j++) {
+            if (oldKeys[j] != null) {
+                /*
+                 * Keys are distinct, so each one simply takes the first free
+                 * slot of its probe sequence; no equals calls are needed
+                 */
+                int i = oldHashes[j] & mask;
+                while (this.keys[i] != null) {
+                    i = (i + 1) & mask;
+                }
+                this.keys[i] = oldKeys[j];
+                this.values[i] = oldValues[j];
+                this.hashes[i] = oldHashes[j];
+            }
+        }
+    }
+
+    /**
+     * Empties slot {@code hole} and shifts back later entries of the same
+     * probe run so that no tombstones are needed.
+     *
+     * @param hole
+     *            the slot to empty
+     * @updates $this.keys, $this.values, $this.hashes
+     * @requires $this.keys[hole] /= null
+     * @ensures <pre>
+     * this = #this \ {(#$this.keys[hole], #$this.values[hole])}
+     * </pre>
+     */
+    private void deleteSlot(int hole) {
+        int mask = this.keys.length - 1;
+        int i = hole;
+        int j = hole;
+        while (true) {
+            j = (j + 1) & mask;
+            if (this.keys[j] == null) {
+                break;
+            }
+            if (!OpenAddressing.mustStay(i, j, this.hashes[j] & mask)) {
+                this.keys[i] = this.keys[j];
+                this.values[i] = this.values[j];
+                this.hashes[i] = this.hashes[j];
+                i = j;
+            }
+        }
+        this.keys[i] = null;
+        this.values[i] = null;
+        this.size--;
+    }
+
+    /*
+     * Constructors -----------------------------------------------------------
+     */
+
+    /**
+     * No-argument constructor.
+     */
+    public Map5() {
+        this.createNewRep(OpenAddressing.DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Constructor resulting in a table that holds {@code expectedSize}
+     * entries without resizing.
+     *
+     * @param expectedSize
+     *            number of entries expected
+     * @requires expectedSize >= 0
+     * @ensures this = {}
+     */
+    public Map5(int expectedSize) {
+        assert expectedSize >= 0 : "Violation of: expectedSize >= 0";
+        this.createNewRep(OpenAddressing
+                .capacityFor(2L * Math.max(expectedSize, 1)));
+    }
+
+    /*
+     * Standard methods -------------------------------------------------------
+     */
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public final Map<K, V> newInstance() {
+        try {
+            return this.getClass().getConstructor().newInstance();
+        } catch (ReflectiveOperationException e) {
+            throw new AssertionError(
+                    "Cannot construct object of type " + this.getClass());
+        }
+    }
+
+    @Override
+    public final void clear() {
+        this.createNewRep(OpenAddressing.DEFAULT_CAPACITY);
+    }
+
+    @Override
+    public final void transferFrom(Map<K, V> source) {
+        assert source != null : "Violation of: source is not null";
+        assert source != this : "Violation of: source is not this";
+        assert source instanceof Map5<?, ?> : ""
+                + "Violation of: source is of dynamic type Map5<?,?>";
+        /*
+         * This cast cannot fail since the assert above would have stopped
+         * execution in that case: source must be of dynamic type Map5<?,?>, and
+         * the ?,? must be K,V or the call would not have compiled.
+         */
+        Map5<K, V> localSource = (Map5<K, V>) source;
+        this.keys = localSource.keys;
+        this.values = localSource.values;
+        this.hashes = localSource.hashes;
+        this.size = localSource.size;
+        this.anyCursor = localSource.anyCursor;
+        localSource.createNewRep(OpenAddressing.DEFAULT_CAPACITY);
+    }
+
+    /*
+     * Kernel methods ---------------------------------------------------------
+     */
+
+    @Override
+    public final void add(K key, V value) {
+        assert key != null : "Violation of: key is not null";
+        assert value != null : "Violation of: value is not null";
+        assert !this.hasKey(key) : "Violation of: key is not in DOMAIN(this)";
+
+        if (2 * (this.size + 1) > this.keys.length) {
+            this.resize(OpenAddressing.grownCapacity(this.keys.length));
+        }
+        int hash = hashOf(key);
+        int mask = this.keys.length - 1;
+        int i = hash & mask;
+        while (this.keys[i] != null) {
+            i = (i + 1) & mask;
+        }
+        this.keys[i] = key;
+        this.values[i] = value;
+        this.hashes[i] = hash;
+        this.size++;
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public final Pair<K, V> remove(K key) {
+        assert key != null : "Violation of: key is not null";
+        assert this.hasKey(key) : "Violation of: key is in DOMAIN(this)";
+
+        int i = this.slotOf(key, hashOf(key));
+        Pair<K, V> removed = new SimplePair<K, V>((K) this.keys[i],
+                (V) this.values[i]);
+        this.deleteSlot(i);
+        return removed;
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public final Pair<K, V> removeAny() {
+        assert this.size() > 0 : "Violation of: this /= empty_set";
+
+        /*
+         * Resume the (cyclic, hence always successful) scan from where the
+         * last removeAny found an entry, so a drain walks the table about once
+         * instead of rescanning the emptied prefix on every call
+         */
+        int mask = this.keys.length - 1;
+        int i = this.anyCursor;
+        while (this.keys[i] == null) {
+            i = (i + 1) & mask;
+        }
+        this.anyCursor = i;
+        Pair<K, V> removed = new SimplePair<K, V>((K) this.keys[i],
+                (V) this.values[i]);
+        this.deleteSlot(i);
+        return removed;
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public final V value(K key) {
+        assert key != null : "Violation of: key is not null";
+        assert this.hasKey(key) : "Violation of: key is in DOMAIN(this)";
+
+        return (V) this.values[this.slotOf(key, hashOf(key))];
+    }
+
+    @Override
+    public final boolean hasKey(K key) {
+        assert key != null : "Violation of: key is not null";
+
+        return this.keys[this.slotOf(key, hashOf(key))] != null;
+    }
+
+    @Override
+    public final int size() {
+        return this.size;
+    }
+
+    @Override
+    public final Iterator<Pair<K, V>> iterator() {
+        return new Map5Iterator();
+    }
+
+    /*
+     * Diagnostic methods -----------------------------------------------------
+     */
+
+    /**
+     * Reports the largest number of slots any key lies past its home slot,
+     * which bounds the probes of every successful lookup.
+     *
+     * @return the longest probe distance
+     */
+    final int longestProbe() {
+        int mask = this.keys.length - 1;
+        int longest = 0;
+        for (int i = 0; i < this.keys.length; i++) {
+            if (this.keys[i] != null) {
+                int distance = (i - (this.hashes[i] & mask)) & mask;
+                longest = Math.max(longest, distance);
+            }
+        }
+        return longest;
+    }
+
+    /**
+     * Implementation of {@code Iterator} interface for {@code Map5}.
+     */
+    private final class Map5Iterator implements Iterator<Pair<K, V>> {
+
+        /**
+         * Number of elements seen already (i.e., |~this.seen|).
+         */
+        private int numberSeen;
+
+        /**
+         * Slot examined by the next call to {@code next}.
+         */
+        private int currentSlot;
+
+        /**
+         * No-argument constructor.
+         */
+        Map5Iterator() {
+            this.numberSeen = 0;
+            this.currentSlot = 0;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return this.numberSeen < Map5.this.size;
+        }
+
+        @SuppressWarnings("unchecked")
+        @Override
+        public Pair<K, V> next() {
+            assert this.hasNext() : "Violation of: ~this.unseen /= <>";
+            if (!this.hasNext()) {
+                /*
+                 * Exception is supposed to be thrown in this case, but with
+                 * assertion-checking enabled it cannot happen because of assert
+                 * above.
+                 */
+                throw new NoSuchElementException();
+            }
+            this.numberSeen++;
+            while (Map5.this.keys[this.currentSlot] == null) {
+                this.currentSlot++;
+            }
+            int i = this.currentSlot;
+            this.currentSlot++;
+            return new SimplePair<K, V>((K) Map5.this.keys[i],
+                    (V) Map5.this.values[i]);
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException(
+                    "remove operation not supported");
+        }
+
+    }
+
+}
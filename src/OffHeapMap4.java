@@ -0,0 +1,728 @@
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+
+/**
+ * Hash map from fixed-width byte-string keys to fixed-width byte-string
+ * values, modeled on the kernel of {@code Map4} but keeping its whole table in
+ * native memory (direct {@code ByteBuffer}s), so a map of many millions of
+ * entries is a handful of heap objects as far as the garbage collector is
+ * concerned.
+ * <p>
+ * The table uses open addressing with linear probing and backward-shift
+ * deletion. Each slot is laid out as a 4-byte mixed hash code (0 marks an
+ * empty slot), then the key bytes, then the value bytes. Slots are spread
+ * over pages of at most {@code MAX_PAGE_BYTES} bytes, so the table may exceed
+ * the 2 GB limit of a single buffer. Keys and values are copied in and out;
+ * the caller's arrays are never retained.
+ * <p>
+ * {@code close} drops the native pages, whose memory the garbage collector
+ * frees later; no other method may be called on a closed map. The table
+ * holds at most 3/4 of {@code OpenAddressing.MAXIMUM_CAPACITY} entries;
+ * {@code add} beyond that throws {@code IllegalStateException}.
+ * <p>
+ * Reads never move the position of a page, so several threads may read a
+ * map that no thread is modifying.
+ *
+ * @convention <pre>
+ * $this.keyWidth > 0  and  $this.valueWidth >= 0  and
+ * $this.slotSize = 4 + $this.keyWidth + $this.valueWidth  and
+ * ($this.pages = null  iff  [this is closed])  and
+ * [this is not closed]  implies
+ *   ($this.capacity = |$this.pages| * 2^$this.pageShift  and
+ *    [$this.capacity is a power of two]  and
+ *    4 * $this.size <= 3 * $this.capacity  and
+ *    $this.size = [number of slots with nonzero hash]  and
+ *    for all s: slot with nonzero hash
+ *      (s.hash = storedHash(s.key)  and
+ *       [every slot cyclically from s.hash mod $this.capacity up to s has
+ *        nonzero hash])  and
+ *    [no two slots with nonzero hash have equal keys])
+ * </pre>
+ * @correspondence <pre>
+ * this = {(k, v): (string of byte, string of byte)
+ *         where [some slot with nonzero hash holds key k and value v]}
+ * </pre>
+ *
+ * @author Simon Manning & Nam Nguyen
+ *
+ */
+public class OffHeapMap4 implements AutoCloseable {
+
+    /*
+     * Private members --------------------------------------------------------
+     */
+
+    /**
+     * Largest number of bytes in one page.
+     */
+    private static final int MAX_PAGE_BYTES = 1 << 30;
+
+    /**
+     * Bytes used by the hash code at the start of each slot.
+     */
+    private static final int HASH_BYTES = 4;
+
+    /**
+     * Width in bytes of every key.
+     */
+    private final int keyWidth;
+
+    /**
+     * Width in bytes of every value.
+     */
+    private final int valueWidth;
+
+    /**
+     * Width in bytes of every slot.
+     */
+    private final int slotSize;
+
+    /**
+     * Slot-holding native pages, or {@code null} once closed.
+     */
+    private ByteBuffer[] pages;
+
+    /**
+     * Base-2 logarithm of the number of slots per page.
+     */
+    private int pageShift;
+
+    /**
+     * Total number of slots.
+     */
+    private int capacity;
+
+    /**
+     * Total size of abstract {@code this}.
+     */
+    private int size;
+
+    /**
+     * Slot at which {@code anyKey} and {@code removeAny} resume their scan.
+     */
+    private int anyCursor;
+
+    /**
+     * Reusable buffer holding one slot while it is moved.
+     */
+    private final byte[] scratch;
+
+    /**
+     * Computes the hash code stored for {@code key}: its mixed
+     * {@code Arrays.hashCode}, with 0 (the empty-slot marker) mapped to 1.
+     *
+     * @param key
+     *            the key
+     * @return the stored hash code
+     * @ensures storedHash /= 0
+     */
+    private static int storedHash(byte[] key) {
+        int x = Hashing.mix32(Arrays.hashCode(key));
+        if (x == 0) {
+            x = 1;
+        }
+        return x;
+    }
+
+    /**
+     * Allocates the native pages for a table of {@code newCapacity} empty
+     * slots.
+     *
+     * @param newCapacity
+     *            the number of slots
+     * @updates $this.pages, $this.pageShift, $this.capacity
+     * @requires [newCapacity is a power of two]
+     * @ensures [every slot is empty]  and  $this.capacity = newCapacity
+     */
+    private void allocate(int newCapacity) {
+        int shift = Integer.numberOfTrailingZeros(newCapacity);
+        while ((long) this.slotSize << shift > MAX_PAGE_BYTES) {
+            shift--;
+        }
+        int pageCount = newCapacity >>> shift;
+        int pageBytes = this.slotSize << shift;
+        ByteBuffer[] newPages = new ByteBuffer[pageCount];
+        for (int p = 0; p < pageCount; p++) {
+            /*
+             * Direct buffers start zero-filled, so every slot starts empty
+             */
+            newPages[p] = ByteBuffer.allocateDirect(pageBytes)
+                    .order(ByteOrder.nativeOrder());
+        }
+        this.pages = newPages;
+        this.pageShift = shift;
+        this.capacity = newCapacity;
+        this.anyCursor = 0;
+    }
+
+    /**
+     * Returns the page holding {@code slot}.
+     *
+     * @param slot
+     *            the slot
+     * @return the page
+     */
+    private ByteBuffer page(int slot) {
+        return this.pages[slot >>> this.pageShift];
+    }
+
+    /**
+     * Returns the byte offset of {@code slot} within its page.
+     *
+     * @param slot
+     *            the slot
+     * @return the offset
+     */
+    private int offset(int slot) {
+        return (slot & ((1 << this.pageShift) - 1)) * this.slotSize;
+    }
+
+    /**
+     * Reports the hash code stored in {@code slot}.
+     *
+     * @param slot
+     *            the slot
+     * @return the stored hash code, 0 if the slot is empty
+     */
+    private int hashAt(int slot) {
+        return this.page(slot).getInt(this.offset(slot));
+    }
+
+    /**
+     * Reports whether {@code slot} holds {@code key}.
+     *
+     * @param slot
+     *            the slot
+     * @param key
+     *            the key
+     * @return true iff the key stored in {@code slot} equals {@code key}
+     */
+    private boolean keyEquals(int slot, byte[] key) {
+        ByteBuffer page = this.page(slot);
+        int at = this.offset(slot) + HASH_BYTES;
+        for (int i = 0; i < this.keyWidth; i++) {
+            if (page.get(at + i) != key[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Copies {@code length} bytes starting {@code skip} bytes into
+     * {@code slot} into {@code dest}. Only absolute gets are used: a relative
+     * bulk get would go through the position the page shares with every
+     * other reader, so concurrent readers could copy each other's bytes.
+     *
+     * @param slot
+     *            the slot
+     * @param skip
+     *            offset within the slot
+     * @param dest
+     *            the destination
+     * @param length
+     *            number of bytes to copy
+     */
+    private void read(int slot, int skip, byte[] dest, int length) {
+        ByteBuffer page = this.page(slot);
+        int at = this.offset(slot) + skip;
+        for (int i = 0; i < length; i++) {
+            dest[i] = page.get(at + i);
+        }
+    }
+
+    /**
+     * Copies {@code length} bytes of {@code src} to {@code skip} bytes into
+     * {@code slot}.
+     *
+     * @param slot
+     *            the slot
+     * @param skip
+     *            offset within the slot
+     * @param src
+     *            the source
+     * @param length
+     *            number of bytes to copy
+     */
+    private void write(int slot, int skip, byte[] src, int length) {
+        ByteBuffer page = this.page(slot);
+        int at = this.offset(slot) + skip;
+        for (int i = 0; i < length; i++) {
+            page.put(at + i, src[i]);
+        }
+    }
+
+    /**
+     * Returns the slot holding {@code key}, or the empty slot ending its probe
+     * sequence if {@code key} is not in {@code this}.
+     *
+     * @param key
+     *            the key to locate
+     * @param hash
+     *            stored hash code of {@code key}
+     * @return the slot
+     */
+    private int slotOf(byte[] key, int hash) {
+        int mask = this.capacity - 1;
+        int i = hash & mask;
+        int h = this.hashAt(i);
+        while (h != 0 && !(h == hash && this.keyEquals(i, key))) {
+            i = (i + 1) & mask;
+            h = this.hashAt(i);
+        }
+        return i;
+    }
+
+    /**
+     * Returns the first empty slot of the probe sequence for {@code hash}.
+     *
+     * @param hash
+     *            stored hash code
+     * @return the slot
+     */
+    private int freeSlot(int hash) {
+        int mask = this.capacity - 1;
+        int i = hash & mask;
+        while (this.hashAt(i) != 0) {
+            i = (i + 1) & mask;
+        }
+        return i;
+    }
+
+    /**
+     * Moves every entry into a table with {@code newCapacity} slots.
+     *
+     * @param newCapacity
+     *            the number of slots in the new table
+     * @requires [newCapacity is a power of two]  and
+     *           4 * $this.size <= 3 * newCapacity
+     * @ensures $this.capacity = newCapacity  and  this = #this
+     */
+    private void resize(int newCapacity) {
+        ByteBuffer[] oldPages = this.pages;
+        int oldShift = this.pageShift;
+        int oldCapacity = this.capacity;
+        this.allocate(newCapacity);
+        int oldMask = (1 << oldShift) - 1;
+        for (int j = 0; j < oldCapacity; j++) {
+            ByteBuffer oldPage = oldPages[j >>> oldShift];
+            int at = (j & oldMask) * this.slotSize;
+            int hash = oldPage.getInt(at);
+            if (hash != 0) {
+                for (int k = 0; k < this.slotSize; k++) {
+                    this.scratch[k] = oldPage.get(at + k);
+                }
+                this.write(this.freeSlot(hash), 0, this.scratch,
+                        this.slotSize);
+            }
+        }
+    }
+
+    /**
+     * Empties slot {@code hole} and shifts back later entries of the same
+     * probe run so that no tombstones are needed.
+     *
+     * @param hole
+     *            the slot to empty
+     * @requires [slot hole is not empty]
+     * @ensures this = #this \ {[pair in slot hole]}
+     */
+    private void deleteSlot(int hole) {
+        int mask = this.capacity - 1;
+        int i = hole;
+        int j = hole;
+        while (true) {
+            j = (j + 1) & mask;
+            int hash = this.hashAt(j);
+            if (hash == 0) {
+                break;
+            }
+            if (!OpenAddressing.mustStay(i, j, hash & mask)) {
+                this.read(j, 0, this.scratch, this.slotSize);
+                this.write(i, 0, this.scratch, this.slotSize);
+                i = j;
+            }
+        }
+        this.page(i).putInt(this.offset(i), 0);
+        this.size--;
+    }
+
+    /**
+     * Returns a non-empty slot, resuming the cyclic scan where the previous
+     * call stopped.
+     *
+     * @return the slot
+     * @requires $this.size > 0
+     */
+    private int nextOccupiedSlot() {
+        int mask = this.capacity - 1;
+        int i = this.anyCursor;
+        while (this.hashAt(i) == 0) {
+            i = (i + 1) & mask;
+        }
+        this.anyCursor = i;
+        return i;
+    }
+
+    /*
+     * Constructors -----------------------------------------------------------
+     */
+
+    /**
+     * Constructor resulting in an empty map of the given key and value widths.
+     *
+     * @param keyWidth
+     *            number of bytes in every key
+     * @param valueWidth
+     *            number of bytes in every value
+     * @requires keyWidth > 0  and  valueWidth >= 0
+     * @ensures this = {}
+     */
+    public OffHeapMap4(int keyWidth, int valueWidth) {
+        this(keyWidth, valueWidth, 0);
+    }
+
+    /**
+     * Constructor resulting in an empty map of the given key and value widths
+     * whose table holds {@code expectedSize} entries without resizing.
+     *
+     * @param keyWidth
+     *            number of bytes in every key
+     * @param valueWidth
+     *            number of bytes in every value
+     * @param expectedSize
+     *            number of entries expected
+     * @requires keyWidth > 0  and  valueWidth >= 0  and  expectedSize >= 0
+     * @ensures this = {}
+     */
+    public OffHeapMap4(int keyWidth, int valueWidth, int expectedSize) {
+        assert keyWidth > 0 : "Violation of: keyWidth > 0";
+        assert valueWidth >= 0 : "Violation of: valueWidth >= 0";
+        assert expectedSize >= 0 : "Violation of: expectedSize >= 0";
+        this.keyWidth = keyWidth;
+        this.valueWidth = valueWidth;
+        this.slotSize = HASH_BYTES + keyWidth + valueWidth;
+        this.scratch = new byte[this.slotSize];
+        this.size = 0;
+        this.allocate(Math.max(OpenAddressing.DEFAULT_CAPACITY,
+                OpenAddressing.capacityFor((4L * expectedSize + 2) / 3)));
+    }
+
+    /*
+     * Standard methods -------------------------------------------------------
+     */
+
+    /**
+     * Resets {@code this} to an initial value, releasing its native pages.
+     *
+     * @clears this
+     */
+    public final void clear() {
+        assert this.pages != null : "Violation of: this is not closed";
+        this.size = 0;
+        this.allocate(OpenAddressing.DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Drops the references of {@code this} to its native pages. This does not
+     * free their memory: a direct buffer is freed only when the garbage
+     * collector reclaims it, and until then its pages still count against
+     * {@code -XX:MaxDirectMemorySize}, so allocating further direct buffers
+     * may fail with {@code OutOfMemoryError} even after {@code close}.
+     * Closing twice has no further effect.
+     */
+    @Override
+    public final void close() {
+        this.pages = null;
+        this.capacity = 0;
+        this.size = 0;
+    }
+
+    /*
+     * Kernel methods ---------------------------------------------------------
+     */
+
+    /**
+     * Adds the pair ({@code key}, {@code value}) to this.
+     *
+     * @param key
+     *            the key to be added
+     * @param value
+     *            the associated value to be added
+     * @updates this
+     * @requires <pre>
+     * |key| = keyWidth  and  |value| = valueWidth  and
+     * key is not in DOMAIN(this)
+     * </pre>
+     * @ensures this = #this union {(key, value)}
+     */
+    public final void add(byte[] key, byte[] value) {
+        assert this.pages != null : "Violation of: this is not closed";
+        assert key != null && key.length == this.keyWidth : ""
+                + "Violation of: |key| = keyWidth";
+        assert value != null && value.length == this.valueWidth : ""
+                + "Violation of: |value| = valueWidth";
+        assert !this.hasKey(key) : "Violation of: key is not in DOMAIN(this)";
+
+        if (4L * (this.size + 1) > 3L * this.capacity) {
+            this.resize(OpenAddressing.grownCapacity(this.capacity));
+        }
+        int hash = storedHash(key);
+        int i = this.freeSlot(hash);
+        this.write(i, HASH_BYTES, key, this.keyWidth);
+        this.write(i, HASH_BYTES + this.keyWidth, value, this.valueWidth);
+        this.page(i).putInt(this.offset(i), hash);
+        this.size++;
+    }
+
+    /**
+     * Removes the pair whose first component is {@code key} and returns its
+     * second component.
+     *
+     * @param key
+     *            the key to be removed
+     * @return the value formerly associated with {@code key}
+     * @updates this
+     * @requires key is in DOMAIN(this)
+     * @ensures <pre>
+     * (key, remove) is in #this  and
+     * this = #this \ {(key, remove)}
+     * </pre>
+     */
+    public final byte[] remove(byte[] key) {
+        assert this.hasKey(key) : "Violation of: key is in DOMAIN(this)";
+
+        int i = this.slotOf(key, storedHash(key));
+        byte[] removed = new byte[this.valueWidth];
+        this.read(i, HASH_BYTES + this.keyWidth, removed, this.valueWidth);
+        this.deleteSlot(i);
+        return removed;
+    }
+
+    /**
+     * Removes an arbitrary pair from {@code this} and returns its key.
+     *
+     * @return the key of the removed pair
+     * @updates this
+     * @requires |this| > 0
+     * @ensures <pre>
+     * removeAny is in DOMAIN(#this)  and
+     * this = #this \ {(removeAny, [value associated with removeAny in #this])}
+     * </pre>
+     */
+    public final byte[] removeAny() {
+        assert this.pages != null : "Violation of: this is not closed";
+        assert this.size > 0 : "Violation of: this /= empty_set";
+
+        int i = this.nextOccupiedSlot();
+        byte[] key = new byte[this.keyWidth];
+        this.read(i, HASH_BYTES, key, this.keyWidth);
+        this.deleteSlot(i);
+        return key;
+    }
+
+    /**
+     * Reports some key in {@code this}.
+     *
+     * @return a key in DOMAIN(this)
+     * @requires |this| > 0
+     * @ensures anyKey is in DOMAIN(this)
+     */
+    public final byte[] anyKey() {
+        assert this.pages != null : "Violation of: this is not closed";
+        assert this.size > 0 : "Violation of: this /= empty_set";
+
+        byte[] key = new byte[this.keyWidth];
+        this.read(this.nextOccupiedSlot(), HASH_BYTES, key, this.keyWidth);
+        return key;
+    }
+
+    /**
+     * Reports the value associated with {@code key} in {@code this}.
+     *
+     * @param key
+     *            the key whose associated value is to be reported
+     * @return the value associated with key
+     * @requires key is in DOMAIN(this)
+     * @ensures (key, value) is in this
+     */
+    public final byte[] value(byte[] key) {
+        byte[] value = new byte[this.valueWidth];
+        this.value(key, value);
+        return value;
+    }
+
+    /**
+     * Copies the value associated with {@code key} in {@code this} into
+     * {@code dest}, without allocating.
+     *
+     * @param key
+     *            the key whose associated value is to be reported
+     * @param dest
+     *            receives the value
+     * @replaces dest
+     * @requires key is in DOMAIN(this)  and  |dest| >= valueWidth
+     * @ensures (key, dest[0, valueWidth)) is in this
+     */
+    public final void value(byte[] key, byte[] dest) {
+        assert this.hasKey(key) : "Violation of: key is in DOMAIN(this)";
+        assert dest != null && dest.length >= this.valueWidth : ""
+                + "Violation of: |dest| >= valueWidth";
+
+        int i = this.slotOf(key, storedHash(key));
+        this.read(i, HASH_BYTES + this.keyWidth, dest, this.valueWidth);
+    }
+
+    /**
+     * Reports whether there is a pair in {@code this} whose first component is
+     * {@code key}.
+     *
+     * @param key
+     *            the key to be checked
+     * @return true iff there is a pair in this whose first component is key
+     * @requires |key| = keyWidth
+     * @ensures hasKey = (key is in DOMAIN(this))
+     */
+    public final boolean hasKey(byte[] key) {
+        assert this.pages != null : "Violation of: this is not closed";
+        assert key != null && key.length == this.keyWidth : ""
+                + "Violation of: |key| = keyWidth";
+
+        return this.hashAt(this.slotOf(key, storedHash(key))) != 0;
+    }
+
+    /**
+     * Reports the size of {@code this}.
+     *
+     * @return the number of pairs in this
+     * @ensures size = |this|
+     */
+    public final int size() {
+        return this.size;
+    }
+
+    /*
+     * Capacity methods -------------------------------------------------------
+     */
+
+    /**
+     * Grows the table so that {@code expectedSize} entries fit without
+     * further resizing.
+     *
+     * @param expectedSize
+     *            number of entries expected
+     * @requires expectedSize >= 0
+     * @ensures this = #this
+     */
+    public final void ensureCapacity(int expectedSize) {
+        assert this.pages != null : "Violation of: this is not closed";
+        assert expectedSize >= 0 : "Violation of: expectedSize >= 0";
+
+        int needed = OpenAddressing.capacityFor((4L * expectedSize + 2) / 3);
+        if (needed > this.capacity) {
+            this.resize(needed);
+        }
+    }
+
+    /**
+     * Reports the number of bytes of native memory held by {@code this}.
+     *
+     * @return the native footprint in bytes
+     */
+    public final long offHeapBytes() {
+        return (long) this.capacity * this.slotSize;
+    }
+
+    /**
+     * Returns a cursor over the pairs of {@code this}; the cursor copies keys
+     * and values into caller-supplied arrays instead of allocating.
+     *
+     * @return a cursor positioned before the first pair
+     * @requires [this is not modified while the cursor is in use]
+     */
+    public final Cursor cursor() {
+        assert this.pages != null : "Violation of: this is not closed";
+        return new Cursor();
+    }
+
+    /**
+     * Allocation-free iteration over the pairs of an {@code OffHeapMap4}.
+     */
+    public final class Cursor {
+
+        /**
+         * Number of pairs seen already.
+         */
+        private int numberSeen;
+
+        /**
+         * Slot of the current pair, or -1 before the first {@code advance}.
+         */
+        private int currentSlot;
+
+        /**
+         * No-argument constructor.
+         */
+        Cursor() {
+            this.numberSeen = 0;
+            this.currentSlot = -1;
+        }
+
+        /**
+         * Moves to the next pair.
+         *
+         * @return true iff there was another pair to move to
+         */
+        public boolean advance() {
+            if (this.numberSeen == OffHeapMap4.this.size) {
+                return false;
+            }
+            do {
+                this.currentSlot++;
+            } while (OffHeapMap4.this.hashAt(this.currentSlot) == 0);
+            this.numberSeen++;
+            return true;
+        }
+
+        /**
+         * Copies the key of the current pair into {@code dest}.
+         *
+         * @param dest
+         *            receives the key
+         * @replaces dest
+         * @requires <pre>
+         * [the last call to advance returned true]  and  |dest| >= keyWidth
+         * </pre>
+         */
+        public void key(byte[] dest) {
+            if (this.currentSlot < 0) {
+                throw new NoSuchElementException();
+            }
+            OffHeapMap4.this.read(this.currentSlot, HASH_BYTES, dest,
+                    OffHeapMap4.this.keyWidth);
+        }
+
+        /**
+         * Copies the value of the current pair into {@code dest}.
+         *
+         * @param dest
+         *            receives the value
+         * @replaces dest
+         * @requires <pre>
+         * [the last call to advance returned true]  and  |dest| >= valueWidth
+         * </pre>
+         */
+        public void value(byte[] dest) {
+            if (this.currentSlot < 0) {
+                throw new NoSuchElementException();
+            }
+            OffHeapMap4.this.read(this.currentSlot,
+                    HASH_BYTES + OffHeapMap4.this.keyWidth, dest,
+                    OffHeapMap4.this.valueWidth);
+        }
+
+    }
+
+}
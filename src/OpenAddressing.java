@@ -0,0 +1,107 @@
+/**
+ * Sizing and deletion rules shared by the open-addressing hash tables of this
+ * package, which probe linearly from the home slot given by the low bits of a
+ * mixed hash code and delete by shifting later entries back, with no
+ * tombstones.
+ *
+ * @author Simon Manning & Nam Nguyen
+ *
+ */
+final class OpenAddressing {
+
+    /**
+     * No-argument constructor--private to prevent instantiation.
+     */
+    private OpenAddressing() {
+    }
+
+    /*
+     * Package-private members ------------------------------------------------
+     */
+
+    /**
+     * Default number of slots.
+     */
+    static final int DEFAULT_CAPACITY = 16;
+
+    /**
+     * Smallest number of slots.
+     */
+    static final int MINIMUM_CAPACITY = 2;
+
+    /**
+     * Largest power-of-two number of slots a Java array can hold.
+     */
+    static final int MAXIMUM_CAPACITY = 1 << 30;
+
+    /**
+     * Returns the smallest power of two at least {@code n}, clamped to the
+     * legal range of capacities.
+     *
+     * @param n
+     *            the requested number of slots
+     * @return the capacity to use
+     * @ensures <pre>
+     * [capacityFor is a power of two]  and
+     * MINIMUM_CAPACITY <= capacityFor <= MAXIMUM_CAPACITY  and
+     * (n <= MAXIMUM_CAPACITY  implies  n <= capacityFor)
+     * </pre>
+     */
+    static int capacityFor(long n) {
+        int capacity = MINIMUM_CAPACITY;
+        while (capacity < n && capacity < MAXIMUM_CAPACITY) {
+            capacity <<= 1;
+        }
+        return capacity;
+    }
+
+    /**
+     * Returns the number of slots a full table of {@code capacity} slots
+     * grows to, failing with a clear error rather than overflowing once the
+     * table cannot grow any more.
+     *
+     * @param capacity
+     *            the current number of slots
+     * @return 2 * capacity
+     * @throws IllegalStateException
+     *             if capacity = MAXIMUM_CAPACITY
+     * @requires [capacity is a power of two]  and  capacity <= MAXIMUM_CAPACITY
+     * @ensures grownCapacity = 2 * capacity
+     */
+    static int grownCapacity(int capacity) {
+        assert capacity <= MAXIMUM_CAPACITY : ""
+                + "Violation of: capacity <= MAXIMUM_CAPACITY";
+
+        if (capacity == MAXIMUM_CAPACITY) {
+            throw new IllegalStateException("Hash table cannot grow past "
+                    + MAXIMUM_CAPACITY + " slots");
+        }
+        return 2 * capacity;
+    }
+
+    /**
+     * Reports whether, while backward-shift deletion fills the empty slot
+     * {@code hole}, the entry in slot {@code j} of the same probe run must
+     * stay where it is. It must if its home slot lies cyclically in
+     * ({@code hole}, {@code j}], since moving it to {@code hole} would put it
+     * ahead of its own home and make it unreachable.
+     *
+     * @param hole
+     *            the empty slot
+     * @param j
+     *            the slot of the entry considered
+     * @param home
+     *            the home slot of that entry
+     * @return true iff the entry must not move to {@code hole}
+     * @ensures <pre>
+     * mustStay = [home is cyclically in (hole, j]]
+     * </pre>
+     */
+    static boolean mustStay(int hole, int j, int home) {
+        if (hole <= j) {
+            return hole < home && home <= j;
+        }
+        return hole < home || home <= j;
+    }
+
+}
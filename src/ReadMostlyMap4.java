@@ -0,0 +1,695 @@
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+import components.map.Map;
+import components.map.MapSecondary;
+
+/**
+ * {@code Map} safe for concurrent use and tuned for workloads that are mostly
+ * {@code value}/{@code hasKey}, represented as a hash table of immutable
+ * bucket chains, with implementations of primary methods.
+ * <p>
+ * Readers take no lock: they read the current table and the head of one
+ * bucket with volatile semantics and walk a chain whose nodes never change
+ * after publication. Writers lock the stripe owning the bucket, build a new
+ * chain (sharing the unchanged tail) and publish its head. Growing the table
+ * takes every stripe lock, so writers coordinate only among themselves. The
+ * iterator is weakly consistent: it walks the buckets of the table current
+ * when it was created, sees each bucket as it was at some moment during the
+ * iteration, and never throws because of concurrent updates.
+ * <p>
+ * {@code replaceValue} publishes a rebuilt chain holding the new value under
+ * the stripe lock, so a reader sees the key with either its old or its new
+ * value and never without it. The other inherited secondary methods only
+ * read, through the iterator.
+ * <p>
+ * The {@code Standard} methods and the preconditions of the kernel methods are
+ * not atomic with respect to other threads; callers coordinate those
+ * themselves.
+ *
+ * @param <K>
+ *            type of {@code Map} domain (key) entries
+ * @param <V>
+ *            type of {@code Map} range (associated value) entries
+ * @convention <pre>
+ * [|$this.table.buckets| and |$this.locks| are powers of two]  and
+ * |$this.locks| <= |$this.table.buckets|  and
+ * |$this.stripeSizes| = |$this.locks|  and
+ * for all i: integer, n: Node
+ *     where (0 <= i  and  i < |$this.table.buckets|  and
+ *            n is in the chain starting at $this.table.buckets[i])
+ *   (n.hash = Hashing.mix32([computed result of n.key.hashCode()])  and
+ *    n.hash mod |$this.table.buckets| = i)  and
+ * [no two nodes in the table have equal keys]  and
+ * for all s: integer
+ *     where (0 <= s  and  s < |$this.locks|)
+ *   ($this.stripeSizes[s] = [number of nodes in the buckets i with
+ *                           i mod |$this.locks| = s])  and
+ * [$this.count = sum of $this.stripeSizes once no update is in progress]
+ * </pre>
+ * @correspondence <pre>
+ * this = {(n.key, n.value) where [n is a node in $this.table]}
+ * </pre>
+ *
+ * @author Simon Manning & Nam Nguyen
+ *
+ */
+public class ReadMostlyMap4<K, V> extends MapSecondary<K, V> {
+
+    /*
+     * Private members --------------------------------------------------------
+     */
+
+    /**
+     * Default number of writer lock stripes.
+     */
+    private static final int DEFAULT_STRIPES = 64;
+
+    /**
+     * Ratio of size to number of buckets above which the table grows.
+     */
+    private static final double LOAD_FACTOR = 0.75;
+
+    /**
+     * Largest number of buckets.
+     */
+    private static final int MAXIMUM_BUCKETS = 1 << 30;
+
+    /**
+     * Immutable entry of a bucket chain; also the {@code Pair} handed out.
+     *
+     * @param <K>
+     *            type of key
+     * @param <V>
+     *            type of value
+     */
+    private static final class Node<K, V> implements Pair<K, V> {
+
+        /**
+         * The key.
+         */
+        private final K key;
+
+        /**
+         * The value.
+         */
+        private final V value;
+
+        /**
+         * Mixed hash code of {@code key}.
+         */
+        private final int hash;
+
+        /**
+         * Next node of the chain, or {@code null}.
+         */
+        private final Node<K, V> next;
+
+        /**
+         * Constructor.
+         *
+         * @param key
+         *            the key
+         * @param value
+         *            the value
+         * @param hash
+         *            mixed hash code of {@code key}
+         * @param next
+         *            next node of the chain
+         */
+        Node(K key, V value, int hash, Node<K, V> next) {
+            this.key = key;
+            this.value = value;
+            this.hash = hash;
+            this.next = next;
+        }
+
+        @Override
+        public K key() {
+            return this.key;
+        }
+
+        @Override
+        public V value() {
+            return this.value;
+        }
+
+    }
+
+    /**
+     * Bucket array published as a unit; replaced, never resized in place.
+     *
+     * @param <K>
+     *            type of key
+     * @param <V>
+     *            type of value
+     */
+    private static final class Table<K, V> {
+
+        /**
+         * Heads of the bucket chains.
+         */
+        private final AtomicReferenceArray<Node<K, V>> buckets;
+
+        /**
+         * Constructor.
+         *
+         * @param length
+         *            number of buckets
+         */
+        Table(int length) {
+            this.buckets = new AtomicReferenceArray<Node<K, V>>(length);
+        }
+
+    }
+
+    /**
+     * Current table; read without locking.
+     */
+    private volatile Table<K, V> table;
+
+    /**
+     * Writer locks; bucket i belongs to stripe i mod |locks|.
+     */
+    private final ReentrantLock[] locks;
+
+    /**
+     * Number of pairs in each stripe, guarded by that stripe's lock.
+     */
+    private final int[] stripeSizes;
+
+    /**
+     * Striped count of pairs.
+     */
+    private final LongAdder count = new LongAdder();
+
+    /**
+     * Bucket at which the next {@code removeAny} starts looking.
+     */
+    private final AtomicInteger anyBucket = new AtomicInteger();
+
+    /**
+     * Returns the node holding {@code key} in the chain starting at
+     * {@code n}, or {@code null}.
+     *
+     * @param <K>
+     *            type of key
+     * @param <V>
+     *            type of value
+     * @param n
+     *            head of the chain
+     * @param key
+     *            the key
+     * @param hash
+     *            mixed hash code of {@code key}
+     * @return the node holding {@code key}, or {@code null}
+     */
+    private static <K, V> Node<K, V> find(Node<K, V> n, Object key,
+            int hash) {
+        Node<K, V> p = n;
+        while (p != null
+                && !(p.hash == hash && (p.key == key || p.key.equals(key)))) {
+            p = p.next;
+        }
+        return p;
+    }
+
+    /**
+     * Returns a chain holding the nodes of the chain starting at {@code head}
+     * that come before {@code target}, followed by {@code tail}. The nodes
+     * ahead of {@code target} are copied, in reverse order, and {@code tail}
+     * is shared.
+     *
+     * @param <K>
+     *            type of key
+     * @param <V>
+     *            type of value
+     * @param head
+     *            head of the chain
+     * @param target
+     *            node of the chain to cut at
+     * @param tail
+     *            chain replacing {@code target} and the nodes after it
+     * @return head of the rebuilt chain
+     * @requires [target is in the chain starting at head]
+     */
+    private static <K, V> Node<K, V> rebuild(Node<K, V> head,
+            Node<K, V> target, Node<K, V> tail) {
+        Node<K, V> rebuilt = tail;
+        for (Node<K, V> n = head; n != target; n = n.next) {
+            rebuilt = new Node<K, V>(n.key, n.value, n.hash, rebuilt);
+        }
+        return rebuilt;
+    }
+
+    /**
+     * Returns the number of stripes used when {@code stripeCount} are
+     * requested.
+     *
+     * @param stripeCount
+     *            requested number of writer stripes
+     * @return the number of stripes
+     * @requires stripeCount > 0
+     * @ensures <pre>
+     * stripesFor = [smallest power of two >= stripeCount, at most
+     *               MAXIMUM_BUCKETS]
+     * </pre>
+     */
+    private static int stripesFor(int stripeCount) {
+        int stripes = 1;
+        while (stripes < stripeCount && stripes < MAXIMUM_BUCKETS) {
+            stripes <<= 1;
+        }
+        return stripes;
+    }
+
+    /**
+     * Acquires every stripe lock, in order.
+     */
+    private void lockAll() {
+        for (ReentrantLock lock : this.locks) {
+            lock.lock();
+        }
+    }
+
+    /**
+     * Releases every stripe lock.
+     */
+    private void unlockAll() {
+        for (ReentrantLock lock : this.locks) {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Replaces the table by {@code replacement}, whose stripes hold
+     * {@code sizes} pairs, and returns the old table; the caller holds every
+     * stripe lock.
+     *
+     * @param replacement
+     *            the new table
+     * @param sizes
+     *            number of pairs in each stripe of {@code replacement}
+     * @return the old table
+     * @requires <pre>
+     * |replacement.buckets| >= |$this.locks|  and
+     * |sizes| = |$this.locks|  and
+     * [sizes counts the pairs of replacement stripe by stripe]
+     * </pre>
+     */
+    private Table<K, V> swapTable(Table<K, V> replacement, int[] sizes) {
+        /*
+         * Writers update count after releasing their lock, so it is adjusted
+         * by the difference rather than reset
+         */
+        long difference = 0;
+        for (int s = 0; s < this.stripeSizes.length; s++) {
+            difference += sizes[s] - this.stripeSizes[s];
+            this.stripeSizes[s] = sizes[s];
+        }
+        this.count.add(difference);
+        Table<K, V> old = this.table;
+        this.table = replacement;
+        return old;
+    }
+
+    /**
+     * Doubles the number of buckets of {@code expected}, unless another writer
+     * already replaced it.
+     *
+     * @param expected
+     *            the table found too full
+     * @ensures this = #this
+     */
+    private void grow(Table<K, V> expected) {
+        this.lockAll();
+        try {
+            Table<K, V> old = this.table;
+            int oldLength = old.buckets.length();
+            if (old != expected || oldLength >= MAXIMUM_BUCKETS) {
+                return;
+            }
+            Table<K, V> grown = new Table<K, V>(2 * oldLength);
+            int mask = 2 * oldLength - 1;
+            /*
+             * Nodes are immutable, so every chain is rebuilt; readers keep
+             * using the old table until the new one is published below
+             */
+            for (int i = 0; i < oldLength; i++) {
+                for (Node<K, V> n = old.buckets.get(i); n != null; n = n.next) {
+                    int j = n.hash & mask;
+                    grown.buckets.set(j, new Node<K, V>(n.key, n.value, n.hash,
+                            grown.buckets.get(j)));
+                }
+            }
+            this.table = grown;
+        } finally {
+            this.unlockAll();
+        }
+    }
+
+    /*
+     * Constructors -----------------------------------------------------------
+     */
+
+    /**
+     * No-argument constructor.
+     */
+    public ReadMostlyMap4() {
+        this(DEFAULT_STRIPES);
+    }
+
+    /**
+     * Constructor resulting in at least {@code stripeCount} writer stripes.
+     *
+     * @param stripeCount
+     *            number of writer lock stripes
+     * @requires stripeCount > 0
+     * @ensures this = {}
+     */
+    public ReadMostlyMap4(int stripeCount) {
+        assert stripeCount > 0 : "Violation of: stripeCount > 0";
+        int stripes = stripesFor(stripeCount);
+        this.locks = new ReentrantLock[stripes];
+        for (int s = 0; s < stripes; s++) {
+            this.locks[s] = new ReentrantLock();
+        }
+        this.stripeSizes = new int[stripes];
+        this.table = new Table<K, V>(stripes);
+    }
+
+    /*
+     * Standard methods -------------------------------------------------------
+     */
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public final Map<K, V> newInstance() {
+        try {
+            return this.getClass().getConstructor().newInstance();
+        } catch (ReflectiveOperationException e) {
+            throw new AssertionError(
+                    "Cannot construct object of type " + this.getClass());
+        }
+    }
+
+    @Override
+    public final void clear() {
+        this.lockAll();
+        try {
+            this.swapTable(new Table<K, V>(this.locks.length),
+                    new int[this.locks.length]);
+        } finally {
+            this.unlockAll();
+        }
+    }
+
+    @Override
+    public final void transferFrom(Map<K, V> source) {
+        assert source != null : "Violation of: source is not null";
+        assert source != this : "Violation of: source is not this";
+        assert source instanceof ReadMostlyMap4<?, ?> : ""
+                + "Violation of: source is of dynamic type ReadMostlyMap4<?,?>";
+        /*
+         * This cast cannot fail since the assert above would have stopped
+         * execution in that case.
+         */
+        ReadMostlyMap4<K, V> localSource = (ReadMostlyMap4<K, V>) source;
+        /*
+         * Empty the source under all of its locks, then fill this under all
+         * of its own, so no thread ever holds the locks of both maps
+         */
+        int sourceStripes = localSource.locks.length;
+        int[] sizes;
+        Table<K, V> moved;
+        localSource.lockAll();
+        try {
+            sizes = localSource.stripeSizes.clone();
+            moved = localSource.swapTable(new Table<K, V>(sourceStripes),
+                    new int[sourceStripes]);
+        } finally {
+            localSource.unlockAll();
+        }
+        if (sizes.length == this.locks.length) {
+            this.lockAll();
+            try {
+                this.swapTable(moved, sizes);
+            } finally {
+                this.unlockAll();
+            }
+        } else {
+            this.clear();
+            for (int i = 0; i < moved.buckets.length(); i++) {
+                for (Node<K, V> n = moved.buckets.get(i); n != null;
+                        n = n.next) {
+                    this.add(n.key, n.value);
+                }
+            }
+        }
+    }
+
+    /*
+     * Kernel methods ---------------------------------------------------------
+     */
+
+    @Override
+    public final void add(K key, V value) {
+        assert key != null : "Violation of: key is not null";
+        assert value != null : "Violation of: value is not null";
+
+        int hash = Hashing.mix32(key.hashCode());
+        while (true) {
+            Table<K, V> t = this.table;
+            int i = hash & (t.buckets.length() - 1);
+            int s = i & (this.locks.length - 1);
+            ReentrantLock lock = this.locks[s];
+            boolean full;
+            lock.lock();
+            try {
+                if (t != this.table) {
+                    /*
+                     * The table grew while this writer waited; retry there
+                     */
+                    continue;
+                }
+                Node<K, V> head = t.buckets.get(i);
+                assert find(head, key, hash) == null : ""
+                        + "Violation of: key is not in DOMAIN(this)";
+                t.buckets.set(i, new Node<K, V>(key, value, hash, head));
+                this.stripeSizes[s]++;
+                full = this.stripeSizes[s] > LOAD_FACTOR
+                        * t.buckets.length() / this.locks.length;
+            } finally {
+                lock.unlock();
+            }
+            this.count.increment();
+            if (full) {
+                this.grow(t);
+            }
+            return;
+        }
+    }
+
+    @Override
+    public final Pair<K, V> remove(K key) {
+        assert key != null : "Violation of: key is not null";
+
+        int hash = Hashing.mix32(key.hashCode());
+        while (true) {
+            Table<K, V> t = this.table;
+            int i = hash & (t.buckets.length() - 1);
+            int s = i & (this.locks.length - 1);
+            ReentrantLock lock = this.locks[s];
+            Node<K, V> removed;
+            lock.lock();
+            try {
+                if (t != this.table) {
+                    continue;
+                }
+                Node<K, V> head = t.buckets.get(i);
+                removed = find(head, key, hash);
+                assert removed != null : ""
+                        + "Violation of: key is in DOMAIN(this)";
+                t.buckets.set(i, rebuild(head, removed, removed.next));
+                this.stripeSizes[s]--;
+            } finally {
+                lock.unlock();
+            }
+            this.count.decrement();
+            return removed;
+        }
+    }
+
+    @Override
+    public final Pair<K, V> removeAny() {
+        while (true) {
+            Table<K, V> t = this.table;
+            int length = t.buckets.length();
+            int start = this.anyBucket.getAndIncrement();
+            boolean retry = false;
+            for (int k = 0; k < length && !retry; k++) {
+                int i = (start + k) & (length - 1);
+                if (t.buckets.get(i) == null) {
+                    continue;
+                }
+                int s = i & (this.locks.length - 1);
+                ReentrantLock lock = this.locks[s];
+                lock.lock();
+                try {
+                    if (t != this.table) {
+                        retry = true;
+                    } else {
+                        Node<K, V> head = t.buckets.get(i);
+                        if (head != null) {
+                            t.buckets.set(i, head.next);
+                            this.stripeSizes[s]--;
+                            this.count.decrement();
+                            return head;
+                        }
+                    }
+                } finally {
+                    lock.unlock();
+                }
+            }
+            if (!retry) {
+                /*
+                 * Only reachable if the precondition this /= empty_set was
+                 * violated, possibly by another thread emptying this
+                 */
+                throw new NoSuchElementException(
+                        "Violation of: this /= empty_set");
+            }
+        }
+    }
+
+    @Override
+    public final V value(K key) {
+        assert key != null : "Violation of: key is not null";
+
+        int hash = Hashing.mix32(key.hashCode());
+        Table<K, V> t = this.table;
+        Node<K, V> n = find(t.buckets.get(hash & (t.buckets.length() - 1)),
+                key, hash);
+        assert n != null : "Violation of: key is in DOMAIN(this)";
+        return n.value;
+    }
+
+    @Override
+    public final boolean hasKey(K key) {
+        assert key != null : "Violation of: key is not null";
+
+        int hash = Hashing.mix32(key.hashCode());
+        Table<K, V> t = this.table;
+        return find(t.buckets.get(hash & (t.buckets.length() - 1)), key,
+                hash) != null;
+    }
+
+    @Override
+    public final int size() {
+        return (int) Math.max(0, this.count.sum());
+    }
+
+    /*
+     * Secondary methods ------------------------------------------------------
+     */
+
+    @Override
+    public final V replaceValue(K key, V value) {
+        assert key != null : "Violation of: key is not null";
+        assert value != null : "Violation of: value is not null";
+
+        int hash = Hashing.mix32(key.hashCode());
+        while (true) {
+            Table<K, V> t = this.table;
+            int i = hash & (t.buckets.length() - 1);
+            ReentrantLock lock = this.locks[i & (this.locks.length - 1)];
+            lock.lock();
+            try {
+                if (t != this.table) {
+                    continue;
+                }
+                Node<K, V> head = t.buckets.get(i);
+                Node<K, V> old = find(head, key, hash);
+                assert old != null : "Violation of: key is in DOMAIN(this)";
+                /*
+                 * One publish swaps the old node for the new one, so readers
+                 * never see the key missing
+                 */
+                t.buckets.set(i, rebuild(head, old,
+                        new Node<K, V>(key, value, hash, old.next)));
+                return old.value;
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    @Override
+    public final Iterator<Pair<K, V>> iterator() {
+        return new ReadMostlyMap4Iterator();
+    }
+
+    /**
+     * Weakly consistent implementation of {@code Iterator} interface for
+     * {@code ReadMostlyMap4}.
+     */
+    private final class ReadMostlyMap4Iterator
+            implements Iterator<Pair<K, V>> {
+
+        /**
+         * Table being iterated.
+         */
+        private final Table<K, V> table;
+
+        /**
+         * Next bucket whose chain will be read.
+         */
+        private int nextBucket;
+
+        /**
+         * Node to be returned next, or {@code null} if not yet found.
+         */
+        private Node<K, V> nextNode;
+
+        /**
+         * No-argument constructor.
+         */
+        ReadMostlyMap4Iterator() {
+            this.table = ReadMostlyMap4.this.table;
+            this.nextBucket = 0;
+            this.nextNode = null;
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (this.nextNode == null
+                    && this.nextBucket < this.table.buckets.length()) {
+                this.nextNode = this.table.buckets.get(this.nextBucket);
+                this.nextBucket++;
+            }
+            return this.nextNode != null;
+        }
+
+        @Override
+        public Pair<K, V> next() {
+            if (!this.hasNext()) {
+                throw new NoSuchElementException();
+            }
+            Node<K, V> n = this.nextNode;
+            this.nextNode = n.next;
+            return n;
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException(
+                    "remove operation not supported");
+        }
+
+    }
+
+}
@@ -0,0 +1,77 @@
+import components.map.Map;
+
+/**
+ * Immutable (key, value) pair handed out by the maps of this package that do
+ * not keep their entries as objects, or whose entries change after they are
+ * handed out. Two pairs are equal when their keys and their values are.
+ *
+ * @param <K>
+ *            type of key
+ * @param <V>
+ *            type of value
+ *
+ * @author Simon Manning & Nam Nguyen
+ *
+ */
+final class SimplePair<K, V> implements Map.Pair<K, V> {
+
+    /**
+     * The key.
+     */
+    private final K key;
+
+    /**
+     * The value.
+     */
+    private final V value;
+
+    /**
+     * Constructor.
+     *
+     * @param key
+     *            the key
+     * @param value
+     *            the value
+     * @requires key /= null  and  value /= null
+     */
+    SimplePair(K key, V value) {
+        assert key != null : "Violation of: key is not null";
+        assert value != null : "Violation of: value is not null";
+
+        this.key = key;
+        this.value = value;
+    }
+
+    @Override
+    public K key() {
+        return this.key;
+    }
+
+    @Override
+    public V value() {
+        return this.value;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (obj == this) {
+            return true;
+        }
+        if (!(obj instanceof Map.Pair<?, ?>)) {
+            return false;
+        }
+        Map.Pair<?, ?> p = (Map.Pair<?, ?>) obj;
+        return this.key.equals(p.key()) && this.value.equals(p.value());
+    }
+
+    @Override
+    public int hashCode() {
+        return this.key.hashCode() ^ this.value.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return "(" + this.key + "," + this.value + ")";
+    }
+
+}
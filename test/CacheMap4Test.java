@@ -0,0 +1,218 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Iterator;
+
+import org.junit.Test;
+
+import components.map.Map;
+import components.map.Map1L;
+
+/**
+ * Customized JUnit test fixture for {@code CacheMap4} using default
+ * constructor, whose bound the inherited tests never reach, plus tests of
+ * eviction and of the counters.
+ */
+public class CacheMap4Test extends MapTest {
+
+    /**
+     * Bound of the caches under test.
+     */
+    private static final int CAPACITY = 100;
+
+    @Override
+    protected final Map<String, String> constructorTest() {
+        return new CacheMap4<String, String>();
+    }
+
+    @Override
+    protected final Map<String, String> constructorRef() {
+        return new Map1L<String, String>();
+    }
+
+    /**
+     * Test that LRU evicts the least recently looked up or added keys.
+     */
+    @Test
+    public final void lruEvictsLeastRecentlyUsed() {
+        CacheMap4<Integer, Integer> cache = new CacheMap4<Integer, Integer>(
+                CAPACITY);
+        for (int i = 0; i < CAPACITY; i++) {
+            cache.add(i, i);
+        }
+        for (int i = 0; i < CAPACITY; i += 2) {
+            assertEquals(Integer.valueOf(i), cache.value(i));
+        }
+        for (int i = CAPACITY; i < CAPACITY + CAPACITY / 2; i++) {
+            cache.add(i, i);
+        }
+        assertEquals(CAPACITY, cache.size());
+        assertEquals(CAPACITY / 2, cache.evictions());
+        for (int i = 0; i < CAPACITY; i++) {
+            assertEquals(i % 2 == 0, cache.hasKey(i));
+        }
+        assertEquals(Integer.valueOf(0), cache.removeAny().key());
+    }
+
+    /**
+     * Test that CLOCK gives keys looked up since the hand passed a second
+     * chance.
+     */
+    @Test
+    public final void clockGivesSecondChance() {
+        CacheMap4<Integer, Integer> cache = new CacheMap4<Integer, Integer>(
+                CAPACITY, CacheMap4.EvictionPolicy.CLOCK);
+        for (int i = 0; i < CAPACITY; i++) {
+            cache.add(i, i);
+        }
+        for (int i = 0; i < CAPACITY; i += 2) {
+            cache.value(i);
+        }
+        for (int i = CAPACITY; i < CAPACITY + CAPACITY / 2; i++) {
+            cache.add(i, i);
+        }
+        assertEquals(CAPACITY, cache.size());
+        for (int i = 0; i < CAPACITY; i++) {
+            assertEquals(i % 2 == 0, cache.hasKey(i));
+        }
+        for (int i = CAPACITY; i < CAPACITY + CAPACITY / 2; i++) {
+            assertTrue(cache.hasKey(i));
+        }
+        while (cache.size() > 0) {
+            cache.removeAny();
+        }
+        cache.add(-1, -1);
+        assertEquals(Integer.valueOf(-1), cache.value(-1));
+    }
+
+    /**
+     * Test that CLOCK never evicts the pair just added, even when every other
+     * pair has been looked up since the hand passed.
+     */
+    @Test
+    public final void clockKeepsNewPair() {
+        CacheMap4<String, String> cache = new CacheMap4<String, String>(3,
+                CacheMap4.EvictionPolicy.CLOCK);
+        cache.add("a", "1");
+        cache.add("b", "2");
+        cache.add("c", "3");
+        cache.value("a");
+        cache.value("b");
+        cache.value("c");
+        cache.add("d", "4");
+        assertEquals(3, cache.size());
+        assertTrue(cache.hasKey("d"));
+        assertEquals(1, cache.evictions());
+    }
+
+    /**
+     * Test that the counters count hits, misses and evictions.
+     */
+    @Test
+    public final void counters() {
+        CacheMap4<String, String> cache = new CacheMap4<String, String>(2);
+        cache.add("a", "1");
+        cache.add("b", "2");
+        assertTrue(cache.hasKey("a"));
+        assertEquals("1", cache.value("a"));
+        assertTrue(!cache.hasKey("c"));
+        assertEquals("none", cache.valueOrDefault("c", "none"));
+        assertEquals("2", cache.valueOrDefault("b", "none"));
+        cache.add("c", "3");
+        assertTrue(!cache.hasKey("a"));
+        assertEquals(2, cache.hits());
+        assertEquals(3, cache.misses());
+        assertEquals(1, cache.evictions());
+    }
+
+    /**
+     * Test that a weighed cache keeps its total weight within the bound,
+     * including when a value is replaced by a heavier one.
+     */
+    @Test
+    public final void weightBound() {
+        final long maximumWeight = 10;
+        CacheMap4<String, String> cache = new CacheMap4<String, String>(
+                maximumWeight, (k, v) -> v.length(),
+                CacheMap4.EvictionPolicy.LRU);
+        cache.add("a", "xxxx");
+        cache.add("b", "xxxx");
+        assertEquals(8, cache.weight());
+        cache.add("c", "xx");
+        assertEquals(10, cache.weight());
+        assertEquals(3, cache.size());
+        cache.add("d", "x");
+        assertTrue(!cache.hasKey("a"));
+        assertEquals(7, cache.weight());
+        assertEquals("x", cache.replaceValue("d", "xxxxxx"));
+        assertTrue(cache.weight() <= maximumWeight);
+        assertTrue(!cache.hasKey("b"));
+        assertTrue(cache.hasKey("c"));
+        assertEquals(8, cache.weight());
+    }
+
+    /**
+     * Test that lookups while iterating do not disturb the iterator, and that
+     * its remove keeps the cache consistent.
+     */
+    @Test
+    public final void iterateWhileLookingUp() {
+        CacheMap4<Integer, Integer> cache = new CacheMap4<Integer, Integer>(
+                CAPACITY);
+        for (int i = 0; i < CAPACITY; i++) {
+            cache.add(i, i);
+        }
+        int seen = 0;
+        Iterator<Map.Pair<Integer, Integer>> it = cache.iterator();
+        while (it.hasNext()) {
+            Map.Pair<Integer, Integer> p = it.next();
+            assertEquals(p.value(), cache.value(p.key()));
+            if (p.key() % 2 == 1) {
+                it.remove();
+            }
+            seen++;
+        }
+        assertEquals(CAPACITY, seen);
+        assertEquals(CAPACITY / 2, cache.size());
+        assertEquals(CAPACITY / 2, cache.weight());
+        for (int i = 0; i < CAPACITY; i++) {
+            cache.add(CAPACITY + i, i);
+        }
+        assertEquals(CAPACITY, cache.size());
+        for (int i = CAPACITY; i < 2 * CAPACITY; i++) {
+            assertTrue(cache.hasKey(i));
+        }
+    }
+
+    /**
+     * Test that pairs handed out by the iterator, remove and removeAny do not
+     * change when the cache does.
+     */
+    @Test
+    public final void pairsSurviveValueChanges() {
+        CacheMap4<String, Integer> cache = new CacheMap4<String, Integer>(
+                CAPACITY);
+        cache.add("a", 1);
+        cache.add("b", 2);
+        Map.Pair<String, Integer> held = null;
+        for (Map.Pair<String, Integer> p : cache) {
+            if (p.key().equals("a")) {
+                held = p;
+            }
+        }
+        cache.replaceValue("a", 10);
+        assertEquals(Integer.valueOf(1), held.value());
+        assertEquals(Integer.valueOf(10), cache.value("a"));
+        Map.Pair<String, Integer> removed = cache.remove("a");
+        assertEquals(Integer.valueOf(10), removed.value());
+        cache.add("a", 20);
+        cache.replaceValue("a", 30);
+        assertEquals(Integer.valueOf(10), removed.value());
+        assertEquals(held.key(), removed.key());
+        assertTrue(!held.equals(removed));
+        Map.Pair<String, Integer> any = cache.removeAny();
+        assertEquals("b", any.key());
+        assertEquals(Integer.valueOf(2), any.value());
+    }
+
+}
@@ -0,0 +1,187 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import components.map.Map;
+import components.map.Map1L;
+
+/**
+ * Customized JUnit test fixture for {@code ConcurrentMap4} using default
+ * constructor, plus multi-threaded tests.
+ */
+public class ConcurrentMap4Test extends MapTest {
+
+    /**
+     * Number of writer threads.
+     */
+    private static final int THREADS = 8;
+
+    /**
+     * Number of keys each thread adds.
+     */
+    private static final int KEYS_PER_THREAD = 20000;
+
+    /**
+     * Number of keys shared by the replacing and reading threads.
+     */
+    private static final int SHARED_KEYS = 1000;
+
+    /**
+     * Number of passes each replacing or reading thread makes.
+     */
+    private static final int ROUNDS = 20;
+
+    @Override
+    protected final Map<String, String> constructorTest() {
+        return new ConcurrentMap4<String, String>();
+    }
+
+    @Override
+    protected final Map<String, String> constructorRef() {
+        return new Map1L<String, String>();
+    }
+
+    /**
+     * Runs {@code body} on {@code THREADS} threads, passing each its index,
+     * and waits for all of them.
+     *
+     * @param body
+     *            work of one thread
+     * @throws InterruptedException
+     *             if interrupted while waiting
+     */
+    private static void runThreads(final java.util.function.IntConsumer body)
+            throws InterruptedException {
+        List<Thread> threads = new ArrayList<Thread>();
+        final List<Throwable> failures = new ArrayList<Throwable>();
+        for (int t = 0; t < THREADS; t++) {
+            final int index = t;
+            Thread thread = new Thread(() -> {
+                try {
+                    body.accept(index);
+                } catch (Throwable e) {
+                    synchronized (failures) {
+                        failures.add(e);
+                    }
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertTrue(failures.toString(), failures.isEmpty());
+    }
+
+    /**
+     * Test for concurrent adds of disjoint keys followed by concurrent
+     * removes.
+     *
+     * @throws InterruptedException
+     *             if interrupted while waiting
+     */
+    @Test
+    public final void concurrentAddAndRemove() throws InterruptedException {
+        final ConcurrentMap4<Integer, Integer> map = new ConcurrentMap4<>();
+        runThreads(t -> {
+            for (int i = 0; i < KEYS_PER_THREAD; i++) {
+                int key = t * KEYS_PER_THREAD + i;
+                map.add(key, -key);
+                assertEquals(Integer.valueOf(-key), map.value(key));
+            }
+        });
+        assertEquals(THREADS * KEYS_PER_THREAD, map.size());
+        int seen = 0;
+        for (Map.Pair<Integer, Integer> p : map) {
+            assertEquals(-p.key(), p.value().intValue());
+            seen++;
+        }
+        assertEquals(THREADS * KEYS_PER_THREAD, seen);
+        runThreads(t -> {
+            for (int i = 0; i < KEYS_PER_THREAD; i += 2) {
+                map.remove(t * KEYS_PER_THREAD + i);
+            }
+        });
+        assertEquals(THREADS * KEYS_PER_THREAD / 2, map.size());
+        runThreads(t -> {
+            for (int i = 0; i < KEYS_PER_THREAD; i += 2) {
+                Map.Pair<Integer, Integer> p = map.removeAny();
+                assertTrue(p.key() % 2 == 1);
+            }
+        });
+        assertEquals(0, map.size());
+    }
+
+    /**
+     * Test for replaceValue racing with readers of the same keys: no reader
+     * may find a key missing while its value is being replaced.
+     *
+     * @throws InterruptedException
+     *             if interrupted while waiting
+     */
+    @Test
+    public final void concurrentReplaceValue() throws InterruptedException {
+        final ConcurrentMap4<Integer, Integer> map = new ConcurrentMap4<>();
+        for (int key = 0; key < SHARED_KEYS; key++) {
+            map.add(key, key);
+        }
+        runThreads(t -> {
+            for (int round = 1; round <= ROUNDS; round++) {
+                for (int key = 0; key < SHARED_KEYS; key++) {
+                    if (t % 2 == 0) {
+                        map.replaceValue(key, key + SHARED_KEYS * round);
+                    } else {
+                        assertTrue(map.hasKey(key));
+                        int value = map.value(key);
+                        assertEquals(0, (value - key) % SHARED_KEYS);
+                    }
+                }
+            }
+        });
+        assertEquals(SHARED_KEYS, map.size());
+    }
+
+    /**
+     * Test that pairs handed out by the iterator do not change when the map
+     * does.
+     */
+    @Test
+    public final void iteratorPairsAreCopies() {
+        ConcurrentMap4<String, String> map = new ConcurrentMap4<>();
+        map.add("k", "a");
+        Map.Pair<String, String> p = map.iterator().next();
+        map.replaceValue("k", "b");
+        assertEquals("a", p.value());
+        assertEquals("b", map.value("k"));
+    }
+
+    /**
+     * Test for transferFrom between maps with different numbers of stripes,
+     * and for clear keeping the map usable.
+     */
+    @Test
+    public final void transferFromOtherStripeCount() {
+        ConcurrentMap4<Integer, Integer> source = new ConcurrentMap4<>(4);
+        for (int key = 0; key < SHARED_KEYS; key++) {
+            source.add(key, -key);
+        }
+        ConcurrentMap4<Integer, Integer> map = new ConcurrentMap4<>();
+        map.add(-1, 1);
+        map.transferFrom(source);
+        assertEquals(0, source.size());
+        assertEquals(SHARED_KEYS, map.size());
+        for (int key = 0; key < SHARED_KEYS; key++) {
+            assertEquals(Integer.valueOf(-key), map.value(key));
+        }
+        map.clear();
+        assertEquals(0, map.size());
+        map.add(1, 1);
+        assertEquals(1, map.size());
+    }
+
+}
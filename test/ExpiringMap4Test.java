@@ -0,0 +1,238 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import components.map.Map;
+import components.map.Map1L;
+
+/**
+ * Customized JUnit test fixture for {@code ExpiringMap4} using a clock that
+ * never moves, plus tests of expiration driven by a manual clock.
+ */
+public class ExpiringMap4Test extends MapTest {
+
+    /**
+     * Time-to-live of the maps under test, in milliseconds.
+     */
+    private static final long TTL = 10;
+
+    /**
+     * Clock that only moves when told to.
+     */
+    private static final class ManualClock implements ExpiringMap4.Clock {
+
+        /**
+         * Current time, in nanoseconds.
+         */
+        private long now;
+
+        /**
+         * Constructor.
+         *
+         * @param start
+         *            the starting time, in nanoseconds
+         */
+        ManualClock(long start) {
+            this.now = start;
+        }
+
+        /**
+         * Moves the clock forward.
+         *
+         * @param duration
+         *            how far
+         * @param unit
+         *            unit of {@code duration}
+         */
+        void advance(long duration, TimeUnit unit) {
+            this.now += unit.toNanos(duration);
+        }
+
+        @Override
+        public long nanoTime() {
+            return this.now;
+        }
+
+    }
+
+    @Override
+    protected final Map<String, String> constructorTest() {
+        return new ExpiringMap4<String, String>(TTL, TimeUnit.MILLISECONDS,
+                new ManualClock(0));
+    }
+
+    @Override
+    protected final Map<String, String> constructorRef() {
+        return new Map1L<String, String>();
+    }
+
+    /**
+     * Test that a pair is present until its time-to-live has passed and then
+     * absent, and that removed or replaced pairs do not expire twice.
+     */
+    @Test
+    public final void expiresAfterTimeToLive() {
+        ManualClock clock = new ManualClock(0);
+        ExpiringMap4<String, String> map = new ExpiringMap4<String, String>(
+                TTL, TimeUnit.MILLISECONDS, clock);
+        map.add("a", "1");
+        map.add("b", "2");
+        map.add("c", "3", 2 * TTL, TimeUnit.MILLISECONDS);
+        clock.advance(TTL - 1, TimeUnit.MILLISECONDS);
+        assertEquals("1", map.value("a"));
+        assertEquals("2", map.replaceValue("b", "two"));
+        assertEquals("1", map.remove("a").value());
+        clock.advance(1, TimeUnit.MILLISECONDS);
+        assertTrue(!map.hasKey("b"));
+        assertEquals(1, map.size());
+        assertEquals(1, map.expirations());
+        map.add("b", "again");
+        clock.advance(TTL, TimeUnit.MILLISECONDS);
+        map.cleanUp();
+        assertEquals(0, map.size());
+        assertEquals(3, map.expirations());
+    }
+
+    /**
+     * Test that looking up the pairs being iterated, while time expires some
+     * of them, neither makes the iterator fail or stop early nor shows expired
+     * pairs, and that the expired pairs are reclaimed by the next update.
+     */
+    @Test
+    public final void lookUpWhileIterating() {
+        final int keys = 100;
+        ManualClock clock = new ManualClock(0);
+        ExpiringMap4<Integer, Integer> map = new ExpiringMap4<Integer, Integer>(
+                TTL, TimeUnit.MILLISECONDS, clock);
+        for (int i = 0; i < keys; i++) {
+            map.add(i, i, (i % 2 + 1) * TTL, TimeUnit.MILLISECONDS);
+        }
+        Set<Integer> seen = new HashSet<Integer>();
+        for (Map.Pair<Integer, Integer> p : map) {
+            assertEquals(p.value(), map.value(p.key()));
+            assertTrue(map.hasKey(p.key()));
+            if (seen.size() == keys / 4) {
+                clock.advance(TTL, TimeUnit.MILLISECONDS);
+            }
+            assertTrue(seen.add(p.key()));
+        }
+        assertEquals(keys / 2, map.size());
+        assertEquals(keys / 2, map.expirations());
+        for (int i = 0; i < keys; i++) {
+            assertEquals(i % 2 == 1, map.hasKey(i));
+            assertTrue(i % 2 == 0 || seen.contains(i));
+        }
+        map.add(-1, -1);
+        assertEquals(keys / 2 + 1, map.size());
+        Iterator<Map.Pair<Integer, Integer>> it = map.iterator();
+        while (it.hasNext()) {
+            if (it.next().key() % 2 == 1) {
+                it.remove();
+            }
+        }
+        assertEquals(1, map.size());
+        assertEquals(Integer.valueOf(-1), map.removeAny().key());
+    }
+
+    /**
+     * Test that pairs handed out by the iterator, remove and removeAny do not
+     * change when the map does.
+     */
+    @Test
+    public final void pairsSurviveValueChanges() {
+        ExpiringMap4<String, Integer> map = new ExpiringMap4<String, Integer>(
+                TTL, TimeUnit.MILLISECONDS, new ManualClock(0));
+        map.add("a", 1);
+        map.add("b", 2);
+        Map.Pair<String, Integer> held = null;
+        for (Map.Pair<String, Integer> p : map) {
+            if (p.key().equals("a")) {
+                held = p;
+            }
+        }
+        map.replaceValue("a", 10);
+        assertEquals(Integer.valueOf(1), held.value());
+        assertEquals(Integer.valueOf(10), map.value("a"));
+        Map.Pair<String, Integer> removed = map.remove("a");
+        assertEquals(Integer.valueOf(10), removed.value());
+        map.add("a", 20);
+        map.replaceValue("a", 30);
+        assertEquals(Integer.valueOf(10), removed.value());
+        assertEquals(held.key(), removed.key());
+        assertTrue(!held.equals(removed));
+        map.remove("a");
+        Map.Pair<String, Integer> any = map.removeAny();
+        assertEquals("b", any.key());
+        assertEquals(Integer.valueOf(2), any.value());
+    }
+
+    /**
+     * Test that a pair whose time-to-live is far beyond the span of the wheel
+     * expires exactly on time.
+     */
+    @Test
+    public final void beyondTheWheel() {
+        final long ttl = 1L << 52;
+        ManualClock clock = new ManualClock(-1);
+        ExpiringMap4<String, String> map = new ExpiringMap4<String, String>(
+                ttl, TimeUnit.NANOSECONDS, clock, 1, TimeUnit.NANOSECONDS);
+        map.add("a", "1");
+        clock.advance(ttl - 1, TimeUnit.NANOSECONDS);
+        assertTrue(map.hasKey("a"));
+        clock.advance(1, TimeUnit.NANOSECONDS);
+        assertTrue(!map.hasKey("a"));
+    }
+
+    /**
+     * Test against a simple model that pairs with random times-to-live spread
+     * over every level of the wheel expire exactly on time, as the clock
+     * moves in steps both small and large, starting before the origin.
+     */
+    @Test
+    public final void randomTimesToLive() {
+        final int keys = 2000;
+        final int steps = 3000;
+        final int maxShift = 30;
+        Random random = new Random(1);
+        ManualClock clock = new ManualClock(-TimeUnit.DAYS.toNanos(1));
+        ExpiringMap4<Integer, Integer> map = new ExpiringMap4<Integer, Integer>(
+                TTL, TimeUnit.MILLISECONDS, clock);
+        HashMap<Integer, Long> deadlines = new HashMap<Integer, Long>();
+        long now = 0;
+        for (int step = 0; step < steps; step++) {
+            int key = random.nextInt(keys);
+            if (!deadlines.containsKey(key)) {
+                long ttl = 1 + (random.nextLong() >>> 1)
+                        % (1L << random.nextInt(maxShift));
+                map.add(key, key, ttl, TimeUnit.MILLISECONDS);
+                deadlines.put(key, now + ttl);
+            } else if (random.nextInt(4) == 0) {
+                assertEquals(Integer.valueOf(key), map.remove(key).key());
+                deadlines.remove(key);
+            }
+            long elapsed = random.nextInt(3) == 0
+                    ? random.nextInt(1 << random.nextInt(maxShift))
+                    : random.nextInt(2);
+            clock.advance(elapsed, TimeUnit.MILLISECONDS);
+            now += elapsed;
+            final long time = now;
+            deadlines.values().removeIf(deadline -> deadline <= time);
+            assertEquals(deadlines.size(), map.size());
+            for (int i = 0; i < keys; i += 97) {
+                assertEquals(deadlines.containsKey(i), map.hasKey(i));
+            }
+        }
+        for (Integer key : deadlines.keySet()) {
+            assertEquals(key, map.value(key));
+        }
+    }
+
+}
@@ -0,0 +1,35 @@
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+/**
+ * JUnit test fixture for {@code Hashing}. The expected values are those of
+ * the MurmurHash3 finalizers; {@code Map4Snapshot} files store mixed hash
+ * codes, so a change here would break existing files.
+ */
+public class HashingTest {
+
+    /**
+     * Test of mix32 against known values of {@code fmix32}.
+     */
+    @Test
+    public final void mix32KnownValues() {
+        assertEquals(0, Hashing.mix32(0));
+        assertEquals(0x514e28b7, Hashing.mix32(1));
+        assertEquals(0x087fcd5c, Hashing.mix32(42));
+        assertEquals(0x81f16f39, Hashing.mix32(-1));
+        assertEquals(0xf9cc0ea8, Hashing.mix32(Integer.MAX_VALUE));
+    }
+
+    /**
+     * Test of mix64 against known values of {@code fmix64}.
+     */
+    @Test
+    public final void mix64KnownValues() {
+        assertEquals(0L, Hashing.mix64(0L));
+        assertEquals(0xb456bcfc34c2cb2cL, Hashing.mix64(1L));
+        assertEquals(0x810879608e4259ccL, Hashing.mix64(42L));
+        assertEquals(0x64b5720b4b825f21L, Hashing.mix64(-1L));
+    }
+
+}
@@ -0,0 +1,149 @@
+// GENERATED FILE: edit gen/PrimitiveMap4Test.template and run
+// "java gen/GeneratePrimitiveMaps.java" from the project root instead.
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * JUnit test fixture for {@code IntIntMap4}, checked against
+ * {@code java.util.HashMap}.
+ */
+public class IntIntMap4Test {
+
+    /**
+     * Number of random operations in the cross-check.
+     */
+    private static final int OPERATIONS = 100000;
+
+    /**
+     * Range of the random keys, small enough to force repeats.
+     */
+    private static final int KEY_RANGE = 5000;
+
+    /**
+     * Seed for the random operations.
+     */
+    private static final long SEED = 20231;
+
+    /**
+     * Test for add, value and hasKey including key 0.
+     */
+    @Test
+    public final void addIncludingZero() {
+        IntIntMap4 map = new IntIntMap4();
+        map.add(0, 1);
+        map.add(-1, 2);
+        map.add(Integer.MIN_VALUE, 3);
+        assertEquals(3, map.size());
+        assertEquals(1, map.value(0));
+        assertEquals(2, map.value(-1));
+        assertEquals(3, map.value(Integer.MIN_VALUE));
+        assertFalse(map.hasKey(1));
+    }
+
+    /**
+     * Test for remove of key 0 and of ordinary keys.
+     */
+    @Test
+    public final void removeIncludingZero() {
+        IntIntMap4 map = new IntIntMap4();
+        map.add(0, 1);
+        map.add(7, 2);
+        assertEquals(1, map.remove(0));
+        assertFalse(map.hasKey(0));
+        assertEquals(2, map.remove(7));
+        assertEquals(0, map.size());
+    }
+
+    /**
+     * Test for removeAny draining every key exactly once.
+     */
+    @Test
+    public final void removeAnyDrains() {
+        IntIntMap4 map = new IntIntMap4(1);
+        for (int i = 0; i < KEY_RANGE; i++) {
+            map.add(i, 3 * i);
+        }
+        boolean[] seen = new boolean[KEY_RANGE];
+        while (map.size() > 0) {
+            int key = map.anyKey();
+            assertEquals(3 * key, map.value(key));
+            assertEquals(key, map.removeAny());
+            assertFalse(seen[key]);
+            seen[key] = true;
+        }
+        for (boolean b : seen) {
+            assertTrue(b);
+        }
+    }
+
+    /**
+     * Test for cursor visiting every pair once.
+     */
+    @Test
+    public final void cursorVisitsAll() {
+        IntIntMap4 map = new IntIntMap4();
+        long keySum = 0;
+        for (int i = 0; i < KEY_RANGE; i++) {
+            map.add(i, 3 * i);
+            keySum += i;
+        }
+        long seenSum = 0;
+        int count = 0;
+        IntIntMap4.Cursor c = map.cursor();
+        while (c.advance()) {
+            int key = c.key();
+            assertEquals(3 * key, c.value());
+            seenSum += key;
+            count++;
+        }
+        assertEquals(KEY_RANGE, count);
+        assertEquals(keySum, seenSum);
+    }
+
+    /**
+     * Test for transferFrom.
+     */
+    @Test
+    public final void transferFrom() {
+        IntIntMap4 source = new IntIntMap4();
+        source.add(0, 1);
+        source.add(4, 2);
+        IntIntMap4 map = new IntIntMap4();
+        map.transferFrom(source);
+        assertEquals(0, source.size());
+        assertEquals(2, map.size());
+        assertEquals(2, map.value(4));
+    }
+
+    /**
+     * Randomized cross-check against {@code java.util.HashMap}.
+     */
+    @Test
+    public final void randomAgainstHashMap() {
+        Random rnd = new Random(SEED);
+        IntIntMap4 map = new IntIntMap4();
+        HashMap<Integer, Integer> ref = new HashMap<>();
+        for (int op = 0; op < OPERATIONS; op++) {
+            int key = rnd.nextInt(KEY_RANGE) - KEY_RANGE / 2;
+            assertEquals(ref.containsKey(key), map.hasKey(key));
+            if (ref.containsKey(key)) {
+                assertEquals(ref.get(key).longValue(), map.value(key));
+                if (rnd.nextBoolean()) {
+                    assertEquals(ref.remove(key).longValue(), map.remove(key));
+                }
+            } else {
+                int value = op;
+                ref.put(key, value);
+                map.add(key, value);
+            }
+            assertEquals(ref.size(), map.size());
+        }
+    }
+
+}
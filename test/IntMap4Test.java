@@ -0,0 +1,149 @@
+// GENERATED FILE: edit gen/PrimitiveMap4Test.template and run
+// "java gen/GeneratePrimitiveMaps.java" from the project root instead.
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * JUnit test fixture for {@code IntMap4}, checked against
+ * {@code java.util.HashMap}.
+ */
+public class IntMap4Test {
+
+    /**
+     * Number of random operations in the cross-check.
+     */
+    private static final int OPERATIONS = 100000;
+
+    /**
+     * Range of the random keys, small enough to force repeats.
+     */
+    private static final int KEY_RANGE = 5000;
+
+    /**
+     * Seed for the random operations.
+     */
+    private static final long SEED = 20231;
+
+    /**
+     * Test for add, value and hasKey including key 0.
+     */
+    @Test
+    public final void addIncludingZero() {
+        IntMap4<String> map = new IntMap4<String>();
+        map.add(0, "a");
+        map.add(-1, "b");
+        map.add(Integer.MIN_VALUE, "c");
+        assertEquals(3, map.size());
+        assertEquals("a", map.value(0));
+        assertEquals("b", map.value(-1));
+        assertEquals("c", map.value(Integer.MIN_VALUE));
+        assertFalse(map.hasKey(1));
+    }
+
+    /**
+     * Test for remove of key 0 and of ordinary keys.
+     */
+    @Test
+    public final void removeIncludingZero() {
+        IntMap4<String> map = new IntMap4<String>();
+        map.add(0, "a");
+        map.add(7, "b");
+        assertEquals("a", map.remove(0));
+        assertFalse(map.hasKey(0));
+        assertEquals("b", map.remove(7));
+        assertEquals(0, map.size());
+    }
+
+    /**
+     * Test for removeAny draining every key exactly once.
+     */
+    @Test
+    public final void removeAnyDrains() {
+        IntMap4<String> map = new IntMap4<String>(1);
+        for (int i = 0; i < KEY_RANGE; i++) {
+            map.add(i, "v" + i);
+        }
+        boolean[] seen = new boolean[KEY_RANGE];
+        while (map.size() > 0) {
+            int key = map.anyKey();
+            assertEquals("v" + key, map.value(key));
+            assertEquals(key, map.removeAny());
+            assertFalse(seen[key]);
+            seen[key] = true;
+        }
+        for (boolean b : seen) {
+            assertTrue(b);
+        }
+    }
+
+    /**
+     * Test for cursor visiting every pair once.
+     */
+    @Test
+    public final void cursorVisitsAll() {
+        IntMap4<String> map = new IntMap4<String>();
+        long keySum = 0;
+        for (int i = 0; i < KEY_RANGE; i++) {
+            map.add(i, "v" + i);
+            keySum += i;
+        }
+        long seenSum = 0;
+        int count = 0;
+        IntMap4<String>.Cursor c = map.cursor();
+        while (c.advance()) {
+            int key = c.key();
+            assertEquals("v" + key, c.value());
+            seenSum += key;
+            count++;
+        }
+        assertEquals(KEY_RANGE, count);
+        assertEquals(keySum, seenSum);
+    }
+
+    /**
+     * Test for transferFrom.
+     */
+    @Test
+    public final void transferFrom() {
+        IntMap4<String> source = new IntMap4<String>();
+        source.add(0, "a");
+        source.add(4, "b");
+        IntMap4<String> map = new IntMap4<String>();
+        map.transferFrom(source);
+        assertEquals(0, source.size());
+        assertEquals(2, map.size());
+        assertEquals("b", map.value(4));
+    }
+
+    /**
+     * Randomized cross-check against {@code java.util.HashMap}.
+     */
+    @Test
+    public final void randomAgainstHashMap() {
+        Random rnd = new Random(SEED);
+        IntMap4<String> map = new IntMap4<String>();
+        HashMap<Integer, String> ref = new HashMap<>();
+        for (int op = 0; op < OPERATIONS; op++) {
+            int key = rnd.nextInt(KEY_RANGE) - KEY_RANGE / 2;
+            assertEquals(ref.containsKey(key), map.hasKey(key));
+            if (ref.containsKey(key)) {
+                assertEquals(ref.get(key), map.value(key));
+                if (rnd.nextBoolean()) {
+                    assertEquals(ref.remove(key), map.remove(key));
+                }
+            } else {
+                String value = "v" + op;
+                ref.put(key, value);
+                map.add(key, value);
+            }
+            assertEquals(ref.size(), map.size());
+        }
+    }
+
+}
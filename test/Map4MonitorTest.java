@@ -0,0 +1,76 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.management.ManagementFactory;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.junit.Test;
+
+/**
+ * JUnit test fixture for {@code Map4Monitor}.
+ */
+public class Map4MonitorTest {
+
+    /**
+     * Number of entries used by the tests.
+     */
+    private static final int SIZE = 1000;
+
+    /**
+     * Test that the attributes are those of the last refresh.
+     */
+    @Test
+    public final void attributesFollowRefresh() {
+        Map4<Integer, Integer> map = new Map4<Integer, Integer>();
+        Map4Monitor monitor = new Map4Monitor(map, true);
+        assertTrue(map.isProbeCounting());
+        assertEquals(0, monitor.getSize());
+        for (int i = 0; i < SIZE; i++) {
+            map.add(i, i);
+        }
+        for (int i = 0; i < SIZE; i++) {
+            map.value(i);
+        }
+        assertEquals(0, monitor.getSize());
+        monitor.refresh();
+        assertEquals(SIZE, monitor.getSize());
+        assertEquals(map.statistics().tableSize(), monitor.getTableSize());
+        assertTrue(monitor.getLoadFactor() <= 1);
+        assertTrue(monitor.getLookups() >= SIZE);
+        assertTrue(monitor.getMaxChainLength() > 0);
+        long buckets = 0;
+        for (long count : monitor.getBucketLengthHistogram()) {
+            buckets += count;
+        }
+        assertEquals(monitor.getTableSize(), buckets);
+    }
+
+    /**
+     * Test that a registered monitor is readable through the platform MBean
+     * server.
+     *
+     * @throws JMException
+     *             if registration fails
+     */
+    @Test
+    public final void registeredAttributes() throws JMException {
+        Map4<String, String> map = new Map4<String, String>();
+        map.add("a", "b");
+        Map4Monitor monitor = new Map4Monitor(map, false);
+        ObjectName name = monitor.register("registeredAttributes");
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            assertEquals(Integer.valueOf(1), server.getAttribute(name, "Size"));
+            assertEquals(Long.valueOf(0), server.getAttribute(name, "Lookups"));
+            long[] histogram = (long[]) server.getAttribute(name,
+                    "BucketLengthHistogram");
+            assertEquals(1, histogram[1]);
+        } finally {
+            Map4Monitor.unregister(name);
+        }
+    }
+
+}
@@ -0,0 +1,244 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.util.Arrays;
+import java.util.stream.Stream;
+
+import org.junit.Test;
+
+import components.map.Map;
+
+/**
+ * JUnit test fixture for {@code Map4Snapshot}.
+ */
+public class Map4SnapshotTest {
+
+    /**
+     * Number of entries used by the bulk tests.
+     */
+    private static final int BULK_SIZE = 10000;
+
+    /**
+     * Number of entries in the snapshots that are rewritten or damaged.
+     */
+    private static final int SMALL_SIZE = 100;
+
+    /**
+     * Test for saving and mapping an empty map.
+     *
+     * @throws IOException
+     *             if the temporary file cannot be used
+     */
+    @Test
+    public final void emptyRoundTrip() throws IOException {
+        Path file = Files.createTempFile("map4", ".snapshot");
+        try {
+            Map4Snapshot.write(new Map4<String, String>(), file,
+                    Map4Snapshot.STRING_CODEC, Map4Snapshot.STRING_CODEC);
+            Map4Snapshot<String, String> snapshot = Map4Snapshot.open(file,
+                    Map4Snapshot.STRING_CODEC, Map4Snapshot.STRING_CODEC);
+            assertEquals(0, snapshot.size());
+            assertFalse(snapshot.hasKey("a"));
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    /**
+     * Test for looking up every entry of a mapped snapshot.
+     *
+     * @throws IOException
+     *             if the temporary file cannot be used
+     */
+    @Test
+    public final void lookupsAgainstMappedFile() throws IOException {
+        Map<String, Integer> map = new Map4<String, Integer>();
+        for (int i = 0; i < BULK_SIZE; i++) {
+            map.add("k" + i, i);
+        }
+        Path file = Files.createTempFile("map4", ".snapshot");
+        try {
+            Map4Snapshot.write(map, file, Map4Snapshot.STRING_CODEC,
+                    Map4Snapshot.INTEGER_CODEC);
+            Map4Snapshot<String, Integer> snapshot = Map4Snapshot.open(file,
+                    Map4Snapshot.STRING_CODEC, Map4Snapshot.INTEGER_CODEC);
+            assertEquals(BULK_SIZE, snapshot.size());
+            for (int i = 0; i < BULK_SIZE; i++) {
+                assertTrue(snapshot.hasKey("k" + i));
+                assertEquals(Integer.valueOf(i), snapshot.value("k" + i));
+                assertFalse(snapshot.hasKey("x" + i));
+            }
+            Map<String, Integer> copy = new Map4<String, Integer>();
+            snapshot.copyTo(copy);
+            assertEquals(map, copy);
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    /**
+     * Writes a small snapshot of string keys and integer values to a fresh
+     * temporary file.
+     *
+     * @return the file
+     * @throws IOException
+     *             if the temporary file cannot be used
+     */
+    private static Path smallSnapshot() throws IOException {
+        Map<String, Integer> map = new Map4<String, Integer>();
+        for (int i = 0; i < SMALL_SIZE; i++) {
+            map.add("k" + i, i);
+        }
+        Path file = Files.createTempFile("map4", ".snapshot");
+        Map4Snapshot.write(map, file, Map4Snapshot.STRING_CODEC,
+                Map4Snapshot.INTEGER_CODEC);
+        return file;
+    }
+
+    /**
+     * Test for rewriting a snapshot that is open: the open snapshot keeps
+     * its contents and no temporary file is left behind.
+     *
+     * @throws IOException
+     *             if the temporary file cannot be used
+     */
+    @Test
+    public final void rewriteKeepsOpenSnapshot() throws IOException {
+        Path file = smallSnapshot();
+        try {
+            Map4Snapshot<String, Integer> old = Map4Snapshot.open(file,
+                    Map4Snapshot.STRING_CODEC, Map4Snapshot.INTEGER_CODEC);
+            Map<String, Integer> replacement = new Map4<String, Integer>();
+            replacement.add("only", 1);
+            Map4Snapshot.write(replacement, file, Map4Snapshot.STRING_CODEC,
+                    Map4Snapshot.INTEGER_CODEC);
+            assertEquals(SMALL_SIZE, old.size());
+            assertEquals(Integer.valueOf(0), old.value("k0"));
+            Map4Snapshot<String, Integer> fresh = Map4Snapshot.open(file,
+                    Map4Snapshot.STRING_CODEC, Map4Snapshot.INTEGER_CODEC);
+            assertEquals(1, fresh.size());
+            try (Stream<Path> siblings = Files.list(file.getParent())) {
+                String prefix = file.getFileName().toString();
+                assertFalse(siblings.anyMatch(p -> !p.equals(file)
+                        && p.getFileName().toString().startsWith(prefix)));
+            }
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    /**
+     * Test for opening a snapshot cut short inside its data section.
+     *
+     * @throws IOException
+     *             if the temporary file cannot be used
+     */
+    @Test(expected = IOException.class)
+    public final void truncatedFileFailsToOpen() throws IOException {
+        Path file = smallSnapshot();
+        try {
+            byte[] bytes = Files.readAllBytes(file);
+            Files.write(file, Arrays.copyOf(bytes, bytes.length - 1));
+            Map4Snapshot.open(file, Map4Snapshot.STRING_CODEC,
+                    Map4Snapshot.INTEGER_CODEC);
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    /**
+     * Test for opening a snapshot whose bucket count is not a power of two.
+     *
+     * @throws IOException
+     *             if the temporary file cannot be used
+     */
+    @Test(expected = IOException.class)
+    public final void corruptBucketCountFailsToOpen() throws IOException {
+        Path file = smallSnapshot();
+        try {
+            byte[] bytes = Files.readAllBytes(file);
+            ByteBuffer.wrap(bytes).putInt(12, 3);
+            Files.write(file, bytes);
+            Map4Snapshot.open(file, Map4Snapshot.STRING_CODEC,
+                    Map4Snapshot.INTEGER_CODEC);
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    /**
+     * Test for opening a snapshot whose index points past the data section
+     * in the middle, where the first and last index entries are intact.
+     *
+     * @throws IOException
+     *             if the temporary file cannot be used
+     */
+    @Test(expected = IOException.class)
+    public final void corruptMiddleOffsetFailsToOpen() throws IOException {
+        Path file = smallSnapshot();
+        try {
+            byte[] bytes = Files.readAllBytes(file);
+            ByteBuffer buffer = ByteBuffer.wrap(bytes);
+            int buckets = buffer.getInt(12);
+            buffer.putLong(16 + buckets / 2 * Long.BYTES, Integer.MAX_VALUE);
+            Files.write(file, bytes);
+            Map4Snapshot.open(file, Map4Snapshot.STRING_CODEC,
+                    Map4Snapshot.INTEGER_CODEC);
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    /**
+     * Test for opening a snapshot with a negative key length.
+     *
+     * @throws IOException
+     *             if the temporary file cannot be used
+     */
+    @Test(expected = IOException.class)
+    public final void corruptKeyLengthFailsToOpen() throws IOException {
+        Path file = smallSnapshot();
+        try {
+            byte[] bytes = Files.readAllBytes(file);
+            ByteBuffer buffer = ByteBuffer.wrap(bytes);
+            int dataStart = 16 + (buffer.getInt(12) + 1) * Long.BYTES;
+            buffer.putInt(dataStart + 4, -1);
+            Files.write(file, bytes);
+            Map4Snapshot.open(file, Map4Snapshot.STRING_CODEC,
+                    Map4Snapshot.INTEGER_CODEC);
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    /**
+     * Test that a written snapshot has the permissions of any new file, not
+     * those of a private temporary file.
+     *
+     * @throws IOException
+     *             if the temporary file cannot be used
+     */
+    @Test
+    public final void writtenFileHasDefaultPermissions() throws IOException {
+        Path file = smallSnapshot();
+        Path plain = file.resolveSibling(file.getFileName() + ".plain");
+        try {
+            Files.createFile(plain);
+            if (Files.getFileStore(file)
+                    .supportsFileAttributeView(PosixFileAttributeView.class)) {
+                assertEquals(Files.getPosixFilePermissions(plain),
+                        Files.getPosixFilePermissions(file));
+            }
+        } finally {
+            Files.delete(file);
+            Files.deleteIfExists(plain);
+        }
+    }
+
+}
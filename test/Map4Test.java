@@ -1,11 +1,30 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.ConcurrentModificationException;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.Spliterator;
+
+import org.junit.Test;
+
 import components.map.Map;
 import components.map.Map1L;
 
 /**
- * Customized JUnit test fixture for {@code Map4} using default constructor.
+ * Customized JUnit test fixture for {@code Map4} using default constructor,
+ * plus tests of the extension methods.
  */
 public class Map4Test extends MapTest {
 
+    /**
+     * Number of entries used by the bulk tests.
+     */
+    private static final int BULK_SIZE = 10000;
+
     @Override
     protected final Map<String, String> constructorTest() {
         return new Map4<String, String>();
@@ -15,4 +34,599 @@ public class Map4Test extends MapTest {
     protected final Map<String, String> constructorRef() {
         return new Map1L<String, String>();
     }
+
+    /**
+     * Test of drainTo limited by maxCount, then draining the rest.
+     */
+    @Test
+    public final void drainToInSteps() {
+        Map4<Integer, Integer> map = new Map4<Integer, Integer>();
+        for (int i = 0; i < BULK_SIZE; i++) {
+            map.add(i, -i);
+        }
+        final Set<Integer> drained = new HashSet<Integer>();
+        int count = map.drainTo(p -> {
+            assertEquals(-p.key(), p.value().intValue());
+            assertTrue(drained.add(p.key()));
+        }, BULK_SIZE / 4);
+        assertEquals(BULK_SIZE / 4, count);
+        assertEquals(BULK_SIZE - BULK_SIZE / 4, map.size());
+        for (Integer key : drained) {
+            assertTrue(!map.hasKey(key));
+        }
+        assertEquals(0, map.drainTo(p -> drained.add(p.key()), 0));
+        count = map.drainTo(p -> assertTrue(drained.add(p.key())),
+                Integer.MAX_VALUE);
+        assertEquals(BULK_SIZE - BULK_SIZE / 4, count);
+        assertEquals(0, map.size());
+        assertEquals(BULK_SIZE, drained.size());
+        assertEquals(0, map.drainTo(p -> drained.add(p.key()), 1));
+    }
+
+    /**
+     * Test of iteration and removeAny over a large, sparsely filled table.
+     */
+    @Test
+    public final void sparseTable() {
+        final int tableSize = 1 << 16;
+        final int keys = 100;
+        Map4<Integer, Integer> map = new Map4<Integer, Integer>(tableSize);
+        for (int i = 0; i < keys; i++) {
+            map.add(i * 7919, i);
+        }
+        Set<Integer> seen = new HashSet<Integer>();
+        for (Map.Pair<Integer, Integer> p : map) {
+            assertEquals(p.key().intValue(), p.value() * 7919);
+            assertTrue(seen.add(p.key()));
+        }
+        assertEquals(keys, seen.size());
+        while (map.size() > 0) {
+            assertTrue(seen.remove(map.removeAny().key()));
+        }
+        assertTrue(seen.isEmpty());
+        map.add(tableSize - 1, 0);
+        map.add(0, 0);
+        assertEquals(0, map.removeAny().value().intValue());
+        assertEquals(0, map.removeAny().value().intValue());
+    }
+
+    /**
+     * Test of a large table holding only a few keys, so that nearly every
+     * bucket is one that was never allocated.
+     */
+    @Test
+    public final void fewKeysInLargeTable() {
+        final int tableSize = 1009;
+        Map4<Integer, Integer> map = new Map4<Integer, Integer>(tableSize);
+        for (int i = 0; i < tableSize; i++) {
+            assertTrue(!map.hasKey(i));
+        }
+        map.add(3, 3);
+        map.add(500, 500);
+        map.add(tableSize + 3, 0);
+        assertEquals(3, map.stream().count());
+        assertEquals(Integer.valueOf(0), map.value(tableSize + 3));
+        assertTrue(!map.hasKey(4));
+        map.clear();
+        assertTrue(!map.hasKey(3));
+        map.add(1000, 1);
+        assertEquals(Integer.valueOf(1), map.removeAny().value());
+        map.trimToSize();
+        assertEquals(0, map.size());
+    }
+
+    /**
+     * Test of filtering {@code this} with the iterator's remove in a single
+     * traversal.
+     */
+    @Test
+    public final void iteratorRemoveFilters() {
+        Map4<Integer, Integer> map = new Map4<Integer, Integer>();
+        for (int i = 0; i < BULK_SIZE; i++) {
+            map.add(i, -i);
+        }
+        int seen = 0;
+        Iterator<Map.Pair<Integer, Integer>> it = map.iterator();
+        while (it.hasNext()) {
+            Map.Pair<Integer, Integer> p = it.next();
+            seen++;
+            if (p.key() % 3 != 0) {
+                it.remove();
+            }
+        }
+        assertEquals(BULK_SIZE, seen);
+        assertEquals((BULK_SIZE + 2) / 3, map.size());
+        for (int i = 0; i < BULK_SIZE; i++) {
+            assertEquals(i % 3 == 0, map.hasKey(i));
+        }
+        it = map.iterator();
+        while (it.hasNext()) {
+            it.next();
+            it.remove();
+        }
+        assertEquals(0, map.size());
+        map.add(1, 1);
+        assertEquals(1, map.removeAny().key().intValue());
+    }
+
+    /**
+     * Test that the iterator's remove may only follow next.
+     */
+    @Test(expected = IllegalStateException.class)
+    public final void iteratorRemoveTwice() {
+        Map4<Integer, Integer> map = new Map4<Integer, Integer>();
+        map.add(1, 1);
+        map.add(2, 2);
+        Iterator<Map.Pair<Integer, Integer>> it = map.iterator();
+        it.next();
+        it.remove();
+        it.remove();
+    }
+
+    /**
+     * Test that an update made other than through the iterator is detected.
+     */
+    @Test(expected = ConcurrentModificationException.class)
+    public final void iteratorFailsFast() {
+        Map4<Integer, Integer> map = new Map4<Integer, Integer>();
+        map.add(1, 1);
+        map.add(2, 2);
+        Iterator<Map.Pair<Integer, Integer>> it = map.iterator();
+        it.next();
+        map.add(3, 3);
+        it.next();
+    }
+
+    /**
+     * Test of stream and parallelStream against the expected totals.
+     */
+    @Test
+    public final void streams() {
+        Map4<Integer, Integer> map = new Map4<Integer, Integer>();
+        long expected = 0;
+        for (int i = 0; i < BULK_SIZE; i++) {
+            map.add(i, 2 * i);
+            expected += 2 * i;
+        }
+        assertEquals(BULK_SIZE, map.stream().count());
+        assertEquals(expected,
+                map.stream().mapToLong(p -> p.value()).sum());
+        assertEquals(expected,
+                map.parallelStream().mapToLong(p -> p.value()).sum());
+        assertEquals(BULK_SIZE / 2, map.parallelStream()
+                .filter(p -> p.key() % 2 == 0).count());
+    }
+
+    /**
+     * Test that every part of a recursively split spliterator knows its exact
+     * size and that together the parts traverse each pair once.
+     */
+    @Test
+    public final void spliteratorSplitsExactly() {
+        Map4<Integer, Integer> map = new Map4<Integer, Integer>();
+        for (int i = 0; i < BULK_SIZE; i++) {
+            map.add(i, i);
+        }
+        Spliterator<Map.Pair<Integer, Integer>> whole = map.spliterator();
+        assertTrue(whole.hasCharacteristics(Spliterator.SIZED
+                | Spliterator.SUBSIZED));
+        assertEquals(BULK_SIZE, whole.getExactSizeIfKnown());
+        final Set<Integer> seen = new HashSet<Integer>();
+        assertEquals(BULK_SIZE, this.traverseSplitting(whole, seen));
+        assertEquals(BULK_SIZE, seen.size());
+    }
+
+    /**
+     * Splits {@code s} recursively, traversing the parts alternately with
+     * tryAdvance and forEachRemaining, and checks each part's size.
+     *
+     * @param s
+     *            the spliterator
+     * @param seen
+     *            keys traversed so far
+     * @return the number of pairs traversed
+     */
+    private int traverseSplitting(Spliterator<Map.Pair<Integer, Integer>> s,
+            final Set<Integer> seen) {
+        int count = 0;
+        long size = s.estimateSize();
+        if (s.tryAdvance(p -> assertTrue(seen.add(p.key())))) {
+            assertEquals(size - 1, s.estimateSize());
+            count++;
+        }
+        Spliterator<Map.Pair<Integer, Integer>> prefix = s.trySplit();
+        if (prefix != null) {
+            return count + this.traverseSplitting(prefix, seen)
+                    + this.traverseSplitting(s, seen);
+        }
+        long rest = s.estimateSize();
+        final int[] traversed = { 0 };
+        s.forEachRemaining(p -> {
+            assertTrue(seen.add(p.key()));
+            traversed[0]++;
+        });
+        assertEquals(rest, traversed[0]);
+        return count + traversed[0];
+    }
+
+    /**
+     * Simple {@code Pair} for building inputs to bulk methods.
+     */
+    private static final class TestPair implements Map.Pair<Integer, Integer> {
+
+        /**
+         * The key.
+         */
+        private final Integer key;
+
+        /**
+         * The value.
+         */
+        private final Integer value;
+
+        /**
+         * Constructor.
+         *
+         * @param key
+         *            the key
+         * @param value
+         *            the value
+         */
+        TestPair(int key, int value) {
+            this.key = key;
+            this.value = value;
+        }
+
+        @Override
+        public Integer key() {
+            return this.key;
+        }
+
+        @Override
+        public Integer value() {
+            return this.value;
+        }
+
+    }
+
+    /**
+     * Returns the pairs (i, -i) for {@code from <= i < to}.
+     *
+     * @param from
+     *            first key
+     * @param to
+     *            one past the last key
+     * @return the pairs
+     */
+    private static List<Map.Pair<Integer, Integer>> pairs(int from, int to) {
+        List<Map.Pair<Integer, Integer>> list = new ArrayList<>();
+        for (int i = from; i < to; i++) {
+            list.add(new TestPair(i, -i));
+        }
+        return list;
+    }
+
+    /**
+     * Test of addAll, sequential and parallel, into empty and non-empty maps.
+     */
+    @Test
+    public final void addAllSequentialAndParallel() {
+        for (boolean parallel : new boolean[] { false, true }) {
+            Map4<Integer, Integer> map = new Map4<Integer, Integer>();
+            map.add(-1, 1);
+            map.addAll(pairs(0, BULK_SIZE), parallel);
+            map.addAll(pairs(BULK_SIZE, 2 * BULK_SIZE), parallel);
+            assertEquals(2 * BULK_SIZE + 1, map.size());
+            for (int i = -1; i < 2 * BULK_SIZE; i++) {
+                assertEquals(Integer.valueOf(-i), map.value(i));
+            }
+            int seen = 0;
+            for (Map.Pair<Integer, Integer> p : map) {
+                assertEquals(-p.key(), p.value().intValue());
+                seen++;
+            }
+            assertEquals(map.size(), seen);
+            while (map.size() > 0) {
+                map.removeAny();
+            }
+        }
+    }
+
+    /**
+     * Test that addAll into a power-of-two table and ensureCapacity keep the
+     * map consistent, including through an incremental rehash.
+     */
+    @Test
+    public final void ensureCapacityThenAdd() {
+        Map4<Integer, Integer> map = new Map4<Integer, Integer>(1, 0.75, true,
+                Map4.RehashMode.INCREMENTAL);
+        for (int i = 0; i < BULK_SIZE; i++) {
+            map.add(i, -i);
+        }
+        map.ensureCapacity(4 * BULK_SIZE);
+        assertEquals(0, map.unmigratedBuckets());
+        map.addAll(pairs(BULK_SIZE, 3 * BULK_SIZE));
+        map.ensureCapacity(0);
+        for (int i = 3 * BULK_SIZE; i < 4 * BULK_SIZE; i++) {
+            map.add(i, -i);
+        }
+        assertEquals(0, map.unmigratedBuckets());
+        assertEquals(4 * BULK_SIZE, map.size());
+        for (int i = 0; i < 4 * BULK_SIZE; i += 7) {
+            assertEquals(Integer.valueOf(-i), map.remove(i).value());
+        }
+        map.addAll(new ArrayList<Map.Pair<Integer, Integer>>());
+        assertTrue(!map.hasKey(7));
+        assertTrue(map.hasKey(8));
+    }
+
+    /**
+     * Test of transferFrom a {@code Map} that is not a {@code Map4}.
+     */
+    @Test
+    public final void transferFromOtherMap() {
+        Map<Integer, Integer> source = new Map1L<Integer, Integer>();
+        for (int i = 0; i < BULK_SIZE; i++) {
+            source.add(i, -i);
+        }
+        Map4<Integer, Integer> map = new Map4<Integer, Integer>();
+        map.add(-1, 1);
+        map.transferFrom(source);
+        assertEquals(0, source.size());
+        assertEquals(BULK_SIZE, map.size());
+        for (int i = 0; i < BULK_SIZE; i++) {
+            assertEquals(Integer.valueOf(-i), map.value(i));
+        }
+        assertTrue(!map.hasKey(-1));
+    }
+
+    /**
+     * Test of copyFrom a {@code Map4} with a compatible table, one that
+     * rehashes incrementally, and a {@code Map1L}.
+     */
+    @Test
+    public final void copyFromMaps() {
+        Map4<Integer, Integer> compatible = new Map4<Integer, Integer>(64);
+        Map4<Integer, Integer> rehashing = new Map4<Integer, Integer>(1, 0.75,
+                true, Map4.RehashMode.INCREMENTAL);
+        Map<Integer, Integer> other = new Map1L<Integer, Integer>();
+        for (int i = 0; i < BULK_SIZE; i++) {
+            compatible.add(i, -i);
+            rehashing.add(i, -i);
+            other.add(i, -i);
+        }
+        List<Map<Integer, Integer>> sources = new ArrayList<>();
+        sources.add(compatible);
+        sources.add(rehashing);
+        sources.add(other);
+        for (Map<Integer, Integer> source : sources) {
+            Map4<Integer, Integer> map = new Map4<Integer, Integer>();
+            map.add(-1, 1);
+            map.copyFrom(source);
+            assertEquals(BULK_SIZE, source.size());
+            assertEquals(BULK_SIZE, map.size());
+            for (int i = 0; i < BULK_SIZE; i++) {
+                assertEquals(Integer.valueOf(-i), map.value(i));
+                assertTrue(source.hasKey(i));
+            }
+            assertTrue(!map.hasKey(-1));
+            map.remove(0);
+            assertTrue(source.hasKey(0));
+            while (map.size() > 0) {
+                map.removeAny();
+            }
+        }
+    }
+
+    /**
+     * Test that clear keeps the table and its buckets usable across rounds,
+     * and that trimToSize gives back a large table.
+     */
+    @Test
+    public final void clearRetainsThenTrim() {
+        final int tableSize = 1 << 12;
+        Map4<Integer, Integer> map = new Map4<Integer, Integer>(tableSize);
+        for (int round = 0; round < 3; round++) {
+            for (int i = 0; i < BULK_SIZE; i++) {
+                map.add(i + round, i);
+            }
+            assertEquals(BULK_SIZE, map.size());
+            int grown = map.tableSize();
+            map.clear();
+            assertEquals(grown, map.tableSize());
+            assertEquals(0, map.size());
+            assertTrue(!map.hasKey(round));
+            assertTrue(!map.iterator().hasNext());
+        }
+        map.add(7, 7);
+        assertTrue(map.tableSize() > tableSize);
+        map.trimToSize();
+        assertEquals(tableSize, map.tableSize());
+        map.add(8, 8);
+        assertEquals(Integer.valueOf(7), map.remove(7).value());
+        assertEquals(Integer.valueOf(8), map.removeAny().value());
+        assertEquals(0, map.size());
+    }
+
+    /**
+     * Key that counts the calls to its {@code hashCode}.
+     */
+    private static final class CountingKey {
+
+        /**
+         * Number of calls to {@code hashCode} on any instance.
+         */
+        private static int hashCodeCalls = 0;
+
+        /**
+         * Distinguishing value.
+         */
+        private final int id;
+
+        /**
+         * Constructor.
+         *
+         * @param id
+         *            distinguishing value
+         */
+        CountingKey(int id) {
+            this.id = id;
+        }
+
+        @Override
+        public int hashCode() {
+            hashCodeCalls++;
+            return this.id;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            return obj instanceof CountingKey
+                    && ((CountingKey) obj).id == this.id;
+        }
+
+    }
+
+    /**
+     * Test of valueOrDefault, addIfAbsent and replaceValue.
+     */
+    @Test
+    public final void lookupAndUpsert() {
+        Map4<String, Integer> map = new Map4<String, Integer>();
+        assertEquals(Integer.valueOf(-1), map.valueOrDefault("a", -1));
+        assertTrue(map.addIfAbsent("a", 1));
+        assertTrue(!map.addIfAbsent("a", 2));
+        assertEquals(Integer.valueOf(1), map.valueOrDefault("a", -1));
+        assertEquals(Integer.valueOf(1), map.replaceValue("a", 3));
+        assertEquals(Integer.valueOf(3), map.value("a"));
+        assertEquals(1, map.size());
+    }
+
+    /**
+     * Test of compute and merge, including removal by a {@code null} result,
+     * and that each hashes its key once.
+     */
+    @Test
+    public final void computeAndMerge() {
+        final int words = 1000;
+        Map4<CountingKey, Integer> map = new Map4<CountingKey, Integer>();
+        CountingKey.hashCodeCalls = 0;
+        for (int round = 0; round < 3; round++) {
+            for (int i = 0; i < words; i++) {
+                map.merge(new CountingKey(i), 1, Integer::sum);
+            }
+        }
+        assertEquals(3 * words, CountingKey.hashCodeCalls);
+        assertEquals(words, map.size());
+        for (int i = 0; i < words; i++) {
+            assertEquals(Integer.valueOf(3), map.value(new CountingKey(i)));
+        }
+        CountingKey.hashCodeCalls = 0;
+        for (int i = 0; i < words; i++) {
+            map.compute(new CountingKey(i), (k, v) -> {
+                if (k.id % 2 == 0) {
+                    return null;
+                }
+                return v + k.id;
+            });
+        }
+        assertEquals(words, CountingKey.hashCodeCalls);
+        assertEquals(words / 2, map.size());
+        for (int i = 0; i < words; i++) {
+            assertEquals(i % 2 == 1, map.hasKey(new CountingKey(i)));
+        }
+        assertEquals(Integer.valueOf(3 + 1), map.value(new CountingKey(1)));
+        assertEquals(Integer.valueOf(7),
+                map.compute(new CountingKey(-7), (k, v) -> v == null ? 7 : v));
+        assertEquals(null, map.merge(new CountingKey(-7), 0, (a, b) -> null));
+        assertTrue(!map.hasKey(new CountingKey(-7)));
+        assertEquals(words / 2, map.size());
+    }
+
+    /**
+     * Test that the statistics describe the buckets and that probe counting
+     * counts lookups and calls to equals only while it is on.
+     */
+    @Test
+    public final void statistics() {
+        final int tableSize = 64;
+        final int keys = 40;
+        final int misses = 10;
+        Map4<String, Integer> map = new Map4<String, Integer>(tableSize);
+        for (int i = 0; i < keys; i++) {
+            map.add("k" + i, i);
+        }
+        Map4Statistics stats = map.statistics();
+        assertEquals(keys, stats.size());
+        assertEquals(tableSize, stats.tableSize());
+        assertEquals((double) keys / tableSize, stats.loadFactor(), 0);
+        long[] histogram = stats.bucketLengthHistogram();
+        long buckets = 0;
+        long pairs = 0;
+        int longest = 0;
+        for (int i = 0; i < histogram.length; i++) {
+            buckets += histogram[i];
+            pairs += i * histogram[i];
+            if (histogram[i] > 0) {
+                longest = i;
+            }
+        }
+        assertEquals(tableSize, buckets);
+        assertEquals(keys, pairs);
+        assertEquals(longest, stats.maxChainLength());
+        assertEquals(histogram[0], stats.emptyBuckets());
+        assertEquals(0, stats.lookups());
+        assertTrue(!map.isProbeCounting());
+        map.setProbeCounting(true);
+        for (int i = 0; i < keys; i++) {
+            assertTrue(map.hasKey(new String("k" + i)));
+        }
+        for (int i = 0; i < misses; i++) {
+            assertTrue(!map.hasKey("x" + i));
+        }
+        stats = map.statistics();
+        assertEquals(keys + misses, stats.lookups());
+        assertEquals(keys, stats.comparisons());
+        assertEquals((double) keys / (keys + misses),
+                stats.comparisonsPerLookup(), 0);
+        map.setProbeCounting(false);
+        map.hasKey("k0");
+        map.setProbeCounting(true);
+        assertEquals(0, map.statistics().lookups());
+        map.add(new String("k" + keys), keys);
+        map.remove(new String("k" + keys));
+        stats = map.statistics();
+        assertEquals(0, stats.lookups());
+        assertEquals(0, stats.comparisons());
+    }
+
+    /**
+     * Test that pairs handed out by the iterator, remove and removeAny keep
+     * their values when the map changes the value of their key afterwards.
+     */
+    @Test
+    public final void pairsSurviveValueChanges() {
+        Map4<String, Integer> map = new Map4<String, Integer>();
+        map.add("a", 1);
+        map.add("b", 2);
+        Map.Pair<String, Integer> held = null;
+        for (Map.Pair<String, Integer> p : map) {
+            if (p.key().equals("a")) {
+                held = p;
+            }
+        }
+        map.replaceValue("a", 10);
+        map.compute("a", (k, v) -> v + 1);
+        map.merge("a", 1, Integer::sum);
+        assertEquals(Integer.valueOf(1), held.value());
+        assertEquals(Integer.valueOf(12), map.value("a"));
+        Map.Pair<String, Integer> removed = map.remove("a");
+        assertEquals(Integer.valueOf(12), removed.value());
+        map.add("a", 20);
+        map.replaceValue("a", 30);
+        assertEquals(Integer.valueOf(12), removed.value());
+        assertEquals(held.key(), removed.key());
+        assertTrue(!held.equals(removed));
+    }
+
 }
@@ -0,0 +1,177 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import components.map.Map;
+import components.map.Map1L;
+
+/**
+ * Customized JUnit test fixture for {@code Map4} using a randomly seeded
+ * string equivalence shared by all the maps it creates, plus tests of other
+ * equivalences.
+ */
+public class Map4TestEquivalence extends MapTest {
+
+    /**
+     * Load factor high enough that a single bucket never grows.
+     */
+    private static final double NEVER_GROW = 1e9;
+
+    /**
+     * Number of keys used by the bulk tests.
+     */
+    private static final int BULK_SIZE = 1000;
+
+    /**
+     * Equivalence of the maps under test; shared, so that maps built alike
+     * behave alike.
+     */
+    private static final Equivalence<String> RANDOMIZED = Equivalences
+            .randomizedStrings();
+
+    @Override
+    protected final Map<String, String> constructorTest() {
+        return new Map4<String, String>(RANDOMIZED);
+    }
+
+    @Override
+    protected final Map<String, String> constructorRef() {
+        return new Map1L<String, String>();
+    }
+
+    /**
+     * Case-insensitive string equivalence that hashes every string alike, so
+     * all keys collide.
+     */
+    private static final class CollidingIgnoringCase
+            implements Equivalence<String> {
+
+        @Override
+        public int hash(String t) {
+            return 0;
+        }
+
+        @Override
+        public boolean equivalent(String a, String b) {
+            return a.equalsIgnoreCase(b);
+        }
+
+    }
+
+    /**
+     * Test that the seeded string hash depends on the seed and agrees with
+     * equality.
+     */
+    @Test
+    public final void seededStrings() {
+        Equivalence<String> first = Equivalences.seededStrings(1);
+        Equivalence<String> second = Equivalences.seededStrings(2);
+        int differing = 0;
+        for (int i = 0; i < BULK_SIZE; i++) {
+            String key = "key" + i;
+            assertEquals(first.hash(key), first.hash(new String(key)));
+            if (first.hash(key) != second.hash(key)) {
+                differing++;
+            }
+        }
+        assertTrue(differing > BULK_SIZE / 2);
+        assertEquals(first.hash("ab"), Equivalences.seededStrings(1)
+                .hash("ab"));
+    }
+
+    /**
+     * Test of a map of strings compared without case.
+     */
+    @Test
+    public final void caseInsensitiveStrings() {
+        Map4<String, Integer> map = new Map4<String, Integer>(
+                Equivalences.caseInsensitiveStrings());
+        map.add("Hello", 1);
+        map.add("\u00E9t\u00E9", 2);
+        assertTrue(map.hasKey("HELLO"));
+        assertTrue(map.hasKey("hello"));
+        assertEquals(Integer.valueOf(2), map.value("\u00C9T\u00C9"));
+        assertEquals("Hello", map.remove("hELLO").key());
+        assertEquals(1, map.size());
+        assertTrue(!map.addIfAbsent("\u00C9t\u00E9", 3));
+        assertTrue(map.addIfAbsent("HELLO", 4));
+        assertEquals(Integer.valueOf(4), map.value("hello"));
+    }
+
+    /**
+     * Test that colliding keys of a map with a custom equivalence stay in a
+     * chain, which finds keys that are equivalent but that {@code compareTo}
+     * orders apart.
+     */
+    @Test
+    public final void customEquivalenceNeverTreeifies() {
+        Map4<String, Integer> map = new Map4<String, Integer>(1, NEVER_GROW,
+                false, Map4.RehashMode.ALL_AT_ONCE,
+                new CollidingIgnoringCase());
+        for (int i = 0; i < BULK_SIZE; i++) {
+            map.add("k" + i, i);
+        }
+        assertEquals(0, map.treeifiedBuckets());
+        for (int i = 0; i < BULK_SIZE; i++) {
+            assertEquals(Integer.valueOf(i), map.value("K" + i));
+        }
+        for (int i = 0; i < BULK_SIZE; i += 2) {
+            assertEquals(Integer.valueOf(i), map.remove("K" + i).value());
+        }
+        for (int i = 0; i < BULK_SIZE; i++) {
+            assertEquals(i % 2 == 1, map.hasKey("K" + i));
+        }
+    }
+
+    /**
+     * Test of array keys compared by content.
+     */
+    @Test
+    public final void arrayKeys() {
+        Map4<int[], Integer> ints = new Map4<int[], Integer>(
+                Equivalences.intArrays());
+        for (int i = 0; i < BULK_SIZE; i++) {
+            ints.add(new int[] { i, -i }, i);
+        }
+        for (int i = 0; i < BULK_SIZE; i++) {
+            assertEquals(Integer.valueOf(i), ints.value(new int[] { i, -i }));
+        }
+        assertTrue(!ints.hasKey(new int[] { 1, 1 }));
+        Map4<Object[], String> objects = new Map4<Object[], String>(
+                Equivalences.objectArrays());
+        objects.add(new Object[] { "a", new int[] { 1 } }, "x");
+        assertTrue(objects.hasKey(new Object[] { "a", new int[] { 1 } }));
+        assertTrue(!objects.hasKey(new Object[] { "a", new int[] { 2 } }));
+    }
+
+    /**
+     * Test that newInstance, transferFrom and copyFrom respect the
+     * equivalence of the receiving map.
+     */
+    @Test
+    public final void conversionsKeepEquivalence() {
+        Map4<String, Integer> natural = new Map4<String, Integer>();
+        for (int i = 0; i < BULK_SIZE; i++) {
+            natural.add("k" + i, i);
+        }
+        Map4<String, Integer> ignoringCase = new Map4<String, Integer>(
+                Equivalences.caseInsensitiveStrings());
+        ignoringCase.copyFrom(natural);
+        assertEquals(BULK_SIZE, natural.size());
+        for (int i = 0; i < BULK_SIZE; i++) {
+            assertEquals(Integer.valueOf(i), ignoringCase.value("K" + i));
+        }
+        Map<String, Integer> empty = ignoringCase.newInstance();
+        empty.transferFrom(ignoringCase);
+        assertEquals(0, ignoringCase.size());
+        assertTrue(empty.hasKey("K0"));
+        ignoringCase.transferFrom(natural);
+        assertEquals(0, natural.size());
+        assertTrue(ignoringCase.hasKey("K1"));
+        natural.transferFrom(ignoringCase);
+        assertTrue(natural.hasKey("k1"));
+        assertTrue(!natural.hasKey("K1"));
+    }
+
+}
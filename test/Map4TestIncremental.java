@@ -0,0 +1,251 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.Test;
+
+import components.map.Map;
+import components.map.Map1L;
+
+/**
+ * Customized JUnit test fixture for {@code Map4} starting from a single bucket
+ * and resizing with {@code RehashMode.INCREMENTAL}.
+ */
+public class Map4TestIncremental extends MapTest {
+
+    /**
+     * Initial size of hash table to be used in tests.
+     */
+    private static final int TEST_HASH_TABLE_SIZE = 1;
+
+    /**
+     * Load factor to be used in tests.
+     */
+    private static final double TEST_LOAD_FACTOR = 0.75;
+
+    /**
+     * Number of entries used by the bulk tests.
+     */
+    private static final int BULK_SIZE = 100000;
+
+    /**
+     * Largest number of old buckets a single operation may migrate.
+     */
+    private static final int MAX_BUCKETS_PER_OPERATION = 4;
+
+    @Override
+    protected final Map<String, String> constructorTest() {
+        return new Map4<String, String>(TEST_HASH_TABLE_SIZE, TEST_LOAD_FACTOR,
+                true, Map4.RehashMode.INCREMENTAL);
+    }
+
+    @Override
+    protected final Map<String, String> constructorRef() {
+        return new Map1L<String, String>();
+    }
+
+    /**
+     * Test that entries stay reachable while both tables coexist.
+     */
+    @Test
+    public final void lookupsDuringMigration() {
+        Map<String, String> map = this.constructorTest();
+        for (int i = 0; i < BULK_SIZE; i++) {
+            map.add("k" + i, "v" + i);
+            assertTrue(map.hasKey("k" + i / 2));
+            assertEquals("v" + i / 2, map.value("k" + i / 2));
+        }
+        int seen = 0;
+        for (Map.Pair<String, String> p : map) {
+            assertTrue(map.hasKey(p.key()));
+            seen++;
+        }
+        assertEquals(BULK_SIZE, seen);
+        while (map.size() > 0) {
+            Map.Pair<String, String> p = map.removeAny();
+            assertTrue(!map.hasKey(p.key()));
+        }
+    }
+
+    /**
+     * Latency test: no single add or remove pays for rehashing the whole
+     * table; each one migrates at most a few old buckets, and resizes are
+     * spread over many operations.
+     */
+    @Test
+    public final void noOperationRehashesWholeTable() {
+        Map4<Integer, Integer> map = new Map4<Integer, Integer>(
+                TEST_HASH_TABLE_SIZE, TEST_LOAD_FACTOR, true,
+                Map4.RehashMode.INCREMENTAL);
+        int longestMigration = 0;
+        int before = 0;
+        for (int i = 0; i < BULK_SIZE; i++) {
+            map.add(i, i);
+            int after = map.unmigratedBuckets();
+            assertTrue(before - after <= MAX_BUCKETS_PER_OPERATION);
+            longestMigration = Math.max(longestMigration, after);
+            before = after;
+        }
+        for (int i = 0; i < BULK_SIZE; i++) {
+            map.remove(i);
+            int after = map.unmigratedBuckets();
+            assertTrue(before - after <= MAX_BUCKETS_PER_OPERATION);
+            before = after;
+        }
+        assertEquals(0, map.size());
+        assertTrue(longestMigration > BULK_SIZE / 2);
+    }
+
+    /**
+     * Test that a rehash left pending by the last add is finished by lookups
+     * alone, each migrating at most a few old buckets.
+     */
+    @Test
+    public final void lookupsFinishMigration() {
+        Map4<Integer, Integer> map = new Map4<Integer, Integer>(
+                TEST_HASH_TABLE_SIZE, TEST_LOAD_FACTOR, true,
+                Map4.RehashMode.INCREMENTAL);
+        int i = 0;
+        while (map.unmigratedBuckets() < BULK_SIZE / 4) {
+            map.add(i, i);
+            i++;
+        }
+        int before = map.unmigratedBuckets();
+        int lookups = 0;
+        while (before > 0) {
+            assertEquals(Integer.valueOf(lookups % i),
+                    map.value(lookups % i));
+            assertTrue(!map.hasKey(-1 - lookups));
+            int after = map.unmigratedBuckets();
+            assertTrue(before - after <= 2 * MAX_BUCKETS_PER_OPERATION);
+            assertTrue(after < before);
+            before = after;
+            lookups++;
+        }
+        assertEquals(i, map.size());
+        for (int k = 0; k < i; k++) {
+            assertEquals(Integer.valueOf(k), map.value(k));
+        }
+    }
+
+    /**
+     * Test that lookups made while iterating during a rehash neither make
+     * the iterator fail nor make it skip or repeat pairs.
+     */
+    @Test
+    public final void lookupsWhileIteratingDuringMigration() {
+        Map4<Integer, Integer> map = new Map4<Integer, Integer>(
+                TEST_HASH_TABLE_SIZE, TEST_LOAD_FACTOR, true,
+                Map4.RehashMode.INCREMENTAL);
+        int i = 0;
+        while (map.unmigratedBuckets() < BULK_SIZE / 4) {
+            map.add(i, i);
+            i++;
+        }
+        int pending = map.unmigratedBuckets();
+        Set<Integer> seen = new HashSet<Integer>();
+        for (Map.Pair<Integer, Integer> p : map) {
+            assertEquals(p.value(), map.value(p.key()));
+            assertTrue(map.hasKey(p.key()));
+            assertTrue(seen.add(p.key()));
+        }
+        assertEquals(i, seen.size());
+        assertEquals(pending, map.unmigratedBuckets());
+        map.remove(0);
+        assertTrue(map.unmigratedBuckets() < pending);
+    }
+
+    /**
+     * Test that compute, merge and addIfAbsent calls that leave the keys of
+     * {@code this} unchanged, made while iterating during a rehash, neither
+     * make the iterator fail nor make it skip or repeat pairs.
+     */
+    @Test
+    public final void valueUpdatesWhileIteratingDuringMigration() {
+        Map4<Integer, Integer> map = new Map4<Integer, Integer>(
+                TEST_HASH_TABLE_SIZE, TEST_LOAD_FACTOR, true,
+                Map4.RehashMode.INCREMENTAL);
+        int i = 0;
+        while (map.unmigratedBuckets() < BULK_SIZE / 4) {
+            map.add(i, i);
+            i++;
+        }
+        int pending = map.unmigratedBuckets();
+        Set<Integer> seen = new HashSet<Integer>();
+        for (Map.Pair<Integer, Integer> p : map) {
+            int key = p.key();
+            assertEquals(Integer.valueOf(key + 1),
+                    map.compute(key, (k, v) -> v + 1));
+            assertEquals(Integer.valueOf(key + 2),
+                    map.merge(key, 1, Integer::sum));
+            assertTrue(!map.addIfAbsent(key, 0));
+            assertTrue(seen.add(key));
+        }
+        assertEquals(i, seen.size());
+        assertEquals(pending, map.unmigratedBuckets());
+        for (int k = 0; k < i; k++) {
+            assertEquals(Integer.valueOf(k + 2), map.value(k));
+        }
+        assertTrue(map.addIfAbsent(-1, -1));
+        assertTrue(map.unmigratedBuckets() < pending);
+    }
+
+    /**
+     * Test that during a rehash the statistics count the unmigrated old
+     * buckets in the table size as well as in the histogram.
+     */
+    @Test
+    public final void statisticsDuringMigration() {
+        Map4<Integer, Integer> map = new Map4<Integer, Integer>(
+                TEST_HASH_TABLE_SIZE, TEST_LOAD_FACTOR, true,
+                Map4.RehashMode.INCREMENTAL);
+        int i = 0;
+        while (map.unmigratedBuckets() < BULK_SIZE / 4) {
+            map.add(i, i);
+            i++;
+        }
+        Map4Statistics stats = map.statistics();
+        int buckets = map.tableSize() + map.unmigratedBuckets();
+        assertEquals(buckets, stats.tableSize());
+        assertEquals((double) i / buckets, stats.loadFactor(), 0);
+        long counted = 0;
+        long pairs = 0;
+        long[] histogram = stats.bucketLengthHistogram();
+        for (int length = 0; length < histogram.length; length++) {
+            counted += histogram[length];
+            pairs += length * histogram[length];
+        }
+        assertEquals(buckets, counted);
+        assertEquals(i, pairs);
+    }
+
+    /**
+     * Test of removeAny and drainTo interleaved with adds during an
+     * incremental rehash.
+     */
+    @Test
+    public final void drainDuringIncrementalRehash() {
+        Map4<Integer, Integer> map = new Map4<Integer, Integer>(
+                TEST_HASH_TABLE_SIZE, TEST_LOAD_FACTOR, true,
+                Map4.RehashMode.INCREMENTAL);
+        Set<Integer> expected = new HashSet<Integer>();
+        for (int i = 0; i < BULK_SIZE; i++) {
+            map.add(i, i);
+            expected.add(i);
+            if (i % 3 == 0) {
+                assertTrue(expected.remove(map.removeAny().key()));
+            }
+            if (i % 1000 == 999) {
+                map.drainTo(p -> assertTrue(expected.remove(p.key())), 100);
+            }
+        }
+        assertEquals(expected.size(), map.size());
+        while (map.size() > 0) {
+            assertTrue(expected.remove(map.removeAny().key()));
+        }
+        assertTrue(expected.isEmpty());
+    }
+
+}
@@ -0,0 +1,57 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import components.map.Map;
+import components.map.Map1L;
+
+/**
+ * Customized JUnit test fixture for {@code Map4} using a power-of-two hash
+ * table size, so masked indexing of mixed hash codes.
+ */
+public class Map4TestPowerOfTwo extends MapTest {
+
+    /**
+     * Size of hash table to be used in tests.
+     */
+    private static final int TEST_HASH_TABLE_SIZE = 1024;
+
+    /**
+     * Number of entries used by the bulk tests.
+     */
+    private static final int BULK_SIZE = 10000;
+
+    @Override
+    protected final Map<String, String> constructorTest() {
+        return new Map4<String, String>(TEST_HASH_TABLE_SIZE);
+    }
+
+    @Override
+    protected final Map<String, String> constructorRef() {
+        return new Map1L<String, String>();
+    }
+
+    /**
+     * Test with keys whose hash codes agree in all of their low bits.
+     */
+    @Test
+    public final void keysSharingLowBits() {
+        Map<Integer, Integer> map = new Map4<Integer, Integer>(
+                TEST_HASH_TABLE_SIZE);
+        for (int i = 0; i < BULK_SIZE; i++) {
+            map.add(i * TEST_HASH_TABLE_SIZE, i);
+        }
+        assertEquals(BULK_SIZE, map.size());
+        for (int i = 0; i < BULK_SIZE; i++) {
+            assertEquals(Integer.valueOf(i),
+                    map.value(i * TEST_HASH_TABLE_SIZE));
+            assertTrue(!map.hasKey(i * TEST_HASH_TABLE_SIZE + 1));
+        }
+        for (int i = 0; i < BULK_SIZE; i++) {
+            map.remove(i * TEST_HASH_TABLE_SIZE);
+        }
+        assertEquals(0, map.size());
+    }
+
+}
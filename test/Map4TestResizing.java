@@ -0,0 +1,82 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import components.map.Map;
+import components.map.Map1L;
+
+/**
+ * Customized JUnit test fixture for {@code Map4} starting from three buckets
+ * (so reducing hash codes with {@code mod}) that grows and shrinks as entries
+ * come and go.
+ */
+public class Map4TestResizing extends MapTest {
+
+    /**
+     * Initial size of hash table to be used in tests.
+     */
+    private static final int TEST_HASH_TABLE_SIZE = 3;
+
+    /**
+     * Load factor to be used in tests.
+     */
+    private static final double TEST_LOAD_FACTOR = 0.75;
+
+    /**
+     * Number of entries used by the bulk tests.
+     */
+    private static final int BULK_SIZE = 10000;
+
+    @Override
+    protected final Map<String, String> constructorTest() {
+        return new Map4<String, String>(TEST_HASH_TABLE_SIZE, TEST_LOAD_FACTOR,
+                true);
+    }
+
+    @Override
+    protected final Map<String, String> constructorRef() {
+        return new Map1L<String, String>();
+    }
+
+    /**
+     * Test for growing through many rehashes and shrinking back with remove.
+     */
+    @Test
+    public final void growAndShrinkWithRemove() {
+        Map<String, String> map = this.constructorTest();
+        for (int i = 0; i < BULK_SIZE; i++) {
+            map.add("k" + i, "v" + i);
+        }
+        assertEquals(BULK_SIZE, map.size());
+        for (int i = 0; i < BULK_SIZE; i++) {
+            assertEquals("v" + i, map.value("k" + i));
+        }
+        for (int i = 0; i < BULK_SIZE; i++) {
+            Map.Pair<String, String> p = map.remove("k" + i);
+            assertEquals("k" + i, p.key());
+            assertTrue(!map.hasKey("k" + i));
+        }
+        assertEquals(0, map.size());
+    }
+
+    /**
+     * Test for growing through many rehashes and shrinking back with
+     * removeAny.
+     */
+    @Test
+    public final void growAndShrinkWithRemoveAny() {
+        Map<String, String> map = this.constructorTest();
+        for (int i = 0; i < BULK_SIZE; i++) {
+            map.add("k" + i, "v" + i);
+        }
+        int removed = 0;
+        while (map.size() > 0) {
+            Map.Pair<String, String> p = map.removeAny();
+            assertTrue(!map.hasKey(p.key()));
+            removed++;
+        }
+        assertEquals(BULK_SIZE, removed);
+    }
+
+}
@@ -0,0 +1,242 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Iterator;
+
+import org.junit.Test;
+
+import components.map.Map;
+import components.map.Map1L;
+
+/**
+ * Customized JUnit test fixture for {@code Map4} using a single bucket that
+ * never grows, so every test with enough keys runs against a treeified
+ * bucket, plus tests with colliding hash codes.
+ */
+public class Map4TestTreeified extends MapTest {
+
+    /**
+     * Load factor high enough that the single bucket never grows.
+     */
+    private static final double NEVER_GROW = 1e9;
+
+    /**
+     * Number of colliding keys used by the bulk tests.
+     */
+    private static final int BULK_SIZE = 4096;
+
+    /**
+     * Number of {@code equals} calls allowed per lookup among
+     * {@code BULK_SIZE} colliding {@code Comparable} keys: a few times the
+     * height of a balanced tree, far below a linear scan.
+     */
+    private static final int EQUALS_PER_LOOKUP = 30;
+
+    @Override
+    protected final Map<String, String> constructorTest() {
+        return new Map4<String, String>(1, NEVER_GROW);
+    }
+
+    @Override
+    protected final Map<String, String> constructorRef() {
+        return new Map1L<String, String>();
+    }
+
+    /**
+     * Key whose hash code is the same for every instance and which counts the
+     * calls to {@code equals}.
+     */
+    private static class CollidingKey {
+
+        /**
+         * Number of calls to {@code equals} on any instance.
+         */
+        private static int equalsCalls = 0;
+
+        /**
+         * Distinguishing value.
+         */
+        protected final int id;
+
+        /**
+         * Constructor.
+         *
+         * @param id
+         *            distinguishing value
+         */
+        CollidingKey(int id) {
+            this.id = id;
+        }
+
+        @Override
+        public final int hashCode() {
+            return 42;
+        }
+
+        @Override
+        public final boolean equals(Object obj) {
+            equalsCalls++;
+            return obj instanceof CollidingKey
+                    && ((CollidingKey) obj).id == this.id;
+        }
+
+    }
+
+    /**
+     * Colliding key that is also {@code Comparable}.
+     */
+    private static final class ComparableCollidingKey extends CollidingKey
+            implements Comparable<ComparableCollidingKey> {
+
+        /**
+         * Constructor.
+         *
+         * @param id
+         *            distinguishing value
+         */
+        ComparableCollidingKey(int id) {
+            super(id);
+        }
+
+        @Override
+        public int compareTo(ComparableCollidingKey other) {
+            return Integer.compare(this.id, other.id);
+        }
+
+    }
+
+    /**
+     * Test that lookups among colliding {@code Comparable} keys stay
+     * logarithmic, and that removal keeps the bucket consistent.
+     */
+    @Test
+    public final void collidingComparableKeys() {
+        Map<CollidingKey, Integer> map = new Map4<CollidingKey, Integer>();
+        for (int i = 0; i < BULK_SIZE; i++) {
+            map.add(new ComparableCollidingKey(i), i);
+        }
+        CollidingKey.equalsCalls = 0;
+        for (int i = 0; i < BULK_SIZE; i++) {
+            assertEquals(Integer.valueOf(i),
+                    map.value(new ComparableCollidingKey(i)));
+        }
+        assertTrue(CollidingKey.equalsCalls < BULK_SIZE * EQUALS_PER_LOOKUP);
+        CollidingKey.equalsCalls = 0;
+        assertTrue(!map.hasKey(new ComparableCollidingKey(-1)));
+        assertTrue(CollidingKey.equalsCalls < EQUALS_PER_LOOKUP);
+        for (int i = 0; i < BULK_SIZE; i += 2) {
+            assertEquals(Integer.valueOf(i),
+                    map.remove(new ComparableCollidingKey(i)).value());
+        }
+        assertEquals(BULK_SIZE / 2, map.size());
+        for (int i = 0; i < BULK_SIZE; i++) {
+            assertEquals(i % 2 == 1, map.hasKey(new ComparableCollidingKey(i)));
+        }
+        int sum = 0;
+        while (map.size() > 0) {
+            Map.Pair<CollidingKey, Integer> p = map.removeAny();
+            assertEquals(p.key().id, p.value().intValue());
+            sum += p.value();
+        }
+        assertEquals(BULK_SIZE * BULK_SIZE / 4, sum);
+    }
+
+    /**
+     * Test that colliding keys that are not {@code Comparable} are still
+     * found and removed correctly.
+     */
+    @Test
+    public final void collidingIncomparableKeys() {
+        final int count = 500;
+        Map<CollidingKey, Integer> map = new Map4<CollidingKey, Integer>();
+        for (int i = 0; i < count; i++) {
+            map.add(new CollidingKey(i), i);
+        }
+        for (int i = 0; i < count; i += 3) {
+            map.remove(new CollidingKey(i));
+        }
+        for (int i = 0; i < count; i++) {
+            assertEquals(i % 3 != 0, map.hasKey(new CollidingKey(i)));
+        }
+        int seen = 0;
+        for (Map.Pair<CollidingKey, Integer> p : map) {
+            assertEquals(p.key().id, p.value().intValue());
+            seen++;
+        }
+        assertEquals(map.size(), seen);
+    }
+
+    /**
+     * Test that a bucket builds its tree once it is long and drops it once it
+     * is short again.
+     */
+    @Test
+    public final void treeBuiltAndDropped() {
+        final int longChain = 20;
+        final int shortChain = 6;
+        Map4<CollidingKey, Integer> map = new Map4<CollidingKey, Integer>();
+        for (int i = 0; i < longChain; i++) {
+            map.add(new ComparableCollidingKey(i), i);
+        }
+        assertEquals(1, map.treeifiedBuckets());
+        for (int i = shortChain; i < longChain; i++) {
+            map.remove(new ComparableCollidingKey(i));
+        }
+        assertEquals(0, map.treeifiedBuckets());
+        for (int i = 0; i < shortChain; i++) {
+            assertEquals(Integer.valueOf(i),
+                    map.value(new ComparableCollidingKey(i)));
+        }
+    }
+
+    /**
+     * Test of the iterator's remove in a treeified bucket.
+     */
+    @Test
+    public final void iteratorRemoveInTree() {
+        Map<CollidingKey, Integer> map = new Map4<CollidingKey, Integer>();
+        for (int i = 0; i < BULK_SIZE; i++) {
+            map.add(new ComparableCollidingKey(i), i);
+        }
+        Iterator<Map.Pair<CollidingKey, Integer>> it = map.iterator();
+        while (it.hasNext()) {
+            if (it.next().value() % 2 == 0) {
+                it.remove();
+            }
+        }
+        assertEquals(BULK_SIZE / 2, map.size());
+        for (int i = 0; i < BULK_SIZE; i++) {
+            assertEquals(i % 2 == 1, map.hasKey(new ComparableCollidingKey(i)));
+        }
+    }
+
+    /**
+     * Test that the statistics show a single long treeified chain, and that
+     * probe counting counts exactly the calls to equals.
+     */
+    @Test
+    public final void statisticsOfCollidingKeys() {
+        Map4<CollidingKey, Integer> map = new Map4<CollidingKey, Integer>(1,
+                NEVER_GROW);
+        for (int i = 0; i < BULK_SIZE; i++) {
+            map.add(new ComparableCollidingKey(i), i);
+        }
+        map.setProbeCounting(true);
+        CollidingKey.equalsCalls = 0;
+        for (int i = 0; i < BULK_SIZE; i++) {
+            assertTrue(map.hasKey(new ComparableCollidingKey(i)));
+        }
+        Map4Statistics stats = map.statistics();
+        assertEquals(1, stats.tableSize());
+        assertEquals(0, stats.emptyBuckets());
+        assertEquals(BULK_SIZE, stats.maxChainLength());
+        long[] histogram = stats.bucketLengthHistogram();
+        assertEquals(1, histogram[histogram.length - 1]);
+        assertEquals(1, stats.treeifiedBuckets());
+        assertEquals(BULK_SIZE, stats.lookups());
+        assertEquals(CollidingKey.equalsCalls, stats.comparisons());
+        assertTrue(stats.comparisonsPerLookup() >= 1);
+        assertTrue(stats.comparisonsPerLookup() < EQUALS_PER_LOOKUP);
+    }
+
+}
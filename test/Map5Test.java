@@ -0,0 +1,153 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import components.map.Map;
+import components.map.Map1L;
+
+/**
+ * Customized JUnit test fixture for {@code Map5} using default constructor.
+ */
+public class Map5Test extends MapTest {
+
+    /**
+     * Number of entries used by the bulk tests.
+     */
+    private static final int BULK_SIZE = 10000;
+
+    /**
+     * Number of distinct hash codes shared by the colliding keys.
+     */
+    private static final int DISTINCT_HASHES = 7;
+
+    /**
+     * Number of low zero bits shared by the patterned keys.
+     */
+    private static final int PATTERN_SHIFT = 10;
+
+    /**
+     * Probe distance no key may reach among well-mixed keys.
+     */
+    private static final int SHORT_PROBE = 64;
+
+    /**
+     * Key whose hash code collides with many other keys.
+     */
+    private static final class CollidingKey {
+
+        /**
+         * Wrapped key.
+         */
+        private final int id;
+
+        /**
+         * Constructor.
+         *
+         * @param id
+         *            wrapped key
+         */
+        CollidingKey(int id) {
+            this.id = id;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            return obj instanceof CollidingKey
+                    && ((CollidingKey) obj).id == this.id;
+        }
+
+        @Override
+        public int hashCode() {
+            return this.id % DISTINCT_HASHES;
+        }
+
+    }
+
+    @Override
+    protected final Map<String, String> constructorTest() {
+        return new Map5<String, String>();
+    }
+
+    @Override
+    protected final Map<String, String> constructorRef() {
+        return new Map1L<String, String>();
+    }
+
+    /**
+     * Test that backward-shift deletion keeps long probe runs reachable.
+     */
+    @Test
+    public final void removeFromCollidingRuns() {
+        Map<CollidingKey, Integer> map = new Map5<CollidingKey, Integer>();
+        final int n = 500;
+        for (int i = 0; i < n; i++) {
+            map.add(new CollidingKey(i), i);
+        }
+        for (int i = 0; i < n; i += 2) {
+            assertEquals(Integer.valueOf(i),
+                    map.remove(new CollidingKey(i)).value());
+        }
+        for (int i = 0; i < n; i++) {
+            assertEquals(i % 2 == 1, map.hasKey(new CollidingKey(i)));
+        }
+        assertEquals(n / 2, map.size());
+    }
+
+    /**
+     * Test that keys whose hash codes differ only in their high bits, such as
+     * {@code Integer}s with a common suffix of zero bits, do not form long
+     * probe runs.
+     */
+    @Test
+    public final void patternedKeysStayShort() {
+        Map5<Integer, Integer> map = new Map5<Integer, Integer>();
+        for (int i = 0; i < BULK_SIZE; i++) {
+            map.add(i << PATTERN_SHIFT, i);
+        }
+        assertTrue(map.longestProbe() < SHORT_PROBE);
+    }
+
+    /**
+     * Test that removed and iterated pairs are values: equal by key and
+     * value, and unaffected by later updates.
+     */
+    @Test
+    public final void pairsAreValues() {
+        Map<String, String> map = new Map5<String, String>();
+        map.add("a", "1");
+        Map.Pair<String, String> seen = map.iterator().next();
+        Map.Pair<String, String> removed = map.remove("a");
+        map.add("a", "2");
+        assertEquals("1", seen.value());
+        assertEquals("1", removed.value());
+        assertEquals(seen, removed);
+        Map.Pair<String, String> expected = new SimplePair<String, String>(
+                "a", "1");
+        assertEquals(expected, removed);
+        assertEquals(expected.hashCode(), removed.hashCode());
+        assertEquals("(a,1)", removed.toString());
+    }
+
+    /**
+     * Test for growing and draining with removeAny.
+     */
+    @Test
+    public final void growAndDrain() {
+        Map<String, String> map = new Map5<String, String>(1);
+        for (int i = 0; i < BULK_SIZE; i++) {
+            map.add("k" + i, "v" + i);
+        }
+        int seen = 0;
+        for (Map.Pair<String, String> p : map) {
+            assertEquals("v" + p.key().substring(1), p.value());
+            seen++;
+        }
+        assertEquals(BULK_SIZE, seen);
+        while (map.size() > 0) {
+            Map.Pair<String, String> p = map.removeAny();
+            assertTrue(!map.hasKey(p.key()));
+        }
+    }
+
+}
@@ -0,0 +1,188 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * JUnit test fixture for {@code OffHeapMap4} with 8-byte keys and values,
+ * checked against {@code java.util.HashMap<Long, Long>}.
+ */
+public class OffHeapMap4Test {
+
+    /**
+     * Width of keys and values.
+     */
+    private static final int WIDTH = Long.BYTES;
+
+    /**
+     * Number of random operations in the cross-check.
+     */
+    private static final int OPERATIONS = 50000;
+
+    /**
+     * Range of the random keys, small enough to force repeats.
+     */
+    private static final int KEY_RANGE = 3000;
+
+    /**
+     * Seed for the random operations.
+     */
+    private static final long SEED = 7L;
+
+    /**
+     * Number of threads reading at once.
+     */
+    private static final int READERS = 4;
+
+    /**
+     * Number of passes each reader makes over the keys.
+     */
+    private static final int READ_ROUNDS = 20;
+
+    /**
+     * Encodes {@code x} as a key or value.
+     *
+     * @param x
+     *            the number
+     * @return its 8-byte big-endian encoding
+     */
+    private static byte[] bytes(long x) {
+        return ByteBuffer.allocate(WIDTH).putLong(0, x).array();
+    }
+
+    /**
+     * Decodes a key or value.
+     *
+     * @param b
+     *            8-byte big-endian encoding
+     * @return the number
+     */
+    private static long number(byte[] b) {
+        return ByteBuffer.wrap(b).getLong(0);
+    }
+
+    /**
+     * Test for add, value, hasKey and remove.
+     */
+    @Test
+    public final void addValueRemove() {
+        try (OffHeapMap4 map = new OffHeapMap4(WIDTH, WIDTH)) {
+            map.add(bytes(1), bytes(10));
+            map.add(bytes(2), bytes(20));
+            assertEquals(2, map.size());
+            assertEquals(10, number(map.value(bytes(1))));
+            assertTrue(map.hasKey(bytes(2)));
+            assertFalse(map.hasKey(bytes(3)));
+            assertEquals(20, number(map.remove(bytes(2))));
+            assertFalse(map.hasKey(bytes(2)));
+            assertEquals(1, map.size());
+        }
+    }
+
+    /**
+     * Test for growing, the cursor and draining with removeAny.
+     */
+    @Test
+    public final void growCursorAndDrain() {
+        try (OffHeapMap4 map = new OffHeapMap4(WIDTH, WIDTH)) {
+            for (int i = 0; i < KEY_RANGE; i++) {
+                map.add(bytes(i), bytes(2L * i));
+            }
+            assertTrue(map.offHeapBytes() >= (long) KEY_RANGE * 2 * WIDTH);
+            byte[] key = new byte[WIDTH];
+            byte[] value = new byte[WIDTH];
+            OffHeapMap4.Cursor c = map.cursor();
+            int count = 0;
+            while (c.advance()) {
+                c.key(key);
+                c.value(value);
+                assertEquals(2 * number(key), number(value));
+                count++;
+            }
+            assertEquals(KEY_RANGE, count);
+            boolean[] seen = new boolean[KEY_RANGE];
+            while (map.size() > 0) {
+                int k = (int) number(map.removeAny());
+                assertFalse(seen[k]);
+                seen[k] = true;
+            }
+        }
+    }
+
+    /**
+     * Test for several threads reading one map at once; reads must not share
+     * the position of a page.
+     *
+     * @throws InterruptedException
+     *             if interrupted while waiting
+     */
+    @Test
+    public final void concurrentReaders() throws InterruptedException {
+        try (final OffHeapMap4 map = new OffHeapMap4(WIDTH, WIDTH)) {
+            for (int i = 0; i < KEY_RANGE; i++) {
+                map.add(bytes(i), bytes(2L * i));
+            }
+            final List<Throwable> failures = new ArrayList<Throwable>();
+            List<Thread> threads = new ArrayList<Thread>();
+            for (int t = 0; t < READERS; t++) {
+                Thread thread = new Thread(() -> {
+                    try {
+                        byte[] value = new byte[WIDTH];
+                        for (int round = 0; round < READ_ROUNDS; round++) {
+                            for (int i = 0; i < KEY_RANGE; i++) {
+                                map.value(bytes(i), value);
+                                assertEquals(2L * i, number(value));
+                            }
+                        }
+                    } catch (Throwable e) {
+                        synchronized (failures) {
+                            failures.add(e);
+                        }
+                    }
+                });
+                threads.add(thread);
+                thread.start();
+            }
+            for (Thread thread : threads) {
+                thread.join();
+            }
+            assertTrue(failures.toString(), failures.isEmpty());
+        }
+    }
+
+    /**
+     * Randomized cross-check against {@code java.util.HashMap}.
+     */
+    @Test
+    public final void randomAgainstHashMap() {
+        Random rnd = new Random(SEED);
+        HashMap<Long, Long> ref = new HashMap<>();
+        try (OffHeapMap4 map = new OffHeapMap4(WIDTH, WIDTH)) {
+            for (int op = 0; op < OPERATIONS; op++) {
+                long k = rnd.nextInt(KEY_RANGE);
+                byte[] key = bytes(k);
+                assertEquals(ref.containsKey(k), map.hasKey(key));
+                if (ref.containsKey(k)) {
+                    assertEquals(ref.get(k).longValue(),
+                            number(map.value(key)));
+                    if (rnd.nextBoolean()) {
+                        assertEquals(ref.remove(k).longValue(),
+                                number(map.remove(key)));
+                    }
+                } else {
+                    ref.put(k, (long) op);
+                    map.add(key, bytes(op));
+                }
+                assertEquals(ref.size(), map.size());
+            }
+        }
+    }
+
+}
@@ -0,0 +1,54 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * JUnit test fixture for {@code OpenAddressing}.
+ */
+public class OpenAddressingTest {
+
+    /**
+     * Test of capacityFor at and beyond the limits.
+     */
+    @Test
+    public final void capacityForClamps() {
+        assertEquals(OpenAddressing.MINIMUM_CAPACITY,
+                OpenAddressing.capacityFor(0));
+        assertEquals(64, OpenAddressing.capacityFor(33));
+        assertEquals(OpenAddressing.MAXIMUM_CAPACITY,
+                OpenAddressing.capacityFor(2L * Integer.MAX_VALUE));
+    }
+
+    /**
+     * Test of grownCapacity doubling below the limit.
+     */
+    @Test
+    public final void grownCapacityDoubles() {
+        assertEquals(32, OpenAddressing.grownCapacity(16));
+        assertEquals(OpenAddressing.MAXIMUM_CAPACITY,
+                OpenAddressing.grownCapacity(
+                        OpenAddressing.MAXIMUM_CAPACITY / 2));
+    }
+
+    /**
+     * Test of grownCapacity failing instead of overflowing at the limit.
+     */
+    @Test(expected = IllegalStateException.class)
+    public final void grownCapacityFailsAtMaximum() {
+        OpenAddressing.grownCapacity(OpenAddressing.MAXIMUM_CAPACITY);
+    }
+
+    /**
+     * Test of mustStay with and without wrap-around.
+     */
+    @Test
+    public final void mustStayCyclic() {
+        assertTrue(OpenAddressing.mustStay(2, 5, 3));
+        assertFalse(OpenAddressing.mustStay(2, 5, 2));
+        assertTrue(OpenAddressing.mustStay(6, 1, 0));
+        assertFalse(OpenAddressing.mustStay(6, 1, 4));
+    }
+
+}
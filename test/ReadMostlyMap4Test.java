@@ -0,0 +1,274 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.Test;
+
+import components.map.Map;
+import components.map.Map1L;
+
+/**
+ * Customized JUnit test fixture for {@code ReadMostlyMap4} using default
+ * constructor, plus multi-threaded tests.
+ */
+public class ReadMostlyMap4Test extends MapTest {
+
+    /**
+     * Number of reader threads.
+     */
+    private static final int READERS = 4;
+
+    /**
+     * Number of keys present throughout the test.
+     */
+    private static final int STABLE_KEYS = 1000;
+
+    /**
+     * Number of keys the writer adds and removes again.
+     */
+    private static final int CHURN_KEYS = 50000;
+
+    /**
+     * Number of times the replacing thread replaces every stable value.
+     */
+    private static final int REPLACE_ROUNDS = 50;
+
+    @Override
+    protected final Map<String, String> constructorTest() {
+        return new ReadMostlyMap4<String, String>();
+    }
+
+    @Override
+    protected final Map<String, String> constructorRef() {
+        return new Map1L<String, String>();
+    }
+
+    /**
+     * Test that lock-free readers and iterators always see the stable keys
+     * with their values while a writer grows the table and churns other keys.
+     *
+     * @throws InterruptedException
+     *             if interrupted while waiting
+     */
+    @Test
+    public final void readersDuringWrites() throws InterruptedException {
+        final ReadMostlyMap4<Integer, Integer> map = new ReadMostlyMap4<>(4);
+        for (int i = 0; i < STABLE_KEYS; i++) {
+            map.add(i, -i);
+        }
+        final AtomicBoolean done = new AtomicBoolean(false);
+        final List<Throwable> failures = new ArrayList<Throwable>();
+        List<Thread> readers = new ArrayList<Thread>();
+        for (int r = 0; r < READERS; r++) {
+            Thread reader = new Thread(() -> {
+                try {
+                    int round = 0;
+                    while (!done.get()) {
+                        for (int i = 0; i < STABLE_KEYS; i++) {
+                            assertEquals(Integer.valueOf(-i), map.value(i));
+                        }
+                        if (round % 8 == 0) {
+                            int stableSeen = 0;
+                            for (Map.Pair<Integer, Integer> p : map) {
+                                assertEquals(-p.key(), p.value().intValue());
+                                if (p.key() < STABLE_KEYS) {
+                                    stableSeen++;
+                                }
+                            }
+                            assertEquals(STABLE_KEYS, stableSeen);
+                        }
+                        round++;
+                    }
+                } catch (Throwable e) {
+                    synchronized (failures) {
+                        failures.add(e);
+                    }
+                }
+            });
+            readers.add(reader);
+            reader.start();
+        }
+        for (int i = STABLE_KEYS; i < STABLE_KEYS + CHURN_KEYS; i++) {
+            map.add(i, -i);
+        }
+        for (int i = STABLE_KEYS; i < STABLE_KEYS + CHURN_KEYS; i++) {
+            map.remove(i);
+        }
+        done.set(true);
+        for (Thread reader : readers) {
+            reader.join();
+        }
+        assertTrue(failures.toString(), failures.isEmpty());
+        assertEquals(STABLE_KEYS, map.size());
+    }
+
+    /**
+     * Test for concurrent writers of disjoint keys, which contend for stripe
+     * locks and for growing the table.
+     *
+     * @throws InterruptedException
+     *             if interrupted while waiting
+     */
+    @Test
+    public final void concurrentWriters() throws InterruptedException {
+        final int threads = 4;
+        final int perThread = 20000;
+        final ReadMostlyMap4<Integer, Integer> map = new ReadMostlyMap4<>(2);
+        final List<Throwable> failures = new ArrayList<Throwable>();
+        List<Thread> writers = new ArrayList<Thread>();
+        for (int t = 0; t < threads; t++) {
+            final int base = t * perThread;
+            Thread writer = new Thread(() -> {
+                try {
+                    for (int i = base; i < base + perThread; i++) {
+                        map.add(i, -i);
+                    }
+                    for (int i = base; i < base + perThread; i += 2) {
+                        assertEquals(Integer.valueOf(-i), map.remove(i)
+                                .value());
+                    }
+                } catch (Throwable e) {
+                    synchronized (failures) {
+                        failures.add(e);
+                    }
+                }
+            });
+            writers.add(writer);
+            writer.start();
+        }
+        for (Thread writer : writers) {
+            writer.join();
+        }
+        assertTrue(failures.toString(), failures.isEmpty());
+        assertEquals(threads * perThread / 2, map.size());
+        for (int i = 0; i < threads * perThread; i++) {
+            assertEquals(i % 2 == 1, map.hasKey(i));
+        }
+        while (map.size() > 0) {
+            assertTrue(map.removeAny().key() % 2 == 1);
+        }
+    }
+
+    /**
+     * Test that lock-free readers never find a key missing while a writer
+     * replaces its value.
+     *
+     * @throws InterruptedException
+     *             if interrupted while waiting
+     */
+    @Test
+    public final void readersDuringReplaceValue() throws InterruptedException {
+        final ReadMostlyMap4<Integer, Integer> map = new ReadMostlyMap4<>(4);
+        for (int i = 0; i < STABLE_KEYS; i++) {
+            map.add(i, i);
+        }
+        final AtomicBoolean done = new AtomicBoolean(false);
+        final List<Throwable> failures = new ArrayList<Throwable>();
+        List<Thread> readers = new ArrayList<Thread>();
+        for (int r = 0; r < READERS; r++) {
+            Thread reader = new Thread(() -> {
+                try {
+                    while (!done.get()) {
+                        for (int i = 0; i < STABLE_KEYS; i++) {
+                            assertTrue(map.hasKey(i));
+                            int value = map.value(i);
+                            assertEquals(0, (value - i) % STABLE_KEYS);
+                        }
+                    }
+                } catch (Throwable e) {
+                    synchronized (failures) {
+                        failures.add(e);
+                    }
+                }
+            });
+            readers.add(reader);
+            reader.start();
+        }
+        for (int round = 1; round <= REPLACE_ROUNDS; round++) {
+            for (int i = 0; i < STABLE_KEYS; i++) {
+                int old = map.replaceValue(i, i + STABLE_KEYS * round);
+                assertEquals(i + STABLE_KEYS * (round - 1), old);
+            }
+        }
+        done.set(true);
+        for (Thread reader : readers) {
+            reader.join();
+        }
+        assertTrue(failures.toString(), failures.isEmpty());
+        assertEquals(STABLE_KEYS, map.size());
+    }
+
+    /**
+     * Test for transferFrom between maps with different numbers of stripes,
+     * and for clear keeping the map usable.
+     */
+    @Test
+    public final void transferFromOtherStripeCount() {
+        ReadMostlyMap4<Integer, Integer> source = new ReadMostlyMap4<>(4);
+        for (int key = 0; key < STABLE_KEYS; key++) {
+            source.add(key, -key);
+        }
+        ReadMostlyMap4<Integer, Integer> map = new ReadMostlyMap4<>();
+        map.add(-1, 1);
+        map.transferFrom(source);
+        assertEquals(0, source.size());
+        assertEquals(STABLE_KEYS, map.size());
+        for (int key = 0; key < STABLE_KEYS; key++) {
+            assertEquals(Integer.valueOf(-key), map.value(key));
+        }
+        source.transferFrom(map);
+        assertEquals(STABLE_KEYS, source.size());
+        map.clear();
+        assertEquals(0, map.size());
+        map.add(1, 1);
+        assertEquals(1, map.size());
+    }
+
+    /**
+     * Test that the size always matches the pairs present once writers and a
+     * thread clearing the map stop.
+     *
+     * @throws InterruptedException
+     *             if interrupted while waiting
+     */
+    @Test
+    public final void writersDuringClear() throws InterruptedException {
+        final int writers = 4;
+        final int clears = 200;
+        ReadMostlyMap4<Integer, Integer> map = new ReadMostlyMap4<>(2);
+        List<Throwable> failures = new ArrayList<Throwable>();
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int w = 0; w < writers; w++) {
+            final int first = w * CHURN_KEYS;
+            Thread writer = new Thread(() -> {
+                try {
+                    for (int i = first; i < first + CHURN_KEYS; i++) {
+                        map.add(i, i);
+                    }
+                } catch (Throwable e) {
+                    synchronized (failures) {
+                        failures.add(e);
+                    }
+                }
+            });
+            threads.add(writer);
+            writer.start();
+        }
+        for (int c = 0; c < clears; c++) {
+            map.clear();
+        }
+        for (Thread writer : threads) {
+            writer.join();
+        }
+        assertTrue(failures.toString(), failures.isEmpty());
+        int present = 0;
+        for (Map.Pair<Integer, Integer> p : map) {
+            present++;
+        }
+        assertEquals(present, map.size());
+    }
+
+}